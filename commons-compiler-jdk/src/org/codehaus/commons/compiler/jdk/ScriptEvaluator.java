@@ -241,6 +241,12 @@ class ScriptEvaluator extends ClassBodyEvaluator implements IScriptEvaluator {
     @Override public Object
     evaluate(Object[] arguments) throws InvocationTargetException { return this.evaluate(0, arguments); }
 
+    @Override public double
+    evaluateDouble(double[] arguments) throws InvocationTargetException { return this.evaluateDouble(0, arguments); }
+
+    @Override public long
+    evaluateLong(long[] arguments) throws InvocationTargetException { return this.evaluateLong(0, arguments); }
+
     @Override public Method
     getMethod() { return this.getMethod(0); }
 
@@ -567,6 +573,28 @@ class ScriptEvaluator extends ClassBodyEvaluator implements IScriptEvaluator {
         }
     }
 
+    @Override public double
+    evaluateDouble(int idx, double[] arguments) throws InvocationTargetException {
+        if (this.result == null) throw new IllegalStateException("Must only be called after \"cook()\"");
+        Class[]  parameterTypes = this.result[idx].getParameterTypes();
+        Object[] args           = new Object[arguments.length];
+        for (int i = 0; i < Math.min(args.length, parameterTypes.length); ++i) {
+            args[i] = PrimitiveWrapper.wrap(parameterTypes[i], arguments[i]);
+        }
+        return PrimitiveWrapper.doubleValue(this.evaluate(idx, args));
+    }
+
+    @Override public long
+    evaluateLong(int idx, long[] arguments) throws InvocationTargetException {
+        if (this.result == null) throw new IllegalStateException("Must only be called after \"cook()\"");
+        Class[]  parameterTypes = this.result[idx].getParameterTypes();
+        Object[] args           = new Object[arguments.length];
+        for (int i = 0; i < Math.min(args.length, parameterTypes.length); ++i) {
+            args[i] = PrimitiveWrapper.wrap(parameterTypes[i], arguments[i]);
+        }
+        return PrimitiveWrapper.longValue(this.evaluate(idx, args));
+    }
+
     @Override public Method
     getMethod(int idx) {
         if (this.result == null) throw new IllegalStateException("Must only be called after \"cook()\"");
@@ -41,6 +41,13 @@ import java.util.*;
 @SuppressWarnings({ "rawtypes", "unchecked" }) public abstract
 class AbstractJavaSourceClassLoader extends ClassLoader {
 
+    static {
+
+        // Allow concurrent loading of different classes; subclasses must register themselves as well. Notice that
+        // "ClassLoader.registerAsParallelCapable()" registers its CALLER.
+        ClassLoader.registerAsParallelCapable();
+    }
+
     /** @see ClassLoader#defineClass(String, byte[], int, int, ProtectionDomain) */
     protected ProtectionDomainFactory optionalProtectionDomainFactory;
 
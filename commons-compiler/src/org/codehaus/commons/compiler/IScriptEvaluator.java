@@ -159,6 +159,27 @@ interface IScriptEvaluator extends IClassBodyEvaluator {
      */
     Object evaluate(Object[] arguments) throws InvocationTargetException;
 
+    /**
+     * Calls the script with primitive parameter values and returns its value as a {@code double}, without packing the
+     * arguments into an {@code Object[]} and without wrapping the result.
+     * <p>
+     * Each argument is converted to the respective parameter type as through a primitive cast, e.g. {@code (int)
+     * arguments[0]}; all parameters must therefore be of a numeric primitive type, of {@code char}, or (at the cost
+     * of wrapping) of a supertype of {@link Double}. The script's return type must be a numeric primitive type,
+     * {@code char}, or a {@link Number}.
+     * <p>
+     * This method is thread-safe.
+     *
+     * @param arguments                 The actual parameter values
+     * @throws IllegalArgumentException A parameter or the return type is not suitable for this method
+     */
+    double evaluateDouble(double[] arguments) throws InvocationTargetException;
+
+    /**
+     * Same as {@link #evaluateDouble(double[])}, but for {@code long} arguments and result.
+     */
+    long evaluateLong(long[] arguments) throws InvocationTargetException;
+
     /**
      * Returns the loaded {@link java.lang.reflect.Method}.
      * <p>
@@ -240,6 +261,16 @@ interface IScriptEvaluator extends IClassBodyEvaluator {
      */
     Object evaluate(int idx, Object[] arguments) throws InvocationTargetException;
 
+    /**
+     * Same as {@link #evaluateDouble(double[])}, but for multiple scripts.
+     */
+    double evaluateDouble(int idx, double[] arguments) throws InvocationTargetException;
+
+    /**
+     * Same as {@link #evaluateLong(long[])}, but for multiple scripts.
+     */
+    long evaluateLong(int idx, long[] arguments) throws InvocationTargetException;
+
     /**
      * Same as {@link #getMethod()}, but for multiple scripts.
      */
@@ -29,7 +29,7 @@ package org.codehaus.commons.compiler;
 /**
  * A helper class that wraps primitive values in their wrapper classes.
  */
-public final
+@SuppressWarnings({ "rawtypes", "unchecked" }) public final
 class PrimitiveWrapper {
 
     private PrimitiveWrapper() {}
@@ -45,4 +45,62 @@ class PrimitiveWrapper {
     public static Double    wrap(double  v) { return new Double(v);    }
     public static Object    wrap(Object  v) { return v;                }
     // CHECKSTYLE JavadocMethod:ON
+
+    /**
+     * @return The <var>v</var>, converted to the given <var>type</var> as through a primitive cast, and wrapped
+     * @throws IllegalArgumentException <var>type</var> is neither a numeric primitive type, nor {@code char}, nor a
+     *                                  supertype of {@link Double}
+     */
+    public static Object
+    wrap(Class type, double v) {
+        if (type == double.class) return new Double(v);
+        if (type == float.class)  return new Float((float) v);
+        if (type == long.class)   return new Long((long) v);
+        if (type == int.class)    return new Integer((int) v);
+        if (type == short.class)  return new Short((short) v);
+        if (type == byte.class)   return new Byte((byte) v);
+        if (type == char.class)   return new Character((char) v);
+        if (type.isAssignableFrom(Double.class)) return new Double(v);
+        throw new IllegalArgumentException("Cannot convert \"double\" to \"" + type.getName() + "\"");
+    }
+
+    /**
+     * @return The <var>v</var>, converted to the given <var>type</var> as through a primitive cast, and wrapped
+     * @throws IllegalArgumentException <var>type</var> is neither a numeric primitive type, nor {@code char}, nor a
+     *                                  supertype of {@link Long}
+     */
+    public static Object
+    wrap(Class type, long v) {
+        if (type == long.class)   return new Long(v);
+        if (type == double.class) return new Double(v);
+        if (type == float.class)  return new Float(v);
+        if (type == int.class)    return new Integer((int) v);
+        if (type == short.class)  return new Short((short) v);
+        if (type == byte.class)   return new Byte((byte) v);
+        if (type == char.class)   return new Character((char) v);
+        if (type.isAssignableFrom(Long.class)) return new Long(v);
+        throw new IllegalArgumentException("Cannot convert \"long\" to \"" + type.getName() + "\"");
+    }
+
+    /**
+     * @return The numeric value of the given {@link Number} or {@link Character}, as a {@code double}
+     * @throws IllegalArgumentException <var>o</var> is neither a {@link Number} nor a {@link Character}
+     */
+    public static double
+    doubleValue(Object o) {
+        if (o instanceof Number)    return ((Number) o).doubleValue();
+        if (o instanceof Character) return ((Character) o).charValue();
+        throw new IllegalArgumentException("Cannot convert \"" + o + "\" to \"double\"");
+    }
+
+    /**
+     * @return The numeric value of the given {@link Number} or {@link Character}, as a {@code long}
+     * @throws IllegalArgumentException <var>o</var> is neither a {@link Number} nor a {@link Character}
+     */
+    public static long
+    longValue(Object o) {
+        if (o instanceof Number)    return ((Number) o).longValue();
+        if (o instanceof Character) return ((Character) o).charValue();
+        throw new IllegalArgumentException("Cannot convert \"" + o + "\" to \"long\"");
+    }
 }
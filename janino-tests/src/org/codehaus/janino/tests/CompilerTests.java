@@ -27,32 +27,52 @@
 package org.codehaus.janino.tests;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 import org.codehaus.commons.compiler.CompileException;
 import org.codehaus.commons.compiler.Location;
+import org.codehaus.janino.ArchiveCachingJavaSourceClassLoader;
+import org.codehaus.janino.CachingJavaSourceClassLoader;
 import org.codehaus.janino.ClassLoaderIClassLoader;
 import org.codehaus.janino.Compiler;
 import org.codehaus.janino.IClassLoader;
+import org.codehaus.janino.JavaSourceClassLoader;
+import org.codehaus.janino.ReloadingJavaSourceClassLoader;
 import org.codehaus.janino.SimpleCompiler;
 import org.codehaus.janino.UnitCompiler;
 import org.codehaus.janino.WarningHandler;
 import org.codehaus.janino.util.Benchmark;
+import org.codehaus.janino.util.ClassFileArchive;
 import org.codehaus.janino.util.ResourceFinderClassLoader;
 import org.codehaus.janino.util.resource.DirectoryResourceFinder;
+import org.codehaus.janino.util.resource.IndexingResourceFinder;
 import org.codehaus.janino.util.resource.MapResourceCreator;
 import org.codehaus.janino.util.resource.MapResourceFinder;
 import org.codehaus.janino.util.resource.MultiResourceFinder;
+import org.codehaus.janino.util.resource.PathResourceFinder;
 import org.codehaus.janino.util.resource.Resource;
 import org.codehaus.janino.util.resource.ResourceCreator;
 import org.codehaus.janino.util.resource.ResourceFinder;
@@ -291,6 +311,647 @@ class CompilerTests {
         assertEquals(new HashSet(Arrays.asList(new Object[] { "pkg/A.class", "pkg/B.class", })), classes.keySet());
     }
 
+    @Test public void
+    testTargetVersion() throws Exception {
+        Map sources = new HashMap();
+        sources.put("pkg/A.java", (
+            ""
+            + "package pkg;\n"
+            + "public class A extends java.util.ArrayList implements Comparable {\n"
+            + "    private final long   l;\n"
+            + "    private final double d;\n"
+            + "    public A(boolean b) { this(b ? 7L : 11L, b ? null : \"x\"); }\n"
+            + "    A(long l, String s) { super(s == null ? 3 : s.length()); this.l = l; this.d = l / 2.0; }\n"
+            + "    @Override public int compareTo(Object o) { return (int) (this.l - ((A) o).l); }\n"
+            + "    public String run(int n) {\n"
+            + "        long   sum   = 0;\n"
+            + "        double prod  = this.d;\n"
+            + "        Object o     = n > 3 ? (Object) new StringBuffer() : (Object) new StringBuilder();\n"
+            + "        for (int i = 0; i < n; i++) {\n"
+            + "            switch (i % 3) {\n"
+            + "            case 0:  sum += i; break;\n"
+            + "            case 1:  prod *= 1.5; continue;\n"
+            + "            default: if (i > 100) return null;\n"
+            + "            }\n"
+            + "            try {\n"
+            + "                if (i == 5) throw new IllegalStateException();\n"
+            + "                sum += Integer.parseInt(i == 2 ? \"x\" : \"1\");\n"
+            + "            } catch (NumberFormatException nfe) {\n"
+            + "                sum += 100;\n"
+            + "            } catch (RuntimeException re) {\n"
+            + "                sum += 1000;\n"
+            + "            }\n"
+            + "        }\n"
+            + "        Runnable r = new Runnable() { @Override public void run() { A.this.add(\"r\"); } };\n"
+            + "        r.run();\n"
+            + "        return sum + \" \" + prod + \" \" + (o instanceof CharSequence) + \" \" + this.size();\n"
+            + "    }\n"
+            + "}\n"
+        ).getBytes());
+        sources.put("pkg/B.java", (
+            ""
+            + "package pkg;\n"
+            + "public class B {\n"
+            + "    public static int meth(int x) {\n"
+            + "        try {\n"
+            + "            return x / 0;\n"
+            + "        } catch (ArithmeticException ae) {\n"
+            + "            return -1;\n"
+            + "        } finally {\n"
+            + "            x++;\n"
+            + "        }\n"
+            + "    }\n"
+            + "}\n"
+        ).getBytes());
+        ResourceFinder sourceFinder = new MapResourceFinder(sources);
+
+        Map      classes  = new HashMap();
+        Compiler compiler = new Compiler(
+            sourceFinder,                                                  // sourceFinder
+            new ClassLoaderIClassLoader(this.getClass().getClassLoader()), // iClassLoader
+            ResourceFinder.EMPTY_RESOURCE_FINDER,                          // classFileFinder
+            new MapResourceCreator(classes),                               // classFileCreator
+            (String) null,                                                 // optionalCharacterEncoding
+            false,                                                         // verbose
+            true,                                                          // debugSource
+            true,                                                          // debugLines
+            true,                                                          // debugVars
+            (WarningHandler) null                                          // optionalWarningHandler
+        );
+        compiler.setTargetVersion(8);
+        compiler.compile(new Resource[] {
+            sourceFinder.findResource("pkg/A.java"),
+            sourceFinder.findResource("pkg/B.java"),
+        });
+
+        // Class files of version 52 require a "StackMapTable"; methods with FINALLY clauses (which are implemented
+        // with JSR and RET) force version 50.
+        assertEquals(52, CompilerTests.getMajorVersion((byte[]) classes.get("pkg/A.class")));
+        assertEquals(52, CompilerTests.getMajorVersion((byte[]) classes.get("pkg/A$1.class")));
+        assertEquals(50, CompilerTests.getMajorVersion((byte[]) classes.get("pkg/B.class")));
+
+        // Loading the classes enforces their verification.
+        ClassLoader cl = new ResourceFinderClassLoader(
+            new MapResourceFinder(classes),
+            this.getClass().getClassLoader()
+        );
+        Class  a  = cl.loadClass("pkg.A");
+        Object ai = a.getConstructor(new Class[] { boolean.class }).newInstance(new Object[] { Boolean.TRUE });
+        assertEquals("1105 7.875 true 1", a.getMethod("run", new Class[] { int.class }).invoke(
+            ai,
+            new Object[] { new Integer(6) }
+        ));
+        assertEquals(new Integer(-1), cl.loadClass("pkg.B").getMethod("meth", new Class[] { int.class }).invoke(
+            null,
+            new Object[] { new Integer(7) }
+        ));
+    }
+
+    /**
+     * Changing a method body must recompile only the declaring unit; changing a constant's value must also recompile
+     * the units that use it.
+     */
+    @Test public void
+    testIncrementalCompilation() throws Exception {
+        Map classes = new HashMap();
+
+        // Initially, all units are compiled.
+        Map before = this.compileIncrementally(classes, 1, "1", "2");
+        assertEquals(
+            new HashSet(Arrays.asList(new String[] {
+                "pkg/A.class", "pkg/B.class", "pkg/C.class", "pkg/D.class", Compiler.DEPENDENCIES_RESOURCE_NAME,
+            })),
+            classes.keySet()
+        );
+
+        // Changing the body of "A.meth()" recompiles only "A".
+        Map after = this.compileIncrementally(classes, 2, "1", "3");
+        assertTrue(after.get("pkg/A.class") != before.get("pkg/A.class"));
+        assertTrue(after.get("pkg/B.class") == before.get("pkg/B.class"));
+        assertTrue(after.get("pkg/C.class") == before.get("pkg/C.class"));
+        assertTrue(after.get("pkg/D.class") == before.get("pkg/D.class"));
+
+        // Changing the value of "A.C" also recompiles "B", which inlines it, and "C", which calls "A.meth()".
+        before = after;
+        after  = this.compileIncrementally(classes, 3, "5", "3");
+        assertTrue(after.get("pkg/A.class") != before.get("pkg/A.class"));
+        assertTrue(after.get("pkg/B.class") != before.get("pkg/B.class"));
+        assertTrue(after.get("pkg/C.class") != before.get("pkg/C.class"));
+        assertTrue(after.get("pkg/D.class") == before.get("pkg/D.class"));
+
+        ClassLoader cl = new ResourceFinderClassLoader(
+            new MapResourceFinder(classes),
+            this.getClass().getClassLoader()
+        );
+        assertEquals(new Integer(5), cl.loadClass("pkg.B").getMethod("meth", new Class[0]).invoke(null, new Object[0]));
+        assertEquals(new Integer(3), cl.loadClass("pkg.C").getMethod("meth", new Class[0]).invoke(null, new Object[0]));
+    }
+
+    /**
+     * Incrementally compiles four units, where "A" was last modified at {@code aLastModified}, and the others at 1.
+     *
+     * @return A snapshot of the {@code classes}
+     */
+    private Map
+    compileIncrementally(Map classes, long aLastModified, String aConstant, String aMethodResult) throws Exception {
+        Resource[] sourceResources = {
+            CompilerTests.sourceResource(
+                "pkg/A.java",
+                (
+                    "package pkg; public class A {\n"
+                    + "    public static final int C = " + aConstant + ";\n"
+                    + "    public static int meth() { return " + aMethodResult + "; }\n"
+                    + "}\n"
+                ),
+                aLastModified
+            ),
+            CompilerTests.sourceResource(
+                "pkg/B.java",
+                "package pkg; public class B { public static int meth() { return A.C; } }",
+                1
+            ),
+            CompilerTests.sourceResource(
+                "pkg/C.java",
+                "package pkg; public class C { public static int meth() { return A.meth(); } }",
+                1
+            ),
+            CompilerTests.sourceResource(
+                "pkg/D.java",
+                "package pkg; public class D { public static int meth() { return 4; } }",
+                1
+            ),
+        };
+
+        return this.compileIncrementally(classes, sourceResources);
+    }
+
+    /**
+     * Changing the API of a class must also recompile the dependents of its subclasses, because these inherit the
+     * changed members.
+     */
+    @Test public void
+    testIncrementalCompilationOfIndirectSubclass() throws Exception {
+        Map classes = new HashMap();
+
+        this.compileIncrementally(classes, new Resource[] {
+            CompilerTests.sourceResource("pkg/C.java", "package pkg; public abstract class C {}", 1),
+            CompilerTests.sourceResource("pkg/B.java", "package pkg; public abstract class B extends C {}", 1),
+            CompilerTests.sourceResource("pkg/A.java", "package pkg; public class A extends B {}", 1),
+        });
+
+        // Adding an abstract method to "C" leaves the API of "B" unchanged, but "A" now fails to compile.
+        try {
+            this.compileIncrementally(classes, new Resource[] {
+                CompilerTests.sourceResource(
+                    "pkg/C.java",
+                    "package pkg; public abstract class C { public abstract void meth(); }",
+                    2
+                ),
+                CompilerTests.sourceResource("pkg/B.java", "package pkg; public abstract class B extends C {}", 1),
+                CompilerTests.sourceResource("pkg/A.java", "package pkg; public class A extends B {}", 1),
+            });
+            fail("CompileException expected");
+        } catch (CompileException ce) {
+            assertTrue(ce.getMessage(), ce.getMessage().indexOf("\"pkg/A.java\"") != -1);
+        }
+    }
+
+    private Map
+    compileIncrementally(Map classes, Resource[] sourceResources) throws Exception {
+        Compiler compiler = new Compiler(
+            ResourceFinder.EMPTY_RESOURCE_FINDER,                          // sourceFinder
+            new ClassLoaderIClassLoader(this.getClass().getClassLoader()), // iClassLoader
+            new MapResourceFinder(classes),                                // classFileFinder
+            new MapResourceCreator(classes),                               // classFileCreator
+            (String) null,                                                 // optionalCharacterEncoding
+            false,                                                         // verbose
+            true,                                                          // debugSource
+            true,                                                          // debugLines
+            false,                                                         // debugVars
+            (WarningHandler) null                                          // optionalWarningHandler
+        );
+        compiler.setIncremental(true);
+        compiler.compile(sourceResources);
+
+        return new HashMap(classes);
+    }
+
+    private static Resource
+    sourceResource(String fileName, String text, long lastModified) {
+        Map sources = new HashMap();
+        sources.put(fileName, text.getBytes());
+        MapResourceFinder mrf = new MapResourceFinder(sources);
+        mrf.setLastModified(lastModified);
+        return mrf.findResource(fileName);
+    }
+
+    @Test public void
+    testReloadingJavaSourceClassLoader() throws Exception {
+        final Map sources = new HashMap(); // String resourceName => Resource
+        sources.put("pkg/A.java", CompilerTests.sourceResource(
+            "pkg/A.java",
+            "package pkg; public class A { public static final int C = 1; }",
+            1
+        ));
+        sources.put("pkg/B.java", CompilerTests.sourceResource(
+            "pkg/B.java",
+            "package pkg; public class B { public static int meth() { return A.C; } }",
+            1
+        ));
+        sources.put("pkg/C.java", CompilerTests.sourceResource(
+            "pkg/C.java",
+            "package pkg; public class C { public static int meth() { return 3; } }",
+            1
+        ));
+        ReloadingJavaSourceClassLoader cl = new ReloadingJavaSourceClassLoader(
+            this.getClass().getClassLoader(),
+            new ResourceFinder() {
+                @Override public Resource findResource(String resourceName) {
+                    return (Resource) sources.get(resourceName);
+                }
+            },
+            null
+        );
+        assertEquals(new Integer(1), CompilerTests.invokeMeth(cl, "pkg.B"));
+        assertEquals(new Integer(3), CompilerTests.invokeMeth(cl, "pkg.C"));
+
+        // Nothing changed, so the loader is still up-to-date.
+        assertSame(cl, cl.reload());
+
+        // Changing "A" recompiles "B", which inlines "A.C". "C" is reused, as its source file appears unmodified.
+        sources.put("pkg/A.java", CompilerTests.sourceResource(
+            "pkg/A.java",
+            "package pkg; public class A { public static final int C = 2; }",
+            2
+        ));
+        sources.put("pkg/C.java", CompilerTests.sourceResource(
+            "pkg/C.java",
+            "package pkg; public class C { public static int meth() { return 4; } }",
+            1
+        ));
+        ReloadingJavaSourceClassLoader cl2 = cl.reload();
+        assertTrue(cl2 != cl);
+        assertEquals(new Integer(2), CompilerTests.invokeMeth(cl2, "pkg.B"));
+        assertEquals(new Integer(3), CompilerTests.invokeMeth(cl2, "pkg.C"));
+        assertSame(cl2, cl2.reload());
+
+        // The reused unit is still tracked by the new generation.
+        sources.put("pkg/C.java", CompilerTests.sourceResource(
+            "pkg/C.java",
+            "package pkg; public class C { public static int meth() { return 4; } }",
+            2
+        ));
+        assertEquals(new Integer(4), CompilerTests.invokeMeth(cl2.reload(), "pkg.C"));
+    }
+
+    /**
+     * Source files in a directory are watched, so even a modification that does not change the modification time of
+     * the file is detected.
+     */
+    @Test public void
+    testReloadingJavaSourceClassLoaderWatchesDirectories() throws Exception {
+        File dir = File.createTempFile("janino", "");
+        dir.delete();
+        new File(dir, "pkg").mkdirs();
+        File a = new File(dir, "pkg/A.java");
+        try {
+            CompilerTests.writeFile(a, "package pkg; public class A { public static int meth() { return 1; } }");
+            long lastModified = a.lastModified();
+
+            ReloadingJavaSourceClassLoader cl = new ReloadingJavaSourceClassLoader(
+                this.getClass().getClassLoader(),
+                new DirectoryResourceFinder(dir),
+                null
+            );
+            try {
+                assertEquals(new Integer(1), CompilerTests.invokeMeth(cl, "pkg.A"));
+                assertSame(cl, cl.reload());
+
+                CompilerTests.writeFile(a, "package pkg; public class A { public static int meth() { return 2; } }");
+                a.setLastModified(lastModified);
+
+                // The change notification may arrive with a delay.
+                ReloadingJavaSourceClassLoader cl2 = cl.reload();
+                for (long end = System.currentTimeMillis() + 30000; cl2 == cl;) {
+                    assertTrue("Modification not detected", System.currentTimeMillis() < end);
+                    Thread.sleep(50);
+                    cl2 = cl.reload();
+                }
+                assertEquals(new Integer(2), CompilerTests.invokeMeth(cl2, "pkg.A"));
+                assertSame(cl2, cl2.reload());
+            } finally {
+                cl.close();
+            }
+        } finally {
+            a.delete();
+            new File(dir, "pkg").delete();
+            dir.delete();
+        }
+    }
+
+    private static Object
+    invokeMeth(ClassLoader cl, String className) throws Exception {
+        return cl.loadClass(className).getMethod("meth", new Class[0]).invoke(null, new Object[0]);
+    }
+
+    @Test public void
+    testArchiveCachingJavaSourceClassLoader() throws Exception {
+        File archiveFile = File.createTempFile("janino", ".jcfa");
+        archiveFile.deleteOnExit();
+
+        // Cold start: "A" and "A$I" are compiled and archived.
+        assertEquals(2, this.loadFromArchive(archiveFile, "1", false));
+        long archiveLength = archiveFile.length();
+
+        // Warm start: Both classes are read from the archive; the source file is read only once to verify its digest.
+        assertEquals(1, this.loadFromArchive(archiveFile, "1", false));
+        assertEquals(archiveLength, archiveFile.length());
+
+        // Another source content (with the same modification time) or other compiler settings invalidate the cache.
+        assertEquals(2, this.loadFromArchive(archiveFile, "2", false));
+        assertEquals(2, this.loadFromArchive(archiveFile, "2", true));
+        assertTrue(archiveFile.length() > archiveLength);
+
+        // An incomplete last record is discarded.
+        archiveLength = archiveFile.length();
+        RandomAccessFile raf = new RandomAccessFile(archiveFile, "rw");
+        try {
+            raf.setLength(archiveLength - 3);
+        } finally {
+            raf.close();
+        }
+        assertEquals(2, this.loadFromArchive(archiveFile, "2", true));
+        assertEquals(archiveLength, archiveFile.length());
+        assertEquals(1, this.loadFromArchive(archiveFile, "2", true));
+
+        // A closed archive can no longer be read.
+        ClassFileArchive archive = new ClassFileArchive(archiveFile);
+        archive.close();
+        try {
+            archive.get("pkg.A", new byte[0]);
+            fail("IOException expected");
+        } catch (IOException ioe) {
+            ;
+        }
+    }
+
+    /**
+     * Loads class "pkg.A" and its nested class "pkg.A$I" through an {@link ArchiveCachingJavaSourceClassLoader} and
+     * verifies that "A.meth()" returns {@code result}.
+     *
+     * @return How often the source file was read
+     */
+    private int
+    loadFromArchive(File archiveFile, String result, boolean debugVars) throws Exception {
+        final MapResourceFinder sourceFinder = new MapResourceFinder(Collections.singletonMap("pkg/A.java", (
+            "package pkg; public class A {\n"
+            + "    public static int meth() { return I.meth(); }\n"
+            + "    static class I { static int meth() { return " + result + "; } }\n"
+            + "}\n"
+        ).getBytes()));
+        final int[] readCount = new int[1];
+
+        ClassFileArchive archive = new ClassFileArchive(archiveFile);
+        try {
+            ArchiveCachingJavaSourceClassLoader cl = new ArchiveCachingJavaSourceClassLoader(
+                this.getClass().getClassLoader(),
+                new ResourceFinder() {
+                    @Override public Resource findResource(String resourceName) {
+                        Resource resource = sourceFinder.findResource(resourceName);
+                        if (resource != null) readCount[0]++;
+                        return resource;
+                    }
+                },
+                null,
+                archive
+            );
+            cl.setDebuggingInfo(true, true, debugVars);
+            assertEquals(Integer.valueOf(result), CompilerTests.invokeMeth(cl, "pkg.A"));
+        } finally {
+            archive.close();
+        }
+        return readCount[0];
+    }
+
+    @Test public void
+    testIndexingResourceFinder() throws Exception {
+        File dir = File.createTempFile("janino", "");
+        dir.delete();
+        new File(dir, "classes/pkg").mkdirs();
+        File jar = new File(dir, "lib.jar");
+        try {
+            CompilerTests.writeFile(new File(dir, "classes/pkg/A.txt"), "dir A");
+            ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(jar));
+            try {
+                zos.putNextEntry(new ZipEntry("pkg/A.txt"));
+                zos.write("jar A".getBytes());
+                zos.putNextEntry(new ZipEntry("pkg/B.txt"));
+                zos.write("jar B".getBytes());
+                zos.putNextEntry(new ZipEntry("C.txt"));
+                zos.write("jar C".getBytes());
+            } finally {
+                zos.close();
+            }
+
+            // The indexing finder must find the same resources as the probing one.
+            File[]         path    = { new File(dir, "classes"), new File(dir, "missing"), jar };
+            ResourceFinder probing = new PathResourceFinder(path);
+            ResourceFinder indexed = new IndexingResourceFinder(path);
+            String[]       names   = { "pkg/A.txt", "pkg/B.txt", "C.txt", "pkg/D.txt", "pkg2/A.txt" };
+            for (int i = 0; i < names.length; ++i) {
+                Resource expected = probing.findResource(names[i]);
+                Resource actual   = indexed.findResource(names[i]);
+                if (expected == null) {
+                    assertEquals(names[i], null, actual);
+                } else {
+                    assertEquals(names[i], CompilerTests.read(expected), CompilerTests.read(actual));
+                }
+            }
+            assertEquals("dir A", CompilerTests.read(indexed.findResource("pkg/A.txt")));
+        } finally {
+            new File(dir, "classes/pkg/A.txt").delete();
+            new File(dir, "classes/pkg").delete();
+            new File(dir, "classes").delete();
+            jar.delete();
+            dir.delete();
+        }
+    }
+
+    private static void
+    writeFile(File file, String content) throws IOException {
+        OutputStream os = new FileOutputStream(file);
+        try {
+            os.write(content.getBytes());
+        } finally {
+            os.close();
+        }
+    }
+
+    private static String
+    read(Resource resource) throws IOException {
+        InputStream is = resource.open();
+        try {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            for (int b = is.read(); b != -1; b = is.read()) baos.write(b);
+            return new String(baos.toByteArray());
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * A parallel compilation must produce the same class files as a sequential one, even if the units refer to each
+     * other and to units on the source path, and even if it reports its progress.
+     */
+    @Test public void
+    testParallelCompilation() throws Exception {
+        Map sources = new HashMap();
+        for (int i = 0; i < 20; ++i) {
+            String callee = i == 0 ? "S.meth()" : "A" + (i - 1) + ".meth() + 1";
+            sources.put("pkg/A" + i + ".java", (
+                "package pkg; public class A" + i + " {\n"
+                + "    public static int meth() { return " + callee + "; }\n"
+                + "}\n"
+            ).getBytes());
+        }
+        sources.put("pkg/S.java", "package pkg; public class S { public static int meth() { return 7; } }".getBytes());
+        ResourceFinder sourceFinder = new MapResourceFinder(sources);
+
+        Resource[] sourceResources = new Resource[20];
+        for (int i = 0; i < sourceResources.length; ++i) {
+            sourceResources[i] = sourceFinder.findResource("pkg/A" + i + ".java");
+        }
+
+        Map sequentialClasses = this.compile(sourceFinder, sourceResources, 1, false);
+        Map parallelClasses   = this.compile(sourceFinder, sourceResources, 4, false);
+        Map verboseClasses    = this.compile(sourceFinder, sourceResources, 4, true);
+
+        assertEquals(21, parallelClasses.size());
+        assertEquals(sequentialClasses.keySet(), parallelClasses.keySet());
+        for (Iterator it = sequentialClasses.entrySet().iterator(); it.hasNext();) {
+            Map.Entry e = (Map.Entry) it.next();
+            byte[] parallelClassFile = (byte[]) parallelClasses.get(e.getKey());
+            assertTrue((String) e.getKey(), Arrays.equals((byte[]) e.getValue(), parallelClassFile));
+            assertTrue((String) e.getKey(), Arrays.equals(parallelClassFile, (byte[]) verboseClasses.get(e.getKey())));
+        }
+
+        ClassLoader cl = new ResourceFinderClassLoader(
+            new MapResourceFinder(parallelClasses),
+            this.getClass().getClassLoader()
+        );
+        Method meth = cl.loadClass("pkg.A19").getMethod("meth", new Class[0]);
+        assertEquals(new Integer(26), meth.invoke(null, new Object[0]));
+    }
+
+    private Map
+    compile(ResourceFinder sourceFinder, Resource[] sourceResources, int threadCount, boolean verbose)
+    throws Exception {
+        Map      classes  = new HashMap();
+        Compiler compiler = new Compiler(
+            sourceFinder,                                                  // sourceFinder
+            new ClassLoaderIClassLoader(this.getClass().getClassLoader()), // iClassLoader
+            ResourceFinder.EMPTY_RESOURCE_FINDER,                          // classFileFinder
+            new MapResourceCreator(classes),                               // classFileCreator
+            (String) null,                                                 // optionalCharacterEncoding
+            verbose,                                                       // verbose
+            true,                                                          // debugSource
+            true,                                                          // debugLines
+            false,                                                         // debugVars
+            (WarningHandler) null                                          // optionalWarningHandler
+        );
+        compiler.setThreadCount(threadCount);
+        compiler.compile(sourceResources);
+        return classes;
+    }
+
+    private static int
+    getMajorVersion(byte[] classFile) {
+        return ((0xff & classFile[6]) << 8) | (0xff & classFile[7]);
+    }
+
+    /**
+     * While one thread compiles a class, other threads must still be able to load classes through the parent class
+     * loader and to define classes that were already compiled.
+     */
+    @Test(timeout = 60000) public void
+    testParallelClassLoading() throws Exception {
+        Map sources = new HashMap();
+        sources.put("pkg/A.java", "package pkg; public class A { public static int meth() { return 1; } }".getBytes());
+        sources.put("pkg/B.java", "package pkg; public class B { C c; } class C {}".getBytes());
+        final ResourceFinder       mapFinder = new MapResourceFinder(sources);
+        final CountDownLatch       entered   = new CountDownLatch(1);
+        final CountDownLatch       release   = new CountDownLatch(1);
+        final JavaSourceClassLoader cl       = new JavaSourceClassLoader(
+            ClassLoader.getSystemClassLoader(), // parentClassLoader
+            new ResourceFinder() {              // sourceFinder
+
+                @Override public Resource
+                findResource(String resourceName) {
+                    if ("pkg/A.java".equals(resourceName)) {
+                        entered.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException ie) {
+                            throw new RuntimeException(ie);
+                        }
+                    }
+                    return mapFinder.findResource(resourceName);
+                }
+            },
+            null                                // optionalCharacterEncoding
+        );
+
+        // Compiling "pkg.B" also compiles "pkg.C", but does not define it yet.
+        cl.loadClass("pkg.B");
+
+        final Object[] result = new Object[1];
+        Thread t = new Thread() {
+
+            @Override public void
+            run() {
+                try {
+                    result[0] = cl.loadClass("pkg.A").getMethod("meth", new Class[0]).invoke(null, new Object[0]);
+                } catch (Exception e) {
+                    result[0] = e;
+                }
+            }
+        };
+        t.start();
+        assertTrue(entered.await(10, TimeUnit.SECONDS));
+
+        // "pkg.A" is being compiled right now; neither of these must wait for that.
+        assertEquals(java.util.ArrayList.class, cl.loadClass("java.util.ArrayList"));
+        assertEquals("pkg.C", cl.loadClass("pkg.C").getName());
+
+        release.countDown();
+        t.join(10000);
+        assertEquals(new Integer(1), result[0]);
+    }
+
+    /**
+     * Each of the JANINO source class loaders must register itself as parallel-capable (checkable only on Java 9+).
+     */
+    @Test public void
+    testParallelCapableRegistration() throws Exception {
+        Method isRegistered;
+        try {
+            isRegistered = ClassLoader.class.getMethod("isRegisteredAsParallelCapable", new Class[0]);
+        } catch (NoSuchMethodException nsme) {
+            return;
+        }
+
+        ClassLoader    parent = ClassLoader.getSystemClassLoader();
+        ResourceFinder finder = new MapResourceFinder(new HashMap());
+        ClassLoader[]  cls    = {
+            new JavaSourceClassLoader(parent, finder, null),
+            new CachingJavaSourceClassLoader(parent, finder, null, finder, new MapResourceCreator()),
+            new ReloadingJavaSourceClassLoader(parent, finder, null),
+        };
+        for (int i = 0; i < cls.length; i++) {
+            assertEquals(cls[i].getClass().getName(), Boolean.TRUE, isRegistered.invoke(cls[i], new Object[0]));
+        }
+    }
+
     /**
      * JANINO (as of now) does not support generics, and should clearly state the fact instead of throwing
      * mysterious {@link CompileException}s like '"{" expected at start of class body'.
@@ -306,4 +967,370 @@ class CompilerTests {
         fail("Usage of generics should cause a CompileException");
 
     }
+
+    /**
+     * Compiles a machine-generated method with about 60 KB of bytecode, and many SWITCH and TRY/FINALLY statements,
+     * string concatenations and numeric promotions, which all insert code in the middle of the method.
+     */
+    @Test public void
+    testHugeMethod() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        sb.append("public class Huge {\n");
+        sb.append("    public static String meth(int x, long l) {\n");
+        sb.append("        String r = \"\";\n");
+        sb.append("        int    n = 0;\n");
+        for (int i = 0; i < 385; ++i) {
+            sb.append("        switch (x + " + i + ") {\n");
+            sb.append("        case 0:     r += \"a\" + n + l; break;\n");
+            sb.append("        case 7:     n += l * " + i + "; break;\n");
+            sb.append("        case 12345: r = r + x + 'c'; break;\n");
+            sb.append("        }\n");
+            sb.append("        try { n += (x > " + i + " ? l : n) + 1; } finally { n -= " + i + "; }\n");
+        }
+        sb.append("        return r + n;\n");
+        sb.append("    }\n");
+        sb.append("}\n");
+        String source = sb.toString();
+
+        Benchmark b = new Benchmark(true);
+        for (int i = 0; i < 5; ++i) {
+            b.beginReporting("Compile 60 KB method");
+            SimpleCompiler sc = new SimpleCompiler();
+            sc.cook(source);
+            b.endReporting();
+
+            Class  c    = sc.getClassLoader().loadClass("Huge");
+            Method meth = c.getMethod("meth", new Class[] { int.class, long.class });
+            assertEquals("a01385", meth.invoke(null, new Object[] { new Integer(0), new Long(1) }));
+            assertEquals("12345c-73150", meth.invoke(null, new Object[] { new Integer(12345), new Long(1) }));
+        }
+    }
+
+    @Test public void
+    testSplitLargeMethods() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        sb.append("public class Big {\n");
+        sb.append("    public static String meth(int x) {\n");
+        sb.append("        long         acc    = 0;\n");
+        sb.append("        final String prefix = \"p\";\n");
+        sb.append("        int[]        hist   = new int[4];\n");
+        sb.append("        double       d;\n");
+        sb.append("        d = 0.5;\n");
+        for (int i = 0; i < CompilerTests.SPLIT_ITERATIONS; ++i) {
+            sb.append("        acc += x * " + i + " + (" + i + " % 3 == 0 ? 1 : 2);\n");
+            sb.append("        hist[" + i % 4 + "]++;\n");
+            sb.append("        if (x == " + i + ") return prefix + \"early" + i + ":\" + acc;\n");
+            sb.append("        try { if (x == -" + i + ") return \"neg" + i + "\"; d += 0.25; }");
+            sb.append(" finally { acc ^= " + i + "; }\n");
+            sb.append("        l" + i + ": for (int j = 0; j < 3; j++) { if (j == 1) break l" + i + "; acc++; }\n");
+            sb.append("        int t" + i + " = " + i + " * 2;\n");
+            sb.append("        acc += t" + i + ";\n");
+            sb.append("        switch (" + i % 3 + ") { case 0: acc--; break; default: acc += 2; }\n");
+        }
+        sb.append("        Object o = new Object() {\n");
+        sb.append("            @Override public String toString() { return prefix + \"!\"; }\n");
+        sb.append("        };\n");
+        sb.append("        return o + \" \" + acc + \" \" + hist[0] + hist[1] + hist[2] + hist[3] + \" \" + d;\n");
+        sb.append("    }\n");
+        sb.append("    public int count;\n");
+        sb.append("    public void bump(int x) {\n");
+        sb.append("        int calls = 0;\n");
+        for (int i = 0; i < CompilerTests.SPLIT_ITERATIONS; ++i) {
+            sb.append("        count += x;\n");
+            sb.append("        if (++calls == x) return;\n");
+            sb.append("        this.count = count * 3 % 1000003;\n");
+        }
+        sb.append("    }\n");
+        sb.append("}\n");
+        String source = sb.toString();
+
+        try {
+            new SimpleCompiler().cook(source);
+            fail("Method should be too large");
+        } catch (RuntimeException re) {
+            assertTrue(re.getMessage(), re.getMessage().contains("grows beyond 64 KB"));
+        }
+
+        SimpleCompiler sc = new SimpleCompiler();
+        sc.setSplitLargeMethods(true);
+        sc.cook(source);
+
+        Class  c    = sc.getClassLoader().loadClass("Big");
+        Method meth = c.getMethod("meth", new Class[] { int.class });
+        int[]  xs   = { 0, 5, 299, -7, -599, 100000 };
+        for (int i = 0; i < xs.length; ++i) {
+            assertEquals(CompilerTests.splitMeth(xs[i]), meth.invoke(null, new Object[] { new Integer(xs[i]) }));
+        }
+
+        Method bump = c.getMethod("bump", new Class[] { int.class });
+        for (int x = 1; x < 1000; x += 99) {
+            Object big = c.newInstance();
+            bump.invoke(big, new Object[] { new Integer(x) });
+            assertEquals(new Integer(CompilerTests.splitBump(x)), c.getField("count").get(big));
+        }
+
+        int splitMethods = 0;
+        Method[] ms = c.getDeclaredMethods();
+        for (int i = 0; i < ms.length; ++i) {
+            if (ms[i].getName().startsWith("meth$split") || ms[i].getName().startsWith("bump$split")) ++splitMethods;
+        }
+        assertTrue("Only " + splitMethods + " split methods", splitMethods > 2);
+    }
+    private static final int SPLIT_ITERATIONS = 600;
+
+    /** Computes what "Big.meth()" of {@link #testSplitLargeMethods()} returns. */
+    private static String
+    splitMeth(int x) {
+        long   acc  = 0;
+        int[]  hist = new int[4];
+        double d    = 0.5;
+        for (int i = 0; i < CompilerTests.SPLIT_ITERATIONS; ++i) {
+            acc += x * i + (i % 3 == 0 ? 1 : 2);
+            hist[i % 4]++;
+            if (x == i) return "pearly" + i + ":" + acc;
+            if (x == -i) {
+                acc ^= i;
+                return "neg" + i;
+            }
+            d += 0.25;
+            acc ^= i;
+            acc++;
+            acc += i * 2;
+            acc += i % 3 == 0 ? -1 : 2;
+        }
+        return "p! " + acc + " " + hist[0] + hist[1] + hist[2] + hist[3] + " " + d;
+    }
+
+    /** Computes the value of "Big.count" after "Big.bump()" of {@link #testSplitLargeMethods()}. */
+    private static int
+    splitBump(int x) {
+        int count = 0;
+        for (int i = 0; i < CompilerTests.SPLIT_ITERATIONS; ++i) {
+            count += x;
+            if (i + 1 == x) return count;
+            count = count * 3 % 1000003;
+        }
+        return count;
+    }
+
+    @Test public void
+    testConstantPoolOverflow() throws Exception {
+
+        // 40000 string and long literals would need 80000 constant pool entries.
+        StringBuilder sb = new StringBuilder();
+        sb.append("public class Lits {\n");
+        for (int m = 0; m < 20; ++m) {
+            sb.append("    public static Object[] m" + m + "() {\n");
+            sb.append("        return new Object[] {\n");
+            for (int i = 0; i < 2000; ++i) {
+                int k = 2000 * m + i;
+                sb.append(k % 2 == 0 ? "            \"s" + k + "\",\n" : "            new Long(" + k + "L),\n");
+            }
+            sb.append("            \"s0\"\n");
+            sb.append("        };\n");
+            sb.append("    }\n");
+        }
+        sb.append("}\n");
+
+        SimpleCompiler sc = new SimpleCompiler();
+        sc.cook(sb.toString());
+
+        Class c = sc.getClassLoader().loadClass("Lits");
+        for (int m = 0; m < 20; ++m) {
+            Object[] values = (Object[]) c.getMethod("m" + m, new Class[0]).invoke(null, new Object[0]);
+            for (int i = 0; i < 2000; ++i) {
+                int k = 2000 * m + i;
+                assertEquals(k % 2 == 0 ? (Object) ("s" + k) : new Long(k), values[i]);
+            }
+
+            // Spilled string constants must still be interned.
+            assertSame("s0", values[2000]);
+        }
+    }
+
+    @Test public void
+    testPeepholeOptimization() throws Exception {
+        String source = (
+            ""
+            + "public class Peep {\n"
+            + "    public static String meth(int n, Object o) {\n"
+            + "        int s = 0;\n"
+            + "        for (int i = 0; i < n; i++) {\n"
+            + "            if (i % 2 == 0) { if (i % 3 == 0) continue; s += 7; } else { s = s - 1; }\n"
+            + "            while (true) { if (s > 100) break; s += i + 1; }\n"
+            + "        }\n"
+            + "        boolean b = !(n > 3);\n"
+            + "        String  str = (String) (Object) (String) o;\n"
+            + "        int     x;\n"
+            + "        x = s;\n"
+            + "        long    l = 1;\n"
+            + "        float   f = 2;\n"
+            + "        try {\n"
+            + "            x = x;\n"
+            + "        } catch (RuntimeException re) {\n"
+            + "            return \"unreachable\";\n"
+            + "        }\n"
+            + "        switch (n) { case 1: s++; break; case 2: s--; break; default: s += 1000; }\n"
+            + "        do { s -= 2; } while (b && s > 0 && !(s < 10));\n"
+            + "        return b ? x + str + l + f : s + \"/\" + x;\n"
+            + "    }\n"
+            + "}\n"
+        );
+
+        SimpleCompiler sc1 = new SimpleCompiler();
+        sc1.cook(source);
+        Method meth1 = sc1.getClassLoader().loadClass("Peep").getMethod(
+            "meth",
+            new Class[] { int.class, Object.class }
+        );
+
+        SimpleCompiler sc2 = new SimpleCompiler();
+        sc2.setPeepholeOptimization(true);
+        sc2.cook(source);
+        Method meth2 = sc2.getClassLoader().loadClass("Peep").getMethod(
+            "meth",
+            new Class[] { int.class, Object.class }
+        );
+
+        for (int n = -1; n < 30; ++n) {
+            Object[] args = { new Integer(n), "str" };
+            assertEquals(meth1.invoke(null, args), meth2.invoke(null, args));
+        }
+    }
+
+    @Test public void
+    testInlining() throws Exception {
+        String source = (
+            ""
+            + "public class Inl {\n"
+            + "    private int f = 5;\n"
+            + "    private static int sq(int x) { return x * x; }\n"
+            + "    static final long add(long a, int b) { return a + b; }\n"
+            + "    private int plusF(int x) { return x + this.f; }\n"
+            + "    private static void append(StringBuilder sb, char c) { sb.append(c); }\n"
+            + "    private static int rec(int n) { return n <= 0 ? 0 : n + rec(n - 1); }\n"
+            + "    private static int twice(int x) { return sq(x) + sq(x + 1); }\n"
+            + "    private static int depth() { return new Throwable().getStackTrace().length; }\n"
+            + "    public static int depthOfHelper() { return depth(); }\n"
+            + "    public String run(int n) {\n"
+            + "        StringBuilder sb = new StringBuilder();\n"
+            + "        append(sb, 'x');\n"
+            + "        byte b = 3;\n"
+            + "        return sq(n) + \" \" + add(n, b) + \" \" + plusF(n) + this.plusF(1) + \" \"\n"
+            + "            + rec(n) + twice(n) + sb;\n"
+            + "    }\n"
+            + "}\n"
+        );
+
+        SimpleCompiler sc1 = new SimpleCompiler();
+        sc1.cook(source);
+        Class c1 = sc1.getClassLoader().loadClass("Inl");
+
+        SimpleCompiler sc2 = new SimpleCompiler();
+        sc2.setInlineThreshold(100);
+        sc2.cook(source);
+        Class c2 = sc2.getClassLoader().loadClass("Inl");
+
+        Method run1 = c1.getMethod("run", new Class[] { int.class });
+        Method run2 = c2.getMethod("run", new Class[] { int.class });
+        for (int n = -2; n < 10; ++n) {
+            Object[] args = { new Integer(n) };
+            assertEquals(run1.invoke(c1.newInstance(), args), run2.invoke(c2.newInstance(), args));
+        }
+
+        // Iff "depth()" is inlined, then the stack is one frame shallower.
+        int depth1 = ((Integer) c1.getMethod("depthOfHelper", new Class[0]).invoke(null, new Object[0])).intValue();
+        int depth2 = ((Integer) c2.getMethod("depthOfHelper", new Class[0]).invoke(null, new Object[0])).intValue();
+        assertEquals(depth1 - 1, depth2);
+    }
+
+    /**
+     * TABLESWITCH and LOOKUPSWITCH never "fall through", so the code after them (here: the GOTO that implements the
+     * first "break", which jump threading makes unreachable) requires a stack map frame.
+     */
+    @Test public void
+    testSwitchStackMapFrames() throws Exception {
+        String source = (
+            ""
+            + "public class Sw {\n"
+            + "    public static int table(int x) {\n"
+            + "        int r = 0;\n"
+            + "        switch (x) { case 1: break; case 2: r = 20; break; default: r = 30; }\n"
+            + "        return r;\n"
+            + "    }\n"
+            + "    public static int lookup(int x) {\n"
+            + "        int r = 0;\n"
+            + "        switch (x) { case 1: break; case 1000: r = 20; break; default: r = 30; }\n"
+            + "        return r;\n"
+            + "    }\n"
+            + "    public static int returns(int x) { switch (x) { case 1: return 10; default: return 30; } }\n"
+            + "}\n"
+        );
+
+        for (int i = 0; i < 2; ++i) {
+            SimpleCompiler sc = new SimpleCompiler();
+            sc.setTargetVersion(8);
+            sc.setPeepholeOptimization(i == 1);
+            sc.cook(source);
+
+            // Invoking the methods enforces the verification of the class.
+            Class  c      = sc.getClassLoader().loadClass("Sw");
+            Method table  = c.getMethod("table", new Class[] { int.class });
+            Method lookup = c.getMethod("lookup", new Class[] { int.class });
+            int[]  xs     = { 0, 1, 2, 1000 };
+            for (int j = 0; j < xs.length; ++j) {
+                int      x    = xs[j];
+                Object[] args = { new Integer(x) };
+                assertEquals(new Integer(x == 1 ? 0 : x == 2 ? 20 : 30), table.invoke(null, args));
+                assertEquals(new Integer(x == 1 ? 0 : x == 1000 ? 20 : 30), lookup.invoke(null, args));
+            }
+            assertEquals(
+                new Integer(10),
+                c.getMethod("returns", new Class[] { int.class }).invoke(null, new Object[] { new Integer(1) })
+            );
+        }
+    }
+
+    /**
+     * Compiles JANINO with class file version 52 (which requires "StackMapTable" attributes) and peephole
+     * optimization, and loads and initializes all generated classes, which enforces their verification.
+     */
+    @Test public void
+    testSelfCompileWithPeepholeOptimization() throws Exception {
+        ResourceFinder sourceFinder = new MultiResourceFinder(Arrays.asList(new ResourceFinder[] {
+            new DirectoryResourceFinder(new File(JANINO_SRC)),
+            new DirectoryResourceFinder(new File(COMMONS_COMPILER_SRC)),
+        }));
+        MapResourceCreator classFileResources = new MapResourceCreator();
+        Compiler           c                  = new Compiler(
+            sourceFinder,                                                   // sourceFinder
+            new ClassLoaderIClassLoader(SimpleCompiler.BOOT_CLASS_LOADER), // iClassLoader
+            ResourceFinder.EMPTY_RESOURCE_FINDER,                           // classFileFinder
+            classFileResources,                                             // classFileCreator
+            (String) null,                                                  // optionalCharacterEncoding
+            false,                                                          // verbose
+            true,                                                           // debugSource
+            true,                                                           // debugLines
+            false,                                                          // debugVars
+            (WarningHandler) null                                           // optionalWarningHandler
+        );
+        c.setTargetVersion(8);
+        c.setPeepholeOptimization(true);
+        c.compile(new File[] {
+            new File(JANINO_SRC + "/org/codehaus/janino/Compiler.java"),
+            new File(JANINO_SRC + "/org/codehaus/janino/StackMapComputer.java"),
+            new File(JANINO_SRC + "/org/codehaus/janino/CodeContext.java"),
+        });
+
+        Map         classFileMap = classFileResources.getMap();
+        ClassLoader cl           = new ResourceFinderClassLoader(
+            new MapResourceFinder(classFileMap),
+            SimpleCompiler.BOOT_CLASS_LOADER
+        );
+        for (Iterator it = classFileMap.keySet().iterator(); it.hasNext();) {
+            String classFileName = (String) it.next();
+            String className     = classFileName.substring(0, classFileName.length() - 6).replace('/', '.');
+            Class.forName(className, true, cl);
+        }
+    }
 }
@@ -27,17 +27,36 @@
 package org.codehaus.janino.tests;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.StringReader;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.codehaus.commons.compiler.CompileException;
+import org.codehaus.janino.ByteArrayClassLoader;
+import org.codehaus.janino.ClassLoaderIClassLoader;
+import org.codehaus.janino.ClassLoaderIClassLoaderCache;
+import org.codehaus.janino.ClassLoaderPool;
+import org.codehaus.janino.EvaluatorCache;
 import org.codehaus.janino.ExpressionEvaluator;
+import org.codehaus.janino.Java;
+import org.codehaus.janino.Parser;
 import org.codehaus.janino.Scanner;
 import org.codehaus.janino.ScriptEvaluator;
+import org.codehaus.janino.SimpleCompiler;
 import org.junit.Test;
 
 public
@@ -79,4 +98,779 @@ class ExpressionEvaluatorTest {
         }
         fail("Usage of generics should cause a CompileException");
     }
+
+    @Test public void
+    testClassLoaderIClassLoaderCache() throws Exception {
+        ClassLoaderIClassLoaderCache cache = new ClassLoaderIClassLoaderCache(10);
+        ClassLoader                  cl    = this.getClass().getClassLoader();
+
+        for (int i = 0; i < 3; ++i) {
+            ExpressionEvaluator ee = new ExpressionEvaluator();
+            ee.setClassLoaderIClassLoaderCache(cache);
+            ee.setParentClassLoader(cl);
+            ee.setExpressionType(String.class);
+            ee.setParameters(new String[] { "a" }, new Class[] { int.class });
+            ee.cook("\"x\" + (a + " + i + ")");
+            assertEquals("x" + (7 + i), ee.evaluate(new Object[] { new Integer(7) }));
+        }
+        assertEquals(1, cache.getMissCount());
+        assertEquals(2, cache.getHitCount());
+        assertSame(cache.get(cl), cache.get(cl));
+    }
+
+    /**
+     * The entry of a class loader must disappear from the cache when the class loader is garbage-collected.
+     */
+    @Test public void
+    testClassLoaderIClassLoaderCacheEviction() throws Exception {
+        ClassLoaderIClassLoaderCache cache = new ClassLoaderIClassLoaderCache(10);
+
+        WeakReference clRef = ExpressionEvaluatorTest.cookWithDroppedClassLoader(cache);
+        assertEquals(1, cache.size());
+
+        for (int i = 0; i < 100 && (clRef.get() != null || cache.size() != 0); ++i) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull("Class loader was not garbage-collected", clRef.get());
+        assertEquals(0, cache.size());
+    }
+
+    private static WeakReference
+    cookWithDroppedClassLoader(ClassLoaderIClassLoaderCache cache) throws Exception {
+        ClassLoader cl = new ClassLoader(ExpressionEvaluatorTest.class.getClassLoader()) {};
+
+        ExpressionEvaluator ee = new ExpressionEvaluator();
+        ee.setClassLoaderIClassLoaderCache(cache);
+        ee.setParentClassLoader(cl);
+        ee.setExpressionType(String.class);
+        ee.setParameters(new String[] { "a" }, new Class[] { int.class });
+        ee.cook("\"x\" + a");
+        assertEquals("x7", ee.evaluate(new Object[] { new Integer(7) }));
+
+        return new WeakReference(cl);
+    }
+
+    @Test public void
+    testEvaluatorCache() throws Exception {
+        EvaluatorCache cache = new EvaluatorCache(10, 100000);
+
+        Class clazz = null;
+        for (int i = 0; i < 3; ++i) {
+            ExpressionEvaluator ee = new ExpressionEvaluator();
+            ee.setEvaluatorCache(cache);
+            ee.setExpressionType(int.class);
+            ee.setParameters(new String[] { "a" }, new Class[] { int.class });
+            ee.cook("a * 3");
+            assertEquals(new Integer(21), ee.evaluate(new Object[] { new Integer(7) }));
+            if (clazz == null) {
+                clazz = ee.getMethod().getDeclaringClass();
+            } else {
+                assertSame(clazz, ee.getMethod().getDeclaringClass());
+            }
+        }
+        assertEquals(1, cache.getMissCount());
+        assertEquals(2, cache.getHitCount());
+
+        // Different parameter types must not hit the cache.
+        ExpressionEvaluator ee = new ExpressionEvaluator();
+        ee.setEvaluatorCache(cache);
+        ee.setExpressionType(long.class);
+        ee.setParameters(new String[] { "a" }, new Class[] { long.class });
+        ee.cook("a * 3");
+        assertEquals(new Long(21), ee.evaluate(new Object[] { new Long(7) }));
+        assertEquals(2, cache.getMissCount());
+        assertEquals(2, cache.size());
+    }
+
+    @Test public void
+    testHoistLiterals() throws Exception {
+        EvaluatorCache cache = new EvaluatorCache(10, 100000);
+
+        // Static method; the literals are passed as extra parameters.
+        String[] expressions = { "x > 17 && name.equals(\"foo\")", "x > 42 && name.equals(\"bar\")" };
+        Class[]  classes     = new Class[expressions.length];
+        for (int i = 0; i < expressions.length; ++i) {
+            ExpressionEvaluator ee = new ExpressionEvaluator();
+            ee.setEvaluatorCache(cache);
+            ee.setHoistLiterals(true);
+            ee.setExpressionType(boolean.class);
+            ee.setParameters(new String[] { "x", "name" }, new Class[] { int.class, String.class });
+            ee.cook(expressions[i]);
+            assertEquals(Boolean.valueOf(i == 0), ee.evaluate(new Object[] { new Integer(20), "foo" }));
+            assertEquals(Boolean.valueOf(i == 1), ee.evaluate(new Object[] { new Integer(50), "bar" }));
+            classes[i] = ee.getMethod().getDeclaringClass();
+        }
+        assertSame(classes[0], classes[1]);
+
+        // Non-static method; the literals are stored in fields.
+        Object[] evaluators = new Object[expressions.length];
+        for (int i = 0; i < expressions.length; ++i) {
+            ExpressionEvaluator ee = new ExpressionEvaluator();
+            ee.setEvaluatorCache(cache);
+            ee.setHoistLiterals(true);
+            Predicate p = (Predicate) ee.createFastEvaluator(
+                expressions[i],
+                Predicate.class,
+                new String[] { "x", "name" }
+            );
+            assertEquals(i == 0, p.evaluate(20, "foo"));
+            assertEquals(i == 1, p.evaluate(50, "bar"));
+            evaluators[i] = p;
+        }
+        assertSame(evaluators[0].getClass(), evaluators[1].getClass());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(2, cache.getHitCount());
+
+        // Literals that must be constant expressions.
+        ScriptEvaluator se = new ScriptEvaluator();
+        se.setHoistLiterals(true);
+        se.setReturnType(int.class);
+        se.cook("byte b = 7; switch (b) { case 7: return -2147483648; default: return 0; }");
+        assertEquals(new Integer(Integer.MIN_VALUE), se.evaluate(new Object[0]));
+
+        // Hoisted strings are interned, and constant operations are not hoisted.
+        ExpressionEvaluator ee = new ExpressionEvaluator();
+        ee.setHoistLiterals(true);
+        ee.setExpressionType(boolean.class);
+        ee.setParameters(new String[] { "name" }, new Class[] { String.class });
+        ee.cook("name == \"foo\" && \"a\" + \"b\" == \"ab\" && 60 * 60 == 3600");
+        assertEquals(Boolean.TRUE, ee.evaluate(new Object[] { "foo" }));
+        assertEquals(2, ee.getMethod().getParameterTypes().length);
+
+        // Errors that are not caused by hoisting are reported as they are.
+        ee = new ExpressionEvaluator();
+        ee.setHoistLiterals(true);
+        try {
+            ee.cook("undefinedVariable + 7");
+            fail();
+        } catch (CompileException ce) {
+            assertTrue(ce.getMessage(), ce.getMessage().indexOf("undefinedVariable") != -1);
+        }
+    }
+
+    public
+    interface Predicate {
+        boolean evaluate(int x, String name);
+    }
+
+    @Test public void
+    testConcurrentCooksWithSharedIClassLoader() throws Exception {
+        final ClassLoaderIClassLoaderCache cache  = new ClassLoaderIClassLoaderCache(10);
+        final Throwable[]                  failed = new Throwable[1];
+
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; ++i) {
+            final int threadIndex = i;
+            threads[i] = new Thread() {
+
+                @Override public void
+                run() {
+                    try {
+                        for (int j = 0; j < 20; ++j) {
+                            ExpressionEvaluator ee = new ExpressionEvaluator();
+                            ee.setClassLoaderIClassLoaderCache(cache);
+                            ee.setExpressionType(String.class);
+                            ee.setParameters(new String[] { "s" }, new Class[] { String.class });
+                            ee.cook("s.substring(1) + java.util.Collections.singletonList(new Integer(" + j + "))");
+                            assertEquals("bc[" + j + "]", ee.evaluate(new Object[] { "abc" }));
+                        }
+                    } catch (Throwable t) { // SUPPRESS CHECKSTYLE IllegalCatch
+                        synchronized (failed) { failed[0] = t; }
+                    }
+                }
+            };
+            threads[threadIndex].start();
+        }
+        for (int i = 0; i < threads.length; ++i) threads[i].join();
+        synchronized (failed) {
+            if (failed[0] != null) throw new AssertionError(failed[0]);
+        }
+    }
+
+    @Test public void
+    testEvaluateWithInvoker() throws Exception {
+        // By default, no invoker is generated.
+        ExpressionEvaluator ee = new ExpressionEvaluator("7", int.class, new String[0], new Class[0]);
+        assertEquals(0, ee.getMethod().getDeclaringClass().getDeclaredClasses().length);
+
+        ScriptEvaluator se = new ScriptEvaluator();
+        se.setGenerateInvoker(true);
+        se.setMethodNames(new String[] { "sum", "length", "nop" });
+        se.setReturnTypes(new Class[] { long.class, int.class, void.class });
+        se.setStaticMethod(new boolean[] { true, true, false });
+        se.setParameters(
+            new String[][] { { "a", "b" }, { "s" }, {} },
+            new Class[][] { { int.class, long.class }, { String.class }, {} }
+        );
+        se.cook(new String[] { "return a + b;", "return s.length();", "" });
+
+        assertEquals(new Long(5), se.evaluate(0, new Object[] { new Integer(2), new Long(3) }));
+        assertEquals(new Integer(3), se.evaluate(1, new Object[] { "abc" }));
+
+        // Widening conversion of the arguments, like "Method.invoke()".
+        assertEquals(new Long(5), se.evaluate(0, new Object[] { new Integer(2), new Integer(3) }));
+
+        // Exceptions thrown by the script are wrapped, arguments that do not match the parameters are not.
+        try {
+            se.evaluate(1, new Object[] { null });
+            fail("InvocationTargetException expected");
+        } catch (InvocationTargetException ite) {
+            assertSame(NullPointerException.class, ite.getTargetException().getClass());
+        }
+        try {
+            se.evaluate(0, new Object[] { new Integer(2) });
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException iae) {
+            ;
+        }
+        try {
+            se.evaluate(1, new Object[] { new Integer(2) });
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException iae) {
+            ;
+        }
+
+        // Non-static methods cannot be evaluated.
+        try {
+            se.evaluate(2, new Object[0]);
+            fail("NullPointerException expected");
+        } catch (NullPointerException npe) {
+            ;
+        }
+    }
+
+    @Test public void
+    testEvaluatePrimitive() throws Exception {
+        ExpressionEvaluator ee = new ExpressionEvaluator();
+        ee.setGenerateInvoker(true);
+        ee.setExpressionTypes(new Class[] { double.class, int.class, Number.class, boolean.class });
+        ee.setParameters(
+            new String[][] { { "x", "y" }, { "a", "b" }, { "n" }, { "c" } },
+            new Class[][] { { double.class, float.class }, { int.class, char.class }, { Object.class }, { int.class } }
+        );
+        ee.cook(new String[] { "x * y", "a / b", "(Number) n", "c > 0" });
+
+        // Through the generated invoker.
+        assertEquals(7.5, ee.evaluateDouble(0, new double[] { 2.5, 3 }), 0.0);
+        assertEquals(7L, ee.evaluateLong(0, new long[] { 2, 3 }) + 1);
+        assertEquals(3L, ee.evaluateLong(1, new long[] { 150, 'x' - 70 }));
+        assertEquals(3.0, ee.evaluateDouble(1, new double[] { 150.9, 50 }), 0.0);
+
+        // Through reflection.
+        assertEquals(2.5, ee.evaluateDouble(2, new double[] { 2.5 }), 0.0);
+        assertEquals(-4L, ee.evaluateLong(2, new long[] { -4 }));
+        try {
+            ee.evaluateDouble(3, new double[] { 1 });
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException iae) {
+            ;
+        }
+
+        // Exceptions thrown by the expression are wrapped.
+        try {
+            ee.evaluateLong(1, new long[] { 1, 0 });
+            fail("InvocationTargetException expected");
+        } catch (InvocationTargetException ite) {
+            assertSame(ArithmeticException.class, ite.getTargetException().getClass());
+        }
+
+        // Hoisted literals are passed to the invoker, too.
+        ee = new ExpressionEvaluator();
+        ee.setGenerateInvoker(true);
+        ee.setHoistLiterals(true);
+        ee.setExpressionType(long.class);
+        ee.setParameters(new String[] { "a" }, new Class[] { long.class });
+        ee.cook("a / (a - 3) + 7");
+        assertEquals(11L, ee.evaluateLong(0, new long[] { 4 }));
+        assertEquals(11.0, ee.evaluateDouble(0, new double[] { 4 }), 0.0);
+        try {
+            ee.evaluateDouble(0, new double[] { 3 });
+            fail("InvocationTargetException expected");
+        } catch (InvocationTargetException ite) {
+            String caller = ite.getTargetException().getStackTrace()[1].getClassName();
+            assertTrue(caller, caller.endsWith("$Invoker"));
+        }
+    }
+
+    @Test public void
+    testEvaluateBatch() throws Exception {
+        for (int pass = 0; pass < 2; ++pass) {
+            ExpressionEvaluator ee = new ExpressionEvaluator();
+            ee.setBatchEvaluation(pass == 0);
+            ee.setExpressionTypes(new Class[] { double.class, String.class, int.class });
+            ee.setParameters(
+                new String[][] { { "x", "n" }, { "s", "i" }, { "n" } },
+                new Class[][] { { double.class, int.class }, { String.class, long.class }, { int.class } }
+            );
+            ee.cook(new String[] { "x * n", "s + i", "100 / n" });
+
+            double[] out = new double[4];
+            ee.evaluateBatch(
+                0,
+                new Object[] { new double[] { 1.5, 2.5, 3.5, 4.5 }, new int[] { 2, 3, 4, 5 } },
+                out,
+                1,
+                3
+            );
+            assertEquals(0.0, out[0], 0.0);
+            assertEquals(7.5, out[1], 0.0);
+            assertEquals(14.0, out[2], 0.0);
+            assertEquals(0.0, out[3], 0.0);
+
+            Object[] out2 = new Object[2];
+            ee.evaluateBatch(1, new Object[] { new Object[] { "a", "b" }, new long[] { 1, 2 } }, out2, 0, 2);
+            assertEquals("a1", out2[0]);
+            assertEquals("b2", out2[1]);
+
+            // A script exception aborts the batch after the preceding rows.
+            int[] out3 = new int[3];
+            try {
+                ee.evaluateBatch(2, new Object[] { new int[] { 5, 0, 2 } }, out3, 0, 3);
+                fail("InvocationTargetException expected");
+            } catch (InvocationTargetException ite) {
+                assertSame(ArithmeticException.class, ite.getTargetException().getClass());
+            }
+            assertEquals(20, out3[0]);
+            assertEquals(0, out3[2]);
+
+            try {
+                ee.evaluateBatch(0, new Object[] { new double[2], new int[1] }, out, 0, 2);
+                fail("IndexOutOfBoundsException expected");
+            } catch (IndexOutOfBoundsException ioobe) {
+                ;
+            }
+
+            // A column element of the wrong type must not cause any row to be evaluated twice.
+            ExpressionEvaluator ee2 = new ExpressionEvaluator();
+            ee2.setBatchEvaluation(pass == 0);
+            ee2.setExpressionType(int.class);
+            ee2.setParameters(new String[] { "s", "count" }, new Class[] { String.class, AtomicInteger.class });
+            ee2.cook("count.getAndIncrement() + s.length()");
+            AtomicInteger count = new AtomicInteger();
+            int[]         out4  = new int[3];
+            try {
+                ee2.evaluateBatch(new Object[] { new Object[] { "a", "bb", new Integer(3) }, new Object[] {
+                    count, count, count
+                } }, out4, 0, 3);
+                fail("IllegalArgumentException expected");
+            } catch (IllegalArgumentException iae) {
+                ;
+            }
+            assertEquals(2, count.get());
+            assertEquals(1, out4[0]);
+            assertEquals(3, out4[1]);
+        }
+    }
+
+    @Test public void
+    testInterpreted() throws Exception {
+        ExpressionEvaluator ee = new ExpressionEvaluator();
+        ee.setInterpreted(true);
+        ee.setExpressionTypes(new Class[] { int.class, String.class, long.class });
+        ee.setParameters(
+            new String[][] { { "a", "b" }, { "s", "x" }, { "n" } },
+            new Class[][] { { int.class, int.class }, { String.class, double.class }, { int.class } }
+        );
+        ee.cook(new String[] { "a + b * Math.max(a, b)", "s.length() > 2 ? s + x : \"short\"", "100 / n" });
+        assertEquals(new Integer(28), ee.evaluate(0, new Object[] { new Integer(3), new Integer(5) }));
+        assertEquals("abc1.5", ee.evaluate(1, new Object[] { "abc", new Double(1.5) }));
+        assertEquals("short", ee.evaluate(1, new Object[] { "ab", new Double(1.5) }));
+        assertEquals(25L, ee.evaluateLong(2, new long[] { 4 }));
+        try {
+            ee.evaluate(2, new Object[] { new Integer(0) });
+            fail("InvocationTargetException expected");
+        } catch (InvocationTargetException ite) {
+            assertSame(ArithmeticException.class, ite.getTargetException().getClass());
+        }
+
+        ScriptEvaluator se = new ScriptEvaluator();
+        se.setInterpreted(true);
+        se.setReturnType(String.class);
+        se.setParameters(new String[] { "n" }, new Class[] { int.class });
+        se.cook(
+            ""
+            + "StringBuilder sb = new StringBuilder();\n"
+            + "int[] squares = new int[n];\n"
+            + "outer: for (int i = 0; i < n; i++) {\n"
+            + "    squares[i] = i * i;\n"
+            + "    switch (i % 3) {\n"
+            + "    case 0:  sb.append('z'); break;\n"
+            + "    case 1:  continue outer;\n"
+            + "    default: sb.append(squares[i]);\n"
+            + "    }\n"
+            + "}\n"
+            + "try {\n"
+            + "    sb.append(squares[n]);\n"
+            + "} catch (ArrayIndexOutOfBoundsException e) {\n"
+            + "    sb.append('!');\n"
+            + "}\n"
+            + "return sb.toString();\n"
+        );
+        assertEquals("z4z25!", se.evaluate(new Object[] { new Integer(6) }));
+
+        // The null type, interned string constants, unboxing of null, and public methods of non-public classes.
+        ee = new ExpressionEvaluator();
+        ee.setInterpreted(true);
+        ee.setExpressionTypes(new Class[] { boolean.class, boolean.class, int.class, int.class });
+        ee.setParameters(
+            new String[][] { { "s" }, { "s" }, { "s" }, { "s" } },
+            new Class[][] { { String.class }, { String.class }, { String.class }, { String.class } }
+        );
+        ee.cook(new String[] { "null == s", "s == \"a\" + \"bc\"", "(Integer) null", "new StringBuilder(s).length()" });
+        assertEquals(Boolean.TRUE, ee.evaluate(0, new Object[] { null }));
+        assertEquals(Boolean.FALSE, ee.evaluate(0, new Object[] { "abc" }));
+        assertEquals(Boolean.TRUE, ee.evaluate(1, new Object[] { "abc" }));
+        assertEquals(Boolean.FALSE, ee.evaluate(1, new Object[] { new String("abc") }));
+        try {
+            ee.evaluate(2, new Object[] { "abc" });
+            fail("InvocationTargetException expected");
+        } catch (InvocationTargetException ite) {
+            assertSame(NullPointerException.class, ite.getTargetException().getClass());
+        }
+        assertEquals(new Integer(3), ee.evaluate(3, new Object[] { "abc" }));
+
+        // Code that the compiler rejects is also rejected.
+        String[][] invalid = {
+            { "double", "(Object) a" },
+            { "double", "String.valueOf(a)" },
+            { "int",    "a++" },
+            { "int",    ExpressionEvaluatorTest.Acc.class.getName().replace('$', '.') + ".Secret.FIELD" },
+        };
+        for (int i = 0; i < invalid.length; ++i) {
+            ExpressionEvaluator ee2 = new ExpressionEvaluator();
+            ee2.setInterpreted(true);
+            ee2.setExpressionType("int".equals(invalid[i][0]) ? int.class : double.class);
+            ee2.setParameters(new String[] { "a" }, new Class[] { int.class });
+            try {
+                ee2.cook(invalid[i][1]);
+                fail("CompileException expected for \"" + invalid[i][1] + "\"");
+            } catch (CompileException ce) {
+                ;
+            }
+        }
+
+        // Members that only the generated class could access are rejected.
+        try {
+            ExpressionEvaluator ee2 = new ExpressionEvaluator();
+            ee2.setInterpreted(true);
+            ee2.setClassName(this.getClass().getPackage().getName() + ".Interpreted");
+            ee2.setExpressionType(int.class);
+            ee2.cook(ExpressionEvaluatorTest.Acc.class.getName().replace('$', '.') + ".PACKAGE_FIELD");
+            fail("CompileException expected");
+        } catch (CompileException ce) {
+            assertTrue(ce.getMessage(), ce.getMessage().contains("not accessible in interpreted mode"));
+        }
+
+        // Code that relies on the generated class is rejected.
+        try {
+            new ExpressionEvaluator() { { this.setInterpreted(true); } }.cook("this.hashCode()");
+            fail("CompileException expected");
+        } catch (CompileException ce) {
+            ;
+        }
+    }
+
+    public static
+    class Acc {
+
+        static final Integer PACKAGE_FIELD = new Integer(8);
+
+        private static
+        class Secret {
+            private static final Integer FIELD = new Integer(7);
+        }
+    }
+
+    @Test public void
+    testTiered() throws Exception {
+        ExpressionEvaluator ee = new ExpressionEvaluator();
+        ee.setInterpreted(true);
+        ee.setCompileThreshold(3);
+        ee.setCompileExecutor(new Executor() {
+
+            @Override public void
+            execute(Runnable command) { command.run(); }
+        });
+        ee.setExpressionType(int.class);
+        ee.setParameters(new String[] { "a", "b" }, new Class[] { int.class, int.class });
+        ee.cook("a * b + 1");
+
+        for (int i = 0; i < 5; ++i) {
+            try {
+                ee.getMethod();
+                assertTrue("Compiled too early", i >= 3);
+            } catch (UnsupportedOperationException uoe) {
+                assertTrue("Not compiled", i < 3);
+            }
+            assertEquals(new Integer(i * 2 + 1), ee.evaluate(new Object[] { new Integer(i), new Integer(2) }));
+        }
+    }
+
+    @Test public void
+    testTieredAgreement() throws Exception {
+        final Runnable[] compilation = new Runnable[1];
+        ExpressionEvaluator ee = new ExpressionEvaluator();
+        ee.setInterpreted(true);
+        ee.setCompileThreshold(1);
+        ee.setCompileExecutor(new Executor() {
+
+            @Override public void
+            execute(Runnable command) { compilation[0] = command; }
+        });
+        String[] expressions = {
+            "s == null",
+            "null != o",
+            "s == \"abc\"",
+            "s == \"ab\" + \"c\"",
+            "s + o",
+            "(String) o",
+            "(Object) i",
+            "(Integer) o == null ? -1 : (Integer) o + i",
+            "(int) d + (char) i",
+            "o instanceof String ? ((String) o).length() : 0",
+            "(Integer) i == (Integer) i",
+            "(Integer) (i * 100) == (Integer) (i * 100)",
+            "(Object) d == (Object) d",
+            "(i > 0 ? (Integer) i : null) == (Object) i",
+        };
+        ee.setExpressionTypes(new Class[] {
+            boolean.class,
+            boolean.class,
+            boolean.class,
+            boolean.class,
+            String.class,
+            String.class,
+            Object.class,
+            int.class,
+            int.class,
+            int.class,
+            boolean.class,
+            boolean.class,
+            boolean.class,
+            boolean.class,
+        });
+        String[]   parameterNames = { "s", "o", "i", "d" };
+        Class[]    parameterTypes = { String.class, Object.class, int.class, double.class };
+        String[][] allNames       = new String[expressions.length][];
+        Class[][]  allTypes       = new Class[expressions.length][];
+        Arrays.fill(allNames, parameterNames);
+        Arrays.fill(allTypes, parameterTypes);
+        ee.setParameters(allNames, allTypes);
+        ee.cook(expressions);
+
+        Object[][] rows = {
+            { null, null, new Integer(3), new Double(2.7) },
+            { "abc", "xyz", new Integer(-1), new Double(-2.7) },
+            { new String("abc"), new Integer(7), new Integer(65), new Double(1e10) },
+        };
+        Object[][] interpreted = new Object[expressions.length][rows.length];
+        for (int i = 0; i < expressions.length; ++i) {
+            for (int j = 0; j < rows.length; ++j) interpreted[i][j] = ExpressionEvaluatorTest.outcome(ee, i, rows[j]);
+        }
+
+        compilation[0].run();
+        ee.getMethod(); // Throws an UnsupportedOperationException while interpreted.
+
+        for (int i = 0; i < expressions.length; ++i) {
+            for (int j = 0; j < rows.length; ++j) {
+                assertEquals(
+                    expressions[i] + " " + Arrays.asList(rows[j]),
+                    interpreted[i][j],
+                    ExpressionEvaluatorTest.outcome(ee, i, rows[j])
+                );
+            }
+        }
+    }
+
+    /**
+     * @return The value of the <var>idx</var>th expression, or the class of the exception it throws
+     */
+    private static Object
+    outcome(ExpressionEvaluator ee, int idx, Object[] arguments) {
+        try {
+            return ee.evaluate(idx, arguments);
+        } catch (InvocationTargetException ite) {
+            return ite.getTargetException().getClass();
+        }
+    }
+
+    /**
+     * Boxing must yield the same object identities when interpreted as when compiled (JLS7 5.1.7).
+     */
+    @Test public void
+    testInterpretedBoxing() throws Exception {
+        String[] scripts = {
+            "Integer a = 100; a++; Integer b = 101; return \"\" + (a == b);",
+            "Integer a = 127, b = 127; return \"\" + (a == b);",
+            "Integer a = 1000, b = 1000; return \"\" + (a == b);",
+            "int x = 1000; Integer a = x, b = x; return \"\" + (a == b);",
+            "Integer a = 5; a += 3; Integer b = 8; return \"\" + (a == b);",
+            "Object o = 'x'; return \"\" + (o == (Object) 'x');",
+            "Long l = 7L; return \"\" + (l == Long.valueOf(7));",
+            "Byte b = 7; Object o = (byte) 7; return \"\" + (b == o);",
+        };
+        String[] expected = { "true", "true", "false", "false", "true", "true", "true", "true" };
+        for (int i = 0; i < scripts.length; ++i) {
+            for (int pass = 0; pass < 2; ++pass) {
+                ScriptEvaluator se = new ScriptEvaluator();
+                se.setInterpreted(pass == 0);
+                se.setReturnType(String.class);
+                se.cook(scripts[i]);
+                assertEquals(scripts[i], expected[i], se.evaluate(new Object[0]));
+            }
+        }
+    }
+
+    @Test public void
+    testHiddenClass() throws Exception {
+        Object lookup;
+        try {
+            Class.class.getMethod("isHidden", new Class[0]);
+            lookup = Class.forName("java.lang.invoke.MethodHandles").getMethod("lookup", new Class[0]).invoke(null);
+        } catch (NoSuchMethodException nsme) {
+            return; // Hidden classes require JDK 15+.
+        }
+
+        ExpressionEvaluator ee = new ExpressionEvaluator();
+        ee.setHiddenClassHost(lookup);
+        ee.setParentClassLoader(this.getClass().getClassLoader());
+        ee.setClassName(this.getClass().getPackage().getName() + ".HiddenEvaluator");
+        ee.setExpressionType(int.class);
+        ee.setParameters(new String[] { "a" }, new Class[] { int.class });
+        ee.cook("a * 2");
+        assertEquals(new Integer(42), ee.evaluate(new Object[] { new Integer(21) }));
+
+        Class c = ee.getMethod().getDeclaringClass();
+        assertEquals(Boolean.TRUE, Class.class.getMethod("isHidden", new Class[0]).invoke(c));
+        assertSame(this.getClass().getClassLoader(), c.getClassLoader());
+
+        // Evaluators with and without a host must not share a cached class; evaluators with the same host do.
+        EvaluatorCache        cache     = new EvaluatorCache(10, 100000);
+        ExpressionEvaluator[] ees       = new ExpressionEvaluator[3];
+        String                className = this.getClass().getPackage().getName() + ".CachedHiddenEvaluator";
+        for (int i = 0; i < ees.length; ++i) {
+            ees[i] = new ExpressionEvaluator();
+            if (i != 1) ees[i].setHiddenClassHost(lookup);
+            ees[i].setEvaluatorCache(cache);
+            ees[i].setParentClassLoader(this.getClass().getClassLoader());
+            ees[i].setClassName(className);
+            ees[i].setExpressionType(int.class);
+            ees[i].setParameters(new String[] { "a" }, new Class[] { int.class });
+            ees[i].cook("a * 3");
+            assertEquals(new Integer(63), ees[i].evaluate(new Object[] { new Integer(21) }));
+        }
+        assertEquals(2, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+        assertSame(ees[0].getMethod().getDeclaringClass(), ees[2].getMethod().getDeclaringClass());
+    }
+
+    @Test public void
+    testClassLoaderPool() throws Exception {
+        ClassLoaderPool pool = new ClassLoaderPool(100);
+
+        ClassLoader cl = null;
+        for (int i = 0; i < 10; ++i) {
+            ExpressionEvaluator ee = new ExpressionEvaluator();
+            ee.setClassLoaderPool(pool);
+            ee.setExpressionType(int.class);
+            ee.setParameters(new String[] { "a" }, new Class[] { int.class });
+            ee.cook("a * " + i);
+            assertEquals(new Integer(2 * i), ee.evaluate(new Object[] { new Integer(2) }));
+
+            ClassLoader cl2 = ee.getMethod().getDeclaringClass().getClassLoader();
+            if (cl != null) assertSame(cl, cl2);
+            cl = cl2;
+        }
+        assertEquals(1, pool.getGenerationCount());
+
+        // Same class names go into different generations.
+        SimpleCompiler sc1 = new SimpleCompiler();
+        sc1.setClassLoaderPool(pool);
+        sc1.cook("public class A { public static int f() { return 1; } }");
+        SimpleCompiler sc2 = new SimpleCompiler();
+        sc2.setClassLoaderPool(pool);
+        sc2.cook("public class A { public static int f() { return 2; } }");
+        assertEquals(new Integer(1), sc1.getClassLoader().loadClass("A").getMethod("f").invoke(null));
+        assertEquals(new Integer(2), sc2.getClassLoader().loadClass("A").getMethod("f").invoke(null));
+        assertEquals(2, pool.getGenerationCount());
+    }
+
+    @Test public void
+    testCompact() throws Exception {
+        String cu = "public class A { public static int f() { return 1; } public static class B {} }";
+        for (int pass = 0; pass < 2; ++pass) {
+            boolean        compact = pass == 1;
+            SimpleCompiler sc1     = new SimpleCompiler();
+            SimpleCompiler sc2     = new SimpleCompiler();
+            sc1.setCompact(compact);
+            sc2.setCompact(compact);
+
+            // Track the compile-time objects of "sc1" through weak references: The parsed compilation unit, and the
+            // ClassLoaderIClassLoader (with its IClasses) that the (non-caching) cache creates.
+            final List iClassLoaderRefs = new ArrayList(); // WeakReference => ClassLoaderIClassLoader
+            sc1.setClassLoaderIClassLoaderCache(new ClassLoaderIClassLoaderCache(1) {
+
+                @Override public synchronized ClassLoaderIClassLoader
+                get(ClassLoader classLoader) {
+                    ClassLoaderIClassLoader result = new ClassLoaderIClassLoader(classLoader);
+                    iClassLoaderRefs.add(new WeakReference(result));
+                    return result;
+                }
+            });
+            WeakReference astRef = ExpressionEvaluatorTest.cook(sc1, cu);
+            sc2.cook(cu);
+            assertEquals(1, iClassLoaderRefs.size());
+            WeakReference iClassLoaderRef = (WeakReference) iClassLoaderRefs.get(0);
+
+            for (int i = 0; i < 100 && (astRef.get() != null || iClassLoaderRef.get() != null); ++i) {
+                System.gc();
+                Thread.sleep(10);
+            }
+
+            // The parsed compilation unit is never retained; the ClassLoaderIClassLoader and the class file bytes
+            // are retained unless compacting.
+            assertNull(astRef.get());
+            assertEquals(!compact, iClassLoaderRef.get() != null);
+            assertEquals(compact ? 0 : 2, ExpressionEvaluatorTest.getClassFileBytes(sc1.getClassLoader()).size());
+
+            // Compaction defines all classes and releases the class file bytes; thus the class loaders are no longer
+            // equal.
+            ClassLoader cl = sc1.getClassLoader();
+            assertEquals(!compact, cl.equals(sc2.getClassLoader()));
+            assertEquals(new Integer(1), cl.loadClass("A").getMethod("f").invoke(null));
+            assertEquals("A$B", cl.loadClass("A$B").getName());
+        }
+
+        ExpressionEvaluator ee = new ExpressionEvaluator();
+        ee.setCompact(true);
+        ee.setExpressionType(int.class);
+        ee.setParameters(new String[] { "a" }, new Class[] { int.class });
+        ee.cook("a * 7");
+        assertEquals(new Integer(14), ee.evaluate(new Object[] { new Integer(2) }));
+    }
+
+    /**
+     * Parses and cooks the given compilation unit.
+     *
+     * @return A weak reference to the parsed compilation unit
+     */
+    private static WeakReference
+    cook(SimpleCompiler sc, String cu) throws Exception {
+        Java.CompilationUnit compilationUnit = (
+            new Parser(new Scanner(null, new StringReader(cu))).parseCompilationUnit()
+        );
+        sc.cook(compilationUnit);
+        return new WeakReference(compilationUnit);
+    }
+
+    /**
+     * @return The class file bytes that the given {@link ByteArrayClassLoader} keeps
+     */
+    private static Map
+    getClassFileBytes(ClassLoader byteArrayClassLoader) throws Exception {
+        Field f = ByteArrayClassLoader.class.getDeclaredField("classes");
+        f.setAccessible(true);
+        return (Map) f.get(byteArrayClassLoader);
+    }
 }
@@ -0,0 +1,263 @@
+
+/*
+ * Janino - An embedded Java[TM] compiler
+ *
+ * Copyright (c) 2001-2010, Arno Unkrig
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *       following disclaimer.
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *       following disclaimer in the documentation and/or other materials provided with the distribution.
+ *    3. The name of the author may not be used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.codehaus.janino;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.codehaus.commons.compiler.ICookable;
+import org.codehaus.janino.Java.PackageMemberTypeDeclaration;
+import org.codehaus.janino.util.ClassFile;
+import org.codehaus.janino.util.ClassFileArchive;
+import org.codehaus.janino.util.resource.Resource;
+import org.codehaus.janino.util.resource.ResourceFinder;
+
+/**
+ * A {@link JavaSourceClassLoader} that caches the compiled classes in a {@link ClassFileArchive}.
+ * <p>
+ * Unlike {@link CachingJavaSourceClassLoader}, which compares the modification times of the source and class files,
+ * this class validates a cached class file by a digest of the content of its source file and the relevant compiler
+ * settings. Thus it also works with sources that have no reliable modification times (e.g. from JAR files or fresh
+ * checkouts), and it needs no file system access for the cache beyond the single archive file.
+ * <p>
+ * Like with {@link CachingJavaSourceClassLoader}, a cached class file is reused if its <i>own</i> source file is
+ * unchanged, even if source files that it depends on have changed.
+ */
+@SuppressWarnings({ "rawtypes", "unchecked" }) public
+class ArchiveCachingJavaSourceClassLoader extends JavaSourceClassLoader {
+
+    static {
+        ClassLoader.registerAsParallelCapable();
+    }
+
+
+    /**
+     * @param parentClassLoader         Attempt to load classes through this one before looking for source files
+     * @param sourceFinder              Finds Java&trade; source for class {@code pkg.Cls} in resource {@code
+     *                                  pkg/Cls.java}
+     * @param optionalCharacterEncoding Encoding of Java&trade; source or {@code null} for platform default encoding
+     * @param classFileArchive          Caches the compiled classes; may be shared by several class loaders
+     */
+    public
+    ArchiveCachingJavaSourceClassLoader(
+        ClassLoader      parentClassLoader,
+        ResourceFinder   sourceFinder,
+        String           optionalCharacterEncoding,
+        ClassFileArchive classFileArchive
+    ) {
+        this(parentClassLoader, new SourceFinder(sourceFinder), optionalCharacterEncoding, classFileArchive);
+    }
+
+    private
+    ArchiveCachingJavaSourceClassLoader(
+        ClassLoader      parentClassLoader,
+        SourceFinder     sourceFinder,
+        String           optionalCharacterEncoding,
+        ClassFileArchive classFileArchive
+    ) {
+        super(parentClassLoader, sourceFinder, optionalCharacterEncoding);
+        this.sourceFinder              = sourceFinder;
+        this.optionalCharacterEncoding = optionalCharacterEncoding;
+        this.classFileArchive          = classFileArchive;
+    }
+
+    @Override public void
+    setSourceFinder(ResourceFinder sourceFinder) {
+        this.sourceFinder = new SourceFinder(sourceFinder);
+        super.setSourceFinder(this.sourceFinder);
+    }
+
+    @Override public void
+    setSourceFileCharacterEncoding(String optionalCharacterEncoding) {
+        super.setSourceFileCharacterEncoding(optionalCharacterEncoding);
+        this.optionalCharacterEncoding = optionalCharacterEncoding;
+    }
+
+    @Override public void
+    setDebuggingInfo(boolean debugSource, boolean debugLines, boolean debugVars) {
+        super.setDebuggingInfo(debugSource, debugLines, debugVars);
+        this.debugSource = debugSource;
+        this.debugLines  = debugLines;
+        this.debugVars   = debugVars;
+    }
+
+    /**
+     * Override {@link JavaSourceClassLoader#generateBytecodes(String)} to implement class file caching.
+     *
+     * @return                        String name => byte[] bytecode, or {@code null} if no source code could be found
+     * @throws ClassNotFoundException Compilation problems or class file archive I/O problems
+     */
+    @Override protected Map
+    generateBytecodes(String className) throws ClassNotFoundException {
+
+        // Check whether the archive holds a class file that was generated from the current source code. (Nested
+        // classes are checked against the same version of the source file as their top-level class.)
+        String sourceResourceName = ClassFile.getSourceResourceName(className);
+        byte[] digest             = (byte[]) this.sourceFinder.digests.get(sourceResourceName);
+        if (digest == null) {
+            this.sourceFinder.findResource(sourceResourceName);
+            digest = (byte[]) this.sourceFinder.digests.get(sourceResourceName);
+        }
+        if (digest != null) {
+            byte[] bytecode;
+            try {
+                bytecode = this.classFileArchive.get(className, this.key(digest));
+            } catch (IOException ioe) {
+                throw new ClassNotFoundException("Reading class file archive", ioe);
+            }
+            if (bytecode != null) return Collections.singletonMap(className, bytecode);
+        }
+
+        // Cache miss... generate the bytecode from source.
+        Map bytecodes = super.generateBytecodes(className);
+        if (bytecodes == null) return null;
+
+        // Store the generated bytecodes in the archive.
+        for (Iterator it = bytecodes.entrySet().iterator(); it.hasNext();) {
+            Map.Entry me         = (Map.Entry) it.next();
+            String    className2 = (String) me.getKey();
+            byte[]    key        = (byte[]) this.keys.remove(className2);
+            if (key == null) continue;
+
+            try {
+                this.classFileArchive.put(className2, key, (byte[]) me.getValue());
+            } catch (IOException ioe) {
+                throw new ClassNotFoundException("Writing class \"" + className2 + "\" to class file archive", ioe);
+            }
+        }
+
+        return bytecodes;
+    }
+
+    /**
+     * Determines the keys for the classes of the compilation unit from the version of the source file that was
+     * actually parsed.
+     */
+    @Override protected void
+    unitCompiled(UnitCompiler unitCompiler, Map bytecodes) {
+        PackageMemberTypeDeclaration[] pmtds = unitCompiler.compilationUnit.getPackageMemberTypeDeclarations();
+        for (int i = 0; i < pmtds.length; ++i) {
+            String sourceResourceName = ClassFile.getSourceResourceName(pmtds[i].getClassName());
+            byte[] digest             = (byte[]) this.sourceFinder.digests.get(sourceResourceName);
+            if (digest == null) continue;
+
+            // Only classes that are later looked up through the same source file are worth caching.
+            byte[] key = this.key(digest);
+            for (Iterator it = bytecodes.keySet().iterator(); it.hasNext();) {
+                String className = (String) it.next();
+                if (ClassFile.getSourceResourceName(className).equals(sourceResourceName)) {
+                    this.keys.put(className, key);
+                }
+            }
+            return;
+        }
+    }
+
+    /**
+     * @return A digest of the given source file digest and the compiler settings
+     */
+    private byte[]
+    key(byte[] sourceDigest) {
+        MessageDigest md = ArchiveCachingJavaSourceClassLoader.md5();
+        md.update(sourceDigest);
+        md.update((
+            "debugSource="
+            + this.debugSource
+            + ",debugLines="
+            + this.debugLines
+            + ",debugVars="
+            + this.debugVars
+            + ",encoding="
+            + this.optionalCharacterEncoding
+        ).getBytes());
+        return md.digest();
+    }
+
+    private static MessageDigest
+    md5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException nsae) {
+            throw new JaninoRuntimeException(nsae.toString());
+        }
+    }
+
+    /**
+     * A {@link ResourceFinder} that reads each resource that it finds into memory, records the digest of its content,
+     * and returns a {@link Resource} that is backed by exactly that content.
+     */
+    private static final
+    class SourceFinder extends ResourceFinder {
+
+        final ResourceFinder delegate;
+        final Map            digests = Collections.synchronizedMap(new HashMap()); // String resourceName => byte[]
+
+        SourceFinder(ResourceFinder delegate) { this.delegate = delegate; }
+
+        @Override public Resource
+        findResource(String resourceName) {
+            final Resource resource = this.delegate.findResource(resourceName);
+            if (resource == null) return null;
+
+            final byte[] content;
+            try {
+                content = CachingJavaSourceClassLoader.readResource(resource);
+            } catch (IOException ioe) {
+
+                // Leave the error reporting to whoever opens the resource.
+                return resource;
+            }
+            this.digests.put(resourceName, ArchiveCachingJavaSourceClassLoader.md5().digest(content));
+
+            return new Resource() {
+                @Override public InputStream open()         { return new ByteArrayInputStream(content); }
+                @Override public String      getFileName()  { return resource.getFileName(); }
+                @Override public long        lastModified() { return resource.lastModified(); }
+                @Override public String      toString()     { return resource.toString(); }
+            };
+        }
+    }
+
+    private SourceFinder           sourceFinder;
+    private String                 optionalCharacterEncoding;
+    private final ClassFileArchive classFileArchive;
+
+    private boolean debugSource = Boolean.getBoolean(ICookable.SYSTEM_PROPERTY_SOURCE_DEBUGGING_ENABLE);
+    private boolean debugLines  = this.debugSource;
+    private boolean debugVars   = this.debugSource;
+
+    /**
+     * The keys of the classes that {@link #generateBytecodes(String)} has yet to store in the archive.
+     */
+    private final Map keys = new HashMap(); // String className => byte[] key
+}
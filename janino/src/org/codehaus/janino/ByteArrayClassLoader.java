@@ -75,6 +75,25 @@ class ByteArrayClassLoader extends ClassLoader {
         );
     }
 
+    /**
+     * Defines all classes that have not been loaded yet, and then releases the class file bytes. Afterwards, this
+     * {@link ByteArrayClassLoader} is only equal to itself.
+     */
+    public synchronized void
+    defineAll() {
+        for (Iterator it = this.classes.keySet().iterator(); it.hasNext();) {
+            String name = (String) it.next();
+            if (this.findLoadedClass(name) != null) continue;
+            try {
+                this.loadClass(name);
+            } catch (ClassNotFoundException cnfe) {
+                throw new JaninoRuntimeException("SNO: Cannot define class \"" + name + "\"", cnfe);
+            }
+        }
+        this.classes  = Collections.EMPTY_MAP;
+        this.released = true;
+    }
+
     /**
      * An object is regarded equal to <code>this</code> iff
      * <ul>
@@ -90,6 +109,7 @@ class ByteArrayClassLoader extends ClassLoader {
         if (!(o instanceof ByteArrayClassLoader)) return false;
         if (this == o) return true;
         ByteArrayClassLoader that = (ByteArrayClassLoader) o;
+        if (this.released || that.released) return false;
 
         {
             final ClassLoader parentOfThis = this.getParent();
@@ -122,5 +142,6 @@ class ByteArrayClassLoader extends ClassLoader {
         return hc;
     }
 
-    private final Map classes; // String className => byte[] data
+    private Map     classes;  // String className => byte[] data
+    private boolean released; // Whether "defineAll()" was called
 }
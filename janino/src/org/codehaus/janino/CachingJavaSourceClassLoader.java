@@ -61,6 +61,12 @@ import org.codehaus.janino.util.resource.ResourceFinder;
  */
 @SuppressWarnings({ "rawtypes", "unchecked" }) public
 class CachingJavaSourceClassLoader extends JavaSourceClassLoader {
+
+    static {
+        ClassLoader.registerAsParallelCapable();
+    }
+
+
     private final ResourceFinder  classFileCacheResourceFinder;
     private final ResourceCreator classFileCacheResourceCreator;
     private final ResourceFinder  sourceFinder;
@@ -190,7 +196,7 @@ class CachingJavaSourceClassLoader extends JavaSourceClassLoader {
     /**
      * Read all bytes from the given resource.
      */
-    private static byte[]
+    static byte[]
     readResource(Resource r) throws IOException {
         ByteArrayOutputStream baos   = new ByteArrayOutputStream();
         byte[]                buffer = new byte[4096];
@@ -27,6 +27,8 @@
 package org.codehaus.janino;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.codehaus.commons.compiler.CompileException;
 import org.codehaus.commons.compiler.CompilerFactoryFactory;
@@ -48,7 +50,7 @@ import org.codehaus.commons.compiler.Location;
  * </ul>
  * A number of "convenience constructors" exist that execute the setup steps instantly.
  */
-@SuppressWarnings("rawtypes") public
+@SuppressWarnings({ "rawtypes", "unchecked" }) public
 class ClassBodyEvaluator extends SimpleCompiler implements IClassBodyEvaluator {
     protected static final Class[] ZERO_CLASSES = new Class[0];
 
@@ -56,7 +58,9 @@ class ClassBodyEvaluator extends SimpleCompiler implements IClassBodyEvaluator {
     protected String               className = IClassBodyEvaluator.DEFAULT_CLASS_NAME;
     private Class                  optionalExtendedType;
     private Class[]                implementedTypes = ClassBodyEvaluator.ZERO_CLASSES;
+    private EvaluatorCache         optionalEvaluatorCache;
     private Class                  result; // null=uncooked
+    private String                 generatedClassName; // Differs from "className" iff there is a class loader pool
 
     /**
      * Equivalent to<pre>
@@ -213,6 +217,142 @@ class ClassBodyEvaluator extends SimpleCompiler implements IClassBodyEvaluator {
         this.setImplementedInterfaces(implementedInterfaces);
     }
 
+    /**
+     * Configures this evaluator to look up the generated class in the given cache before it cooks a {@link String},
+     * and to add the generated class to that cache after it cooked a {@link String}. (Cooking from a {@link Reader},
+     * {@link InputStream} or {@link Scanner} bypasses the cache, because the source text is not available.)
+     *
+     * @param optionalEvaluatorCache {@code null} disables caching, which is the default
+     */
+    public void
+    setEvaluatorCache(EvaluatorCache optionalEvaluatorCache) {
+        assertNotCooked();
+        this.optionalEvaluatorCache = optionalEvaluatorCache;
+    }
+
+    @Override public void
+    cook(String optionalFileName, String s) throws CompileException {
+        String[] optionalFileNames = optionalFileName == null ? null : new String[] { optionalFileName };
+        Object   cacheKey          = this.getEvaluatorCacheKey(optionalFileNames, new String[] { s });
+        if (cacheKey != null && this.cookFromEvaluatorCache(cacheKey, 1)) return;
+
+        super.cook(optionalFileName, s);
+
+        if (cacheKey != null) this.addToEvaluatorCache(cacheKey);
+    }
+
+    /**
+     * @return {@code null} iff no {@link EvaluatorCache} is configured
+     */
+    protected final Object
+    getEvaluatorCacheKey(String[] optionalFileNames, String[] sources) {
+        if (this.optionalEvaluatorCache == null) return null;
+
+        List key = new ArrayList();
+        key.add(this.getClass());
+        key.add(ClassBodyEvaluator.toCacheKey(optionalFileNames));
+        key.add(ClassBodyEvaluator.toCacheKey(sources));
+        this.addEvaluatorCacheKeyComponents(key);
+        return key;
+    }
+
+    /**
+     * Adds all configuration items that affect the generated class to the given cache key. Derived classes that add
+     * configuration items must override this method.
+     */
+    protected void
+    addEvaluatorCacheKeyComponents(List key) {
+        key.add(new IdentityKey(this.getParentClassLoader()));
+        key.add(new IdentityKey(this.getHiddenClassHost()));
+        key.add(new IdentityKey(this.getClassLoaderPool()));
+        key.add(Boolean.valueOf(this.debugSource));
+        key.add(Boolean.valueOf(this.debugLines));
+        key.add(Boolean.valueOf(this.debugVars));
+        key.add(Integer.valueOf(this.targetVersion));
+        key.add(Boolean.valueOf(this.splitLargeMethods));
+        key.add(Boolean.valueOf(this.peepholeOptimization));
+        key.add(Integer.valueOf(this.inlineThreshold));
+        key.add(ClassBodyEvaluator.toCacheKey(this.optionalDefaultImports));
+        key.add(this.className);
+        key.add(this.optionalExtendedType);
+        key.add(ClassBodyEvaluator.toCacheKey(this.implementedTypes));
+    }
+
+    /**
+     * Converts (possibly multi-dimensional) arrays into {@link List}s, so that they can be compared with {@link
+     * Object#equals(Object)}.
+     */
+    protected static Object
+    toCacheKey(Object o) {
+        if (o instanceof Object[]) {
+            Object[] oa = (Object[]) o;
+            List     l  = new ArrayList(oa.length);
+            for (int i = 0; i < oa.length; ++i) l.add(ClassBodyEvaluator.toCacheKey(oa[i]));
+            return l;
+        }
+        if (o instanceof boolean[]) {
+            boolean[] ba = (boolean[]) o;
+            List      l  = new ArrayList(ba.length);
+            for (int i = 0; i < ba.length; ++i) l.add(Boolean.valueOf(ba[i]));
+            return l;
+        }
+        return o;
+    }
+
+    /**
+     * Compares by identity, e.g. {@link ClassLoader}s, for which {@link Object#equals(Object)} may be overridden.
+     */
+    private static
+    class IdentityKey {
+        private final Object delegate;
+
+        IdentityKey(Object delegate) { this.delegate = delegate; }
+
+        @Override public boolean
+        equals(Object o) { return o instanceof IdentityKey && ((IdentityKey) o).delegate == this.delegate; }
+
+        @Override public int
+        hashCode() { return System.identityHashCode(this.delegate); }
+    }
+
+    /**
+     * If the configured {@link EvaluatorCache} contains a class for the given key, then this evaluator is set up as if
+     * it had generated that class.
+     *
+     * @param sourceCount The number of source texts that the <var>cacheKey</var> was computed from
+     * @return            Whether the cache contained a class for the <var>cacheKey</var>
+     */
+    protected final boolean
+    cookFromEvaluatorCache(Object cacheKey, int sourceCount) {
+        Class c = this.optionalEvaluatorCache.get(cacheKey);
+        if (c == null) return false;
+        this.setCooked(c);
+        this.setCookedClass(c, sourceCount);
+        return true;
+    }
+
+    /**
+     * Adds the class generated by the preceding cook to the configured {@link EvaluatorCache}.
+     */
+    protected final void
+    addToEvaluatorCache(Object cacheKey) {
+        this.optionalEvaluatorCache.put(cacheKey, this.getCookedClass(), this.getBytecodeSize());
+    }
+
+    /**
+     * @return The class that was generated by the preceding cook
+     */
+    protected Class
+    getCookedClass() { return this.result; }
+
+    /**
+     * Sets up this evaluator as if it had generated the given class.
+     *
+     * @param sourceCount The number of source texts that the class was generated from
+     */
+    protected void
+    setCookedClass(Class clazz, int sourceCount) { this.result = clazz; }
+
     @Override public void
     cook(Scanner scanner) throws CompileException, IOException {
 
@@ -287,7 +427,10 @@ class ClassBodyEvaluator extends SimpleCompiler implements IClassBodyEvaluator {
      */
     protected Java.PackageMemberClassDeclaration
     addPackageMemberClassDeclaration(Location location, Java.CompilationUnit compilationUnit) throws CompileException {
-        String cn  = this.className;
+        ClassLoaderPool pool = this.getClassLoaderPool();
+        this.generatedClassName = pool == null ? this.className : pool.uniqueClassName(this.className);
+
+        String cn  = this.generatedClassName;
         int    idx = cn.lastIndexOf('.');
         if (idx != -1) {
             compilationUnit.setPackageDeclaration(new Java.PackageDeclaration(location, cn.substring(0, idx)));
@@ -318,6 +461,11 @@ class ClassBodyEvaluator extends SimpleCompiler implements IClassBodyEvaluator {
         // Compile and load the compilation unit.
         ClassLoader cl = this.compileToClassLoader(compilationUnit);
 
+        // With a class loader pool, the class was declared under a unique name.
+        if (newClassName.equals(this.className) && this.generatedClassName != null) {
+            newClassName = this.generatedClassName;
+        }
+
         // Find the generated class by name.
         try {
             return cl.loadClass(newClassName);
@@ -283,13 +283,18 @@ class ClassFileIClass extends IClass {
     resolveClass(String descriptor) throws ClassNotFoundException {
         if (ClassFileIClass.DEBUG) System.out.println("descriptor=" + descriptor);
 
-        IClass result = (IClass) this.resolvedClasses.get(descriptor);
+        IClass result;
+        synchronized (this.resolvedClasses) {
+            result = (IClass) this.resolvedClasses.get(descriptor);
+        }
         if (result != null) return result;
 
         result = this.iClassLoader.loadIClass(descriptor);
         if (result == null) throw new ClassNotFoundException(descriptor);
 
-        this.resolvedClasses.put(descriptor, result);
+        synchronized (this.resolvedClasses) {
+            this.resolvedClasses.put(descriptor, result);
+        }
         return result;
     }
     private final Map resolvedClasses = new HashMap(); // String descriptor => IClass
@@ -316,7 +321,10 @@ class ClassFileIClass extends IClass {
      */
     private IInvocable
     resolveMethod(final ClassFile.MethodInfo methodInfo) throws ClassNotFoundException {
-        IInvocable result = (IInvocable) this.resolvedMethods.get(methodInfo);
+        IInvocable result;
+        synchronized (this.resolvedMethods) {
+            result = (IInvocable) this.resolvedMethods.get(methodInfo);
+        }
         if (result != null) return result;
 
         // Determine method name.
@@ -404,14 +412,24 @@ class ClassFileIClass extends IClass {
                 getAccess() { return access; }
             };
         }
-        this.resolvedMethods.put(methodInfo, result);
+
+        // Another thread may have resolved the same method in the meantime; make sure that all threads see the same
+        // IInvocable.
+        synchronized (this.resolvedMethods) {
+            IInvocable previous = (IInvocable) this.resolvedMethods.get(methodInfo);
+            if (previous != null) return previous;
+            this.resolvedMethods.put(methodInfo, result);
+        }
         return result;
     }
     private final Map resolvedMethods = new HashMap(); // MethodInfo => IInvocable
 
     private IField
     resolveField(final ClassFile.FieldInfo fieldInfo) throws ClassNotFoundException {
-        IField result = (IField) this.resolvedFields.get(fieldInfo);
+        IField result;
+        synchronized (this.resolvedFields) {
+            result = (IField) this.resolvedFields.get(fieldInfo);
+        }
         if (result != null) return result;
 
         // Determine field name.
@@ -462,7 +480,11 @@ class ClassFileIClass extends IClass {
             @Override public boolean isStatic()         { return (fieldInfo.getAccessFlags() & Mod.STATIC) != 0; }
             @Override public Access  getAccess()        { return access; }
         };
-        this.resolvedFields.put(fieldInfo, result);
+        synchronized (this.resolvedFields) {
+            IField previous = (IField) this.resolvedFields.get(fieldInfo);
+            if (previous != null) return previous;
+            this.resolvedFields.put(fieldInfo, result);
+        }
         return result;
     }
 
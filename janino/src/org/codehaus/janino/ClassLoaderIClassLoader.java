@@ -26,11 +26,13 @@
 
 package org.codehaus.janino;
 
+import java.lang.ref.WeakReference;
+
 /**
  * An {@link IClassLoader} that loads {@link IClass}es through a reflection
  * {@link ClassLoader}.
  */
-@SuppressWarnings("rawtypes") public
+@SuppressWarnings({ "rawtypes", "unchecked" }) public
 class ClassLoaderIClassLoader extends IClassLoader {
     private static final boolean DEBUG = false;
 
@@ -38,14 +40,22 @@ class ClassLoaderIClassLoader extends IClassLoader {
      * @param classLoader The delegate that loads the classes.
      */
     public
-    ClassLoaderIClassLoader(ClassLoader classLoader) {
+    ClassLoaderIClassLoader(ClassLoader classLoader) { this(classLoader, false); }
+
+    /**
+     * @param classLoader The delegate that loads the classes.
+     * @param weak        Whether to reference the <code>classLoader</code> only weakly, so that this object does not
+     *                    keep it from being garbage-collected
+     */
+    ClassLoaderIClassLoader(ClassLoader classLoader, boolean weak) {
         super(
             null   // optionalParentIClassLoader
         );
 
         if (classLoader == null) throw new NullPointerException();
 
-        this.classLoader = classLoader;
+        this.optionalClassLoader     = weak ? null : classLoader;
+        this.optionalWeakClassLoader = weak ? new WeakReference(classLoader) : null;
         super.postConstruct();
     }
 
@@ -58,13 +68,28 @@ class ClassLoaderIClassLoader extends IClassLoader {
     public
     ClassLoaderIClassLoader() { this(Thread.currentThread().getContextClassLoader()); }
 
-    /** @return The delegate {@link ClassLoader} */
+    /**
+     * @return The delegate {@link ClassLoader}, or {@code null} if it is referenced weakly and was garbage-collected
+     */
     public ClassLoader
-    getClassLoader() { return this.classLoader; }
+    getClassLoader() {
+        return (
+            this.optionalWeakClassLoader == null
+            ? this.optionalClassLoader
+            : (ClassLoader) this.optionalWeakClassLoader.get()
+        );
+    }
 
     @Override protected IClass
     findIClass(String descriptor) throws ClassNotFoundException {
 
+        ClassLoader classLoader = this.getClassLoader();
+        if (classLoader == null) {
+            throw new ClassNotFoundException(
+                "Cannot load \"" + Descriptor.toClassName(descriptor) + "\"; class loader was garbage-collected"
+            );
+        }
+
         Class clazz;
         try {
 
@@ -78,8 +103,8 @@ class ClassLoaderIClassLoader extends IClassLoader {
             // release, but "Class.forName()" seems to work fine in all cases, so we
             // use that.
             //
-//            clazz = this.classLoader.loadClass(Descriptor.toClassName(descriptor));
-            clazz = Class.forName(Descriptor.toClassName(descriptor), false, this.classLoader);
+//            clazz = classLoader.loadClass(Descriptor.toClassName(descriptor));
+            clazz = Class.forName(Descriptor.toClassName(descriptor), false, classLoader);
         } catch (ClassNotFoundException e) {
             if (e.getException() == null) {
                 return null;
@@ -95,5 +120,6 @@ class ClassLoaderIClassLoader extends IClassLoader {
         return result;
     }
 
-    private final ClassLoader classLoader;
+    private final ClassLoader   optionalClassLoader;
+    private final WeakReference optionalWeakClassLoader; // ClassLoader
 }
@@ -0,0 +1,153 @@
+
+/*
+ * Janino - An embedded Java[TM] compiler
+ *
+ * Copyright (c) 2001-2010, Arno Unkrig
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *       following disclaimer.
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *       following disclaimer in the documentation and/or other materials provided with the distribution.
+ *    3. The name of the author may not be used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.codehaus.janino;
+
+import java.lang.ref.SoftReference;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * A bounded cache of {@link ClassLoaderIClassLoader}s, keyed by their delegate {@link ClassLoader}.
+ * <p>
+ * Normally every {@link SimpleCompiler#cook(Scanner) cook()} creates a new {@link ClassLoaderIClassLoader}, so the
+ * {@link IClass}es, {@link IClass.IMethod}s and {@link IClass.IField}s of all classes referenced by the compiled code
+ * (at least {@link Object}, {@link String} and the primitive wrapper classes) are re-created through reflection for
+ * each cook. If many {@link SimpleCompiler}s (and derived classes, like {@link ExpressionEvaluator}) share one {@link
+ * ClassLoaderIClassLoaderCache} (see {@link SimpleCompiler#setClassLoaderIClassLoaderCache(
+ * ClassLoaderIClassLoaderCache)}), then that work is done only once per parent class loader.
+ * <p>
+ * The {@link ClassLoaderIClassLoader}s are referenced softly, so the cache does not hold on to their {@link IClass}es
+ * under memory pressure. The cached {@link ClassLoaderIClassLoader}s reference their class loaders only weakly, so
+ * the entry of a class loader disappears as soon as the class loader is garbage-collected. (Notice, however, that the
+ * {@link IClass}es of classes <em>defined</em> by a class loader reference it strongly; if the compiled code
+ * references such classes, then the class loader can be garbage-collected only after its entry was evicted, or its
+ * {@link ClassLoaderIClassLoader} was cleared by the garbage collector. If that is not acceptable, then {@link
+ * #clear()} the cache when class loaders are abandoned.) If more than <var>maxSize</var> class loaders are cached,
+ * then the least recently used entry is evicted.
+ * <p>
+ * This class is thread-safe.
+ */
+@SuppressWarnings({ "rawtypes", "unchecked" }) public
+class ClassLoaderIClassLoaderCache {
+
+    /**
+     * @param maxSize The maximum number of {@link ClassLoaderIClassLoader}s to keep
+     */
+    public
+    ClassLoaderIClassLoaderCache(int maxSize) {
+        if (maxSize < 1) throw new IllegalArgumentException("maxSize");
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return A {@link ClassLoaderIClassLoader} for the given <code>classLoader</code>; either a cached one, or a
+     *         newly created one
+     */
+    public synchronized ClassLoaderIClassLoader
+    get(ClassLoader classLoader) {
+        Entry e = (Entry) this.entries.get(classLoader);
+        if (e != null) {
+            ClassLoaderIClassLoader result = (ClassLoaderIClassLoader) e.reference.get();
+            if (result != null) {
+                e.lastAccess = ++this.clock;
+                ++this.hitCount;
+                return result;
+            }
+        }
+        ++this.missCount;
+
+        ClassLoaderIClassLoader result = new ClassLoaderIClassLoader(classLoader, true);
+        this.entries.put(classLoader, new Entry(result, ++this.clock));
+
+        if (this.entries.size() > this.maxSize) this.evictLeastRecentlyUsed();
+
+        return result;
+    }
+
+    /**
+     * Removes all entries from this cache.
+     */
+    public synchronized void
+    clear() { this.entries.clear(); }
+
+    /**
+     * @return The number of class loaders currently cached
+     */
+    public synchronized int
+    size() { return this.entries.size(); }
+
+    /**
+     * @return The number of times that {@link #get(ClassLoader)} returned a cached {@link ClassLoaderIClassLoader}
+     */
+    public synchronized long
+    getHitCount() { return this.hitCount; }
+
+    /**
+     * @return The number of times that {@link #get(ClassLoader)} had to create a new {@link ClassLoaderIClassLoader}
+     */
+    public synchronized long
+    getMissCount() { return this.missCount; }
+
+    private void
+    evictLeastRecentlyUsed() {
+        Object lruKey        = null;
+        long   lruLastAccess = Long.MAX_VALUE;
+        for (Iterator it = this.entries.entrySet().iterator(); it.hasNext();) {
+            Map.Entry me = (Map.Entry) it.next();
+            Entry     e  = (Entry) me.getValue();
+            if (e.reference.get() == null) {
+
+                // Already cleared by the garbage collector.
+                it.remove();
+                continue;
+            }
+            if (e.lastAccess < lruLastAccess) {
+                lruKey        = me.getKey();
+                lruLastAccess = e.lastAccess;
+            }
+        }
+        if (this.entries.size() > this.maxSize) this.entries.remove(lruKey);
+    }
+
+    private static
+    class Entry {
+        final SoftReference reference;
+        long                lastAccess;
+
+        Entry(ClassLoaderIClassLoader classLoaderIClassLoader, long lastAccess) {
+            this.reference  = new SoftReference(classLoaderIClassLoader);
+            this.lastAccess = lastAccess;
+        }
+    }
+
+    private final int                         maxSize;
+    private final Map/*<ClassLoader, Entry>*/ entries = new WeakHashMap();
+    private long                              clock;
+    private long                              hitCount;
+    private long                              missCount;
+}
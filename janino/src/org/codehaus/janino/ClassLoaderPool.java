@@ -0,0 +1,141 @@
+
+/*
+ * Janino - An embedded Java[TM] compiler
+ *
+ * Copyright (c) 2001-2010, Arno Unkrig
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *       following disclaimer.
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *       following disclaimer in the documentation and/or other materials provided with the distribution.
+ *    3. The name of the author may not be used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.codehaus.janino;
+
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Defines the classes generated by many {@link SimpleCompiler#cook(Scanner) cook()}s into a small number of
+ * long-lived class loaders, instead of creating one new {@link ByteArrayClassLoader} per cook.
+ * <p>
+ * Each class loader of the pool (a "generation") accepts classes until it holds <var>classesPerLoader</var> classes;
+ * then the pool starts a new generation. The pool references its generations only weakly, so a generation is
+ * garbage-collected (and its classes are unloaded) as soon as all of its classes, and all their instances, are
+ * unreachable. A class file's bytes are released as soon as the class is defined.
+ * <p>
+ * Because one class loader cannot define two classes with the same name, {@link ClassBodyEvaluator} and its
+ * subclasses give their generated classes unique names when they use a pool. If a compilation unit declares a class
+ * with the same name as a class in the current generation, then that compilation unit goes into a new generation.
+ * <p>
+ * This class is thread-safe.
+ *
+ * @see SimpleCompiler#setClassLoaderPool(ClassLoaderPool)
+ */
+@SuppressWarnings({ "rawtypes", "unchecked" }) public
+class ClassLoaderPool {
+
+    /**
+     * @param classesPerLoader The maximum number of classes to define through each class loader
+     */
+    public
+    ClassLoaderPool(int classesPerLoader) {
+        if (classesPerLoader < 1) throw new IllegalArgumentException("classesPerLoader");
+        this.classesPerLoader = classesPerLoader;
+    }
+
+    /**
+     * Adds the given classes to a pooled class loader, which defines them when they are loaded.
+     *
+     * @param classes String className => byte[] data
+     * @param parent  The parent of the pooled class loader
+     * @return        The class loader that will define the <var>classes</var>
+     */
+    public synchronized ClassLoader
+    define(Map classes, ClassLoader parent) {
+        WeakReference ref        = (WeakReference) this.currentGenerations.get(parent);
+        Generation    generation = ref == null ? null : (Generation) ref.get();
+        if (generation == null || !generation.add(classes, this.classesPerLoader)) {
+            generation = new Generation(parent);
+            generation.add(classes, Integer.MAX_VALUE);
+            this.currentGenerations.put(parent, new WeakReference(generation));
+            ++this.generationCount;
+        }
+        return generation;
+    }
+
+    /**
+     * @return A class name that is unique within this pool, derived from the given <var>className</var>
+     */
+    public synchronized String
+    uniqueClassName(String className) { return className + "$$" + ++this.uniqueNameCount; }
+
+    /**
+     * @return The number of class loaders that this pool has created so far
+     */
+    public synchronized long
+    getGenerationCount() { return this.generationCount; }
+
+    /**
+     * A pooled class loader; defines the classes that were added to it when they are first loaded.
+     */
+    private static
+    class Generation extends ClassLoader {
+
+        private final Map/*<String, byte[]>*/ undefinedClasses = new HashMap();
+        private final Set/*<String>*/         classNames       = new HashSet();
+
+        Generation(ClassLoader parent) { super(parent); }
+
+        /**
+         * @return Whether the <var>classes</var> were added; {@code false} iff this generation would exceed the
+         *         <var>capacity</var>, or already declares one of the class names
+         */
+        synchronized boolean
+        add(Map/*<String, byte[]>*/ classes, int capacity) {
+            if (this.classNames.size() + classes.size() > capacity) return false;
+            for (Iterator it = classes.keySet().iterator(); it.hasNext();) {
+                if (this.classNames.contains(it.next())) return false;
+            }
+            this.undefinedClasses.putAll(classes);
+            this.classNames.addAll(classes.keySet());
+            return true;
+        }
+
+        @Override protected synchronized Class
+        findClass(String name) throws ClassNotFoundException {
+            byte[] data = (byte[]) this.undefinedClasses.remove(name);
+            if (data == null) throw new ClassNotFoundException(name);
+
+            // Inherit the protection domain, like "ByteArrayClassLoader" does.
+            return super.defineClass(name, data, 0, data.length, this.getClass().getProtectionDomain());
+        }
+    }
+
+    private final int classesPerLoader;
+
+    // The generation that currently accepts classes, per parent class loader.
+    private final Map/*<ClassLoader, WeakReference<Generation>>*/ currentGenerations = new WeakHashMap();
+
+    private long generationCount;
+    private long uniqueNameCount;
+}
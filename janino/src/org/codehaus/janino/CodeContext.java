@@ -32,9 +32,11 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.codehaus.janino.util.ClassFile;
 
@@ -42,20 +44,27 @@ import org.codehaus.janino.util.ClassFile;
  * The context of the compilation of a function (constructor or method). Manages generation of
  * byte code, the exception table, generation of line number tables, allocation of local variables,
  * determining of stack size and local variable table size and flow analysis.
+ * <p>
+ * While the code is being generated, it is stored in <i>segments</i>: Each {@link Offset} holds the bytes between
+ * itself and the next {@link Offset}. Thus inserting code at an {@link Inserter} appends to the segment of the
+ * preceding {@link Offset}, no matter how much code follows. The numeric values of the {@link Offset}s are not
+ * maintained while the code is generated; they are computed, and the segments are joined into one array, when the
+ * code is first needed as a whole (typically by {@link #fixUpAndRelocate()}).
  */
 @SuppressWarnings({ "rawtypes", "unchecked" }) public
 class CodeContext {
     private static final boolean DEBUG = false;
 
-    private static final int     INITIAL_SIZE   = 128;
-    private static final byte    UNEXAMINED     = -1;
-    private static final byte    INVALID_OFFSET = -2;
-    private static final int     MAX_STACK_SIZE = 254;
+    private static final int     INITIAL_SEGMENT_SIZE = 16;
+    private static final byte    UNEXAMINED           = -1;
+    private static final byte    INVALID_OFFSET       = -2;
+    private static final int     MAX_STACK_SIZE       = 254;
 
     private final ClassFile                     classFile;
     private short                               maxStack;
     private short                               maxLocals;
-    private byte[]                              code;
+    private byte[]                              code; // null == code is still in segments
+    private int                                 codeSize;
     private final Offset                        beginning;
     private final Inserter                      end;
     private Inserter                            currentInserter;
@@ -76,6 +85,9 @@ class CodeContext {
     private short      nextLocalVariableSlot;
     private final List relocatables = new ArrayList();
 
+    private short  stackMapTableAttributeNameIndex;
+    private byte[] stackMapTable; // null == no "StackMapTable" attribute
+
     /**
      * Create an empty "Code" attribute.
      */
@@ -85,7 +97,8 @@ class CodeContext {
 
         this.maxStack              = 0;
         this.maxLocals             = 0;
-        this.code                  = new byte[CodeContext.INITIAL_SIZE];
+        this.code                  = null;
+        this.codeSize              = 0;
         this.beginning             = new Offset();
         this.end                   = new Inserter();
         this.currentInserter       = this.end;
@@ -205,6 +218,8 @@ class CodeContext {
         short            lineNumberTableAttributeNameIndex,
         short            localVariableTableAttributeNameIndex
     ) throws IOException {
+        this.join();
+
         dos.writeShort(this.maxStack);                                // max_stack
         dos.writeShort(this.maxLocals);                               // max_locals
         dos.writeInt(this.end.offset);                                // code_length
@@ -224,7 +239,9 @@ class CodeContext {
         if (lineNumberTableAttributeNameIndex != 0) {
             List lnt = new ArrayList();
             for (Offset o = this.beginning; o != null; o = o.next) {
-                if (o instanceof LineNumberOffset) {
+
+                // The peephole optimizer may have removed all code after a line number offset.
+                if (o instanceof LineNumberOffset && o.offset < this.code.length) {
                     lnt.add(new ClassFile.LineNumberTableAttribute.Entry(o.offset, ((LineNumberOffset) o).lineNumber));
                 }
             }
@@ -244,6 +261,14 @@ class CodeContext {
             if (ai != null) attributes.add(ai);
         }
 
+        // Add "StackMapTable" attribute.
+        if (this.stackMapTable != null) {
+            final byte[] smt = this.stackMapTable;
+            attributes.add(new ClassFile.AttributeInfo(this.stackMapTableAttributeNameIndex) {
+                @Override protected void storeBody(DataOutputStream dos) throws IOException { dos.write(smt); }
+            });
+        }
+
         dos.writeShort(attributes.size());                         // attributes_count
         for (Iterator it = attributes.iterator(); it.hasNext();) { // attributes;
             ClassFile.AttributeInfo attribute = (ClassFile.AttributeInfo) it.next();
@@ -292,6 +317,64 @@ class CodeContext {
         }
     }
 
+    /**
+     * Computes the "StackMapTable" attribute (JVMS7 4.7.4) that class files of version 50 and higher require for
+     * verification by type checking. Must be invoked after {@link #flowAnalysis(String)}. Notice that unreachable code
+     * is replaced with NOPs and ATHROW.
+     * <p>
+     * The "StackMapTable" attribute is later written by {@link #storeCodeAttributeBody(DataOutputStream, short,
+     * short)}.
+     *
+     * @param methodName       E.g. "&lt;init>"
+     * @param methodDescriptor E.g. "(ILjava/lang/String;)V"
+     * @return                 {@code false} iff no "StackMapTable" attribute can be computed, because the code uses
+     *                         the JSR or RET instruction; such code can only be verified by the type-inferencing
+     *                         verifier, i.e. its class file version must not be higher than 50
+     */
+    public boolean
+    computeStackMapTable(
+        String                          methodName,
+        String                          methodDescriptor,
+        boolean                         isStatic,
+        StackMapComputer.ClassHierarchy classHierarchy
+    ) {
+        this.join();
+
+        int     n                 = this.exceptionTableEntries.size();
+        int[]   handlerStarts     = new int[n];
+        int[]   handlerEnds       = new int[n];
+        int[]   handlerPcs        = new int[n];
+        short[] handlerCatchTypes = new short[n];
+        for (int i = 0; i < n; ++i) {
+            ExceptionTableEntry ete = (ExceptionTableEntry) this.exceptionTableEntries.get(i);
+            handlerStarts[i]     = ete.startPC.offset;
+            handlerEnds[i]       = ete.endPC.offset;
+            handlerPcs[i]        = ete.handlerPC.offset;
+            handlerCatchTypes[i] = ete.catchType;
+        }
+
+        StackMapComputer smc = new StackMapComputer(
+            this.classFile,
+            classHierarchy,
+            this.code,
+            this.end.offset,
+            handlerStarts,
+            handlerEnds,
+            handlerPcs,
+            handlerCatchTypes
+        );
+        if (!smc.compute(methodName, methodDescriptor, isStatic, this.maxLocals)) return false;
+
+        this.stackMapTable = smc.getStackMapTable();
+        if (this.stackMapTable != null) {
+            this.stackMapTableAttributeNameIndex = this.classFile.addConstantUtf8Info("StackMapTable");
+
+            // Unreachable code was replaced with "ATHROW", which requires one operand stack entry.
+            if (this.maxStack < 1) this.maxStack = 1;
+        }
+        return true;
+    }
+
     /**
      * Checks the code for consistency; updates the "maxStack" member.
      *
@@ -303,6 +386,8 @@ class CodeContext {
             System.err.println("flowAnalysis(" + functionName + ")");
         }
 
+        this.join();
+
         short[] stackSizes = new short[this.end.offset];
         Arrays.fill(stackSizes, CodeContext.UNEXAMINED);
 
@@ -656,7 +741,13 @@ class CodeContext {
 
             Arrays.fill(stackSizes, offset + 1, operandOffset, CodeContext.INVALID_OFFSET);
 
-            if ((props & Opcode.NO_FALLTHROUGH) != 0) return;
+            // The code generated after a SWITCH instruction is not necessarily reachable (e.g. iff all cases
+            // return), but it must be examined nonetheless.
+            if (
+                (props & Opcode.NO_FALLTHROUGH) != 0
+                && opcode != Opcode.TABLESWITCH
+                && opcode != Opcode.LOOKUPSWITCH
+            ) return;
             offset = operandOffset;
         }
     }
@@ -718,19 +809,710 @@ class CodeContext {
         return res;
     }
 
+    /**
+     * Performs peephole optimizations on the code, which must be complete, but not yet {@link #fixUpAndRelocate()
+     * fixed up and relocated}:
+     * <ul>
+     *   <li>Jumps to GOTOs are redirected to the GOTO's destination ("jump threading")
+     *   <li>GOTOs to a return instruction are replaced with that return instruction
+     *   <li>"IF&lt;cond> L1; GOTO L2; L1:" is replaced with "IF&lt;!cond> L2", and GOTOs to the next instruction are
+     *       removed
+     *   <li>"ICONST_1; IXOR; IFEQ" is replaced with "IFNE", and vice versa
+     *   <li>"ILOAD n; &lt;const>; IADD; ISTORE n" is replaced with "IINC n &lt;const>"
+     *   <li>"&lt;store> n; &lt;load> n" is replaced with "&lt;dup>; &lt;store> n", and "&lt;load> n; &lt;store> n" is
+     *       removed
+     *   <li>"&lt;push>; POP" is removed, and redundant CHECKCASTs are removed
+     *   <li>"ICONST_0; I2L" is replaced with "LCONST_0", and similarly for "I2F" and "I2D"
+     * </ul>
+     * The optimizations never cross an {@link Offset} that something refers to, e.g. a jump target, and they never make
+     * code unreachable.
+     */
+    public void
+    peepholeOptimize() {
+        if (this.code != null) throw new JaninoRuntimeException("Code was already joined");
+        new PeepholeOptimizer().optimize();
+    }
+
+    private
+    class PeepholeOptimizer {
+
+        /** The {@link Branch} whose instruction is at each of these {@link Offset}s. */
+        private final Map/*<Offset, Branch>*/ branches = new HashMap();
+
+        /** The same {@link Branch}es, in code order. */
+        private final List/*<Branch>*/ branchList = new ArrayList();
+
+        /** The number of branches, switch cases and exception handlers that lead to each of these offsets. */
+        private final Map/*<Offset, Integer>*/ references = new HashMap();
+
+        /** The offsets that something refers to; the local optimizations never cross them. */
+        private final Set/*<Offset>*/ barriers = new HashSet();
+
+        /** The offsets whose segments do not consist of whole instructions; they are never modified. */
+        private final Set/*<Offset>*/ opaque = new HashSet();
+
+        private final Set/*<Relocatable>*/ removedBranches = new HashSet();
+
+        void
+        optimize() {
+            if (!this.findOpaqueSegments()) return;
+
+            boolean jsr = false;
+            for (Iterator it = CodeContext.this.relocatables.iterator(); it.hasNext();) {
+                Relocatable r = (Relocatable) it.next();
+                if (r instanceof Branch) {
+                    Branch b = (Branch) r;
+                    if (b.opcode == Opcode.JSR || b.opcode == Opcode.JSR_W) jsr = true;
+                    this.branches.put(b.source, b);
+                    this.branchList.add(b);
+                    this.barriers.add(b.source);
+                    this.barriers.add(b.destination);
+                } else
+                if (r instanceof OffsetBranch) {
+                    OffsetBranch ob = (OffsetBranch) r;
+                    this.barriers.add(ob.where);
+                    this.barriers.add(ob.source);
+                    this.barriers.add(ob.destination);
+                }
+            }
+            int[] exceptionRangeSizes = new int[CodeContext.this.exceptionTableEntries.size()];
+            for (int i = 0; i < exceptionRangeSizes.length; ++i) {
+                ExceptionTableEntry ete = (ExceptionTableEntry) CodeContext.this.exceptionTableEntries.get(i);
+                this.barriers.add(ete.startPC);
+                this.barriers.add(ete.endPC);
+                this.barriers.add(ete.handlerPC);
+                exceptionRangeSizes[i] = CodeContext.this.size(ete.startPC, ete.endPC);
+            }
+            for (Iterator it = CodeContext.this.allLocalVars.iterator(); it.hasNext();) {
+                Java.LocalVariableSlot slot = (Java.LocalVariableSlot) it.next();
+                this.barriers.add(slot.getStart());
+                this.barriers.add(slot.getEnd());
+            }
+            for (Offset o = CodeContext.this.beginning; o != null; o = o.next) {
+                if (o instanceof FixUp) this.barriers.add(o);
+            }
+
+            this.optimizeRuns();
+
+            // JSR and RET make the control flow too complicated for the branch optimizations.
+            if (!jsr) {
+                for (Iterator it = CodeContext.this.relocatables.iterator(); it.hasNext();) {
+                    Relocatable r = (Relocatable) it.next();
+                    if (r instanceof Branch) {
+                        this.reference(((Branch) r).destination, 1);
+                    } else
+                    if (r instanceof OffsetBranch) {
+                        this.reference(((OffsetBranch) r).destination, 1);
+                    }
+                }
+                for (int i = 0; i < exceptionRangeSizes.length; ++i) {
+                    this.reference(((ExceptionTableEntry) CodeContext.this.exceptionTableEntries.get(i)).handlerPC, 1);
+                }
+
+                this.optimizeBranches();
+
+                CodeContext.this.relocatables.removeAll(this.removedBranches);
+            }
+
+            // The JVM does not allow empty exception table ranges, so put a NOP into each range that became empty.
+            for (int i = 0; i < exceptionRangeSizes.length; ++i) {
+                ExceptionTableEntry ete = (ExceptionTableEntry) CodeContext.this.exceptionTableEntries.get(i);
+                if (exceptionRangeSizes[i] > 0 && CodeContext.this.size(ete.startPC, ete.endPC) == 0) {
+                    if (ete.startPC.segment == null) ete.startPC.segment = new byte[1];
+                    ete.startPC.segment[0]     = Opcode.NOP;
+                    ete.startPC.segmentLength  = 1;
+                    CodeContext.this.codeSize += 1;
+                }
+            }
+        }
+
+        /**
+         * Determines which segments do not start or end on an instruction boundary, which is the case for the
+         * operands of TABLESWITCH and LOOKUPSWITCH.
+         *
+         * @return {@code false} iff the code could not be decoded
+         */
+        private boolean
+        findOpaqueSegments() {
+            Set/*<Offset>*/ switchOperands = new HashSet();
+            for (Iterator it = CodeContext.this.relocatables.iterator(); it.hasNext();) {
+                Relocatable r = (Relocatable) it.next();
+                if (r instanceof OffsetBranch) switchOperands.add(((OffsetBranch) r).where);
+            }
+
+            boolean inSwitch = false;
+            int     carry    = 0; // The number of bytes of the current instruction that are in the next segment(s)
+            for (Offset o = CodeContext.this.beginning; o != null; o = o.next) {
+                int length = o.segmentLength;
+                if (length == 0) continue;
+
+                if (inSwitch) {
+                    if (switchOperands.contains(o)) {
+                        this.opaque.add(o);
+                        continue;
+                    }
+                    inSwitch = false;
+                }
+
+                if (carry >= length) {
+                    carry -= length;
+                    this.opaque.add(o);
+                    continue;
+                }
+                if (carry > 0) this.opaque.add(o);
+
+                int pos = carry;
+                while (pos < length) {
+                    byte opcode = o.segment[pos];
+                    if (opcode == Opcode.TABLESWITCH || opcode == Opcode.LOOKUPSWITCH) {
+
+                        // The operands of the switch instruction follow in the segments of its "OffsetBranch"es.
+                        if (pos != length - 1) return false;
+                        this.opaque.add(o);
+                        inSwitch = true;
+                        pos      = length;
+                        break;
+                    }
+                    int l = CodeContext.instructionLength(o.segment, pos, length);
+                    if (l == -1) return false;
+                    pos += l;
+                }
+                carry = pos - length;
+                if (carry > 0) this.opaque.add(o);
+            }
+            return true;
+        }
+
+        /**
+         * Applies the local optimizations to each "run" of consecutive segments that are separated only by offsets
+         * which nothing refers to, e.g. {@link LineNumberOffset}s.
+         */
+        private void
+        optimizeRuns() {
+            List/*<Offset>*/ run = new ArrayList();
+            for (Offset o = CodeContext.this.beginning; o != null; o = o.next) {
+                if (this.barriers.contains(o) || this.opaque.contains(o)) {
+                    this.optimizeRun(run, o);
+                    run.clear();
+                    if (this.opaque.contains(o)) continue;
+                }
+                if (o.segmentLength > 0) run.add(o);
+            }
+            this.optimizeRun(run, null);
+        }
+
+        /**
+         * Applies the optimizations that affect only the instructions within the given run of segments. Each
+         * resulting instruction goes to the segment of the first instruction that it replaces, so that the line
+         * numbers remain accurate.
+         *
+         * @param next The offset that follows the run, or {@code null}
+         */
+        private void
+        optimizeRun(List/*<Offset>*/ run, Offset next) {
+            if (run.isEmpty()) return;
+
+            // Concatenate the segments, and remember which segment each instruction comes from.
+            Offset[] segments = (Offset[]) run.toArray(new Offset[run.size()]);
+            int      size     = 0;
+            for (int k = 0; k < segments.length; ++k) size += segments[k].segmentLength;
+            byte[] s      = new byte[size];
+            int[]  starts = new int[size + 1];
+            int[]  owners = new int[size];
+            int    n      = 0;
+            for (int k = 0, p = 0; k < segments.length; ++k) {
+                Offset o  = segments[k];
+                int[]  ss = CodeContext.instructionStarts(o.segment, o.segmentLength);
+                if (ss[ss.length - 1] != o.segmentLength) return;
+                System.arraycopy(o.segment, 0, s, p, o.segmentLength);
+                for (int j = 0; j < ss.length - 1; ++j) {
+                    starts[n]   = p + ss[j];
+                    owners[n++] = k;
+                }
+                p += o.segmentLength;
+            }
+            starts[n] = size;
+
+            Branch nextBranch = next == null ? null : (Branch) this.branches.get(next);
+
+            byte[] result = new byte[size];
+            int    rl     = 0;
+            int[]  ends   = new int[segments.length]; // Where the result of each segment ends
+            int    k      = 0;
+            for (int i = 0; i < n;) {
+                for (; k < owners[i]; ++k) ends[k] = rl;
+
+                int  p0  = starts[i];
+                byte op0 = s[p0];
+                byte op1 = i + 1 < n ? s[starts[i + 1]] : Opcode.NOP;
+
+                // "ILOAD n; <const>; IADD|ISUB; ISTORE n" => "IINC n <const>".
+                if (i + 3 < n) {
+                    int lv = CodeContext.localVariableIndex(s, p0, Opcode.ILOAD, Opcode.ILOAD_0);
+                    int c  = CodeContext.intConstant(s, starts[i + 1]);
+                    if (s[starts[i + 2]] == Opcode.ISUB) c = -c;
+                    if (
+                        lv >= 0
+                        && lv <= 255
+                        && c >= Byte.MIN_VALUE
+                        && c <= Byte.MAX_VALUE
+                        && (s[starts[i + 2]] == Opcode.IADD || s[starts[i + 2]] == Opcode.ISUB)
+                        && CodeContext.localVariableIndex(s, starts[i + 3], Opcode.ISTORE, Opcode.ISTORE_0) == lv
+                        && CodeContext.intConstant(s, starts[i + 1]) != Integer.MIN_VALUE
+                    ) {
+                        result[rl++] = Opcode.IINC;
+                        result[rl++] = (byte) lv;
+                        result[rl++] = (byte) c;
+                        i += 4;
+                        continue;
+                    }
+                }
+
+                if (i + 1 < n) {
+                    int p1 = starts[i + 1];
+
+                    // "<store> n; <load> n" => "<dup>; <store> n", if that is shorter.
+                    // "<load> n; <store> n" => "".
+                    int i0 = i;
+                    for (int t = 0; t < 5; ++t) {
+                        int storeLv = CodeContext.localVariableIndex(s, p0, Opcode.ISTORE + t, Opcode.ISTORE_0 + 4 * t);
+                        int loadLv  = CodeContext.localVariableIndex(s, p1, Opcode.ILOAD + t, Opcode.ILOAD_0 + 4 * t);
+                        if (storeLv != -1 && storeLv == loadLv && starts[i + 2] - p1 > 1) {
+                            result[rl++] = t == 1 || t == 3 ? Opcode.DUP2 : Opcode.DUP;
+                            System.arraycopy(s, p0, result, rl, p1 - p0);
+                            rl += p1 - p0;
+                            i  += 2;
+                            break;
+                        }
+                        loadLv  = CodeContext.localVariableIndex(s, p0, Opcode.ILOAD + t, Opcode.ILOAD_0 + 4 * t);
+                        storeLv = CodeContext.localVariableIndex(s, p1, Opcode.ISTORE + t, Opcode.ISTORE_0 + 4 * t);
+                        if (loadLv != -1 && loadLv == storeLv) {
+                            i += 2;
+                            break;
+                        }
+                    }
+                    if (i != i0) continue;
+
+                    // "<push>; POP" => "".
+                    int pushSize = CodeContext.pushSize(op0);
+                    if (pushSize == 1 && op1 == Opcode.POP || pushSize == 2 && op1 == Opcode.POP2) {
+                        i += 2;
+                        continue;
+                    }
+
+                    // "CHECKCAST x; CHECKCAST x" => "CHECKCAST x", "ACONST_NULL; CHECKCAST x" => "ACONST_NULL".
+                    if (
+                        op1 == Opcode.CHECKCAST
+                        && (op0 == Opcode.ACONST_NULL || (
+                            op0 == Opcode.CHECKCAST
+                            && s[p0 + 1] == s[p1 + 1]
+                            && s[p0 + 2] == s[p1 + 2]
+                        ))
+                    ) {
+                        System.arraycopy(s, p0, result, rl, p1 - p0);
+                        rl += p1 - p0;
+                        i  += 2;
+                        continue;
+                    }
+
+                    // "ICONST_<c>; I2L|I2F|I2D" => "LCONST_<c>|FCONST_<c>|DCONST_<c>".
+                    int c = op0 - Opcode.ICONST_0;
+                    if (c >= 0 && c <= 1 && op1 == Opcode.I2L) {
+                        result[rl++] = (byte) (Opcode.LCONST_0 + c);
+                        i += 2;
+                        continue;
+                    }
+                    if (c >= 0 && c <= 2 && op1 == Opcode.I2F) {
+                        result[rl++] = (byte) (Opcode.FCONST_0 + c);
+                        i += 2;
+                        continue;
+                    }
+                    if (c >= 0 && c <= 1 && op1 == Opcode.I2D) {
+                        result[rl++] = (byte) (Opcode.DCONST_0 + c);
+                        i += 2;
+                        continue;
+                    }
+
+                    // "ICONST_1; IXOR; IFEQ|IFNE" => "IFNE|IFEQ".
+                    if (
+                        i + 2 == n
+                        && op0 == Opcode.ICONST_1
+                        && op1 == Opcode.IXOR
+                        && nextBranch != null
+                        && (nextBranch.opcode == Opcode.IFEQ || nextBranch.opcode == Opcode.IFNE)
+                    ) {
+                        nextBranch.opcode = CodeContext.invertBranchOpcode((byte) nextBranch.opcode);
+                        i += 2;
+                        continue;
+                    }
+                }
+
+                System.arraycopy(s, p0, result, rl, starts[i + 1] - p0);
+                rl += starts[i + 1] - p0;
+                ++i;
+            }
+            for (; k < segments.length; ++k) ends[k] = rl;
+
+            // Distribute the result over the segments.
+            CodeContext.this.codeSize -= size - rl;
+            for (k = 0; k < segments.length; ++k) {
+                Offset o     = segments[k];
+                int    start = k == 0 ? 0 : ends[k - 1];
+                int    l     = ends[k] - start;
+
+                // E.g. an IINC goes to the segment of the ILOAD that it replaces.
+                if (l > o.segment.length) o.segment = new byte[l];
+                System.arraycopy(result, start, o.segment, 0, l);
+                o.segmentLength = l;
+            }
+        }
+
+        private void
+        optimizeBranches() {
+            Branch[] bs = (Branch[]) this.branchList.toArray(new Branch[this.branchList.size()]);
+
+            // If the line number changed, then the instruction of a branch is not in the segment of its source, but in
+            // the segment of the following LineNumberOffset.
+            this.branches.clear();
+            for (int i = 0; i < bs.length; ++i) this.branches.put(this.resolve(bs[i].source), bs[i]);
+
+            // Jump threading.
+            for (int i = 0; i < bs.length; ++i) {
+                Branch b = bs[i];
+                if (!this.removedBranches.contains(b)) b.destination = this.threadJump(b.destination);
+            }
+            for (Iterator it = CodeContext.this.relocatables.iterator(); it.hasNext();) {
+                Relocatable r = (Relocatable) it.next();
+                if (r instanceof OffsetBranch) {
+                    OffsetBranch ob = (OffsetBranch) r;
+                    ob.destination = this.threadJump(ob.destination);
+                }
+            }
+
+            for (int i = 0; i < bs.length; ++i) {
+                Branch b = bs[i];
+                if (this.removedBranches.contains(b)) continue;
+
+                Offset source = this.resolve(b.source);
+                if (b.opcode == Opcode.GOTO) {
+                    Offset target = this.resolve(b.destination);
+
+                    // "GOTO L; ... L: <return>" => "<return>".
+                    if (
+                        target.segmentLength > 0
+                        && !this.opaque.contains(target)
+                        && CodeContext.isReturn(target.segment[0])
+                        && this.stillReachable(target)
+                    ) {
+                        this.reference(target, -1);
+                        source.segment[0] = target.segment[0];
+                        this.removeBytes(source, 1, 2);
+                        this.removedBranches.add(b);
+                        continue;
+                    }
+
+                    // "GOTO L; L:" => "".
+                    if (
+                        source.segmentLength == 3
+                        && this.resolve(source.next) == target
+                    ) {
+                        this.reference(target, -1);
+                        this.removeBranch(b);
+                    }
+                    continue;
+                }
+
+                if (!CodeContext.BRANCH_OPCODE_INVERSION.containsKey(new Byte((byte) b.opcode))) continue;
+
+                // "IF<cond> L1; GOTO L2; L1:" => "IF<!cond> L2".
+                Offset next = this.resolve(source.next);
+                Branch g    = (Branch) this.branches.get(next);
+                if (
+                    g != null
+                    && g.opcode == Opcode.GOTO
+                    && !this.removedBranches.contains(g)
+                    && source.segmentLength == 3
+                    && next.segmentLength == 3
+                    && this.references(next) == 0
+                    && this.resolve(b.destination) == this.resolve(next.next)
+                ) {
+                    this.reference(b.destination, -1);
+                    b.opcode      = CodeContext.invertBranchOpcode((byte) b.opcode);
+                    b.destination = g.destination;
+                    this.removeBranch(g);
+                }
+            }
+        }
+
+        /**
+         * @return The destination of the GOTO at the given {@code destination}, if there is one, and so on; removes
+         *         the GOTOs that become unreachable
+         */
+        private Offset
+        threadJump(Offset destination) {
+            for (int i = 0; i < 8; ++i) {
+                Offset target = this.resolve(destination);
+                Branch g      = (Branch) this.branches.get(target);
+                if (g == null || g.opcode != Opcode.GOTO || this.removedBranches.contains(g)) break;
+
+                Offset target2 = this.resolve(g.destination);
+                if (target2 == target) break;
+
+                boolean remove = !this.stillReachable(target);
+                if (remove && target.segmentLength != 3) break;
+
+                this.reference(target, -1);
+                destination = g.destination;
+                if (remove) {
+                    this.removeBranch(g);
+                } else {
+                    this.reference(target2, 1);
+                }
+            }
+            return destination;
+        }
+
+        /**
+         * @return Whether the instruction at {@code target} is still reachable after one of the references to it is
+         *         removed
+         */
+        private boolean
+        stillReachable(Offset target) {
+            if (this.references(target) > 1) return true;
+
+            // Check whether the preceding instruction can complete normally.
+            Offset p = target.prev;
+            while (p != null && p.segmentLength == 0) p = p.prev;
+            if (p == null || this.opaque.contains(p)) return true;
+
+            int[] starts = CodeContext.instructionStarts(p.segment, p.segmentLength);
+            byte  opcode = p.segment[starts[starts.length - 2]];
+            return opcode == Opcode.WIDE || (Opcode.OPCODE_PROPERTIES[0xff & opcode] & Opcode.NO_FALLTHROUGH) == 0;
+        }
+
+        private void
+        removeBranch(Branch b) {
+            this.removeBytes(this.resolve(b.source), 0, 3);
+            this.removedBranches.add(b);
+        }
+
+        /**
+         * Removes bytes from the segment of {@code o}. If the segment becomes empty, then the references to it are
+         * transferred to the code that follows.
+         */
+        private void
+        removeBytes(Offset o, int pos, int count) {
+            Integer count2 = o.segmentLength == count ? (Integer) this.references.remove(o) : null;
+
+            System.arraycopy(o.segment, pos + count, o.segment, pos, o.segmentLength - pos - count);
+            o.segmentLength           -= count;
+            CodeContext.this.codeSize -= count;
+
+            if (count2 != null) this.reference(o, count2.intValue());
+        }
+
+        /**
+         * @return The offset that owns the first byte of code at or after {@code o}
+         */
+        private Offset
+        resolve(Offset o) {
+            while (o.segmentLength == 0 && o.next != null) o = o.next;
+            return o;
+        }
+
+        private int
+        references(Offset o) {
+            Integer count = (Integer) this.references.get(this.resolve(o));
+            return count == null ? 0 : count.intValue();
+        }
+
+        private void
+        reference(Offset o, int delta) {
+            o = this.resolve(o);
+            this.references.put(o, new Integer(this.references(o) + delta));
+        }
+    }
+
+    /**
+     * @return The offsets of the instructions in {@code code[0 ... length-1]}, plus the offset after the last
+     *         instruction that starts there
+     */
+    private static int[]
+    instructionStarts(byte[] code, int length) {
+        int[] result = new int[length + 1];
+        int   n      = 0;
+        int   pos    = 0;
+        while (pos < length) {
+            result[n++] = pos;
+            int l = CodeContext.instructionLength(code, pos, length);
+            if (l == -1) throw new JaninoRuntimeException("Undecodable instruction");
+            if (pos + l > length) break;
+            pos += l;
+        }
+        if (pos < length) {
+            --n; // The last instruction continues in the next segment.
+        }
+        result[n++] = pos;
+        int[] tmp = new int[n];
+        System.arraycopy(result, 0, tmp, 0, n);
+        return tmp;
+    }
+
+    /**
+     * @param length The number of valid bytes in {@code code}
+     * @return       The length of the instruction at {@code code[pos]}, or -1 for TABLESWITCH and LOOKUPSWITCH (whose
+     *               length depends on their alignment), invalid opcodes and truncated WIDE instructions
+     */
+    private static int
+    instructionLength(byte[] code, int pos, int length) {
+        if (code[pos] == Opcode.WIDE) return pos + 1 >= length ? -1 : code[pos + 1] == Opcode.IINC ? 6 : 4;
+
+        short props = Opcode.OPCODE_PROPERTIES[0xff & code[pos]];
+        if (props == Opcode.INVALID_OPCODE) return -1;
+
+        int result = 1;
+        switch (props & Opcode.OP1_MASK) {
+
+        case 0:
+            break;
+
+        case Opcode.OP1_SB:
+        case Opcode.OP1_UB:
+        case Opcode.OP1_CP1:
+        case Opcode.OP1_LV1:
+            result += 1;
+            break;
+
+        case Opcode.OP1_SS:
+        case Opcode.OP1_CP2:
+        case Opcode.OP1_LV2:
+        case Opcode.OP1_BO2:
+        case Opcode.OP1_JSR:
+            result += 2;
+            break;
+
+        case Opcode.OP1_BO4:
+            result += 4;
+            break;
+
+        default:
+            return -1;
+        }
+        if ((props & Opcode.OP2_MASK) == Opcode.OP2_SB) result += 1;
+        if ((props & Opcode.OP2_MASK) == Opcode.OP2_SS) result += 2;
+        if ((props & Opcode.OP3_MASK) == Opcode.OP3_SB) result += 1;
+        return result;
+    }
+
+    /**
+     * @param opcode   E.g. {@link Opcode#ILOAD}
+     * @param opcode0  E.g. {@link Opcode#ILOAD_0}
+     * @return         The local variable index if the instruction at {@code code[pos]} is {@code opcode} or {@code
+     *                 opcode0 ... opcode0+3}, otherwise -1
+     */
+    private static int
+    localVariableIndex(byte[] code, int pos, int opcode, int opcode0) {
+        byte op = code[pos];
+        if (op == (byte) opcode) return 0xff & code[pos + 1];
+        if (op >= (byte) opcode0 && op <= (byte) (opcode0 + 3)) return op - (byte) opcode0;
+        if (op == Opcode.WIDE && code[pos + 1] == (byte) opcode) {
+            return ((0xff & code[pos + 2]) << 8) + (0xff & code[pos + 3]);
+        }
+        return -1;
+    }
+
+    /**
+     * @return The value that the ICONST_*, BIPUSH or SIPUSH instruction at {@code code[pos]} pushes, or {@link
+     *         Integer#MIN_VALUE}
+     */
+    private static int
+    intConstant(byte[] code, int pos) {
+        byte op = code[pos];
+        if (op >= Opcode.ICONST_M1 && op <= Opcode.ICONST_5) return op - Opcode.ICONST_0;
+        if (op == Opcode.BIPUSH) return code[pos + 1];
+        if (op == Opcode.SIPUSH) return (short) (((0xff & code[pos + 1]) << 8) + (0xff & code[pos + 2]));
+        return Integer.MIN_VALUE;
+    }
+
+    /**
+     * @return The number of operand stack slots that the instruction pushes iff it has no other effect, otherwise 0
+     */
+    private static int
+    pushSize(byte opcode) {
+        if (opcode >= Opcode.ACONST_NULL && opcode <= Opcode.ICONST_5) return 1;
+        if (opcode >= Opcode.LCONST_0 && opcode <= Opcode.LCONST_1) return 2;
+        if (opcode >= Opcode.FCONST_0 && opcode <= Opcode.FCONST_2) return 1;
+        if (opcode >= Opcode.DCONST_0 && opcode <= Opcode.DCONST_1) return 2;
+        if (opcode == Opcode.BIPUSH || opcode == Opcode.SIPUSH || opcode == Opcode.DUP) return 1;
+        if (opcode == Opcode.DUP2) return 2;
+        if (opcode == Opcode.ILOAD || opcode == Opcode.FLOAD || opcode == Opcode.ALOAD) return 1;
+        if (opcode == Opcode.LLOAD || opcode == Opcode.DLOAD) return 2;
+        if (opcode >= Opcode.ILOAD_0 && opcode <= Opcode.ILOAD_3) return 1;
+        if (opcode >= Opcode.LLOAD_0 && opcode <= Opcode.LLOAD_3) return 2;
+        if (opcode >= Opcode.FLOAD_0 && opcode <= Opcode.FLOAD_3) return 1;
+        if (opcode >= Opcode.DLOAD_0 && opcode <= Opcode.DLOAD_3) return 2;
+        if (opcode >= Opcode.ALOAD_0 && opcode <= Opcode.ALOAD_3) return 1;
+        return 0;
+    }
+
+    private static boolean
+    isReturn(byte opcode) { return opcode >= Opcode.IRETURN && opcode <= Opcode.RETURN; }
+
     /**
      * fixUp() all of the offsets and relocate() all relocatables
      */
     public void
     fixUpAndRelocate() {
 
+        // Joining the segments also fixes up all offsets.
+        this.join();
+
         // We do this in a loop to allow relocatables to adjust the size
         // of things in the byte stream.  It is extremely unlikely, but possible
         // that a late relocatable will grow the size of the bytecode, and require
         // an earlier relocatable to switch from 32K mode to 64K mode branching
-        do {
-            fixUp();
-        } while (!relocate());
+        while (!relocate()) fixUp();
+    }
+
+    /**
+     * Computes the values of all {@link Offset}s and joins the code segments into one array, unless that has already
+     * happened. {@link FixUp}s are invoked in the order of their offsets, when all preceding offsets are final.
+     */
+    private void
+    join() {
+        if (this.code != null) return;
+
+        for (Offset o = this.beginning; o != null; o = o.next) {
+            o.offset = o.prev == null ? 0 : o.prev.offset + o.prev.segmentLength;
+            if (o instanceof FixUp) {
+
+                // The fix-up may insert bytes before itself, i.e. into the preceding segment.
+                ((FixUp) o).fixUp();
+                o.offset = o.prev.offset + o.prev.segmentLength;
+            }
+        }
+
+        byte[] code = new byte[this.codeSize];
+        for (Offset o = this.beginning; o != null; o = o.next) {
+            if (o.segment != null) {
+                System.arraycopy(o.segment, 0, code, o.offset, o.segmentLength);
+                o.segment       = null;
+                o.segmentLength = 0;
+            }
+        }
+        this.code = code;
+    }
+
+    /**
+     * @return The number of bytes of code between the two offsets; {@code to} must not precede {@code from}
+     */
+    public int
+    size(Offset from, Offset to) {
+        if (this.code != null) return to.offset - from.offset;
+
+        int result = 0;
+        for (Offset o = from; o != to; o = o.next) result += o.segmentLength;
+        return result;
     }
 
     /**
@@ -836,9 +1618,8 @@ class CodeContext {
     write(short lineNumber, byte[] b) {
         if (b.length == 0) return;
 
-        int ico = this.currentInserter.offset;
         this.makeSpace(lineNumber, b.length);
-        System.arraycopy(b, 0, this.code, ico, b.length);
+        System.arraycopy(b, 0, this.space, this.spaceIndex, b.length);
     }
 
     /**
@@ -853,9 +1634,8 @@ class CodeContext {
      */
     public void
     write(short lineNumber, byte b1) {
-        int ico = this.currentInserter.offset;
         this.makeSpace(lineNumber, 1);
-        this.code[ico] = b1;
+        this.space[this.spaceIndex] = b1;
     }
 
     /**
@@ -871,10 +1651,11 @@ class CodeContext {
      */
     public void
     write(short lineNumber, byte b1, byte b2) {
-        int ico = this.currentInserter.offset;
         this.makeSpace(lineNumber, 2);
-        this.code[ico++] = b1;
-        this.code[ico]   = b2;
+        byte[] s = this.space;
+        int    i = this.spaceIndex;
+        s[i++] = b1;
+        s[i]   = b2;
     }
 
     /**
@@ -891,11 +1672,12 @@ class CodeContext {
      */
     public void
     write(short lineNumber, byte b1, byte b2, byte b3) {
-        int ico = this.currentInserter.offset;
         this.makeSpace(lineNumber, 3);
-        this.code[ico++] = b1;
-        this.code[ico++] = b2;
-        this.code[ico]   = b3;
+        byte[] s = this.space;
+        int    i = this.spaceIndex;
+        s[i++] = b1;
+        s[i++] = b2;
+        s[i]   = b3;
     }
 
     /**
@@ -913,17 +1695,20 @@ class CodeContext {
      */
     public void
     write(short lineNumber, byte b1, byte b2, byte b3, byte b4) {
-        int ico = this.currentInserter.offset;
         this.makeSpace(lineNumber, 4);
-        this.code[ico++] = b1;
-        this.code[ico++] = b2;
-        this.code[ico++] = b3;
-        this.code[ico]   = b4;
+        byte[] s = this.space;
+        int    i = this.spaceIndex;
+        s[i++] = b1;
+        s[i++] = b2;
+        s[i++] = b3;
+        s[i]   = b4;
     }
 
     /**
      * Add space for size bytes at current offset. Creates
      * {@link LineNumberOffset}s as necessary.
+     * <p>
+     * The space is filled with zeros; its location is left in {@link #space} and {@link #spaceIndex}.
      *
      * @param lineNumber The line number that corresponds to the byte code, or -1
      * @param size       The size in bytes to inject
@@ -932,6 +1717,14 @@ class CodeContext {
     makeSpace(short lineNumber, int size) {
         if (size == 0) return;
 
+        if (this.codeSize + size > 0xffff) {
+            throw new JaninoRuntimeException(
+                "Code attribute in class \""
+                + this.classFile.getThisClassName()
+                + "\" grows beyond 64 KB"
+            );
+        }
+
         INSERT_LINE_NUMBER_OFFSET:
         if (lineNumber != -1) {
             Offset o;
@@ -948,7 +1741,26 @@ class CodeContext {
             this.currentInserter.prev.next = lno;
             this.currentInserter.prev      = lno;
         }
+        this.codeSize += size;
+
+        // Append to the segment that precedes the current inserter.
+        if (this.code == null) {
+            Offset o = this.currentInserter.prev;
+            if (o.segment == null) {
+                o.segment = new byte[Math.max(size, CodeContext.INITIAL_SEGMENT_SIZE)];
+            } else
+            if (o.segmentLength + size > o.segment.length) {
+                byte[] newSegment = new byte[Math.max(o.segmentLength + size, 2 * o.segment.length)];
+                System.arraycopy(o.segment, 0, newSegment, 0, o.segmentLength);
+                o.segment = newSegment;
+            }
+            this.space         = o.segment;
+            this.spaceIndex    = o.segmentLength;
+            o.segmentLength   += size;
+            return;
+        }
 
+        // The code was already joined; shift the code and the offsets behind the current inserter.
         int ico = this.currentInserter.offset;
         if (this.end.offset + size <= this.code.length) {
             // Optimization to avoid a trivial method call in the common case
@@ -959,21 +1771,22 @@ class CodeContext {
             byte[] oldCode = this.code;
             //double size to avoid horrible performance, but don't grow over our limit
             int newSize = Math.max(Math.min(oldCode.length * 2, 0xffff), oldCode.length + size);
-            if (newSize > 0xffff) {
-                throw new JaninoRuntimeException(
-                    "Code attribute in class \""
-                    + this.classFile.getThisClassName()
-                    + "\" grows beyond 64 KB"
-                );
-            }
             this.code = new byte[newSize];
             System.arraycopy(oldCode, 0, this.code, 0, ico);
             System.arraycopy(oldCode, ico, this.code, ico + size, this.end.offset - ico);
         }
         Arrays.fill(this.code, ico, ico + size, (byte) 0);
         for (Offset o = this.currentInserter; o != null; o = o.next) o.offset += size;
+        this.space      = this.code;
+        this.spaceIndex = ico;
     }
 
+    /**
+     * Where {@link #makeSpace(short, int)} made space most recently.
+     */
+    private byte[] space;
+    private int    spaceIndex;
+
     /**
      * @param lineNumber The line number that corresponds to the byte code, or -1
      */
@@ -1072,9 +1885,9 @@ class CodeContext {
         }
 
         private boolean        expanded; //marks whether this has been expanded to account for a wide branch
-        private final int      opcode;
+        private int            opcode;
         private final Inserter source;
-        private final Offset   destination;
+        private Offset         destination;
     }
 
     /**
@@ -1143,7 +1956,8 @@ class CodeContext {
             System.arraycopy(ba, 0, CodeContext.this.code, this.where.offset, 4);
             return true;
         }
-        private final Offset where, source, destination;
+        private final Offset where, source;
+        private Offset       destination;
     }
 
     /**
@@ -1208,12 +2022,19 @@ class CodeContext {
     public
     class Offset {
 
-        /** The offset in the code attribute that this object represents. */
+        /**
+         * The offset in the code attribute that this object represents. Valid only after the code segments were
+         * joined; until then only indicates whether the offset was {@link #set()}.
+         */
         int offset = Offset.UNSET;
 
         /** Links to preceding and succeding offsets. */
         Offset prev, next;
 
+        /** The code between this offset and the next, while the code is still in segments. */
+        byte[] segment;
+        int    segmentLength;
+
         /**
          * Special value for {@link #offset} which indicates that this {@link Offset} has not yet been {@link #set()}
          */
@@ -1226,7 +2047,7 @@ class CodeContext {
         set() {
             if (this.offset != Offset.UNSET) throw new JaninoRuntimeException("Cannot \"set()\" Offset more than once");
 
-            this.offset = CodeContext.this.currentInserter.offset;
+            this.offset = CodeContext.this.code == null ? 0 : CodeContext.this.currentInserter.offset;
 
             this.prev      = CodeContext.this.currentInserter.prev;
             this.next      = CodeContext.this.currentInserter;
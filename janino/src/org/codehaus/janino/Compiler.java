@@ -27,13 +27,36 @@
 package org.codehaus.janino;
 
 import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigInteger;
 import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.codehaus.commons.compiler.CompileException;
 import org.codehaus.commons.compiler.Location;
@@ -67,6 +90,12 @@ import org.codehaus.janino.util.resource.ResourceFinder;
  *           [ -g:none ] \
  *           [ -g:{source,lines,vars} ] \
  *           [ -warn:<i>pattern-list</i> ] \
+ *           [ -target <i>version</i> ] \
+ *           [ -incremental ] \
+ *           [ -threads <i>count</i> ] \
+ *           [ -split ] \
+ *           [ -peephole ] \
+ *           [ -inline <i>size</i> ] \
  *           <i>source-file</i> ...
  * java org.codehaus.janino.Compiler -help
  * </pre>
@@ -92,6 +121,12 @@ class Compiler {
         boolean         debugVars                 = false;
         StringPattern[] warningHandlePatterns     = Compiler.DEFAULT_WARNING_HANDLE_PATTERNS;
         boolean         rebuild                   = false;
+        int             targetVersion             = -1;
+        boolean         incremental               = false;
+        int             threadCount               = 1;
+        boolean         splitLargeMethods         = false;
+        boolean         peepholeOptimization      = false;
+        int             inlineThreshold           = 0;
 
         // Process command line options.
         int i;
@@ -136,6 +171,50 @@ class Compiler {
             if ("-rebuild".equals(arg)) {
                 rebuild = true;
             } else
+            if ("-target".equals(arg)) {
+                String tv = args[++i];
+                if (tv.startsWith("1.")) tv = tv.substring(2);
+                try {
+                    targetVersion = Integer.parseInt(tv);
+                } catch (NumberFormatException nfe) {
+                    targetVersion = 0;
+                }
+                if (targetVersion < 6 || targetVersion > 8) {
+                    System.err.println("Invalid target version \"" + args[i] + "\"; try \"-help\".");
+                    System.exit(1);
+                }
+            } else
+            if ("-incremental".equals(arg)) {
+                incremental = true;
+            } else
+            if ("-threads".equals(arg)) {
+                try {
+                    threadCount = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException nfe) {
+                    threadCount = 0;
+                }
+                if (threadCount < 1) {
+                    System.err.println("Invalid thread count \"" + args[i] + "\"; try \"-help\".");
+                    System.exit(1);
+                }
+            } else
+            if ("-split".equals(arg)) {
+                splitLargeMethods = true;
+            } else
+            if ("-peephole".equals(arg)) {
+                peepholeOptimization = true;
+            } else
+            if ("-inline".equals(arg)) {
+                try {
+                    inlineThreshold = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException nfe) {
+                    inlineThreshold = -1;
+                }
+                if (inlineThreshold < 0) {
+                    System.err.println("Invalid inline threshold \"" + args[i] + "\"; try \"-help\".");
+                    System.exit(1);
+                }
+            } else
             if ("-help".equals(arg)) {
                 System.out.printf(Compiler.USAGE, (Object[]) null);
                 System.exit(1);
@@ -169,6 +248,12 @@ class Compiler {
             warningHandlePatterns,
             rebuild
         );
+        compiler.setTargetVersion(targetVersion);
+        compiler.setIncremental(incremental);
+        compiler.setThreadCount(threadCount);
+        compiler.setSplitLargeMethods(splitLargeMethods);
+        compiler.setPeepholeOptimization(peepholeOptimization);
+        compiler.setInlineThreshold(inlineThreshold);
 
         // Compile source files.
         try {
@@ -206,6 +291,14 @@ class Compiler {
         + "                            static fields%n"
         + "  -rebuild                  Compile all source files, even if the class files%n"
         + "                            seems up-to-date%n"
+        + "  -target <version>         Generate class files for a specific JVM version%n"
+        + "                            (6, 7 or 8; default: Java 1.1 class files)%n"
+        + "  -incremental              Compile only the changed source files, and those that%n"
+        + "                            depend on them (requires \"-d\")%n"
+        + "  -threads <count>          Compile with that many threads (default: 1)%n"
+        + "  -split                    Split methods that are too large for the JVM%n"
+        + "  -peephole                 Peephole-optimize the generated bytecode%n"
+        + "  -inline <size>            Inline small private and static final methods%n"
         + "  -help%n"
         + "%n"
         + "The default encoding in this environment is \"" + Charset.defaultCharset().toString() + "\"."
@@ -218,15 +311,63 @@ class Compiler {
     /** Special value for "classFileResourceCreator". */
     public static final ResourceCreator CREATE_NEXT_TO_SOURCE_FILE = null;
     private final String                optionalCharacterEncoding;
+    private final boolean               verbose;
     private final Benchmark             benchmark;
     private final boolean               debugSource;
     private final boolean               debugLines;
     private final boolean               debugVars;
     private final WarningHandler        optionalWarningHandler;
     private UnitCompiler.ErrorHandler   optionalCompileErrorHandler;
+    private int                         targetVersion = -1;
+    private boolean                     incremental;
+    private int                         threadCount = 1;
+    private boolean                     splitLargeMethods;
+    private boolean                     peepholeOptimization;
+    private int                         inlineThreshold;
+
+    private final ResourceFinder sourceFinder;
+    private final IClassLoader   parentIClassLoader;
+    private CompilerIClassLoader iClassLoader;
+
+    /**
+     * During a parallel compilation: The given compilation units, by the names of the top-level classes they declare.
+     */
+    private Map/*<String className, Resource>*/ optionalGivenUnits;
 
-    private final IClassLoader           iClassLoader;
-    private final List/*<UnitCompiler>*/ parsedCompilationUnits = new ArrayList();
+    /**
+     * During a parallel compilation: The given compilation units that no thread has taken for compilation yet, by
+     * their file names.
+     */
+    private Map/*<String fileName, Java.CompilationUnit>*/ optionalUntakenUnits;
+
+    /**
+     * During a parallel compilation: The file names of the compilation units that one of the threads compiles.
+     */
+    private Set/*<String fileName>*/ optionalClaimedUnits;
+
+    /**
+     * During a parallel compilation: The class files of the compilation units that were compiled so far, by the names
+     * of the top-level classes they declare. Each value maps the names of all classes that the unit declares to their
+     * class file bytes.
+     */
+    private Map/*<String className, Map<String className, byte[]>>*/ optionalCompiledClasses;
+
+    /**
+     * The {@code classFileCreator} need not be thread-safe, so parallel compilations store class files under this
+     * lock.
+     */
+    private final Object storeLock = new Object();
+
+    /**
+     * The classes that an incremental compilation loads from their existing class files rather than from source.
+     */
+    private Set/*<String className>*/ upToDateClassNames = Collections.EMPTY_SET;
+
+    /**
+     * Name of the resource, next to the generated class files, where an {@link #setIncremental(boolean) incremental}
+     * compilation stores which classes each compilation unit declares and depends on.
+     */
+    public static final String DEPENDENCIES_RESOURCE_NAME = "janino.dependencies";
 
     /**
      * Initialize a Java&trade; compiler with the given parameters.
@@ -383,6 +524,7 @@ class Compiler {
         this.classFileFinder           = classFileFinder;
         this.classFileCreator          = classFileCreator;
         this.optionalCharacterEncoding = optionalCharacterEncoding;
+        this.verbose                   = verbose;
         this.benchmark                 = new Benchmark(verbose);
         this.debugSource               = debugSource;
         this.debugLines                = debugLines;
@@ -390,9 +532,12 @@ class Compiler {
         this.optionalWarningHandler    = optionalWarningHandler;
 
         // Set up the IClassLoader.
-        this.iClassLoader = new CompilerIClassLoader(
+        this.sourceFinder       = sourceFinder;
+        this.parentIClassLoader = iClassLoader;
+        this.iClassLoader       = new CompilerIClassLoader(
             sourceFinder,
-            iClassLoader
+            iClassLoader,
+            this.benchmark
         );
     }
 
@@ -417,6 +562,71 @@ class Compiler {
         this.optionalCompileErrorHandler = optionalCompileErrorHandler;
     }
 
+    /**
+     * Sets the version of the generated class files.
+     *
+     * @see UnitCompiler#setTargetVersion(int)
+     */
+    public void
+    setTargetVersion(int version) {
+        if (version != -1 && (version < 6 || version > 8)) {
+            throw new IllegalArgumentException("Invalid target version " + version);
+        }
+        this.targetVersion = version;
+    }
+
+    /**
+     * @see UnitCompiler#setSplitLargeMethods(boolean)
+     */
+    public void
+    setSplitLargeMethods(boolean value) { this.splitLargeMethods = value; }
+
+    /**
+     * @see UnitCompiler#setPeepholeOptimization(boolean)
+     */
+    public void
+    setPeepholeOptimization(boolean value) { this.peepholeOptimization = value; }
+
+    /**
+     * @see UnitCompiler#setInlineThreshold(int)
+     */
+    public void
+    setInlineThreshold(int value) { this.inlineThreshold = value; }
+
+    /**
+     * In incremental mode, {@link #compile(Resource[])} compiles only those of the given compilation units which
+     * changed since the previous compilation (or whose class files are missing), plus those that depend on a class
+     * whose API changed as a consequence; the classes of all other given units are loaded from their existing class
+     * files. Changing a method body thus recompiles only one compilation unit, while changing a method signature or
+     * a constant's value also recompiles the units that use it.
+     * <p>
+     * To that end, the compiler records, for each given compilation unit, its modification time, the API of each
+     * class it declares, and the classes it depends on (including those whose constants it inlines), in the resource
+     * {@link #DEPENDENCIES_RESOURCE_NAME} next to the class files.
+     * <p>
+     * Incremental mode has no effect if the class files are stored next to the source files, i.e. without a
+     * destination directory.
+     */
+    public void
+    setIncremental(boolean incremental) { this.incremental = incremental; }
+
+    /**
+     * With more than one thread, {@link #compile(Resource[])} distributes the given compilation units among that many
+     * threads, which parse, compile and store them concurrently. The units on the source path are compiled by the
+     * thread that first needs them.
+     * <p>
+     * Each thread has its own view of the classes being compiled, and parses the given units of other threads that
+     * its units refer to; thus parallel compilation pays off best for many, loosely coupled compilation units. Only
+     * the {@code iClassLoader} passed to the constructor is shared between the threads, as are the {@link
+     * #setCompileErrorHandler(ErrorHandler) compile error handler} and the warning handler, which must therefore be
+     * thread-safe.
+     */
+    public void
+    setThreadCount(int threadCount) {
+        if (threadCount < 1) throw new IllegalArgumentException("Invalid thread count " + threadCount);
+        this.threadCount = threadCount;
+    }
+
     /**
      * Reads a set of Java&trade; compilation units (a.k.a. "source
      * files") from the file system, compiles them into a set of "class
@@ -475,7 +685,7 @@ class Compiler {
 
                 int compileErrorCount;
 
-                @Override public void
+                @Override public synchronized void
                 handleError(String message, Location optionalLocation) throws CompileException {
                     CompileException ex = new CompileException(message, optionalLocation);
                     if (++this.compileErrorCount >= 20) throw ex;
@@ -484,64 +694,601 @@ class Compiler {
             }
         );
 
+        if (
+            !this.incremental
+            || this.classFileFinder == Compiler.FIND_NEXT_TO_SOURCE_FILE
+            || this.classFileCreator == Compiler.CREATE_NEXT_TO_SOURCE_FILE
+        ) {
+            this.compile2(sourceResources, ceh, null);
+        } else {
+            this.compileIncrementally(sourceResources, ceh);
+        }
+        return true;
+    }
+
+    /**
+     * Parses and compiles the given compilation units, and all the units on the source path that they require.
+     *
+     * @param optionalCompiledUnits If non-{@code null}, the API and the dependencies of each compiled unit are stored
+     *                              here
+     */
+    private void
+    compile2(
+        Resource[]                          sourceResources,
+        UnitCompiler.ErrorHandler           ceh,
+        Map/*<String, UnitDependencies>*/ optionalCompiledUnits
+    ) throws CompileException, IOException {
+        if (this.threadCount > 1 && sourceResources.length > 1) {
+            this.compileInParallel(sourceResources, ceh, optionalCompiledUnits);
+            return;
+        }
+
+        List/*<UnitCompiler>*/ parsedCompilationUnits = this.iClassLoader.parsedCompilationUnits;
         this.benchmark.beginReporting();
         try {
 
             // Parse all source files.
-            this.parsedCompilationUnits.clear();
+            parsedCompilationUnits.clear();
             for (int i = 0; i < sourceResources.length; ++i) {
                 if (Compiler.DEBUG) System.out.println("Compiling \"" + sourceResources[i] + "\"");
-                this.parsedCompilationUnits.add(new UnitCompiler(this.parseCompilationUnit(
+                parsedCompilationUnits.add(new UnitCompiler(this.parseCompilationUnit(
                     sourceResources[i].getFileName(),                   // fileName
                     new BufferedInputStream(sourceResources[i].open()), // inputStream
-                    this.optionalCharacterEncoding                      // optionalCharacterEncoding
+                    this.optionalCharacterEncoding,                     // optionalCharacterEncoding
+                    this.benchmark                                      // benchmark
                 ), this.iClassLoader));
             }
 
             // Compile all parsed compilation units. The vector of parsed CUs may
             // grow while they are being compiled, but eventually all CUs will
             // be compiled.
-            for (int i = 0; i < this.parsedCompilationUnits.size(); ++i) {
-                UnitCompiler         unitCompiler = (UnitCompiler) this.parsedCompilationUnits.get(i);
-                Java.CompilationUnit cu           = unitCompiler.compilationUnit;
-                if (cu.optionalFileName == null) throw new JaninoRuntimeException();
-                File sourceFile = new File(cu.optionalFileName);
+            for (int i = 0; i < parsedCompilationUnits.size(); ++i) {
+                UnitCompiler uc = (UnitCompiler) parsedCompilationUnits.get(i);
+                this.compileUnit(uc, ceh, optionalCompiledUnits, this.benchmark);
+            }
+        } finally {
+            this.benchmark.endReporting("Compiled " + parsedCompilationUnits.size() + " compilation unit(s)");
+        }
+    }
+
+    /**
+     * Compiles the given compilation units with {@link #setThreadCount(int)} threads. First, the threads parse the
+     * units, round-robin; then, each thread repeatedly takes the next given unit that no thread has taken yet, and
+     * compiles and stores it, plus the units that it requires and that no other thread has taken yet.
+     * <p>
+     * Neither {@link UnitCompiler}s, nor the {@link IClass}es they produce, nor parsed units that a {@link
+     * UnitCompiler} has used (it annotates them with its {@link IClass}es, resolved methods, constant values and local
+     * variables) can be shared between threads, so each thread has its own {@link CompilerIClassLoader}. What the
+     * threads do share is the pool of parsed, but untouched given units, and an index of the class files compiled so
+     * far. Thus a thread that needs a class of another unit takes the unit over from the pool, or loads the class from
+     * its class file. Only if another thread is compiling the unit at that moment, the thread parses, but does not
+     * compile, it again. For the same reason, each thread reports through its own {@link Benchmark}.
+     */
+    private void
+    compileInParallel(
+        final Resource[]                          sourceResources,
+        final UnitCompiler.ErrorHandler           ceh,
+        final Map/*<String, UnitDependencies>*/ optionalCompiledUnits
+    ) throws CompileException, IOException {
+        final CompilerIClassLoader[] iClassLoaders = new CompilerIClassLoader[
+            Math.min(this.threadCount, sourceResources.length)
+        ];
+        for (int i = 0; i < iClassLoaders.length; ++i) {
+            iClassLoaders[i] = new CompilerIClassLoader(
+                this.sourceFinder,
+                this.parentIClassLoader,
+                new Benchmark(this.verbose)
+            );
+        }
+        this.optionalGivenUnits      = new ConcurrentHashMap();
+        this.optionalUntakenUnits    = new ConcurrentHashMap();
+        this.optionalClaimedUnits    = Collections.synchronizedSet(new HashSet());
+        this.optionalCompiledClasses = new ConcurrentHashMap();
+        for (int i = 0; i < sourceResources.length; ++i) {
+            this.optionalClaimedUnits.add(sourceResources[i].getFileName());
+        }
 
-                unitCompiler.setCompileErrorHandler(ceh);
-                unitCompiler.setWarningHandler(this.optionalWarningHandler);
+        ExecutorService executorService = Executors.newFixedThreadPool(iClassLoaders.length);
+        Future[]        futures         = new Future[iClassLoaders.length];
+        this.benchmark.beginReporting();
+        try {
 
-                this.benchmark.beginReporting("Compiling compilation unit \"" + sourceFile + "\"");
-                ClassFile[] classFiles;
-                try {
+            // Parse all source files, and remember which top-level classes they declare.
+            for (int i = 0; i < iClassLoaders.length; ++i) {
+                final int                  first = i;
+                final CompilerIClassLoader icl   = iClassLoaders[i];
+                futures[i] = executorService.submit(new Callable() {
 
-                    // Compile the compilation unit.
-                    classFiles = unitCompiler.compileUnit(this.debugSource, this.debugLines, this.debugVars);
-                } finally {
-                    this.benchmark.endReporting();
+                    @Override public Object
+                    call() throws CompileException, IOException {
+                        for (int j = first; j < sourceResources.length; j += iClassLoaders.length) {
+                            Resource             sr = sourceResources[j];
+                            Java.CompilationUnit cu = Compiler.this.parseCompilationUnit(
+                                sr.getFileName(),                        // fileName
+                                new BufferedInputStream(sr.open()),      // inputStream
+                                Compiler.this.optionalCharacterEncoding, // optionalCharacterEncoding
+                                icl.benchmark                            // benchmark
+                            );
+                            Compiler.this.optionalUntakenUnits.put(sr.getFileName(), cu);
+
+                            Java.PackageMemberTypeDeclaration[] pmtds = cu.getPackageMemberTypeDeclarations();
+                            for (int k = 0; k < pmtds.length; ++k) {
+                                Compiler.this.optionalGivenUnits.put(pmtds[k].getClassName(), sr);
+                            }
+                        }
+                        return null;
+                    }
+                });
+            }
+            Compiler.waitFor(futures);
+
+            // Compile all parsed compilation units, plus those they pull in from the source path.
+            final AtomicInteger nextUnit = new AtomicInteger();
+            for (int i = 0; i < iClassLoaders.length; ++i) {
+                final CompilerIClassLoader icl = iClassLoaders[i];
+                futures[i] = executorService.submit(new Callable() {
+
+                    @Override public Object
+                    call() throws CompileException, IOException {
+                        for (int j = 0;; ++j) {
+
+                            // Compile the units that this thread took while compiling, then take the next given unit.
+                            if (j == icl.parsedCompilationUnits.size()) {
+                                Java.CompilationUnit cu = null;
+                                for (int k = nextUnit.getAndIncrement(); k < sourceResources.length && cu == null;) {
+                                    cu = (Java.CompilationUnit) Compiler.this.optionalUntakenUnits.remove(
+                                        sourceResources[k].getFileName()
+                                    );
+                                    if (cu == null) k = nextUnit.getAndIncrement();
+                                }
+                                if (cu == null) return null;
+                                icl.parsedCompilationUnits.add(new UnitCompiler(cu, icl));
+                            }
+
+                            UnitCompiler uc = (UnitCompiler) icl.parsedCompilationUnits.get(j);
+                            if (!icl.referenceOnlyUnits.contains(uc)) {
+                                Compiler.this.compileUnit(uc, ceh, optionalCompiledUnits, icl.benchmark);
+                            }
+                        }
+                    }
+                });
+            }
+            Compiler.waitFor(futures);
+        } finally {
+            executorService.shutdownNow();
+            this.optionalGivenUnits      = null;
+            this.optionalUntakenUnits    = null;
+            this.optionalClaimedUnits    = null;
+            this.optionalCompiledClasses = null;
+            this.benchmark.endReporting(
+                "Compiled "
+                + sourceResources.length
+                + " compilation unit(s) and their dependencies with "
+                + iClassLoaders.length
+                + " threads"
+            );
+        }
+    }
+
+    /**
+     * Waits until all {@code futures} are done, and rethrows the first exception that any of them threw.
+     */
+    private static void
+    waitFor(Future[] futures) throws CompileException, IOException {
+        for (int i = 0; i < futures.length; ++i) {
+            try {
+                futures[i].get();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            } catch (ExecutionException ee) {
+                Throwable t = ee.getCause();
+                if (t instanceof CompileException) throw (CompileException) t;
+                if (t instanceof IOException) throw (IOException) t;
+                if (t instanceof RuntimeException) throw (RuntimeException) t;
+                if (t instanceof Error) throw (Error) t;
+                throw new JaninoRuntimeException(t.toString(), t);
+            }
+        }
+    }
+
+    /**
+     * Compiles one compilation unit, and stores the resulting class files.
+     *
+     * @param optionalCompiledUnits If non-{@code null}, the API and the dependencies of the unit are stored here
+     * @param benchmark             Must not be used by other threads at the same time
+     */
+    private void
+    compileUnit(
+        UnitCompiler                        unitCompiler,
+        UnitCompiler.ErrorHandler           ceh,
+        Map/*<String, UnitDependencies>*/ optionalCompiledUnits,
+        Benchmark                           benchmark
+    ) throws CompileException, IOException {
+        Java.CompilationUnit cu = unitCompiler.compilationUnit;
+        if (cu.optionalFileName == null) throw new JaninoRuntimeException();
+        File sourceFile = new File(cu.optionalFileName);
+
+        unitCompiler.setCompileErrorHandler(ceh);
+        unitCompiler.setWarningHandler(this.optionalWarningHandler);
+        unitCompiler.setTargetVersion(this.targetVersion);
+        unitCompiler.setSplitLargeMethods(this.splitLargeMethods);
+        unitCompiler.setPeepholeOptimization(this.peepholeOptimization);
+        unitCompiler.setInlineThreshold(this.inlineThreshold);
+
+        benchmark.beginReporting("Compiling compilation unit \"" + sourceFile + "\"");
+        ClassFile[] classFiles;
+        try {
+
+            // Compile the compilation unit.
+            classFiles = unitCompiler.compileUnit(this.debugSource, this.debugLines, this.debugVars);
+        } finally {
+            benchmark.endReporting();
+        }
+
+        // Store the compiled classes and interfaces into class files.
+        benchmark.beginReporting(
+            "Storing "
+            + classFiles.length
+            + " class file(s) resulting from compilation unit \""
+            + sourceFile
+            + "\""
+        );
+        try {
+            synchronized (this.storeLock) {
+                for (int j = 0; j < classFiles.length; ++j) {
+                    this.storeClassFile(classFiles[j], sourceFile);
                 }
+            }
+        } finally {
+            benchmark.endReporting();
+        }
 
-                // Store the compiled classes and interfaces into class files.
-                this.benchmark.beginReporting(
-                    "Storing "
-                    + classFiles.length
-                    + " class file(s) resulting from compilation unit \""
-                    + sourceFile
-                    + "\""
-                );
-                try {
-                    for (int j = 0; j < classFiles.length; ++j) {
-                        this.storeClassFile(classFiles[j], sourceFile);
+        // In a parallel compilation, let the other threads load the classes of this unit from their class files.
+        if (this.optionalCompiledClasses != null) {
+            Map/*<String className, byte[]>*/ classes = new HashMap();
+            for (int j = 0; j < classFiles.length; ++j) {
+                classes.put(classFiles[j].getThisClassName(), classFiles[j].toByteArray());
+            }
+            Java.PackageMemberTypeDeclaration[] pmtds = cu.getPackageMemberTypeDeclarations();
+            for (int j = 0; j < pmtds.length; ++j) {
+                this.optionalCompiledClasses.put(pmtds[j].getClassName(), classes);
+            }
+        }
+
+        if (optionalCompiledUnits != null) {
+            UnitDependencies ud = new UnitDependencies(cu.optionalFileName);
+            for (int j = 0; j < classFiles.length; ++j) {
+                ClassFile cf = classFiles[j];
+                ud.apis.put(cf.getThisClassName(), Compiler.getApi(cf));
+
+                Set/*<String>*/ supertypes = new HashSet();
+                if (cf.superclass != 0) supertypes.add(cf.getConstantClassName(cf.superclass).replace('/', '.'));
+                for (int k = 0; k < cf.interfaces.length; ++k) {
+                    supertypes.add(cf.getConstantClassName(cf.interfaces[k]).replace('/', '.'));
+                }
+                ud.supertypes.put(cf.getThisClassName(), supertypes);
+            }
+            for (Iterator it = unitCompiler.getReferencedTypes().iterator(); it.hasNext();) {
+                String className = Descriptor.toClassName((String) it.next());
+                if (!className.startsWith("java.") && !ud.apis.containsKey(className)) {
+                    ud.dependencies.add(className);
+                }
+            }
+            synchronized (optionalCompiledUnits) {
+                optionalCompiledUnits.put(ud.fileName, ud);
+            }
+        }
+    }
+
+    /**
+     * Compiles those of the given units that changed since the previous compilation, then, round by round, the units
+     * that depend on classes whose API changed in the preceding round.
+     *
+     * @see #setIncremental(boolean)
+     */
+    private void
+    compileIncrementally(Resource[] sourceResources, UnitCompiler.ErrorHandler ceh)
+    throws CompileException, IOException {
+        Map/*<String fileName, UnitDependencies>*/ units          = this.loadDependencies();
+        Map/*<String fileName, Resource>*/         givenResources = new HashMap();
+        for (int i = 0; i < sourceResources.length; ++i) {
+            givenResources.put(sourceResources[i].getFileName(), sourceResources[i]);
+        }
+
+        // The classes of the units that are gone affect their dependents.
+        Set/*<String className>*/ changedClassNames = new HashSet();
+        for (Iterator it = units.values().iterator(); it.hasNext();) {
+            UnitDependencies ud = (UnitDependencies) it.next();
+            if (!givenResources.containsKey(ud.fileName)) {
+                changedClassNames.addAll(ud.apis.keySet());
+                this.deleteClassFiles(ud.apis.keySet());
+                it.remove();
+            }
+        }
+        Compiler.addSubtypes(changedClassNames, units);
+
+        // Initially, compile the new and the modified units.
+        List/*<Resource>*/ round = new ArrayList();
+        for (int i = 0; i < sourceResources.length; ++i) {
+            Resource         sr = sourceResources[i];
+            UnitDependencies ud = (UnitDependencies) units.get(sr.getFileName());
+            if (
+                ud == null
+                || ud.lastModified != sr.lastModified()
+                || !this.classFilesExist(ud.apis.keySet())
+                || !Collections.disjoint(ud.dependencies, changedClassNames)
+            ) round.add(sr);
+        }
+
+        Set/*<String fileName>*/ compiledFileNames = new HashSet();
+        while (!round.isEmpty()) {
+
+            // All other units are represented by their class files.
+            Set/*<String fileName>*/ roundFileNames = new HashSet();
+            for (Iterator it = round.iterator(); it.hasNext();) {
+                roundFileNames.add(((Resource) it.next()).getFileName());
+            }
+            this.upToDateClassNames = new HashSet();
+            for (Iterator it = units.values().iterator(); it.hasNext();) {
+                UnitDependencies ud = (UnitDependencies) it.next();
+                if (!roundFileNames.contains(ud.fileName)) this.upToDateClassNames.addAll(ud.apis.keySet());
+            }
+            this.iClassLoader = new CompilerIClassLoader(this.sourceFinder, this.parentIClassLoader, this.benchmark);
+
+            Map/*<String fileName, UnitDependencies>*/ compiledUnits = new HashMap();
+            this.compile2((Resource[]) round.toArray(new Resource[round.size()]), ceh, compiledUnits);
+
+            // Determine the classes whose API changed.
+            changedClassNames = new HashSet();
+            for (Iterator it = compiledUnits.values().iterator(); it.hasNext();) {
+                UnitDependencies newUd = (UnitDependencies) it.next();
+
+                // Units that were compiled only because they were found on the source path are not tracked.
+                Resource sr = (Resource) givenResources.get(newUd.fileName);
+                if (sr == null) continue;
+                newUd.lastModified = sr.lastModified();
+                compiledFileNames.add(newUd.fileName);
+
+                UnitDependencies oldUd = (UnitDependencies) units.put(newUd.fileName, newUd);
+                if (oldUd == null) {
+                    changedClassNames.addAll(newUd.apis.keySet());
+                    continue;
+                }
+                Set/*<String className>*/ classNames = new HashSet(oldUd.apis.keySet());
+                classNames.addAll(newUd.apis.keySet());
+                for (Iterator it2 = classNames.iterator(); it2.hasNext();) {
+                    String className = (String) it2.next();
+                    Object oldApi    = oldUd.apis.get(className);
+                    if (oldApi == null || !oldApi.equals(newUd.apis.get(className))) changedClassNames.add(className);
+                }
+
+                // Remove the class files of classes that the unit no longer declares.
+                Set/*<String className>*/ goneClassNames = new HashSet(oldUd.apis.keySet());
+                goneClassNames.removeAll(newUd.apis.keySet());
+                this.deleteClassFiles(goneClassNames);
+            }
+            Compiler.addSubtypes(changedClassNames, units);
+
+            // Next, compile the dependents of these classes.
+            round = new ArrayList();
+            for (Iterator it = units.values().iterator(); it.hasNext();) {
+                UnitDependencies ud = (UnitDependencies) it.next();
+                if (
+                    !compiledFileNames.contains(ud.fileName)
+                    && !Collections.disjoint(ud.dependencies, changedClassNames)
+                ) round.add(givenResources.get(ud.fileName));
+            }
+        }
+        this.upToDateClassNames = Collections.EMPTY_SET;
+
+        this.storeDependencies(units);
+    }
+
+    /**
+     * What an incremental compilation remembers about one compilation unit.
+     */
+    private static
+    class UnitDependencies {
+
+        /** The {@link Resource#getFileName()} of the unit. */
+        final String fileName;
+
+        /** The {@link Resource#lastModified()} of the unit when it was compiled. */
+        long lastModified;
+
+        /** The classes that the unit declares, and their {@link Compiler#getApi(ClassFile) APIs}. */
+        final Map/*<String className, String api>*/ apis = new HashMap();
+
+        /** The classes outside the unit that the unit depends on. */
+        final Set/*<String className>*/ dependencies = new HashSet();
+
+        /** The direct superclass and interfaces of each class that the unit declares. */
+        final Map/*<String className, Set<String className>>*/ supertypes = new HashMap();
+
+        UnitDependencies(String fileName) { this.fileName = fileName; }
+    }
+
+    /**
+     * The API of a class includes the members it inherits, which {@link #getApi(ClassFile)} does not cover. Hence adds
+     * to {@code changedClassNames} all subtypes of the classes therein, transitively.
+     */
+    private static void
+    addSubtypes(Set/*<String className>*/ changedClassNames, Map/*<String fileName, UnitDependencies>*/ units) {
+        for (boolean added = true; added;) {
+            added = false;
+            for (Iterator it = units.values().iterator(); it.hasNext();) {
+                UnitDependencies ud = (UnitDependencies) it.next();
+                for (Iterator it2 = ud.supertypes.entrySet().iterator(); it2.hasNext();) {
+                    Map.Entry e = (Map.Entry) it2.next();
+                    if (
+                        !changedClassNames.contains(e.getKey())
+                        && !Collections.disjoint((Set) e.getValue(), changedClassNames)
+                    ) {
+                        changedClassNames.add(e.getKey());
+                        added = true;
                     }
-                } finally {
-                    this.benchmark.endReporting();
                 }
             }
+        }
+    }
+
+    /**
+     * Reads the {@link #DEPENDENCIES_RESOURCE_NAME} resource. A missing or corrupt resource leads to a complete
+     * compilation.
+     */
+    private Map/*<String fileName, UnitDependencies>*/
+    loadDependencies() throws IOException {
+        Map      result = new HashMap();
+        Resource r      = this.classFileFinder.findResource(Compiler.DEPENDENCIES_RESOURCE_NAME);
+        if (r == null) return result;
+
+        BufferedReader br = new BufferedReader(new InputStreamReader(r.open(), "UTF-8"));
+        try {
+            UnitDependencies ud = null;
+            for (String line = br.readLine(); line != null; line = br.readLine()) {
+                int    idx   = line.indexOf(' ');
+                String key   = line.substring(0, idx);
+                String value = line.substring(idx + 1);
+                if ("unit".equals(key)) {
+                    idx             = value.indexOf(' ');
+                    ud              = new UnitDependencies(value.substring(idx + 1));
+                    ud.lastModified = Long.parseLong(value.substring(0, idx));
+                    result.put(ud.fileName, ud);
+                } else
+                if ("class".equals(key)) {
+                    idx = value.indexOf(' ');
+                    ud.apis.put(value.substring(0, idx), value.substring(idx + 1));
+                } else
+                if ("dependency".equals(key)) {
+                    ud.dependencies.add(value);
+                } else
+                if ("supertype".equals(key)) {
+                    idx = value.indexOf(' ');
+                    String className  = value.substring(0, idx);
+                    Set    supertypes = (Set) ud.supertypes.get(className);
+                    if (supertypes == null) ud.supertypes.put(className, (supertypes = new HashSet()));
+                    supertypes.add(value.substring(idx + 1));
+                }
+            }
+        } catch (RuntimeException re) {
+            return new HashMap();
         } finally {
-            this.benchmark.endReporting("Compiled " + this.parsedCompilationUnits.size() + " compilation unit(s)");
+            try { br.close(); } catch (IOException e) {}
+        }
+        return result;
+    }
+
+    /**
+     * Writes the {@link #DEPENDENCIES_RESOURCE_NAME} resource.
+     */
+    private void
+    storeDependencies(Map/*<String fileName, UnitDependencies>*/ units) throws IOException {
+        Writer w = new BufferedWriter(new OutputStreamWriter(
+            this.classFileCreator.createResource(Compiler.DEPENDENCIES_RESOURCE_NAME),
+            "UTF-8"
+        ));
+        try {
+            for (Iterator it = units.values().iterator(); it.hasNext();) {
+                UnitDependencies ud = (UnitDependencies) it.next();
+                w.write("unit " + ud.lastModified + " " + ud.fileName + "\n");
+                for (Iterator it2 = ud.apis.entrySet().iterator(); it2.hasNext();) {
+                    Map.Entry e = (Map.Entry) it2.next();
+                    w.write("class " + e.getKey() + " " + e.getValue() + "\n");
+                }
+                for (Iterator it2 = ud.dependencies.iterator(); it2.hasNext();) {
+                    w.write("dependency " + it2.next() + "\n");
+                }
+                for (Iterator it2 = ud.supertypes.entrySet().iterator(); it2.hasNext();) {
+                    Map.Entry e = (Map.Entry) it2.next();
+                    for (Iterator it3 = ((Set) e.getValue()).iterator(); it3.hasNext();) {
+                        w.write("supertype " + e.getKey() + " " + it3.next() + "\n");
+                    }
+                }
+            }
+        } finally {
+            w.close();
+        }
+    }
+
+    private boolean
+    classFilesExist(Set/*<String className>*/ classNames) {
+        for (Iterator it = classNames.iterator(); it.hasNext();) {
+            String className = (String) it.next();
+            if (this.classFileFinder.findResource(ClassFile.getClassFileResourceName(className)) == null) return false;
         }
         return true;
     }
 
+    private void
+    deleteClassFiles(Set/*<String className>*/ classNames) {
+        for (Iterator it = classNames.iterator(); it.hasNext();) {
+            this.classFileCreator.deleteResource(ClassFile.getClassFileResourceName((String) it.next()));
+        }
+    }
+
+    /**
+     * Computes a digest of what other classes can depend on: The access flags, superclass and interfaces of the class,
+     * and the access flags, names, descriptors, thrown exceptions and constant values of its non-private fields and
+     * methods. Method bodies, private members and inherited members do not contribute; changes of the latter are
+     * propagated through {@link #addSubtypes(Set, Map)}.
+     */
+    private static String
+    getApi(ClassFile cf) {
+        List/*<String>*/ members = new ArrayList();
+        for (Iterator it = cf.fieldInfos.iterator(); it.hasNext();) {
+            ClassFile.FieldInfo fi = (ClassFile.FieldInfo) it.next();
+            if (Mod.isPrivateAccess(fi.getAccessFlags())) continue;
+
+            StringBuilder sb = new StringBuilder("field ").append(fi.getAccessFlags());
+            sb.append(' ').append(cf.getConstantUtf8(fi.getNameIndex()));
+            sb.append(' ').append(cf.getConstantUtf8(fi.getDescriptorIndex()));
+            ClassFile.AttributeInfo[] ais = fi.getAttributes();
+            for (int i = 0; i < ais.length; ++i) {
+                if (ais[i] instanceof ClassFile.ConstantValueAttribute) {
+                    ClassFile.ConstantValuePoolInfo cvpi = (ClassFile.ConstantValuePoolInfo) cf.getConstantPoolInfo(
+                        ((ClassFile.ConstantValueAttribute) ais[i]).getConstantValueIndex()
+                    );
+                    sb.append(" = ").append(cvpi.getValue(cf));
+                }
+            }
+            members.add(sb.toString());
+        }
+        for (Iterator it = cf.methodInfos.iterator(); it.hasNext();) {
+            ClassFile.MethodInfo mi = (ClassFile.MethodInfo) it.next();
+            if (Mod.isPrivateAccess(mi.getAccessFlags())) continue;
+
+            StringBuilder sb = new StringBuilder("method ").append(mi.getAccessFlags());
+            sb.append(' ').append(cf.getConstantUtf8(mi.getNameIndex()));
+            sb.append(' ').append(cf.getConstantUtf8(mi.getDescriptorIndex()));
+            ClassFile.AttributeInfo[] ais = mi.getAttributes();
+            for (int i = 0; i < ais.length; ++i) {
+                if (ais[i] instanceof ClassFile.ExceptionsAttribute) {
+                    short[] eis = ((ClassFile.ExceptionsAttribute) ais[i]).getExceptionIndexes();
+                    for (int j = 0; j < eis.length; ++j) sb.append(" throws ").append(cf.getConstantClassName(eis[j]));
+                }
+            }
+            members.add(sb.toString());
+        }
+        Collections.sort(members);
+
+        StringBuilder sb = new StringBuilder().append(cf.accessFlags);
+        if (cf.superclass != 0) sb.append(" extends ").append(cf.getConstantClassName(cf.superclass));
+        for (int i = 0; i < cf.interfaces.length; ++i) {
+            sb.append(" implements ").append(cf.getConstantClassName(cf.interfaces[i]));
+        }
+        for (Iterator it = members.iterator(); it.hasNext();) sb.append('\n').append(it.next());
+
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(sb.toString().getBytes("UTF-8"));
+            return new BigInteger(1, digest).toString(16);
+        } catch (NoSuchAlgorithmException nsae) {
+            throw new JaninoRuntimeException(nsae.toString());
+        } catch (IOException ioe) {
+            throw new JaninoRuntimeException(ioe.toString());
+        }
+    }
+
     /**
      * Read one compilation unit from a file and parse it.
      * <p>
@@ -552,7 +1299,8 @@ class Compiler {
     parseCompilationUnit(
         String      fileName,
         InputStream inputStream,
-        String      optionalCharacterEncoding
+        String      optionalCharacterEncoding,
+        Benchmark   benchmark
     ) throws CompileException, IOException {
         try {
             Scanner scanner = new Scanner(fileName, inputStream, optionalCharacterEncoding);
@@ -560,11 +1308,11 @@ class Compiler {
             Parser parser = new Parser(scanner);
             parser.setWarningHandler(this.optionalWarningHandler);
 
-            this.benchmark.beginReporting("Parsing \"" + fileName + "\"");
+            benchmark.beginReporting("Parsing \"" + fileName + "\"");
             try {
                 return parser.parseCompilationUnit();
             } finally {
-                this.benchmark.endReporting();
+                benchmark.endReporting();
             }
         } finally {
             inputStream.close();
@@ -666,14 +1414,29 @@ class Compiler {
     class CompilerIClassLoader extends IClassLoader {
         private final ResourceFinder sourceFinder;
 
+        /** The units that this loader parsed, or that were parsed for it. */
+        final List/*<UnitCompiler>*/ parsedCompilationUnits = new ArrayList();
+
+        /** Those {@link #parsedCompilationUnits} that another thread of a parallel compilation compiles. */
+        final Set/*<UnitCompiler>*/ referenceOnlyUnits = new HashSet();
+
+        /** Reports the parsing and the compilation of the units of this loader. */
+        final Benchmark benchmark;
+
         /**
          * @param sourceFinder Where to look for source files
          * @param optionalParentIClassLoader {@link IClassLoader} through which {@link IClass}es are to be loaded
+         * @param benchmark Used only by the thread that uses this loader
          */
         public
-        CompilerIClassLoader(ResourceFinder sourceFinder, IClassLoader optionalParentIClassLoader) {
+        CompilerIClassLoader(
+            ResourceFinder sourceFinder,
+            IClassLoader   optionalParentIClassLoader,
+            Benchmark      benchmark
+        ) {
             super(optionalParentIClassLoader);
             this.sourceFinder = sourceFinder;
+            this.benchmark    = benchmark;
             super.postConstruct();
         }
 
@@ -701,8 +1464,8 @@ class Compiler {
             }
 
             // Check the already-parsed compilation units.
-            for (int i = 0; i < Compiler.this.parsedCompilationUnits.size(); ++i) {
-                UnitCompiler uc  = (UnitCompiler) Compiler.this.parsedCompilationUnits.get(i);
+            for (int i = 0; i < this.parsedCompilationUnits.size(); ++i) {
+                UnitCompiler uc  = (UnitCompiler) this.parsedCompilationUnits.get(i);
                 IClass       res = uc.findClass(topLevelClassName);
                 if (res != null) {
                     if (!className.equals(topLevelClassName)) {
@@ -714,6 +1477,40 @@ class Compiler {
                 }
             }
 
+            // In a parallel compilation, another thread may have compiled the class already.
+            if (Compiler.this.optionalCompiledClasses != null) {
+                Map classes = (Map) Compiler.this.optionalCompiledClasses.get(topLevelClassName);
+                if (classes != null) {
+                    byte[] classFile = (byte[]) classes.get(className);
+                    if (classFile == null) return null;
+                    return this.defineIClassFromClassFile(
+                        ClassFile.getClassFileResourceName(className),
+                        new ByteArrayInputStream(classFile)
+                    );
+                }
+            }
+
+            // In a parallel compilation, the class may be declared by a given unit, which this thread takes for
+            // compilation, unless another thread has taken it already.
+            if (Compiler.this.optionalGivenUnits != null) {
+                Resource givenResource = (Resource) Compiler.this.optionalGivenUnits.get(topLevelClassName);
+                if (givenResource != null) {
+                    Java.CompilationUnit cu = (Java.CompilationUnit) Compiler.this.optionalUntakenUnits.remove(
+                        givenResource.getFileName()
+                    );
+                    if (cu != null) return this.defineIClassFromCompilationUnit(cu, className, false);
+                    return this.defineIClassFromSourceResource(givenResource, className);
+                }
+            }
+
+            // Load classes of units that an incremental compilation considers up-to-date from their class files.
+            if (Compiler.this.upToDateClassNames.contains(className)) {
+                Resource classFileResource = Compiler.this.classFileFinder.findResource(
+                    ClassFile.getClassFileResourceName(className)
+                );
+                if (classFileResource != null) return this.defineIClassFromClassFileResource(classFileResource);
+            }
+
             // Search source path for uncompiled class.
             final Resource sourceResource = this.sourceFinder.findResource(ClassFile.getSourceResourceName(className));
             if (sourceResource == null) return null;
@@ -747,32 +1544,50 @@ class Compiler {
 
         /**
          * Parse the compilation unit stored in the given {@code sourceResource}, remember it in
-         * {@code Compiler.this.parsedCompilationUnits} (it may declare other classes that
+         * {@link #parsedCompilationUnits} (it may declare other classes that
          * are needed later), find the declaration of the type with the given
          * {@code className}, and define it in the {@link IClassLoader}.
          * <p>
-         * Notice that the CU is not compiled here!
+         * Notice that the CU is not compiled here! In a parallel compilation, only the thread that first
+         * parses the CU will compile it.
          */
         private IClass
         defineIClassFromSourceResource(Resource sourceResource, String className) throws ClassNotFoundException {
 
             // Parse the source file.
-            UnitCompiler uc;
+            Java.CompilationUnit cu;
             try {
-                Java.CompilationUnit cu = Compiler.this.parseCompilationUnit(
+                cu = Compiler.this.parseCompilationUnit(
                     sourceResource.getFileName(),                   // fileName
                     new BufferedInputStream(sourceResource.open()), // inputStream
-                    Compiler.this.optionalCharacterEncoding         // optionalCharacterEncoding
+                    Compiler.this.optionalCharacterEncoding,        // optionalCharacterEncoding
+                    this.benchmark                                  // benchmark
                 );
-                uc = new UnitCompiler(cu, Compiler.this.iClassLoader);
             } catch (IOException ex) {
                 throw new ClassNotFoundException("Parsing compilation unit \"" + sourceResource + "\"", ex);
             } catch (CompileException ex) {
                 throw new ClassNotFoundException("Parsing compilation unit \"" + sourceResource + "\"", ex);
             }
 
+            return this.defineIClassFromCompilationUnit(cu, className, (
+                Compiler.this.optionalClaimedUnits != null
+                && !Compiler.this.optionalClaimedUnits.add(sourceResource.getFileName())
+            ));
+        }
+
+        /**
+         * Remember the given, parsed {@code compilationUnit} in {@link #parsedCompilationUnits}, find the declaration
+         * of the type with the given {@code className}, and define it in the {@link IClassLoader}.
+         *
+         * @param referenceOnly Whether another thread of a parallel compilation compiles the unit
+         */
+        private IClass
+        defineIClassFromCompilationUnit(Java.CompilationUnit compilationUnit, String className, boolean referenceOnly) {
+            UnitCompiler uc = new UnitCompiler(compilationUnit, this);
+
             // Remember compilation unit for later compilation.
-            Compiler.this.parsedCompilationUnits.add(uc);
+            this.parsedCompilationUnits.add(uc);
+            if (referenceOnly) this.referenceOnlyUnits.add(uc);
 
             // Define the class.
             IClass res = uc.findClass(className);
@@ -795,17 +1610,32 @@ class Compiler {
          */
         private IClass
         defineIClassFromClassFileResource(Resource classFileResource) throws ClassNotFoundException {
-            Compiler.this.benchmark.beginReporting("Loading class file \"" + classFileResource.getFileName() + "\"");
+            InputStream is;
+            try {
+                is = classFileResource.open();
+            } catch (IOException ex) {
+                throw new ClassNotFoundException("Opening class file resource \"" + classFileResource + "\"", ex);
+            }
+            return this.defineIClassFromClassFile(classFileResource.getFileName(), new BufferedInputStream(is));
+        }
+
+        /**
+         * Read a class file from the given {@code inputStream}, define it in the {@link IClassLoader}, and resolve it
+         * (this step may involve loading more classes).
+         * <p>
+         * The {@code inputStream} is closed before the method returns.
+         */
+        private IClass
+        defineIClassFromClassFile(String fileName, InputStream inputStream) throws ClassNotFoundException {
+            this.benchmark.beginReporting("Loading class file \"" + fileName + "\"");
             try {
-                InputStream is = null;
-                ClassFile   cf;
+                ClassFile cf;
                 try {
-                    is = classFileResource.open();
-                    cf = new ClassFile(new BufferedInputStream(is));
+                    cf = new ClassFile(inputStream);
                 } catch (IOException ex) {
-                    throw new ClassNotFoundException("Opening class file resource \"" + classFileResource + "\"", ex);
+                    throw new ClassNotFoundException("Reading class file \"" + fileName + "\"", ex);
                 } finally {
-                    if (is != null) try { is.close(); } catch (IOException e) {}
+                    try { inputStream.close(); } catch (IOException e) {}
                 }
                 ClassFileIClass result = new ClassFileIClass(
                     cf,                       // classFile
@@ -821,7 +1651,7 @@ class Compiler {
 
                 return result;
             } finally {
-                Compiler.this.benchmark.endReporting();
+                this.benchmark.endReporting();
             }
         }
     }
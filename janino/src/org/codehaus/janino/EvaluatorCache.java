@@ -0,0 +1,153 @@
+
+/*
+ * Janino - An embedded Java[TM] compiler
+ *
+ * Copyright (c) 2001-2010, Arno Unkrig
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *       following disclaimer.
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *       following disclaimer in the documentation and/or other materials provided with the distribution.
+ *    3. The name of the author may not be used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.codehaus.janino;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache of classes generated by {@link ClassBodyEvaluator}s, {@link ScriptEvaluator}s and {@link
+ * ExpressionEvaluator}s, keyed by the source text plus everything else that affects the generated bytecode (parameter
+ * names and types, return types, extended class, implemented interfaces, parent class loader, etc.).
+ * <p>
+ * When an evaluator that was configured with {@link ClassBodyEvaluator#setEvaluatorCache(EvaluatorCache)} is cooked
+ * from a {@link String} with the same source text and configuration as before, then the previously defined {@link
+ * Class} is re-used, and scanning, parsing, compiling and class loading are skipped.
+ * <p>
+ * The cache is bounded both by the number of entries and by the total size of the bytecode of the cached classes;
+ * when either limit is exceeded, the least recently used entries are evicted. Notice that the cache references its
+ * classes (and thus their class loaders) strongly.
+ * <p>
+ * This class is thread-safe.
+ */
+@SuppressWarnings({ "rawtypes", "unchecked" }) public
+class EvaluatorCache {
+
+    /**
+     * @param maxEntries      The maximum number of classes to keep
+     * @param maxBytecodeSize The maximum total number of bytecode bytes of the classes to keep
+     */
+    public
+    EvaluatorCache(int maxEntries, long maxBytecodeSize) {
+        if (maxEntries < 1) throw new IllegalArgumentException("maxEntries");
+        if (maxBytecodeSize < 1) throw new IllegalArgumentException("maxBytecodeSize");
+        this.maxEntries      = maxEntries;
+        this.maxBytecodeSize = maxBytecodeSize;
+    }
+
+    /**
+     * @return The cached class for the given key, or {@code null}
+     */
+    public synchronized Class
+    get(Object key) {
+        Entry e = (Entry) this.entries.get(key);
+        if (e == null) {
+            ++this.missCount;
+            return null;
+        }
+        ++this.hitCount;
+        return e.clazz;
+    }
+
+    /**
+     * Adds a class to the cache, and evicts the least recently used entries if necessary. If another thread has
+     * cached a class for the same key in the meantime, then that class is kept.
+     *
+     * @param bytecodeSize The number of bytes of the class files that were generated for the class (and its nested
+     *                     classes)
+     * @return             The class that is now cached for the <var>key</var>
+     */
+    public synchronized Class
+    put(Object key, Class clazz, int bytecodeSize) {
+        Entry e = (Entry) this.entries.get(key);
+        if (e != null) return e.clazz;
+
+        // Don't bother to cache a class that is bigger than the entire cache.
+        if (bytecodeSize > this.maxBytecodeSize) return clazz;
+
+        this.entries.put(key, new Entry(clazz, bytecodeSize));
+        this.bytecodeSize += bytecodeSize;
+
+        for (Iterator it = this.entries.values().iterator(); it.hasNext();) {
+            if (this.entries.size() <= this.maxEntries && this.bytecodeSize <= this.maxBytecodeSize) break;
+            Entry eldest = (Entry) it.next();
+            it.remove();
+            this.bytecodeSize -= eldest.bytecodeSize;
+            ++this.evictionCount;
+        }
+        return clazz;
+    }
+
+    /**
+     * Removes all entries from this cache (but does not reset the statistics).
+     */
+    public synchronized void
+    clear() {
+        this.entries.clear();
+        this.bytecodeSize = 0;
+    }
+
+    /** @return The number of cached classes */
+    public synchronized int
+    size() { return this.entries.size(); }
+
+    /** @return The total number of bytecode bytes of the cached classes */
+    public synchronized long
+    getBytecodeSize() { return this.bytecodeSize; }
+
+    /** @return The number of {@link #get(Object)} invocations that found a cached class */
+    public synchronized long
+    getHitCount() { return this.hitCount; }
+
+    /** @return The number of {@link #get(Object)} invocations that did not find a cached class */
+    public synchronized long
+    getMissCount() { return this.missCount; }
+
+    /** @return The number of entries that were evicted to satisfy the size limits */
+    public synchronized long
+    getEvictionCount() { return this.evictionCount; }
+
+    private static
+    class Entry {
+        final Class clazz;
+        final int   bytecodeSize;
+
+        Entry(Class clazz, int bytecodeSize) {
+            this.clazz        = clazz;
+            this.bytecodeSize = bytecodeSize;
+        }
+    }
+
+    private final int                    maxEntries;
+    private final long                   maxBytecodeSize;
+    private final Map/*<Object, Entry>*/ entries = new LinkedHashMap(16, 0.75F, true); // Access order.
+    private long                         bytecodeSize;
+    private long                         hitCount;
+    private long                         missCount;
+    private long                         evictionCount;
+}
@@ -258,6 +258,12 @@ class ExpressionEvaluator extends ScriptEvaluator implements IExpressionEvaluato
     @Override protected Class
     getDefaultReturnType() { return Object.class; }
 
+    @Override protected void
+    addEvaluatorCacheKeyComponents(List key) {
+        super.addEvaluatorCacheKeyComponents(key);
+        key.add(ClassBodyEvaluator.toCacheKey(this.optionalExpressionTypes));
+    }
+
     @Override protected List/*<BlockStatement>*/
     makeStatements(int idx, Parser parser) throws CompileException, IOException {
         List/*<BlockStatement>*/ statements = new ArrayList();
@@ -40,6 +40,9 @@ import org.codehaus.commons.compiler.CompileException;
 
 /**
  * A simplified equivalent to "java.lang.reflect".
+ * <p>
+ * The lazily computed members of an {@link IClass} are published safely, so an {@link IClass} can be shared between
+ * threads, e.g. through a {@link ClassLoaderIClassLoaderCache}.
  */
 @SuppressWarnings({ "rawtypes", "unchecked" }) public abstract
 class IClass {
@@ -112,7 +115,7 @@ class IClass {
         }
         return this.declaredIConstructors;
     }
-    private IConstructor[] declaredIConstructors;
+    private volatile IConstructor[] declaredIConstructors;
 
     /** The uncached version of {@link #getDeclaredIConstructors()} which must be implemented by derived classes. */
     protected abstract IConstructor[] getDeclaredIConstructors2();
@@ -129,7 +132,7 @@ class IClass {
         }
         return this.declaredIMethods;
     }
-    private IMethod[] declaredIMethods;
+    private volatile IMethod[] declaredIMethods;
 
     /** The uncached version of {@link #getDeclaredIMethods()} which must be implemented by derived classes. */
     protected abstract IMethod[] getDeclaredIMethods2();
@@ -182,7 +185,7 @@ class IClass {
         IMethod[] methods = (IMethod[]) this.declaredIMethodCache.get(methodName);
         return methods == null ? IClass.NO_IMETHODS : methods;
     }
-    private Map/*<String methodName, IMethod[]>*/ declaredIMethodCache;
+    private volatile Map/*<String methodName, IMethod[]>*/ declaredIMethodCache;
 
     /**
      * Returns all methods declared in the class or interface, its superclasses and its
@@ -199,7 +202,7 @@ class IClass {
         }
         return this.iMethodCache;
     }
-    private IMethod[] iMethodCache;
+    private volatile IMethod[] iMethodCache;
     private void
     getIMethods(List result) throws CompileException {
         IMethod[] ms = this.getDeclaredIMethods();
@@ -288,7 +291,7 @@ class IClass {
     protected void
     clearIFieldCaches() { this.declaredIFieldsCache = null; }
 
-    private Map/*<String field-name => IField>*/ declaredIFieldsCache;
+    private volatile Map/*<String field-name => IField>*/ declaredIFieldsCache;
 
     /**
      * Uncached version of {@link #getDeclaredIFields()}.
@@ -314,7 +317,7 @@ class IClass {
         }
         return this.declaredIClasses;
     }
-    private IClass[] declaredIClasses;
+    private volatile IClass[] declaredIClasses;
     protected abstract IClass[] getDeclaredIClasses2() throws CompileException;
 
     /**
@@ -329,7 +332,7 @@ class IClass {
         }
         return this.declaringIClass;
     }
-    private boolean declaringIClassIsCached;
+    private volatile boolean declaringIClassIsCached;
     private IClass  declaringIClass;
     protected abstract IClass getDeclaringIClass2() throws CompileException;
 
@@ -349,7 +352,7 @@ class IClass {
         }
         return this.outerIClass;
     }
-    private boolean outerIClassIsCached;
+    private volatile boolean outerIClassIsCached;
     private IClass  outerIClass;
     protected abstract IClass getOuterIClass2() throws CompileException;
 
@@ -372,7 +375,7 @@ class IClass {
         }
         return this.superclass;
     }
-    private boolean superclassIsCached;
+    private volatile boolean superclassIsCached;
     private IClass  superclass;
     protected abstract IClass getSuperclass2() throws CompileException;
 
@@ -405,7 +408,7 @@ class IClass {
         }
         return this.interfaces;
     }
-    private IClass[] interfaces;
+    private volatile IClass[] interfaces;
     protected abstract IClass[] getInterfaces2() throws CompileException;
 
     /**
@@ -424,7 +427,7 @@ class IClass {
         }
         return this.descriptor;
     }
-    private String descriptor;
+    private volatile String descriptor;
     protected abstract String getDescriptor2();
 
     /**
@@ -471,7 +474,7 @@ class IClass {
         }
         return this.componentType;
     }
-    private boolean componentTypeIsCached;
+    private volatile boolean componentTypeIsCached;
     private IClass  componentType;
     protected abstract IClass getComponentType2();
 
@@ -684,7 +687,10 @@ class IClass {
      */
     IClass[]
     findMemberType(String optionalName) throws CompileException {
-        IClass[] res = (IClass[]) this.memberTypeCache.get(optionalName);
+        IClass[] res;
+        synchronized (this.memberTypeCache) {
+            res = (IClass[]) this.memberTypeCache.get(optionalName);
+        }
         if (res == null) {
 
             // Notice: A type may be added multiply to the result set because we are in its scope
@@ -693,7 +699,11 @@ class IClass {
             this.findMemberType(optionalName, s);
             res = s.isEmpty() ? IClass.ZERO_ICLASSES : (IClass[]) s.toArray(new IClass[s.size()]);
 
-            this.memberTypeCache.put(optionalName, res);
+            // Don't hold the lock while examining other IClasses, because that could deadlock with another thread
+            // that examines the same IClasses in a different order.
+            synchronized (this.memberTypeCache) {
+                this.memberTypeCache.put(optionalName, res);
+            }
         }
 
         return res;
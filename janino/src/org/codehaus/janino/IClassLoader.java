@@ -27,17 +27,21 @@
 package org.codehaus.janino;
 
 import java.io.File;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
-import org.codehaus.janino.util.resource.JarDirectoriesResourceFinder;
+import org.codehaus.janino.util.resource.IndexingResourceFinder;
 import org.codehaus.janino.util.resource.PathResourceFinder;
 import org.codehaus.janino.util.resource.ResourceFinder;
 
 /**
  * Loads an {@link IClass} by type name.
+ * <p>
+ * {@link #loadIClass(String)} is thread-safe and does not serialize the calling threads: Different descriptors are
+ * resolved in parallel, and concurrent requests for the same descriptor wait for one resolution.
  */
 @SuppressWarnings({ "rawtypes", "unchecked" }) public abstract
 class IClassLoader {
@@ -142,44 +146,32 @@ class IClassLoader {
             if (res != null) return res;
         }
 
-        // We need to synchronize here because "unloadableIClasses" and
-        // "loadedIClasses" are unsynchronized containers.
-        IClass result;
-        synchronized (this) {
+        // Class already loaded?
+        IClass result = (IClass) this.loadedIClasses.get(fieldDescriptor);
+        if (result != null) return result;
 
-            // Class could not be loaded before?
-            if (this.unloadableIClasses.contains(fieldDescriptor)) return null;
+        // Class could not be loaded before?
+        if (this.unloadableIClasses.containsKey(fieldDescriptor)) return null;
 
-            // Class already loaded?
-            result = (IClass) this.loadedIClasses.get(fieldDescriptor);
-            if (result != null) return result;
+        // Special handling for array types.
+        if (Descriptor.isArrayReference(fieldDescriptor)) {
 
-            // Special handling for array types.
-            if (Descriptor.isArrayReference(fieldDescriptor)) {
-
-                // Load the component type.
-                IClass componentIClass = this.loadIClass(
-                    Descriptor.getComponentDescriptor(fieldDescriptor)
-                );
-                if (componentIClass == null) return null;
-
-                // Now get and define the array type.
-                IClass arrayIClass = componentIClass.getArrayIClass(this.JAVA_LANG_OBJECT);
-                this.loadedIClasses.put(fieldDescriptor, arrayIClass);
-                return arrayIClass;
-            }
-
-            if (IClassLoader.DEBUG) System.out.println("call IClassLoader.findIClass(\"" + fieldDescriptor + "\")");
+            // Load the component type.
+            IClass componentIClass = this.loadIClass(
+                Descriptor.getComponentDescriptor(fieldDescriptor)
+            );
+            if (componentIClass == null) return null;
 
-            // Load the class through the {@link #findIClass(String)} method implemented by the
-            // derived class.
-            result = this.findIClass(fieldDescriptor);
-            if (result == null) {
-                this.unloadableIClasses.add(fieldDescriptor);
-                return null;
-            }
+            // Now get and define the array type. ("IClass.getArrayIClass()" always returns the same object.)
+            IClass arrayIClass = componentIClass.getArrayIClass(this.JAVA_LANG_OBJECT);
+            this.loadedIClasses.putIfAbsent(fieldDescriptor, arrayIClass);
+            return arrayIClass;
         }
 
+        // Load the class through the {@link #findIClass(String)} method implemented by the derived class.
+        result = this.resolve(fieldDescriptor);
+        if (result == null) return null;
+
         if (!result.getDescriptor().equalsIgnoreCase(fieldDescriptor)) {
             throw new JaninoRuntimeException(
                 "\"findIClass()\" returned \""
@@ -195,6 +187,96 @@ class IClassLoader {
         return result;
     }
 
+    /**
+     * Invokes {@link #findIClass(String)} for the given descriptor, but makes sure that, while one thread does so,
+     * other threads that request the same descriptor wait for that resolution instead of starting their own. Threads
+     * that request <i>different</i> descriptors are not blocked.
+     */
+    private IClass
+    resolve(final String fieldDescriptor) throws ClassNotFoundException {
+        Resolution resolution = new Resolution(new Callable() {
+
+            @Override public Object
+            call() throws ClassNotFoundException {
+
+                // Another thread's resolution of the same descriptor may have completed (and been removed) between
+                // the check in "loadIClass()" and "putIfAbsent()" below; "findIClass()" must not run again then.
+                IClass loaded = (IClass) IClassLoader.this.loadedIClasses.get(fieldDescriptor);
+                if (loaded != null || IClassLoader.this.unloadableIClasses.containsKey(fieldDescriptor)) return loaded;
+
+                return IClassLoader.this.findIClass2(fieldDescriptor);
+            }
+        });
+        Resolution inFlight   = (Resolution) this.resolutions.putIfAbsent(fieldDescriptor, resolution);
+        if (inFlight == null) {
+            try {
+                resolution.run();
+            } finally {
+                this.resolutions.remove(fieldDescriptor, resolution);
+            }
+        } else
+        if (inFlight.thread == Thread.currentThread()) {
+
+            // "findIClass()" requested the descriptor that it is currently resolving; waiting for the resolution
+            // would block forever, so resolve it once more.
+            return this.findIClass2(fieldDescriptor);
+        } else
+        {
+            resolution = inFlight;
+        }
+        return resolution.getIClass();
+    }
+
+    /**
+     * Invokes {@link #findIClass(String)} and records the descriptor as "unloadable" if it returns {@code null}.
+     */
+    private IClass
+    findIClass2(String fieldDescriptor) throws ClassNotFoundException {
+        if (IClassLoader.DEBUG) System.out.println("call IClassLoader.findIClass(\"" + fieldDescriptor + "\")");
+
+        IClass result = this.findIClass(fieldDescriptor);
+        if (result == null) this.unloadableIClasses.put(fieldDescriptor, Boolean.TRUE);
+        return result;
+    }
+
+    /**
+     * The in-flight resolution of one descriptor through {@link IClassLoader#findIClass(String)}.
+     */
+    private static
+    class Resolution extends FutureTask {
+
+        /** The thread that executes the resolution. */
+        final Thread thread = Thread.currentThread();
+
+        Resolution(Callable callable) { super(callable); }
+
+        /**
+         * Waits (uninterruptibly) until the resolution is complete, and returns its result or rethrows its
+         * exception.
+         */
+        IClass
+        getIClass() throws ClassNotFoundException {
+            boolean interrupted = false;
+            try {
+                for (;;) {
+                    try {
+                        return (IClass) this.get();
+                    } catch (InterruptedException ie) {
+                        interrupted = true;
+                    } catch (ExecutionException ee) {
+                        Throwable cause = ee.getCause();
+                        if (cause instanceof ClassNotFoundException) throw (ClassNotFoundException) cause;
+                        if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+                        if (cause instanceof Error) throw (Error) cause;
+                        throw new JaninoRuntimeException(cause.toString(), cause);
+                    }
+                }
+            } finally {
+                if (interrupted) Thread.currentThread().interrupt();
+            }
+        }
+    }
+
     /**
      * Find a new {@link IClass} by descriptor; return <code>null</code> if a class
      * for that <code>descriptor</code> could not be found.
@@ -217,8 +299,9 @@ class IClassLoader {
      * </ul>
      * Notice that this method is never called for array types.
      * <p>
-     * Notice that this method is never called from more than one thread at a time.
-     * In other words, implementations of this method need not be synchronized.
+     * Notice that this method is never called from more than one thread at a time <i>for the same descriptor</i>,
+     * but it may be called concurrently for different descriptors. Implementations that access state which is not
+     * thread-safe must synchronize that access.
      *
      * @return <code>null</code> if a class with that descriptor could not be found
      * @throws ClassNotFoundException if an exception was raised while loading the class
@@ -239,15 +322,13 @@ class IClassLoader {
     defineIClass(IClass iClass) {
         String descriptor = iClass.getDescriptor();
 
-        // Already defined?
-        IClass loadedIClass = (IClass) this.loadedIClasses.get(descriptor);
+        // Define, unless already defined.
+        IClass loadedIClass = (IClass) this.loadedIClasses.putIfAbsent(descriptor, iClass);
         if (loadedIClass != null) {
             if (loadedIClass == iClass) return;
             throw new JaninoRuntimeException("Non-identical definition of IClass \"" + descriptor + "\"");
         }
 
-        // Define.
-        this.loadedIClasses.put(descriptor, iClass);
         if (IClassLoader.DEBUG) System.out.println(this + ": Defined type \"" + descriptor + "\"");
     }
 
@@ -267,17 +348,18 @@ class IClassLoader {
         final File[] optionalExtDirs,
         final File[] classPath
     ) {
-        ResourceFinder bootClassPathResourceFinder = new PathResourceFinder(
+        // Index the paths, so that each lookup costs one map access instead of one probe per path entry.
+        ResourceFinder bootClassPathResourceFinder = new IndexingResourceFinder(
             optionalBootClassPath == null
             ? PathResourceFinder.parsePath(System.getProperty("sun.boot.class.path"))
             : optionalBootClassPath
         );
-        ResourceFinder extensionDirectoriesResourceFinder = new JarDirectoriesResourceFinder(
+        ResourceFinder extensionDirectoriesResourceFinder = IndexingResourceFinder.forJarDirectories(
             optionalExtDirs == null
             ? PathResourceFinder.parsePath(System.getProperty("java.ext.dirs"))
             : optionalExtDirs
         );
-        ResourceFinder classPathResourceFinder = new PathResourceFinder(classPath);
+        ResourceFinder classPathResourceFinder = new IndexingResourceFinder(classPath);
 
         // We can load classes through "ResourceFinderIClassLoader"s, which means
         // they are read into "ClassFile" objects, or we can load classes through
@@ -300,7 +382,8 @@ class IClassLoader {
         return icl;
     }
 
-    private final IClassLoader                         optionalParentIClassLoader;
-    private final Map/*<String descriptor => IClass>*/ loadedIClasses     = new HashMap();
-    private final Set/*<String descriptor>*/           unloadableIClasses = new HashSet();
+    private final IClassLoader                                       optionalParentIClassLoader;
+    private final ConcurrentMap/*<String descriptor => IClass>*/     loadedIClasses     = new ConcurrentHashMap();
+    private final ConcurrentMap/*<String descriptor => Boolean>*/    unloadableIClasses = new ConcurrentHashMap();
+    private final ConcurrentMap/*<String descriptor => Resolution>*/ resolutions        = new ConcurrentHashMap();
 }
@@ -0,0 +1,1540 @@
+/*
+ * Janino - An embedded Java[TM] compiler
+ *
+ * Copyright (c) 2001-2010, Arno Unkrig
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *       following disclaimer.
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *       following disclaimer in the documentation and/or other materials provided with the distribution.
+ *    3. The name of the author may not be used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.codehaus.janino;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Member;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.codehaus.commons.compiler.CompileException;
+import org.codehaus.commons.compiler.Location;
+
+/**
+ * Executes the methods of a parsed compilation unit by walking their syntax trees, instead of generating, loading and
+ * verifying bytecode.
+ * <p>
+ * Names, types, overloaded methods and constant expressions are resolved through a {@link UnitCompiler}, exactly as
+ * if the compilation unit were compiled, and the results are recorded once, in the constructor. Afterwards, {@link
+ * #evaluate(int, Object[])} only reads these records, and is thus thread-safe.
+ * <p>
+ * The statements and expressions that typically appear in scripts and expressions are supported; others (e.g. local
+ * and anonymous classes, {@code this}, {@code super}, {@code synchronized}, {@code assert}) cause a {@link
+ * CompileException}.
+ */
+@SuppressWarnings({ "rawtypes", "unchecked" }) final
+class Interpreter {
+
+    /** The {@link #constants} value that represents the {@code null} constant. */
+    private static final Object NULL = new Object();
+
+    /**
+     * Represents the type of the {@code null} literal (JLS7 4.1), which is a reference type, but has no {@link Class}.
+     */
+    private static final
+    class NullType {
+        private NullType() {}
+    }
+
+    private final ClassLoader             classLoader;
+    private final Java.MethodDeclarator[] methods;
+    private final Class[]                 returnTypes;
+    private final int[]                   localVariableCounts;
+
+    private final Map/*<Java.LocalVariable, Integer>*/ localVariableIndexes = new IdentityHashMap();
+    private final Map/*<Java.Rvalue, Class>*/          types                = new IdentityHashMap();
+    private final Map/*<Java.Rvalue, Object>*/         constants            = new IdentityHashMap();
+    private final Map/*<Java.Rvalue, Java.Rvalue>*/    reclassified         = new IdentityHashMap();
+    private final Map/*<Java.Located, Object>*/        resolved             = new IdentityHashMap();
+
+    private UnitCompiler unitCompiler;       // null=preparation complete
+    private int          localVariableCount; // of the method currently being prepared
+
+    /**
+     * Resolves everything in the given <var>methods</var> that is needed to {@link #evaluate(int, Object[])} them.
+     *
+     * @param methods     The methods to interpret; must belong to the compilation unit of the <var>unitCompiler</var>
+     * @param classLoader Loads the classes that the methods refer to
+     */
+    Interpreter(UnitCompiler unitCompiler, Java.MethodDeclarator[] methods, ClassLoader classLoader)
+    throws CompileException {
+        this.unitCompiler        = unitCompiler;
+        this.classLoader         = classLoader;
+        this.methods             = methods;
+        this.returnTypes         = new Class[methods.length];
+        this.localVariableCounts = new int[methods.length];
+
+        for (int i = 0; i < methods.length; ++i) {
+            Java.MethodDeclarator md = methods[i];
+
+            unitCompiler.buildLocalVariableMapWithoutSlots(md);
+
+            this.localVariableCount = 0;
+            for (int j = 0; j < md.formalParameters.length; ++j) {
+                this.declare(unitCompiler.getLocalVariable(md.formalParameters[j]));
+            }
+            this.returnTypes[i] = this.loadClass(unitCompiler.getType(md.type), md.getLocation());
+            if (md.optionalStatements != null) {
+                for (Iterator it = md.optionalStatements.iterator(); it.hasNext();) {
+                    this.prepare((Java.BlockStatement) it.next(), i);
+                }
+            }
+            this.localVariableCounts[i] = this.localVariableCount;
+        }
+
+        this.unitCompiler = null;
+    }
+
+    /**
+     * Executes the <var>idx</var>th method.
+     *
+     * @param arguments                  The values of the method's parameters; primitive values wrapped
+     * @return                           The method's return value; primitive values wrapped
+     * @throws InvocationTargetException The method threw an exception
+     * @throws IllegalArgumentException  The number or the types of the <var>arguments</var> do not match the method's
+     *                                   parameters
+     */
+    public Object
+    evaluate(int idx, Object[] arguments) throws InvocationTargetException {
+        Java.MethodDeclarator md = this.methods[idx];
+        if (arguments.length != md.formalParameters.length) {
+            throw new IllegalArgumentException(
+                "Expected " + md.formalParameters.length + " arguments, got " + arguments.length
+            );
+        }
+
+        Object[] frame = new Object[this.localVariableCounts[idx]];
+        for (int i = 0; i < arguments.length; ++i) {
+            Class  type = this.loadedClass(md.formalParameters[i].localVariable.type);
+            Object arg  = arguments[i];
+            if (type.isPrimitive()) {
+                if (!Interpreter.isWidening(Interpreter.primitiveType(arg), type)) {
+                    throw new IllegalArgumentException("Argument " + i + " is not convertible to \"" + type + "\"");
+                }
+                arg = Interpreter.convert(arg, type);
+            } else
+            if (arg != null && !type.isInstance(arg)) {
+                throw new IllegalArgumentException("Argument " + i + " is not an instance of \"" + type + "\"");
+            }
+            frame[i] = arg;
+        }
+
+        try {
+            if (md.optionalStatements != null) {
+                for (Iterator it = md.optionalStatements.iterator(); it.hasNext();) {
+                    Object completion = this.execute((Java.BlockStatement) it.next(), frame);
+                    if (completion instanceof Return) return ((Return) completion).value;
+                }
+            }
+            return null;
+        } catch (Thrown t) {
+            throw new InvocationTargetException(t.getCause());
+        } catch (RuntimeException re) {
+            throw new InvocationTargetException(re);
+        } catch (Error e) { // SUPPRESS CHECKSTYLE IllegalCatch
+            throw new InvocationTargetException(e);
+        }
+    }
+
+    // ------------------------------ Preparation ------------------------------
+
+    private void
+    prepare(Java.BlockStatement bs, int methodIdx) throws CompileException {
+        if (bs instanceof Java.Block) {
+            for (Iterator it = ((Java.Block) bs).statements.iterator(); it.hasNext();) {
+                this.prepare((Java.BlockStatement) it.next(), methodIdx);
+            }
+        } else
+        if (bs instanceof Java.ExpressionStatement) {
+            this.prepare(((Java.ExpressionStatement) bs).rvalue);
+        } else
+        if (bs instanceof Java.LocalVariableDeclarationStatement) {
+            Java.LocalVariableDeclarationStatement lvds = (Java.LocalVariableDeclarationStatement) bs;
+            for (int i = 0; i < lvds.variableDeclarators.length; ++i) {
+                Java.VariableDeclarator vd = lvds.variableDeclarators[i];
+                Java.LocalVariable      lv = this.unitCompiler.getLocalVariable(lvds, vd);
+                this.declare(lv);
+                if (vd.optionalInitializer != null) {
+                    this.prepareInitializer(vd.optionalInitializer, this.loadClass(lv.type, vd.getLocation()));
+                }
+            }
+        } else
+        if (bs instanceof Java.IfStatement) {
+            Java.IfStatement is = (Java.IfStatement) bs;
+            this.prepareCondition(is.condition);
+            this.prepare(is.thenStatement, methodIdx);
+            if (is.optionalElseStatement != null) this.prepare(is.optionalElseStatement, methodIdx);
+        } else
+        if (bs instanceof Java.WhileStatement) {
+            Java.WhileStatement ws = (Java.WhileStatement) bs;
+            this.prepareCondition(ws.condition);
+            this.prepare(ws.body, methodIdx);
+        } else
+        if (bs instanceof Java.DoStatement) {
+            Java.DoStatement ds = (Java.DoStatement) bs;
+            this.prepare(ds.body, methodIdx);
+            this.prepareCondition(ds.condition);
+        } else
+        if (bs instanceof Java.ForStatement) {
+            Java.ForStatement fs = (Java.ForStatement) bs;
+            if (fs.optionalInit != null) this.prepare(fs.optionalInit, methodIdx);
+            if (fs.optionalCondition != null) this.prepareCondition(fs.optionalCondition);
+            if (fs.optionalUpdate != null) {
+                for (int i = 0; i < fs.optionalUpdate.length; ++i) this.prepare(fs.optionalUpdate[i]);
+            }
+            this.prepare(fs.body, methodIdx);
+        } else
+        if (bs instanceof Java.ReturnStatement) {
+            Java.ReturnStatement rs = (Java.ReturnStatement) bs;
+            Class                rt = this.returnTypes[methodIdx];
+            if (rs.optionalReturnValue == null) {
+                if (rt != void.class) throw new CompileException("Method must return a value", rs.getLocation());
+            } else {
+                if (rt == void.class) throw new CompileException("Method must not return a value", rs.getLocation());
+                this.prepareAssignment(rs.optionalReturnValue, rt);
+                this.resolved.put(rs, rt);
+            }
+        } else
+        if (bs instanceof Java.LabeledStatement) {
+            this.prepare(((Java.LabeledStatement) bs).body, methodIdx);
+        } else
+        if (bs instanceof Java.ThrowStatement) {
+            Java.ThrowStatement ts = (Java.ThrowStatement) bs;
+            if (!Throwable.class.isAssignableFrom(this.prepare(ts.expression))) {
+                throw new CompileException("Throwable expected", ts.getLocation());
+            }
+        } else
+        if (bs instanceof Java.TryStatement) {
+            Java.TryStatement ts = (Java.TryStatement) bs;
+            this.prepare(ts.body, methodIdx);
+            for (Iterator it = ts.catchClauses.iterator(); it.hasNext();) {
+                Java.CatchClause   cc = (Java.CatchClause) it.next();
+                Java.LocalVariable lv = this.unitCompiler.getLocalVariable(cc.caughtException);
+                this.declare(lv);
+                this.resolved.put(cc, this.loadClass(lv.type, cc.getLocation()));
+                this.prepare(cc.body, methodIdx);
+            }
+            if (ts.optionalFinally != null) this.prepare(ts.optionalFinally, methodIdx);
+        } else
+        if (bs instanceof Java.SwitchStatement) {
+            Java.SwitchStatement ss = (Java.SwitchStatement) bs;
+            Class                ct = Interpreter.unboxedType(this.prepare(ss.condition));
+            if (ct != int.class && ct != char.class && ct != short.class && ct != byte.class) {
+                throw new CompileException("Switch on \"" + ct + "\" not supported", ss.getLocation());
+            }
+            for (Iterator it = ss.sbsgs.iterator(); it.hasNext();) {
+                Java.SwitchStatement.SwitchBlockStatementGroup sbsg = (
+                    (Java.SwitchStatement.SwitchBlockStatementGroup) it.next()
+                );
+                int[] caseValues = new int[sbsg.caseLabels.size()];
+                for (int i = 0; i < caseValues.length; ++i) {
+                    Java.Rvalue label = (Java.Rvalue) sbsg.caseLabels.get(i);
+                    Object      cv    = this.unitCompiler.getConstantValue(label);
+                    if (!(cv instanceof Number) && !(cv instanceof Character)) {
+                        throw new CompileException("Case label must be an integer constant", label.getLocation());
+                    }
+                    caseValues[i] = Interpreter.toInt(cv);
+                }
+                this.resolved.put(sbsg, caseValues);
+                for (Iterator it2 = sbsg.blockStatements.iterator(); it2.hasNext();) {
+                    this.prepare((Java.BlockStatement) it2.next(), methodIdx);
+                }
+            }
+        } else
+        if (bs instanceof Java.BreakStatement || bs instanceof Java.ContinueStatement) {
+            ;
+        } else
+        if (bs instanceof Java.EmptyStatement) {
+            ;
+        } else
+        {
+            throw Interpreter.notSupported(bs.getClass(), bs.getLocation());
+        }
+    }
+
+    /**
+     * Prepares the given rvalue and records its type and, iff it is constant, its value.
+     *
+     * @return The type of the <var>rv</var>; {@code NullType.class} for the {@code null} literal
+     */
+    private Class
+    prepare(Java.Rvalue rv) throws CompileException {
+        UnitCompiler uc   = this.unitCompiler;
+        Class        type = this.loadClass(uc.getType(rv), rv.getLocation());
+
+        // The UnitCompiler types the null literal (and e.g. "b ? null : null") as "void".
+        if (type == void.class && !(rv instanceof Java.MethodInvocation)) type = NullType.class;
+        this.types.put(rv, type);
+
+        Object cv = uc.getConstantValue(rv);
+        if (cv != UnitCompiler.NOT_CONSTANT) {
+
+            // String constants are interned (JLS7 3.10.5), e.g. for "s == \"abc\"".
+            if (cv instanceof String) cv = ((String) cv).intern();
+            this.constants.put(rv, cv == null ? Interpreter.NULL : cv);
+            return type;
+        }
+
+        if (rv instanceof Java.AmbiguousName) {
+            Java.Rvalue value = uc.reclassify((Java.AmbiguousName) rv).toRvalueOrCompileException();
+            this.reclassified.put(rv, value);
+            this.prepare(value);
+        } else
+        if (rv instanceof Java.FieldAccessExpression) {
+            Java.Rvalue value = ((Java.FieldAccessExpression) rv).value; // Was set by "getType()".
+            this.reclassified.put(rv, value);
+            this.prepare(value);
+        } else
+        if (rv instanceof Java.ParenthesizedExpression) {
+            this.prepare(((Java.ParenthesizedExpression) rv).value);
+        } else
+        if (rv instanceof Java.LocalVariableAccess) {
+            if (!this.localVariableIndexes.containsKey(((Java.LocalVariableAccess) rv).localVariable)) {
+                throw Interpreter.notSupported(rv.getClass(), rv.getLocation());
+            }
+        } else
+        if (rv instanceof Java.FieldAccess) {
+            Java.FieldAccess fa = (Java.FieldAccess) rv;
+            Field            f  = this.findField(fa.field, fa.getLocation());
+            this.resolved.put(fa, f);
+            if (!Modifier.isStatic(f.getModifiers())) this.prepare(fa.lhs.toRvalueOrCompileException());
+        } else
+        if (rv instanceof Java.ArrayLength) {
+            this.prepare(((Java.ArrayLength) rv).lhs);
+        } else
+        if (rv instanceof Java.ArrayAccessExpression) {
+            Java.ArrayAccessExpression aae = (Java.ArrayAccessExpression) rv;
+            this.prepare(aae.lhs);
+            this.prepare(aae.index);
+        } else
+        if (rv instanceof Java.UnaryOperation) {
+            this.prepare(((Java.UnaryOperation) rv).operand);
+        } else
+        if (rv instanceof Java.BinaryOperation) {
+            Java.BinaryOperation bo = (Java.BinaryOperation) rv;
+            this.prepare(bo.lhs);
+            this.prepare(bo.rhs);
+        } else
+        if (rv instanceof Java.ConditionalExpression) {
+            Java.ConditionalExpression ce = (Java.ConditionalExpression) rv;
+            this.prepareCondition(ce.lhs);
+            this.prepare(ce.mhs);
+            this.prepare(ce.rhs);
+        } else
+        if (rv instanceof Java.Cast) {
+            this.prepare(((Java.Cast) rv).value);
+        } else
+        if (rv instanceof Java.Instanceof) {
+            Java.Instanceof io = (Java.Instanceof) rv;
+            this.prepare(io.lhs);
+            this.resolved.put(io, this.loadClass(uc.getType(io.rhs), io.getLocation()));
+        } else
+        if (rv instanceof Java.ClassLiteral) {
+            Java.ClassLiteral cl = (Java.ClassLiteral) rv;
+            this.resolved.put(cl, this.loadClass(uc.getType(cl.type), cl.getLocation()));
+        } else
+        if (rv instanceof Java.Assignment) {
+            Java.Assignment a       = (Java.Assignment) rv;
+            Class           lhsType = this.prepare(a.lhs);
+            if (a.operator == "=") { // SUPPRESS CHECKSTYLE StringLiteralEquality
+                this.prepareAssignment(a.rhs, lhsType);
+            } else {
+                this.prepare(a.rhs);
+
+                // E.g. "+=" => "+".
+                this.resolved.put(a, a.operator.substring(0, a.operator.length() - 1).intern());
+            }
+        } else
+        if (rv instanceof Java.Crement) {
+            this.prepare(((Java.Crement) rv).operand);
+        } else
+        if (rv instanceof Java.MethodInvocation) {
+            Java.MethodInvocation mi = (Java.MethodInvocation) rv;
+            IClass.IMethod        im = uc.findIMethod(mi);
+            Method                m;
+            try {
+                m = this.loadClass(im.getDeclaringIClass(), mi.getLocation()).getDeclaredMethod(
+                    im.getName(),
+                    this.loadClasses(im.getParameterTypes(), mi.getLocation())
+                );
+            } catch (NoSuchMethodException nsme) {
+                throw new CompileException(nsme.toString(), mi.getLocation());
+            }
+            this.resolved.put(mi, Interpreter.accessibleMethod(m, mi.getLocation()));
+            if (!im.isStatic()) {
+                if (mi.optionalTarget == null) {
+                    throw new CompileException(
+                        "Implicit \"this\" is not supported in interpreted mode",
+                        mi.getLocation()
+                    );
+                }
+                this.prepare(mi.optionalTarget.toRvalueOrCompileException());
+            }
+            this.prepareArguments(mi.arguments);
+        } else
+        if (rv instanceof Java.NewClassInstance) {
+            Java.NewClassInstance nci = (Java.NewClassInstance) rv;
+            IClass                ic  = uc.getType(nci);
+            if (nci.optionalQualification != null || ic.getOuterIClass() != null) {
+                throw Interpreter.notSupported(rv.getClass(), rv.getLocation());
+            }
+            if (ic.isInterface() || ic.isAbstract()) {
+                throw new CompileException("Cannot instantiate \"" + ic + "\"", nci.getLocation());
+            }
+            IClass.IConstructor iConstructor = (IClass.IConstructor) uc.findMostSpecificIInvocable(
+                nci,                               // locatable
+                ic.getDeclaredIConstructors(),     // iInvocables
+                nci.arguments,                     // arguments
+                nci.getEnclosingBlockStatement()   // contextScope
+            );
+            Constructor c;
+            try {
+                c = this.loadClass(ic, nci.getLocation()).getDeclaredConstructor(
+                    this.loadClasses(iConstructor.getParameterTypes(), nci.getLocation())
+                );
+            } catch (NoSuchMethodException nsme) {
+                throw new CompileException(nsme.toString(), nci.getLocation());
+            }
+            Interpreter.checkAccessible(c, nci.getLocation());
+            this.resolved.put(nci, c);
+            this.prepareArguments(nci.arguments);
+        } else
+        if (rv instanceof Java.NewArray) {
+            Java.NewArray na = (Java.NewArray) rv;
+            for (int i = 0; i < na.dimExprs.length; ++i) this.prepareIndex(na.dimExprs[i]);
+        } else
+        if (rv instanceof Java.NewInitializedArray) {
+            this.prepareArrayInitializer(((Java.NewInitializedArray) rv).arrayInitializer, type);
+        } else
+        {
+            throw Interpreter.notSupported(rv.getClass(), rv.getLocation());
+        }
+
+        return type;
+    }
+
+    private void
+    prepareCondition(Java.Rvalue rv) throws CompileException {
+        if (Interpreter.unboxedType(this.prepare(rv)) != boolean.class) {
+            throw new CompileException("Boolean expression expected", rv.getLocation());
+        }
+    }
+
+    private void
+    prepareIndex(Java.Rvalue rv) throws CompileException {
+        Class t = Interpreter.unboxedType(this.prepare(rv));
+        if (t != int.class && t != char.class && t != short.class && t != byte.class) {
+            throw new CompileException("Integer expression expected", rv.getLocation());
+        }
+    }
+
+    private void
+    prepareArguments(Java.Rvalue[] arguments) throws CompileException {
+        for (int i = 0; i < arguments.length; ++i) this.prepare(arguments[i]);
+    }
+
+    private void
+    prepareInitializer(Java.ArrayInitializerOrRvalue aiorv, Class type) throws CompileException {
+        if (aiorv instanceof Java.Rvalue) {
+            this.prepareAssignment((Java.Rvalue) aiorv, type);
+        } else {
+            this.prepareArrayInitializer((Java.ArrayInitializer) aiorv, type);
+        }
+    }
+
+    private void
+    prepareArrayInitializer(Java.ArrayInitializer ai, Class arrayType) throws CompileException {
+        if (!arrayType.isArray()) throw new CompileException("Array type expected", ai.getLocation());
+        this.resolved.put(ai, arrayType.getComponentType());
+        for (int i = 0; i < ai.values.length; ++i) {
+            this.prepareInitializer(ai.values[i], arrayType.getComponentType());
+        }
+    }
+
+    /**
+     * Prepares the given <var>rv</var> and verifies that its value is assignment-convertible (JLS7 5.2) to the
+     * <var>targetType</var>.
+     */
+    private void
+    prepareAssignment(Java.Rvalue rv, Class targetType) throws CompileException {
+        Class  sourceType = this.prepare(rv);
+        Object cv         = this.constants.get(rv);
+        if (!Interpreter.isAssignmentConvertible(sourceType, cv, targetType)) {
+            throw new CompileException(
+                "Assignment conversion not possible from type \""
+                + sourceType.getName()
+                + "\" to type \""
+                + targetType.getName()
+                + "\"",
+                rv.getLocation()
+            );
+        }
+    }
+
+    private void
+    declare(Java.LocalVariable lv) {
+        this.localVariableIndexes.put(lv, new Integer(this.localVariableCount++));
+    }
+
+    private Field
+    findField(IClass.IField iField, Location location) throws CompileException {
+        Class declaringClass = this.loadClass(iField.getDeclaringIClass(), location);
+        Field f;
+        try {
+            f = declaringClass.getDeclaredField(iField.getName());
+        } catch (NoSuchFieldException nsfe) {
+            throw new CompileException(nsfe.toString(), location);
+        }
+        Interpreter.checkAccessible(f, location);
+        return f;
+    }
+
+    private Class[]
+    loadClasses(IClass[] iClasses, Location location) throws CompileException {
+        Class[] result = new Class[iClasses.length];
+        for (int i = 0; i < iClasses.length; ++i) result[i] = this.loadClass(iClasses[i], location);
+        return result;
+    }
+
+    /**
+     * @return The {@link Class} that corresponds with the given {@link IClass}, {@code void.class} for the type of
+     *         the {@code null} literal
+     * @throws CompileException The <var>iClass</var> is declared in the interpreted compilation unit, and has thus
+     *                          no {@link Class}
+     */
+    private Class
+    loadClass(IClass iClass, Location location) throws CompileException {
+        if (iClass instanceof ReflectionIClass) return ((ReflectionIClass) iClass).getClazz();
+        if (iClass.isPrimitive()) return this.loadedClass(iClass);
+        if (iClass.isArray()) {
+            return Array.newInstance(this.loadClass(iClass.getComponentType(), location), 0).getClass();
+        }
+        try {
+            return Class.forName(Descriptor.toClassName(iClass.getDescriptor()), false, this.classLoader);
+        } catch (ClassNotFoundException cnfe) {
+            throw new CompileException(
+                "Interpreted code cannot refer to class \"" + iClass + "\", which it declares",
+                location
+            );
+        }
+    }
+
+    /**
+     * @return The {@link Class} of the given primitive or already loaded {@link IClass}
+     */
+    private Class
+    loadedClass(IClass iClass) {
+        if (iClass == IClass.VOID)    return void.class;
+        if (iClass == IClass.BOOLEAN) return boolean.class;
+        if (iClass == IClass.BYTE)    return byte.class;
+        if (iClass == IClass.SHORT)   return short.class;
+        if (iClass == IClass.CHAR)    return char.class;
+        if (iClass == IClass.INT)     return int.class;
+        if (iClass == IClass.LONG)    return long.class;
+        if (iClass == IClass.FLOAT)   return float.class;
+        if (iClass == IClass.DOUBLE)  return double.class;
+        try {
+            return this.loadClass(iClass, null);
+        } catch (CompileException ce) {
+            throw new JaninoRuntimeException("SNO: Parameter type was checked during preparation", ce);
+        }
+    }
+
+    /**
+     * The interpreter accesses members through reflection, and thus only public members of public classes; members
+     * that only the generated class could access (e.g. in the same package) are rejected. (The access checks are
+     * never disabled.)
+     *
+     * @throws CompileException The <var>member</var> is not public, or is declared by a non-public class
+     */
+    private static void
+    checkAccessible(Member member, Location location) throws CompileException {
+        if (!Interpreter.isAccessible(member)) {
+            throw new CompileException(
+                "\"" + member.getDeclaringClass().getName() + "." + member.getName() + "\" is not accessible in "
+                + "interpreted mode",
+                location
+            );
+        }
+    }
+
+    private static boolean
+    isAccessible(Member member) {
+        return Modifier.isPublic(member.getModifiers()) && Modifier.isPublic(member.getDeclaringClass().getModifiers());
+    }
+
+    /**
+     * A public method that is declared by a non-public class (e.g. {@code AbstractStringBuilder.length()}) can be
+     * invoked through the same method of a public superclass or interface.
+     *
+     * @return The <var>m</var>, or a method that it overrides or implements and that is accessible
+     * @throws CompileException No such method is accessible
+     */
+    private static Method
+    accessibleMethod(Method m, Location location) throws CompileException {
+        if (Interpreter.isAccessible(m)) return m;
+
+        if (Modifier.isPublic(m.getModifiers()) && !Modifier.isStatic(m.getModifiers())) {
+            Method result = Interpreter.findAccessibleMethod(m.getDeclaringClass(), m);
+            if (result != null) return result;
+        }
+        Interpreter.checkAccessible(m, location);
+        return m;
+    }
+
+    private static Method
+    findAccessibleMethod(Class c, Method m) {
+        if (c == null) return null;
+        if (Modifier.isPublic(c.getModifiers())) {
+            try {
+                Method result = c.getDeclaredMethod(m.getName(), m.getParameterTypes());
+                if (Interpreter.isAccessible(result)) return result;
+            } catch (NoSuchMethodException nsme) {
+                ;
+            }
+        }
+        Class[] interfaces = c.getInterfaces();
+        for (int i = 0; i < interfaces.length; ++i) {
+            Method result = Interpreter.findAccessibleMethod(interfaces[i], m);
+            if (result != null) return result;
+        }
+        return Interpreter.findAccessibleMethod(c.getSuperclass(), m);
+    }
+
+    private static CompileException
+    notSupported(Class nodeClass, Location location) {
+        String name = nodeClass.getName();
+        return new CompileException(
+            "\"" + name.substring(name.lastIndexOf('$') + 1) + "\" is not supported in interpreted mode",
+            location
+        );
+    }
+
+    // ------------------------------ Execution ------------------------------
+
+    /**
+     * The abrupt completion of a statement because of a "break" or "continue" statement (JLS7 14.1).
+     */
+    private static final
+    class Jump {
+        final boolean continuE;
+        final String  optionalLabel;
+
+        Jump(boolean continuE, String optionalLabel) {
+            this.continuE      = continuE;
+            this.optionalLabel = optionalLabel;
+        }
+    }
+
+    /**
+     * The abrupt completion of a statement because of a "return" statement (JLS7 14.1).
+     */
+    private static final
+    class Return {
+        final Object value;
+
+        Return(Object value) { this.value = value; }
+    }
+
+    /**
+     * Wraps an exception that the interpreted code threw, or that a method or constructor that it invoked threw.
+     */
+    private static final
+    class Thrown extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        Thrown(Throwable cause) { super(cause); }
+    }
+
+    private static final Jump BREAK    = new Jump(false, null);
+    private static final Jump CONTINUE = new Jump(true, null);
+
+    /**
+     * @return {@code null} iff the statement completed normally, a {@link Jump} or a {@link Return} otherwise
+     */
+    private Object
+    execute(Java.BlockStatement bs, Object[] frame) {
+        if (bs instanceof Java.ExpressionStatement) {
+            this.evaluate(((Java.ExpressionStatement) bs).rvalue, frame);
+            return null;
+        } else
+        if (bs instanceof Java.LocalVariableDeclarationStatement) {
+            Java.LocalVariableDeclarationStatement lvds = (Java.LocalVariableDeclarationStatement) bs;
+            for (int i = 0; i < lvds.variableDeclarators.length; ++i) {
+                Java.VariableDeclarator vd = lvds.variableDeclarators[i];
+                if (vd.optionalInitializer != null) {
+                    frame[this.indexOf(vd.localVariable)] = this.evaluateInitializer(
+                        vd.optionalInitializer,
+                        this.loadedClass(vd.localVariable.type),
+                        frame
+                    );
+                }
+            }
+            return null;
+        } else
+        if (bs instanceof Java.Block) {
+            return this.execute(((Java.Block) bs).statements, frame);
+        } else
+        if (bs instanceof Java.IfStatement) {
+            Java.IfStatement is = (Java.IfStatement) bs;
+            if (this.evaluateCondition(is.condition, frame)) return this.execute(is.thenStatement, frame);
+            if (is.optionalElseStatement != null) return this.execute(is.optionalElseStatement, frame);
+            return null;
+        } else
+        if (bs instanceof Java.ReturnStatement) {
+            Java.ReturnStatement rs = (Java.ReturnStatement) bs;
+            if (rs.optionalReturnValue == null) return new Return(null);
+            return new Return(this.evaluateAssignment(rs.optionalReturnValue, (Class) this.resolved.get(rs), frame));
+        } else
+        if (bs instanceof Java.WhileStatement) {
+            Java.WhileStatement ws = (Java.WhileStatement) bs;
+            while (this.evaluateCondition(ws.condition, frame)) {
+                Object completion = this.execute(ws.body, frame);
+                if (completion != null && !Interpreter.continuesLoop(completion, bs)) {
+                    return Interpreter.breaksLoop(completion, bs) ? null : completion;
+                }
+            }
+            return null;
+        } else
+        if (bs instanceof Java.DoStatement) {
+            Java.DoStatement ds = (Java.DoStatement) bs;
+            do {
+                Object completion = this.execute(ds.body, frame);
+                if (completion != null && !Interpreter.continuesLoop(completion, bs)) {
+                    return Interpreter.breaksLoop(completion, bs) ? null : completion;
+                }
+            } while (this.evaluateCondition(ds.condition, frame));
+            return null;
+        } else
+        if (bs instanceof Java.ForStatement) {
+            Java.ForStatement fs = (Java.ForStatement) bs;
+            if (fs.optionalInit != null) this.execute(fs.optionalInit, frame);
+            while (fs.optionalCondition == null || this.evaluateCondition(fs.optionalCondition, frame)) {
+                Object completion = this.execute(fs.body, frame);
+                if (completion != null && !Interpreter.continuesLoop(completion, bs)) {
+                    return Interpreter.breaksLoop(completion, bs) ? null : completion;
+                }
+                if (fs.optionalUpdate != null) {
+                    for (int i = 0; i < fs.optionalUpdate.length; ++i) this.evaluate(fs.optionalUpdate[i], frame);
+                }
+            }
+            return null;
+        } else
+        if (bs instanceof Java.BreakStatement) {
+            String label = ((Java.BreakStatement) bs).optionalLabel;
+            return label == null ? Interpreter.BREAK : new Jump(false, label);
+        } else
+        if (bs instanceof Java.ContinueStatement) {
+            String label = ((Java.ContinueStatement) bs).optionalLabel;
+            return label == null ? Interpreter.CONTINUE : new Jump(true, label);
+        } else
+        if (bs instanceof Java.LabeledStatement) {
+            Java.LabeledStatement ls         = (Java.LabeledStatement) bs;
+            Object                completion = this.execute(ls.body, frame);
+            if (
+                completion instanceof Jump
+                && !((Jump) completion).continuE
+                && ls.label.equals(((Jump) completion).optionalLabel)
+            ) return null;
+            return completion;
+        } else
+        if (bs instanceof Java.ThrowStatement) {
+            Throwable t = (Throwable) this.evaluate(((Java.ThrowStatement) bs).expression, frame);
+            throw new Thrown(t == null ? new NullPointerException() : t);
+        } else
+        if (bs instanceof Java.TryStatement) {
+            return this.execute((Java.TryStatement) bs, frame);
+        } else
+        if (bs instanceof Java.SwitchStatement) {
+            Java.SwitchStatement ss    = (Java.SwitchStatement) bs;
+            int                  value = Interpreter.toInt(this.evaluate(ss.condition, frame));
+
+            // Find the matching case label, or else the default label.
+            List groups = ss.sbsgs;
+            int  start  = -1;
+            for (int i = 0; i < groups.size() && start == -1; ++i) {
+                int[] caseValues = (int[]) this.resolved.get(groups.get(i));
+                for (int j = 0; j < caseValues.length; ++j) {
+                    if (caseValues[j] == value) {
+                        start = i;
+                        break;
+                    }
+                }
+            }
+            for (int i = 0; i < groups.size() && start == -1; ++i) {
+                if (((Java.SwitchStatement.SwitchBlockStatementGroup) groups.get(i)).hasDefaultLabel) start = i;
+            }
+            if (start == -1) return null;
+
+            // Execute the statements from there on ("fall through").
+            for (int i = start; i < groups.size(); ++i) {
+                Object completion = this.execute(
+                    ((Java.SwitchStatement.SwitchBlockStatementGroup) groups.get(i)).blockStatements,
+                    frame
+                );
+                if (completion == Interpreter.BREAK) return null;
+                if (completion != null) return completion;
+            }
+            return null;
+        } else
+        {
+            return null; // Empty statement.
+        }
+    }
+
+    private Object
+    execute(List/*<BlockStatement>*/ statements, Object[] frame) {
+        for (Iterator it = statements.iterator(); it.hasNext();) {
+            Object completion = this.execute((Java.BlockStatement) it.next(), frame);
+            if (completion != null) return completion;
+        }
+        return null;
+    }
+
+    private Object
+    execute(Java.TryStatement ts, Object[] frame) {
+        Object completion;
+        try {
+            try {
+                completion = this.execute(ts.body, frame);
+            } catch (RuntimeException re) {
+                Throwable t = re instanceof Thrown ? re.getCause() : re;
+                completion = this.executeCatchClause(ts, t, frame);
+            } catch (Error e) { // SUPPRESS CHECKSTYLE IllegalCatch
+                completion = this.executeCatchClause(ts, e, frame);
+            }
+        } finally {
+            if (ts.optionalFinally != null) {
+                Object finallyCompletion = this.execute(ts.optionalFinally, frame);
+                if (finallyCompletion != null) return finallyCompletion; // SUPPRESS CHECKSTYLE ReturnFromFinally
+            }
+        }
+        return completion;
+    }
+
+    private Object
+    executeCatchClause(Java.TryStatement ts, Throwable t, Object[] frame) {
+        for (Iterator it = ts.catchClauses.iterator(); it.hasNext();) {
+            Java.CatchClause cc = (Java.CatchClause) it.next();
+            if (((Class) this.resolved.get(cc)).isInstance(t)) {
+                frame[this.indexOf(cc.caughtException.localVariable)] = t;
+                return this.execute(cc.body, frame);
+            }
+        }
+        throw t instanceof Thrown ? (Thrown) t : new Thrown(t);
+    }
+
+    /**
+     * @return Whether the <var>completion</var> of the body of the given <var>loop</var> continues that loop
+     */
+    private static boolean
+    continuesLoop(Object completion, Java.BlockStatement loop) {
+        if (!(completion instanceof Jump) || !((Jump) completion).continuE) return false;
+        String label = ((Jump) completion).optionalLabel;
+        return label == null || Interpreter.isLabeled(loop, label);
+    }
+
+    /**
+     * @return Whether the <var>completion</var> of the body of the given <var>loop</var> terminates that loop
+     *         normally
+     */
+    private static boolean
+    breaksLoop(Object completion, Java.BlockStatement loop) {
+        if (!(completion instanceof Jump) || ((Jump) completion).continuE) return false;
+        String label = ((Jump) completion).optionalLabel;
+        return label == null || Interpreter.isLabeled(loop, label);
+    }
+
+    private static boolean
+    isLabeled(Java.BlockStatement bs, String label) {
+        for (Java.Scope s = bs.getEnclosingScope(); s instanceof Java.LabeledStatement; s = s.getEnclosingScope()) {
+            if (((Java.LabeledStatement) s).label.equals(label)) return true;
+        }
+        return false;
+    }
+
+    private int
+    indexOf(Java.LocalVariable lv) { return ((Integer) this.localVariableIndexes.get(lv)).intValue(); }
+
+    private boolean
+    evaluateCondition(Java.Rvalue rv, Object[] frame) {
+        return ((Boolean) this.evaluate(rv, frame)).booleanValue();
+    }
+
+    private Object
+    evaluateInitializer(Java.ArrayInitializerOrRvalue aiorv, Class type, Object[] frame) {
+        if (aiorv instanceof Java.Rvalue) return this.evaluateAssignment((Java.Rvalue) aiorv, type, frame);
+
+        Java.ArrayInitializer ai            = (Java.ArrayInitializer) aiorv;
+        Class                 componentType = (Class) this.resolved.get(ai);
+        Object                array         = Array.newInstance(componentType, ai.values.length);
+        for (int i = 0; i < ai.values.length; ++i) {
+            Array.set(array, i, this.evaluateInitializer(ai.values[i], componentType, frame));
+        }
+        return array;
+    }
+
+    /**
+     * @return The value of the <var>rv</var>, converted to the <var>targetType</var> (JLS7 5.2)
+     */
+    private Object
+    evaluateAssignment(Java.Rvalue rv, Class targetType, Object[] frame) {
+        return Interpreter.assignmentConvert(this.evaluate(rv, frame), this.typeOf(rv), targetType);
+    }
+
+    /**
+     * @return The value of the given rvalue; primitive values wrapped
+     */
+    private Object
+    evaluate(Java.Rvalue rv, Object[] frame) {
+        Object cv = this.constants.get(rv);
+        if (cv != null) return cv == Interpreter.NULL ? null : cv;
+
+        if (rv instanceof Java.AmbiguousName || rv instanceof Java.FieldAccessExpression) {
+            return this.evaluate((Java.Rvalue) this.reclassified.get(rv), frame);
+        } else
+        if (rv instanceof Java.LocalVariableAccess) {
+            return frame[this.indexOf(((Java.LocalVariableAccess) rv).localVariable)];
+        } else
+        if (rv instanceof Java.BinaryOperation) {
+            Java.BinaryOperation bo = (Java.BinaryOperation) rv;
+            String               op = bo.op;
+
+            // CHECKSTYLE StringLiteralEquality:OFF
+            if (op == "&&") {
+                return Boolean.valueOf(this.evaluateCondition(bo.lhs, frame) && this.evaluateCondition(bo.rhs, frame));
+            }
+            if (op == "||") {
+                return Boolean.valueOf(this.evaluateCondition(bo.lhs, frame) || this.evaluateCondition(bo.rhs, frame));
+            }
+            // CHECKSTYLE StringLiteralEquality:ON
+
+            Object lhs = this.evaluate(bo.lhs, frame);
+            Object rhs = this.evaluate(bo.rhs, frame);
+            return Interpreter.binaryOperation(lhs, this.typeOf(bo.lhs), op, rhs, this.typeOf(bo.rhs));
+        } else
+        if (rv instanceof Java.ParenthesizedExpression) {
+            return this.evaluate(((Java.ParenthesizedExpression) rv).value, frame);
+        } else
+        if (rv instanceof Java.MethodInvocation) {
+            Java.MethodInvocation mi     = (Java.MethodInvocation) rv;
+            Method                m      = (Method) this.resolved.get(mi);
+            Object                target = (
+                Modifier.isStatic(m.getModifiers())
+                ? null
+                : this.evaluate(mi.optionalTarget.toRvalue(), frame)
+            );
+            Object[] arguments = this.evaluateArguments(mi.arguments, m.getParameterTypes(), frame);
+            if (target == null && !Modifier.isStatic(m.getModifiers())) throw new NullPointerException();
+            try {
+                return m.invoke(target, arguments);
+            } catch (InvocationTargetException ite) {
+                throw new Thrown(ite.getTargetException());
+            } catch (IllegalAccessException iae) {
+                throw new JaninoRuntimeException(iae.toString(), iae);
+            }
+        } else
+        if (rv instanceof Java.UnaryOperation) {
+            Java.UnaryOperation uo      = (Java.UnaryOperation) rv;
+            Object              operand = this.evaluate(uo.operand, frame);
+
+            // CHECKSTYLE StringLiteralEquality:OFF
+            if (uo.operator == "!") return Boolean.valueOf(!((Boolean) operand).booleanValue());
+            Class type = this.typeOf(uo);
+            if (uo.operator == "+") return Interpreter.convert(operand, type);
+            if (uo.operator == "-") {
+                return Interpreter.binaryOperation(Interpreter.convert(new Integer(0), type), type, "-", operand, type);
+            }
+            if (uo.operator == "~") {
+                Object minusOne = Interpreter.convert(new Integer(-1), type);
+                return Interpreter.binaryOperation(operand, type, "^", minusOne, type);
+            }
+            // CHECKSTYLE StringLiteralEquality:ON
+
+            throw new JaninoRuntimeException("SNO: Unexpected unary operator \"" + uo.operator + "\"");
+        } else
+        if (rv instanceof Java.ConditionalExpression) {
+            Java.ConditionalExpression ce      = (Java.ConditionalExpression) rv;
+            Java.Rvalue                operand = this.evaluateCondition(ce.lhs, frame) ? ce.mhs : ce.rhs;
+            Object                     value   = this.evaluate(operand, frame);
+            Class                      type    = this.typeOf(ce);
+            if (type.isPrimitive()) return Interpreter.convert(value, type);
+
+            // E.g. "b ? 7 : null".
+            return this.typeOf(operand).isPrimitive() ? Interpreter.box(value) : value;
+        } else
+        if (rv instanceof Java.Cast) {
+            Java.Cast c     = (Java.Cast) rv;
+            Object    value = this.evaluate(c.value, frame);
+            Class     type  = this.typeOf(c);
+            if (type.isPrimitive()) return Interpreter.convert(value, type);
+
+            // E.g. "(Object) 7", "(Integer) 7" or "(Character) 'x'".
+            if (this.typeOf(c.value).isPrimitive()) return Interpreter.box(value);
+
+            if (value != null && !type.isInstance(value)) {
+                throw new ClassCastException(value.getClass().getName() + " cannot be cast to " + type.getName());
+            }
+            return value;
+        } else
+        if (rv instanceof Java.FieldAccess) {
+            Java.FieldAccess fa = (Java.FieldAccess) rv;
+            Field            f  = (Field) this.resolved.get(fa);
+            try {
+                return f.get(
+                    Modifier.isStatic(f.getModifiers())
+                    ? null
+                    : Interpreter.nonNull(this.evaluate(fa.lhs.toRvalue(), frame))
+                );
+            } catch (IllegalAccessException iae) {
+                throw new JaninoRuntimeException(iae.toString(), iae);
+            }
+        } else
+        if (rv instanceof Java.ArrayAccessExpression) {
+            Java.ArrayAccessExpression aae   = (Java.ArrayAccessExpression) rv;
+            Object                     array = this.evaluate(aae.lhs, frame);
+            int                        index = Interpreter.toInt(this.evaluate(aae.index, frame));
+            return Array.get(Interpreter.nonNull(array), index);
+        } else
+        if (rv instanceof Java.ArrayLength) {
+            return new Integer(Array.getLength(Interpreter.nonNull(this.evaluate(((Java.ArrayLength) rv).lhs, frame))));
+        } else
+        if (rv instanceof Java.Assignment) {
+            return this.evaluate((Java.Assignment) rv, frame);
+        } else
+        if (rv instanceof Java.Crement) {
+            return this.evaluate((Java.Crement) rv, frame);
+        } else
+        if (rv instanceof Java.Instanceof) {
+            Java.Instanceof io = (Java.Instanceof) rv;
+            return Boolean.valueOf(((Class) this.resolved.get(io)).isInstance(this.evaluate(io.lhs, frame)));
+        } else
+        if (rv instanceof Java.ClassLiteral) {
+            return this.resolved.get(rv);
+        } else
+        if (rv instanceof Java.NewClassInstance) {
+            Java.NewClassInstance nci = (Java.NewClassInstance) rv;
+            Constructor           c   = (Constructor) this.resolved.get(nci);
+            Object[]              arguments = this.evaluateArguments(nci.arguments, c.getParameterTypes(), frame);
+            try {
+                return c.newInstance(arguments);
+            } catch (InvocationTargetException ite) {
+                throw new Thrown(ite.getTargetException());
+            } catch (InstantiationException ie) {
+                throw new JaninoRuntimeException(ie.toString(), ie);
+            } catch (IllegalAccessException iae) {
+                throw new JaninoRuntimeException(iae.toString(), iae);
+            }
+        } else
+        if (rv instanceof Java.NewArray) {
+            Java.NewArray na            = (Java.NewArray) rv;
+            Class         componentType = this.typeOf(na);
+            int[]         dimensions    = new int[na.dimExprs.length];
+            for (int i = 0; i < dimensions.length; ++i) {
+                dimensions[i] = Interpreter.toInt(this.evaluate(na.dimExprs[i], frame));
+                if (dimensions[i] < 0) throw new NegativeArraySizeException();
+                componentType = componentType.getComponentType();
+            }
+            return Array.newInstance(componentType, dimensions);
+        } else
+        if (rv instanceof Java.NewInitializedArray) {
+            Java.NewInitializedArray nia = (Java.NewInitializedArray) rv;
+            return this.evaluateInitializer(nia.arrayInitializer, this.typeOf(nia), frame);
+        } else
+        {
+            throw new JaninoRuntimeException("SNO: Unexpected rvalue type \"" + rv.getClass().getName() + "\"");
+        }
+    }
+
+    private Object[]
+    evaluateArguments(Java.Rvalue[] arguments, Class[] parameterTypes, Object[] frame) {
+        Object[] result = new Object[arguments.length];
+        for (int i = 0; i < arguments.length; ++i) {
+            result[i] = this.evaluateAssignment(arguments[i], parameterTypes[i], frame);
+        }
+        return result;
+    }
+
+    /**
+     * Evaluates a simple or compound assignment (JLS7 15.26).
+     */
+    private Object
+    evaluate(final Java.Assignment a, final Object[] frame) {
+        final Class lhsType = this.typeOf(a.lhs);
+        return this.update(a.lhs, frame, new Updater() {
+
+            @Override public Object
+            update(Object oldValue) {
+                if (a.operator == "=") { // SUPPRESS CHECKSTYLE StringLiteralEquality
+                    return Interpreter.this.evaluateAssignment(a.rhs, lhsType, frame);
+                }
+                Object rhs = Interpreter.this.evaluate(a.rhs, frame);
+                Object result = Interpreter.binaryOperation(
+                    oldValue,
+                    lhsType,
+                    (String) Interpreter.this.resolved.get(a),
+                    rhs,
+                    Interpreter.this.typeOf(a.rhs)
+                );
+                if (lhsType == String.class) return result;
+
+                // E.g. "Integer i = 7; i += 3;" boxes the sum.
+                result = Interpreter.convert(result, Interpreter.unboxedType(lhsType));
+                return lhsType.isPrimitive() ? result : Interpreter.box(result);
+            }
+
+            @Override public boolean
+            needsOldValue() { return a.operator != "="; } // SUPPRESS CHECKSTYLE StringLiteralEquality
+        }, false);
+    }
+
+    /**
+     * Evaluates a prefix or postfix increment or decrement (JLS7 15.14.2, 15.14.3, 15.15.1, 15.15.2).
+     */
+    private Object
+    evaluate(final Java.Crement c, Object[] frame) {
+        final Class operandType = this.typeOf(c.operand);
+        final Class type        = Interpreter.unboxedType(operandType);
+        return this.update(c.operand, frame, new Updater() {
+
+            @Override public Object
+            update(Object oldValue) {
+                Object result = Interpreter.convert(Interpreter.binaryOperation(
+                    oldValue,
+                    type,
+                    c.operator == "++" ? "+" : "-", // SUPPRESS CHECKSTYLE StringLiteralEquality
+                    new Integer(1),
+                    int.class
+                ), type);
+
+                // E.g. "Integer i = 7; i++;" boxes the incremented value.
+                return operandType.isPrimitive() ? result : Interpreter.box(result);
+            }
+
+            @Override public boolean
+            needsOldValue() { return true; }
+        }, !c.pre);
+    }
+
+    /**
+     * Computes the new value of a variable from its old value.
+     */
+    private abstract static
+    class Updater {
+        abstract Object  update(Object oldValue);
+        abstract boolean needsOldValue();
+    }
+
+    /**
+     * Updates the variable that the given <var>lhs</var> designates.
+     *
+     * @param returnOldValue Whether to return the old value of the variable, or the new value
+     */
+    private Object
+    update(Java.Lvalue lhs, Object[] frame, Updater updater, boolean returnOldValue) {
+        while (lhs instanceof Java.ParenthesizedExpression) {
+            lhs = ((Java.ParenthesizedExpression) lhs).value.toLvalue();
+        }
+        if (lhs instanceof Java.AmbiguousName || lhs instanceof Java.FieldAccessExpression) {
+            lhs = ((Java.Rvalue) this.reclassified.get(lhs)).toLvalue();
+        }
+
+        if (lhs instanceof Java.LocalVariableAccess) {
+            int    idx      = this.indexOf(((Java.LocalVariableAccess) lhs).localVariable);
+            Object oldValue = frame[idx];
+            Object newValue = updater.update(oldValue);
+            frame[idx] = newValue;
+            return returnOldValue ? oldValue : newValue;
+        } else
+        if (lhs instanceof Java.ArrayAccessExpression) {
+            Java.ArrayAccessExpression aae      = (Java.ArrayAccessExpression) lhs;
+            Object                     array    = Interpreter.nonNull(this.evaluate(aae.lhs, frame));
+            int                        index    = Interpreter.toInt(this.evaluate(aae.index, frame));
+            Object                     oldValue = updater.needsOldValue() ? Array.get(array, index) : null;
+            Object                     newValue = updater.update(oldValue);
+            if (index < 0 || index >= Array.getLength(array)) throw new ArrayIndexOutOfBoundsException(index);
+            if (
+                newValue != null
+                && !array.getClass().getComponentType().isPrimitive()
+                && !array.getClass().getComponentType().isInstance(newValue)
+            ) throw new ArrayStoreException(newValue.getClass().getName());
+            Array.set(array, index, newValue);
+            return returnOldValue ? oldValue : newValue;
+        } else
+        if (lhs instanceof Java.FieldAccess) {
+            Java.FieldAccess fa     = (Java.FieldAccess) lhs;
+            Field            f      = (Field) this.resolved.get(fa);
+            Object           target = (
+                Modifier.isStatic(f.getModifiers())
+                ? null
+                : Interpreter.nonNull(this.evaluate(fa.lhs.toRvalue(), frame))
+            );
+            try {
+                Object oldValue = updater.needsOldValue() ? f.get(target) : null;
+                Object newValue = updater.update(oldValue);
+                f.set(target, newValue);
+                return returnOldValue ? oldValue : newValue;
+            } catch (IllegalAccessException iae) {
+                throw new JaninoRuntimeException(iae.toString(), iae);
+            }
+        } else
+        {
+            throw new JaninoRuntimeException("SNO: Unexpected lvalue type \"" + lhs.getClass().getName() + "\"");
+        }
+    }
+
+    private Class
+    typeOf(Java.Rvalue rv) { return (Class) this.types.get(rv); }
+
+    private static Object
+    nonNull(Object o) {
+        if (o == null) throw new NullPointerException();
+        return o;
+    }
+
+    // ------------------------------ Conversions and operators ------------------------------
+
+    /**
+     * Implements the binary operators (JLS7 15.17 - 15.22), except "&amp;&amp;" and "||", including string
+     * concatenation and the binary numeric promotion of the operands.
+     *
+     * @param lhsType The static type of the left operand
+     * @param rhsType The static type of the right operand
+     */
+    static Object
+    binaryOperation(Object lhs, Class lhsType, String op, Object rhs, Class rhsType) {
+
+        // CHECKSTYLE StringLiteralEquality:OFF
+        if (op == "+" && (lhsType == String.class || rhsType == String.class)) {
+            return String.valueOf(lhs) + String.valueOf(rhs);
+        }
+
+        // Reference equality (JLS7 15.21.3), unless one operand is primitive and the other is thus unboxed.
+        if ((op == "==" || op == "!=") && !lhsType.isPrimitive() && !rhsType.isPrimitive()) {
+            return Boolean.valueOf((lhs == rhs) == (op == "=="));
+        }
+
+        Class ult = Interpreter.unboxedType(lhsType);
+        Class urt = Interpreter.unboxedType(rhsType);
+
+        if (ult == boolean.class) {
+            boolean l = ((Boolean) lhs).booleanValue(), r = ((Boolean) rhs).booleanValue();
+            if (op == "==") return Boolean.valueOf(l == r);
+            if (op == "!=") return Boolean.valueOf(l != r);
+            if (op == "&")  return Boolean.valueOf(l & r);
+            if (op == "|")  return Boolean.valueOf(l | r);
+            if (op == "^")  return Boolean.valueOf(l ^ r);
+            throw new JaninoRuntimeException("SNO: Unexpected boolean operator \"" + op + "\"");
+        }
+
+        if (op == "<<" || op == ">>" || op == ">>>") {
+            long distance = Interpreter.toLong(rhs);
+            if (Interpreter.unaryPromotion(ult) == long.class) {
+                long l = Interpreter.toLong(lhs);
+                return new Long(op == "<<" ? l << distance : op == ">>" ? l >> distance : l >>> distance);
+            } else {
+                int l = Interpreter.toInt(lhs);
+                return new Integer(op == "<<" ? l << distance : op == ">>" ? l >> distance : l >>> distance);
+            }
+        }
+
+        Class promotedType = Interpreter.binaryPromotion(ult, urt);
+        if (promotedType == int.class) {
+            int l = Interpreter.toInt(lhs), r = Interpreter.toInt(rhs);
+            if (op == "+")  return new Integer(l + r);
+            if (op == "-")  return new Integer(l - r);
+            if (op == "*")  return new Integer(l * r);
+            if (op == "/")  return new Integer(l / r);
+            if (op == "%")  return new Integer(l % r);
+            if (op == "&")  return new Integer(l & r);
+            if (op == "|")  return new Integer(l | r);
+            if (op == "^")  return new Integer(l ^ r);
+            if (op == "==") return Boolean.valueOf(l == r);
+            if (op == "!=") return Boolean.valueOf(l != r);
+            if (op == "<")  return Boolean.valueOf(l < r);
+            if (op == "<=") return Boolean.valueOf(l <= r);
+            if (op == ">")  return Boolean.valueOf(l > r);
+            if (op == ">=") return Boolean.valueOf(l >= r);
+        } else
+        if (promotedType == long.class) {
+            long l = Interpreter.toLong(lhs), r = Interpreter.toLong(rhs);
+            if (op == "+")  return new Long(l + r);
+            if (op == "-")  return new Long(l - r);
+            if (op == "*")  return new Long(l * r);
+            if (op == "/")  return new Long(l / r);
+            if (op == "%")  return new Long(l % r);
+            if (op == "&")  return new Long(l & r);
+            if (op == "|")  return new Long(l | r);
+            if (op == "^")  return new Long(l ^ r);
+            if (op == "==") return Boolean.valueOf(l == r);
+            if (op == "!=") return Boolean.valueOf(l != r);
+            if (op == "<")  return Boolean.valueOf(l < r);
+            if (op == "<=") return Boolean.valueOf(l <= r);
+            if (op == ">")  return Boolean.valueOf(l > r);
+            if (op == ">=") return Boolean.valueOf(l >= r);
+        } else
+        if (promotedType == float.class) {
+            float l = Interpreter.toFloat(lhs), r = Interpreter.toFloat(rhs);
+            if (op == "+")  return new Float(l + r);
+            if (op == "-")  return new Float(l - r);
+            if (op == "*")  return new Float(l * r);
+            if (op == "/")  return new Float(l / r);
+            if (op == "%")  return new Float(l % r);
+            if (op == "==") return Boolean.valueOf(l == r);
+            if (op == "!=") return Boolean.valueOf(l != r);
+            if (op == "<")  return Boolean.valueOf(l < r);
+            if (op == "<=") return Boolean.valueOf(l <= r);
+            if (op == ">")  return Boolean.valueOf(l > r);
+            if (op == ">=") return Boolean.valueOf(l >= r);
+        } else
+        {
+            double l = Interpreter.toDouble(lhs), r = Interpreter.toDouble(rhs);
+            if (op == "+")  return new Double(l + r);
+            if (op == "-")  return new Double(l - r);
+            if (op == "*")  return new Double(l * r);
+            if (op == "/")  return new Double(l / r);
+            if (op == "%")  return new Double(l % r);
+            if (op == "==") return Boolean.valueOf(l == r);
+            if (op == "!=") return Boolean.valueOf(l != r);
+            if (op == "<")  return Boolean.valueOf(l < r);
+            if (op == "<=") return Boolean.valueOf(l <= r);
+            if (op == ">")  return Boolean.valueOf(l > r);
+            if (op == ">=") return Boolean.valueOf(l >= r);
+        }
+        // CHECKSTYLE StringLiteralEquality:ON
+
+        throw new JaninoRuntimeException("SNO: Unexpected operator \"" + op + "\" for \"" + promotedType + "\"");
+    }
+
+    /**
+     * Implements assignment conversion (JLS7 5.2) of a value whose static type is known to be assignment-convertible
+     * to the <var>targetType</var>.
+     *
+     * @param sourceType The static type of the <var>value</var>
+     */
+    private static Object
+    assignmentConvert(Object value, Class sourceType, Class targetType) {
+        if (value == null) {
+
+            // E.g. "int i = (Integer) null;" (JLS7 5.1.8: unboxing conversion).
+            if (targetType.isPrimitive()) throw new NullPointerException();
+            return null;
+        }
+        if (targetType.isPrimitive()) return Interpreter.convert(value, targetType);
+        if (!sourceType.isPrimitive()) return value;
+
+        // E.g. "Byte b = 7;" (JLS7 5.2: narrowing primitive conversion followed by boxing conversion).
+        Class ut = Interpreter.unboxedType(targetType);
+        return Interpreter.box(ut != targetType ? Interpreter.convert(value, ut) : value);
+    }
+
+    /**
+     * Implements boxing conversion (JLS7 5.1.7) of a primitive value, which the interpreter represents as a wrapper
+     * object. Like compiled code, it boxes through "valueOf()", so that e.g. "{@code (Integer) 127 == (Integer) 127}"
+     * holds, and "{@code (Integer) 1000 == (Integer) 1000}" does not.
+     */
+    private static Object
+    box(Object value) {
+        if (value instanceof Integer)   return Integer.valueOf(((Integer) value).intValue());
+        if (value instanceof Long)      return Long.valueOf(((Long) value).longValue());
+        if (value instanceof Double)    return Double.valueOf(((Double) value).doubleValue());
+        if (value instanceof Float)     return Float.valueOf(((Float) value).floatValue());
+        if (value instanceof Character) return Character.valueOf(((Character) value).charValue());
+        if (value instanceof Short)     return Short.valueOf(((Short) value).shortValue());
+        if (value instanceof Byte)      return Byte.valueOf(((Byte) value).byteValue());
+        if (value instanceof Boolean)   return Boolean.valueOf(((Boolean) value).booleanValue());
+        return value;
+    }
+
+    /**
+     * Implements the primitive conversions between numeric types (JLS7 5.1.2, 5.1.3); boolean values are returned
+     * unchanged.
+     *
+     * @param value A {@link Number}, a {@link Character} or a {@link Boolean}
+     * @param type  The primitive target type
+     */
+    static Object
+    convert(Object value, Class type) {
+        if (value instanceof Boolean) return value;
+        if (type == int.class)    return Integer.valueOf(Interpreter.toInt(value));
+        if (type == long.class)   return Long.valueOf(Interpreter.toLong(value));
+        if (type == double.class) return Double.valueOf(Interpreter.toDouble(value));
+        if (type == float.class)  return Float.valueOf(Interpreter.toFloat(value));
+        if (type == char.class)   return Character.valueOf((char) Interpreter.toInt(value));
+        if (type == short.class)  return Short.valueOf((short) Interpreter.toInt(value));
+        if (type == byte.class)   return Byte.valueOf((byte) Interpreter.toInt(value));
+        return value;
+    }
+
+    private static int
+    toInt(Object value) {
+        if (value instanceof Character) return ((Character) value).charValue();
+        return ((Number) value).intValue();
+    }
+
+    private static long
+    toLong(Object value) {
+        if (value instanceof Character) return ((Character) value).charValue();
+        return ((Number) value).longValue();
+    }
+
+    private static float
+    toFloat(Object value) {
+        if (value instanceof Character) return ((Character) value).charValue();
+        return ((Number) value).floatValue();
+    }
+
+    private static double
+    toDouble(Object value) {
+        if (value instanceof Character) return ((Character) value).charValue();
+        return ((Number) value).doubleValue();
+    }
+
+    /**
+     * @return The primitive type that corresponds with the wrapper type of the <var>value</var>, or {@code null}
+     */
+    private static Class
+    primitiveType(Object value) {
+        if (value == null) return null;
+        Class c  = value.getClass();
+        Class ut = Interpreter.unboxedType(c);
+        return ut == c ? null : ut;
+    }
+
+    /**
+     * @return The primitive type that corresponds with the given wrapper type, or the <var>type</var> itself
+     */
+    private static Class
+    unboxedType(Class type) {
+        return (
+            type == Integer.class   ? int.class     :
+            type == Long.class      ? long.class    :
+            type == Double.class    ? double.class  :
+            type == Boolean.class   ? boolean.class :
+            type == Character.class ? char.class    :
+            type == Float.class     ? float.class   :
+            type == Short.class     ? short.class   :
+            type == Byte.class      ? byte.class    :
+            type
+        );
+    }
+
+    private static Class
+    unaryPromotion(Class type) {
+        return type == long.class || type == float.class || type == double.class ? type : int.class;
+    }
+
+    private static Class
+    binaryPromotion(Class type1, Class type2) {
+        return (
+            type1 == double.class || type2 == double.class ? double.class :
+            type1 == float.class  || type2 == float.class  ? float.class  :
+            type1 == long.class   || type2 == long.class   ? long.class   :
+            int.class
+        );
+    }
+
+    /**
+     * @return Whether identity or widening primitive conversion (JLS7 5.1.1, 5.1.2) from <var>from</var> to
+     *         <var>to</var> is possible
+     */
+    private static boolean
+    isWidening(Class from, Class to) {
+        if (from == null || !from.isPrimitive()) return false;
+        if (from == to) return true;
+        if (from == boolean.class || to == boolean.class || to == char.class) return false;
+        if (to == byte.class)  return false;
+        if (to == short.class) return from == byte.class;
+        if (to == int.class)   return from == byte.class || from == short.class || from == char.class;
+        if (to == long.class)  return from != float.class && from != double.class;
+        if (to == float.class) return from != double.class;
+        return true;
+    }
+
+    /**
+     * Implements the compile-time check of assignment conversion (JLS7 5.2).
+     *
+     * @param sourceType            {@code NullType.class} for the type of the {@code null} literal
+     * @param optionalConstantValue The value of the source expression iff it is constant, {@link #NULL} for the
+     *                              {@code null} constant
+     */
+    private static boolean
+    isAssignmentConvertible(Class sourceType, Object optionalConstantValue, Class targetType) {
+        if (sourceType == NullType.class) return !targetType.isPrimitive();
+        if (sourceType == void.class) return false;
+
+        Class ust = Interpreter.unboxedType(sourceType);
+        Class utt = Interpreter.unboxedType(targetType);
+
+        if (targetType.isPrimitive()) {
+            if (Interpreter.isWidening(ust, targetType)) return true;
+        } else {
+            if (targetType.isAssignableFrom(sourceType)) return true;
+            if (sourceType.isPrimitive()) {
+                if (targetType.isAssignableFrom(Interpreter.wrapperType(sourceType))) return true;
+            } else {
+                return false;
+            }
+        }
+
+        // Narrowing of constants (JLS7 5.2), e.g. "byte b = 7;".
+        if (
+            (ust == int.class || ust == short.class || ust == char.class || ust == byte.class)
+            && (utt == byte.class || utt == short.class || utt == char.class)
+            && (optionalConstantValue instanceof Number || optionalConstantValue instanceof Character)
+        ) {
+            int v = Interpreter.toInt(optionalConstantValue);
+            return (
+                utt == byte.class ? v >= Byte.MIN_VALUE && v <= Byte.MAX_VALUE :
+                utt == short.class ? v >= Short.MIN_VALUE && v <= Short.MAX_VALUE :
+                v >= Character.MIN_VALUE && v <= Character.MAX_VALUE
+            );
+        }
+        return false;
+    }
+
+    private static Class
+    wrapperType(Class primitiveType) {
+        return (
+            primitiveType == int.class     ? Integer.class   :
+            primitiveType == long.class    ? Long.class      :
+            primitiveType == double.class  ? Double.class    :
+            primitiveType == boolean.class ? Boolean.class   :
+            primitiveType == char.class    ? Character.class :
+            primitiveType == float.class   ? Float.class     :
+            primitiveType == short.class   ? Short.class     :
+            Byte.class
+        );
+    }
+}
@@ -1625,6 +1625,13 @@ class Java {
             this.enclosingScope = enclosingScope;
         }
 
+        /**
+         * Detaches this statement from its enclosing scope, so that it can be moved into a different one. Must only be
+         * invoked before the statement is compiled.
+         */
+        public void
+        resetEnclosingScope() { this.enclosingScope = null; }
+
         @Override public Scope
         getEnclosingScope() { return this.enclosingScope; }
 
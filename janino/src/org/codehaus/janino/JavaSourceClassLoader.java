@@ -29,10 +29,10 @@ package org.codehaus.janino;
 import java.io.File;
 import java.io.Reader;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.codehaus.commons.compiler.AbstractJavaSourceClassLoader;
 import org.codehaus.commons.compiler.CompileException;
@@ -54,6 +54,10 @@ import org.codehaus.janino.util.resource.ResourceFinder;
 @SuppressWarnings({ "rawtypes", "unchecked" }) public
 class JavaSourceClassLoader extends AbstractJavaSourceClassLoader {
 
+    static {
+        ClassLoader.registerAsParallelCapable();
+    }
+
     public
     JavaSourceClassLoader() { this(ClassLoader.getSystemClassLoader()); }
 
@@ -111,20 +115,50 @@ class JavaSourceClassLoader extends AbstractJavaSourceClassLoader {
         ClassLoader    parentClassLoader,
         ResourceFinder sourceFinder,
         String         optionalCharacterEncoding
+    ) {
+        this(
+            parentClassLoader,                             // parentClassLoader
+            sourceFinder,                                  // sourceFinder
+            optionalCharacterEncoding,                     // optionalCharacterEncoding
+            new ClassLoaderIClassLoader(parentClassLoader) // parentIClassLoader
+        );
+    }
+
+    /**
+     * Like {@link #JavaSourceClassLoader(ClassLoader, ResourceFinder, String)}, but the compiler looks up types
+     * through the given {@link IClassLoader} before it looks for their source code, instead of through the
+     * <code>parentClassLoader</code>.
+     *
+     * @param parentIClassLoader Should eventually delegate to the <code>parentClassLoader</code>
+     */
+    protected
+    JavaSourceClassLoader(
+        ClassLoader    parentClassLoader,
+        ResourceFinder sourceFinder,
+        String         optionalCharacterEncoding,
+        IClassLoader   parentIClassLoader
     ) {
         super(parentClassLoader);
 
         this.iClassLoader = new JavaSourceIClassLoader(
-            sourceFinder,                                  // sourceFinder
-            optionalCharacterEncoding,                     // optionalCharacterEncoding
-            this.unitCompilers,                            // unitCompilers
-            new ClassLoaderIClassLoader(parentClassLoader) // optionalParentIClassLoader
+            sourceFinder,              // sourceFinder
+            optionalCharacterEncoding, // optionalCharacterEncoding
+            this.unitCompilers,        // unitCompilers
+            parentIClassLoader         // optionalParentIClassLoader
         );
     }
 
     @Override public void
     setSourcePath(File[] sourcePath) {
-        this.iClassLoader.setSourceFinder(new PathResourceFinder(sourcePath));
+        this.setSourceFinder(new PathResourceFinder(sourcePath));
+    }
+
+    /**
+     * @param sourceFinder Used to locate additional source files
+     */
+    public void
+    setSourceFinder(ResourceFinder sourceFinder) {
+        this.iClassLoader.setSourceFinder(sourceFinder);
     }
 
     @Override public void
@@ -158,31 +192,44 @@ class JavaSourceClassLoader extends AbstractJavaSourceClassLoader {
 
     /**
      * Implementation of {@link ClassLoader#findClass(String)}.
+     * <p>
+     * This class loader is parallel-capable, i.e. {@link #loadClass(String)} locks per class name rather than on the
+     * entire class loader. Loading classes through the parent class loader and defining already-compiled classes
+     * happen concurrently. Scanning, parsing and compiling, however, are serialized through the lock on {@link
+     * #unitCompilers}, because all compilation units of this class loader share one graph of {@link IClass}es, which
+     * is not safe for concurrent compilation.
      *
      * @throws ClassNotFoundException
      */
-    @Override protected /*synchronized <- No need to synchronize, because 'loadClass()' is synchronized */ Class
+    @Override protected Class
     findClass(String name) throws ClassNotFoundException {
 
         // Check if the bytecode for that class was generated already.
         byte[] bytecode = (byte[]) this.precompiledClasses.remove(name);
         if (bytecode == null) {
+            synchronized (this.unitCompilers) {
 
-            // Read, scan, parse and compile the right compilation unit.
-            {
-                Map bytecodes = this.generateBytecodes(name);
-                if (bytecodes == null) throw new ClassNotFoundException(name);
-                this.precompiledClasses.putAll(bytecodes);
-            }
+                // Another thread may have compiled the class while we were waiting for the lock.
+                bytecode = (byte[]) this.precompiledClasses.remove(name);
+                if (bytecode == null) {
 
-            // Now the bytecode for our class should be available.
-            bytecode = (byte[]) this.precompiledClasses.remove(name);
-            if (bytecode == null) {
-                throw new JaninoRuntimeException(
-                    "SNO: Scanning, parsing and compiling class \""
-                    + name
-                    + "\" did not create a class file!?"
-                );
+                    // Read, scan, parse and compile the right compilation unit.
+                    {
+                        Map bytecodes = this.generateBytecodes(name);
+                        if (bytecodes == null) throw new ClassNotFoundException(name);
+                        this.precompiledClasses.putAll(bytecodes);
+                    }
+
+                    // Now the bytecode for our class should be available.
+                    bytecode = (byte[]) this.precompiledClasses.remove(name);
+                    if (bytecode == null) {
+                        throw new JaninoRuntimeException(
+                            "SNO: Scanning, parsing and compiling class \""
+                            + name
+                            + "\" did not create a class file!?"
+                        );
+                    }
+                }
             }
         }
 
@@ -194,12 +241,15 @@ class JavaSourceClassLoader extends AbstractJavaSourceClassLoader {
      * yet defined i.e. which were not yet passed to
      * {@link ClassLoader#defineClass(java.lang.String, byte[], int, int)}.
      */
-    private Map precompiledClasses = new HashMap(); // String name => byte[] bytecode
+    private final Map precompiledClasses = new ConcurrentHashMap(); // String name => byte[] bytecode
 
     /**
      * Find, scan, parse the right compilation unit. Compile the parsed compilation unit to
      * bytecode. This may cause more compilation units being scanned and parsed. Continue until
      * all compilation units are compiled.
+     * <p>
+     * Is only invoked while holding the lock on {@link #unitCompilers}, which guards the shared graph of {@link
+     * IClass}es.
      *
      * @return String name => byte[] bytecode, or <code>null</code> if no source code could be found
      * @throws ClassNotFoundException on compilation problems
@@ -208,31 +258,38 @@ class JavaSourceClassLoader extends AbstractJavaSourceClassLoader {
     generateBytecodes(String name) throws ClassNotFoundException {
         if (this.iClassLoader.loadIClass(Descriptor.fromClassName(name)) == null) return null;
 
-        Map/*<String name, byte[] bytecode>*/ bytecodes             = new HashMap();
-        Set                                   compiledUnitCompilers = new HashSet();
-        COMPILE_UNITS:
-        for (;;) {
-            for (Iterator it = this.unitCompilers.iterator(); it.hasNext();) {
-                UnitCompiler uc = (UnitCompiler) it.next();
-                if (!compiledUnitCompilers.contains(uc)) {
-                    ClassFile[] cfs;
-                    try {
-                        cfs = uc.compileUnit(this.debugSource, this.debugLines, this.debugVars);
-                    } catch (CompileException ex) {
-                        throw new ClassNotFoundException(ex.getMessage(), ex);
-                    }
-                    for (int i = 0; i < cfs.length; ++i) {
-                        ClassFile cf = cfs[i];
-                        bytecodes.put(cf.getThisClassName(), cf.toByteArray());
-                    }
-                    compiledUnitCompilers.add(uc);
-                    continue COMPILE_UNITS;
-                }
+        // Compiling a unit may parse more units, which "this.iClassLoader" appends to the work queue. A unit leaves
+        // the queue only when it compiled successfully.
+        Map/*<String name, byte[] bytecode>*/ bytecodes = new HashMap();
+        while (!this.unitCompilers.isEmpty()) {
+            UnitCompiler uc = (UnitCompiler) this.unitCompilers.iterator().next();
+            ClassFile[]  cfs;
+            try {
+                cfs = uc.compileUnit(this.debugSource, this.debugLines, this.debugVars);
+            } catch (CompileException ex) {
+                throw new ClassNotFoundException(ex.getMessage(), ex);
+            }
+            this.unitCompilers.remove(uc);
+            Map/*<String name, byte[] bytecode>*/ unitBytecodes = new HashMap();
+            for (int i = 0; i < cfs.length; ++i) {
+                ClassFile cf = cfs[i];
+                unitBytecodes.put(cf.getThisClassName(), cf.toByteArray());
             }
-            return bytecodes;
+            this.unitCompiled(uc, unitBytecodes);
+            bytecodes.putAll(unitBytecodes);
         }
+        return bytecodes;
     }
 
+    /**
+     * Invoked by {@link #generateBytecodes(String)} after it has compiled a compilation unit, while holding the
+     * lock that guards the shared graph of {@link IClass}es. This implementation does nothing.
+     *
+     * @param bytecodes String name => byte[] bytecode of the classes declared in the compilation unit
+     */
+    protected void
+    unitCompiled(UnitCompiler unitCompiler, Map bytecodes) {}
+
     /**
      * @see #setProtectionDomainFactory
      *
@@ -255,7 +312,8 @@ class JavaSourceClassLoader extends AbstractJavaSourceClassLoader {
     private boolean debugVars   = this.debugSource;
 
     /**
-     * Collection of parsed, but uncompiled compilation units.
+     * Collection of parsed, but uncompiled compilation units, in the order they were parsed. Its monitor serializes
+     * {@link #generateBytecodes(String)}.
      */
-    private final Set unitCompilers = new HashSet(); // UnitCompiler
+    private final Set unitCompilers = new LinkedHashSet(); // UnitCompiler
 }
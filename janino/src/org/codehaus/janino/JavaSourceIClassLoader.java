@@ -47,15 +47,17 @@ class JavaSourceIClassLoader extends IClassLoader {
     private ResourceFinder            sourceFinder;
     private String                    optionalCharacterEncoding;
     private final Set                 unitCompilers; // UnitCompiler
+    private final Map                 unitCompilersByClassName = new HashMap(); // String className => UnitCompiler
     private UnitCompiler.ErrorHandler optionalCompileErrorHandler;
     private WarningHandler            optionalWarningHandler;
 
     /**
-     * Notice that the <code>unitCompilers</code> set is both read and written
-     * by the {@link JavaSourceIClassLoader}: As it searches for {@link IClass}es, it looks
-     * into <code>unitCompilers</code> for class declarations, and as it opens,
-     * scans and parses compilation units on-the-fly, it adds them to
-     * <code>unitCompilers</code>.
+     * Notice that the <code>unitCompilers</code> set is written by the {@link JavaSourceIClassLoader}: As it opens,
+     * scans and parses compilation units on-the-fly, it adds them to <code>unitCompilers</code>. Thus the caller can
+     * use that set as a work queue of units to compile, and remove units from it as it compiles them.
+     * <p>
+     * The {@link JavaSourceIClassLoader} itself looks up the class declarations of the compilation units it parsed
+     * through an index by class name, which is independent from the <code>unitCompilers</code> set.
      */
     public
     JavaSourceIClassLoader(
@@ -103,7 +105,7 @@ class JavaSourceIClassLoader extends IClassLoader {
      * @param fieldDescriptor         Field descriptor of the {@link IClass} to load, e.g. "Lpkg1/pkg2/Outer$Inner;"
      * @throws ClassNotFoundException An exception was raised while loading the {@link IClass}
      */
-    @Override public IClass
+    @Override public synchronized IClass
     findIClass(final String fieldDescriptor) throws ClassNotFoundException {
         if (JavaSourceIClassLoader.DEBUG) System.out.println("type = " + fieldDescriptor);
 
@@ -122,14 +124,11 @@ class JavaSourceIClassLoader extends IClassLoader {
         }
 
         // Check the already-parsed compilation units.
-        for (Iterator it = this.unitCompilers.iterator(); it.hasNext();) {
-            UnitCompiler uc  = (UnitCompiler) it.next();
-            IClass       res = uc.findClass(topLevelClassName);
-            if (res != null) {
-                if (!className.equals(topLevelClassName)) {
-                    res = uc.findClass(className);
-                    if (res == null) return null;
-                }
+        {
+            UnitCompiler uc = (UnitCompiler) this.unitCompilersByClassName.get(topLevelClassName);
+            if (uc != null) {
+                IClass res = uc.findClass(className);
+                if (res == null) return null;
                 this.defineIClass(res);
                 return res;
             }
@@ -162,8 +161,17 @@ class JavaSourceIClassLoader extends IClassLoader {
             uc.setCompileErrorHandler(this.optionalCompileErrorHandler);
             uc.setWarningHandler(this.optionalWarningHandler);
 
-            // Remember compilation unit for later compilation.
+            // Remember compilation unit for later compilation, and index its top-level types.
             this.unitCompilers.add(uc);
+            {
+                Java.PackageMemberTypeDeclaration[] pmtds = cu.getPackageMemberTypeDeclarations();
+                for (int i = 0; i < pmtds.length; ++i) {
+                    String pmtdClassName = pmtds[i].getClassName();
+                    if (!this.unitCompilersByClassName.containsKey(pmtdClassName)) {
+                        this.unitCompilersByClassName.put(pmtdClassName, uc);
+                    }
+                }
+            }
 
             // Find the class/interface declaration in the compiled unit.
             IClass res = uc.findClass(className);
@@ -0,0 +1,323 @@
+
+/*
+ * Janino - An embedded Java[TM] compiler
+ *
+ * Copyright (c) 2001-2010, Arno Unkrig
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *       following disclaimer.
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *       following disclaimer in the documentation and/or other materials provided with the distribution.
+ *    3. The name of the author may not be used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.codehaus.janino;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.codehaus.commons.compiler.CompileException;
+import org.codehaus.janino.Java.AmbiguousName;
+import org.codehaus.janino.Java.Atom;
+import org.codehaus.janino.Java.BinaryOperation;
+import org.codehaus.janino.Java.Cast;
+import org.codehaus.janino.Java.CharacterLiteral;
+import org.codehaus.janino.Java.ConditionalExpression;
+import org.codehaus.janino.Java.FloatingPointLiteral;
+import org.codehaus.janino.Java.IntegerLiteral;
+import org.codehaus.janino.Java.Literal;
+import org.codehaus.janino.Java.ModifiersAndAnnotations;
+import org.codehaus.janino.Java.NullLiteral;
+import org.codehaus.janino.Java.ParenthesizedExpression;
+import org.codehaus.janino.Java.Rvalue;
+import org.codehaus.janino.Java.Statement;
+import org.codehaus.janino.Java.StringLiteral;
+import org.codehaus.janino.Java.UnaryOperation;
+
+/**
+ * A {@link Parser} that replaces integer, floating-point, character and string literals with {@link AmbiguousName}s
+ * that reference synthetic variables, and records the literals' values. Scripts that differ only in their literals
+ * thus produce identical ASTs.
+ * <p>
+ * Boolean and {@code null} literals, integer literals that are only valid as the operand of a unary minus (e.g.
+ * "2147483648"), and all literals within SWITCH statements, modifiers and annotations are left as they are, because
+ * these typically must be constant expressions. Also the literals of operations that are constant-folded (e.g. "{@code
+ * 1 / 0}" or "{@code "a" + "b"}") are left as they are, so that hoisting does not change their semantics.
+ * <p>
+ * Hoisted string literals are {@link String#intern() interned}, like the constants of a class file.
+ */
+@SuppressWarnings({ "rawtypes", "unchecked" }) final
+class LiteralHoistingParser extends Parser {
+
+    private final String       namePrefix;
+    private final UnitCompiler unitCompiler = new UnitCompiler(new Java.CompilationUnit(null), null);
+    private int                suppressionDepth;
+
+    private final List/*<String>*/ names  = new ArrayList();
+    private final List/*<Class>*/  types  = new ArrayList();
+    private final List/*<Object>*/ values = new ArrayList();
+
+    private final Map/*<String, Rvalue>*/ hoistedLiterals = new HashMap(); // name => literal
+
+    /**
+     * @param namePrefix The synthetic variables are named <var>namePrefix</var>0, <var>namePrefix</var>1, ...
+     */
+    LiteralHoistingParser(Scanner scanner, String namePrefix) {
+        super(scanner);
+        this.namePrefix = namePrefix;
+    }
+
+    /** @return The names of the synthetic variables that replace the hoisted literals */
+    public String[]
+    getHoistedNames() { return (String[]) this.names.toArray(new String[this.names.size()]); }
+
+    /** @return The types of the hoisted literals, e.g. {@code int.class} or {@code String.class} */
+    public Class[]
+    getHoistedTypes() { return (Class[]) this.types.toArray(new Class[this.types.size()]); }
+
+    /** @return The (wrapped) values of the hoisted literals */
+    public Object[]
+    getHoistedValues() { return this.values.toArray(); }
+
+    @Override public Rvalue
+    parseLiteral() throws CompileException, IOException {
+        Rvalue literal = super.parseLiteral();
+        if (this.suppressionDepth > 0) return literal;
+
+        if (literal instanceof IntegerLiteral || literal instanceof FloatingPointLiteral) {
+            Object value;
+            try {
+                value = this.unitCompiler.getConstantValue(literal);
+            } catch (CompileException ce) {
+
+                // E.g. "2147483648", which is only valid as the operand of a unary minus.
+                return literal;
+            }
+            Class type = (
+                value instanceof Integer ? int.class :
+                value instanceof Long    ? long.class :
+                value instanceof Float   ? float.class :
+                double.class
+            );
+            return this.hoist(literal, type, value);
+        }
+        if (literal instanceof CharacterLiteral) {
+            return this.hoist(literal, char.class, this.unitCompiler.getConstantValue(literal));
+        }
+        if (literal instanceof StringLiteral) {
+            return this.hoist(literal, String.class, ((String) this.unitCompiler.getConstantValue(literal)).intern());
+        }
+        return literal;
+    }
+
+    private Rvalue
+    hoist(Rvalue literal, Class type, Object value) {
+        String name = this.namePrefix + this.names.size();
+        this.names.add(name);
+        this.types.add(type);
+        this.values.add(value);
+        this.hoistedLiterals.put(name, literal);
+        return new AmbiguousName(literal.getLocation(), new String[] { name });
+    }
+
+    @Override public Atom
+    parseConditionalExpression() throws CompileException, IOException {
+        Atom a = super.parseConditionalExpression();
+        return a instanceof Rvalue ? this.restoreConstantOperations((Rvalue) a) : a;
+    }
+
+    /**
+     * @return <var>rv</var>, with the hoisted literals of its constant operations (with two or more literal operands)
+     *         put back in place
+     */
+    private Rvalue
+    restoreConstantOperations(Rvalue rv) {
+        if (this.countLiterals(rv) >= 2) return this.restoreLiterals(rv);
+
+        if (rv instanceof BinaryOperation) {
+            BinaryOperation bo  = (BinaryOperation) rv;
+            Rvalue          lhs = this.restoreConstantOperations(bo.lhs);
+            Rvalue          rhs = this.restoreConstantOperations(bo.rhs);
+            return lhs == bo.lhs && rhs == bo.rhs ? rv : new BinaryOperation(bo.getLocation(), lhs, bo.op, rhs);
+        } else
+        if (rv instanceof UnaryOperation) {
+            UnaryOperation uo      = (UnaryOperation) rv;
+            Rvalue         operand = this.restoreConstantOperations(uo.operand);
+            return operand == uo.operand ? rv : new UnaryOperation(uo.getLocation(), uo.operator, operand);
+        } else
+        if (rv instanceof ParenthesizedExpression) {
+            ParenthesizedExpression pe    = (ParenthesizedExpression) rv;
+            Rvalue                  value = this.restoreConstantOperations(pe.value);
+            return value == pe.value ? rv : new ParenthesizedExpression(pe.getLocation(), value);
+        } else
+        if (rv instanceof Cast) {
+            Cast   c     = (Cast) rv;
+            Rvalue value = this.restoreConstantOperations(c.value);
+            return value == c.value ? rv : new Cast(c.getLocation(), c.targetType, value);
+        } else
+        if (rv instanceof ConditionalExpression) {
+            ConditionalExpression ce  = (ConditionalExpression) rv;
+            Rvalue                lhs = this.restoreConstantOperations(ce.lhs);
+            Rvalue                mhs = this.restoreConstantOperations(ce.mhs);
+            Rvalue                rhs = this.restoreConstantOperations(ce.rhs);
+            return (
+                lhs == ce.lhs && mhs == ce.mhs && rhs == ce.rhs
+                ? rv
+                : new ConditionalExpression(ce.getLocation(), lhs, mhs, rhs)
+            );
+        } else
+        {
+            return rv;
+        }
+    }
+
+    /**
+     * @return The number of (hoisted or non-hoisted) literals in <var>rv</var>, or -1 iff <var>rv</var> is not
+     *         composed of literals and operators only
+     */
+    private int
+    countLiterals(Rvalue rv) {
+        if (rv instanceof NullLiteral) return -1;
+        if (rv instanceof Literal || this.getHoistedLiteral(rv) != null) return 1;
+
+        Rvalue[] operands;
+        if (rv instanceof BinaryOperation) {
+            operands = new Rvalue[] { ((BinaryOperation) rv).lhs, ((BinaryOperation) rv).rhs };
+        } else
+        if (rv instanceof UnaryOperation) {
+            operands = new Rvalue[] { ((UnaryOperation) rv).operand };
+        } else
+        if (rv instanceof ParenthesizedExpression) {
+            operands = new Rvalue[] { ((ParenthesizedExpression) rv).value };
+        } else
+        if (rv instanceof Cast) {
+            operands = new Rvalue[] { ((Cast) rv).value };
+        } else
+        if (rv instanceof ConditionalExpression) {
+            ConditionalExpression ce = (ConditionalExpression) rv;
+            operands = new Rvalue[] { ce.lhs, ce.mhs, ce.rhs };
+        } else
+        {
+            return -1;
+        }
+
+        int result = 0;
+        for (int i = 0; i < operands.length; ++i) {
+            int n = this.countLiterals(operands[i]);
+            if (n == -1) return -1;
+            result += n;
+        }
+        return result;
+    }
+
+    /**
+     * @return <var>rv</var>, with all hoisted literals put back in place
+     */
+    private Rvalue
+    restoreLiterals(Rvalue rv) {
+        Rvalue literal = this.getHoistedLiteral(rv);
+        if (literal != null) {
+            String name  = ((AmbiguousName) rv).identifiers[0];
+            int    index = this.names.indexOf(name);
+            this.names.remove(index);
+            this.types.remove(index);
+            this.values.remove(index);
+            this.hoistedLiterals.remove(name);
+            return literal;
+        }
+
+        if (rv instanceof BinaryOperation) {
+            BinaryOperation bo = (BinaryOperation) rv;
+            return new BinaryOperation(
+                bo.getLocation(),
+                this.restoreLiterals(bo.lhs),
+                bo.op,
+                this.restoreLiterals(bo.rhs)
+            );
+        } else
+        if (rv instanceof UnaryOperation) {
+            UnaryOperation uo = (UnaryOperation) rv;
+            return new UnaryOperation(uo.getLocation(), uo.operator, this.restoreLiterals(uo.operand));
+        } else
+        if (rv instanceof ParenthesizedExpression) {
+            ParenthesizedExpression pe = (ParenthesizedExpression) rv;
+            return new ParenthesizedExpression(pe.getLocation(), this.restoreLiterals(pe.value));
+        } else
+        if (rv instanceof Cast) {
+            Cast c = (Cast) rv;
+            return new Cast(c.getLocation(), c.targetType, this.restoreLiterals(c.value));
+        } else
+        if (rv instanceof ConditionalExpression) {
+            ConditionalExpression ce = (ConditionalExpression) rv;
+            return new ConditionalExpression(
+                ce.getLocation(),
+                this.restoreLiterals(ce.lhs),
+                this.restoreLiterals(ce.mhs),
+                this.restoreLiterals(ce.rhs)
+            );
+        } else
+        {
+            return rv;
+        }
+    }
+
+    /**
+     * @return The literal that the synthetic variable <var>rv</var> replaces, or {@code null} iff <var>rv</var> is
+     *         not a synthetic variable
+     */
+    private Rvalue
+    getHoistedLiteral(Rvalue rv) {
+        if (!(rv instanceof AmbiguousName)) return null;
+        AmbiguousName an = (AmbiguousName) rv;
+        return an.n == 1 ? (Rvalue) this.hoistedLiterals.get(an.identifiers[0]) : null;
+    }
+
+    /**
+     * @return Whether <var>ce</var>, which compiling the hoisted form of a script produced, is possibly caused by
+     *         hoisting, i.e. by a literal that had to be a constant expression (as in "{@code byte b = 7;}")
+     */
+    public static boolean
+    isPossiblyCausedByHoisting(CompileException ce) {
+        String message = ce.getMessage();
+        return (
+            message.indexOf("Assignment conversion not possible") != -1
+            || message.indexOf("does not pose a constant value") != -1
+        );
+    }
+
+    @Override public Statement
+    parseSwitchStatement() throws CompileException, IOException {
+        ++this.suppressionDepth;
+        try {
+            return super.parseSwitchStatement();
+        } finally {
+            --this.suppressionDepth;
+        }
+    }
+
+    @Override public ModifiersAndAnnotations
+    parseModifiersAndAnnotations() throws CompileException, IOException {
+        ++this.suppressionDepth;
+        try {
+            return super.parseModifiersAndAnnotations();
+        } finally {
+            --this.suppressionDepth;
+        }
+    }
+}
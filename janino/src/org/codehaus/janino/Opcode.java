@@ -466,8 +466,8 @@ class Opcode {
         /*GOTO*/            Opcode.SD_P0 | Opcode.OP1_BO2 | Opcode.NO_FALLTHROUGH,
         /*JSR*/             Opcode.SD_P0 | Opcode.OP1_JSR,
         /*RET*/             Opcode.SD_P0 | Opcode.OP1_LV1 | Opcode.NO_FALLTHROUGH,
-/*170*/ /*TABLESWITCH*/     Opcode.SD_M1 | Opcode.OP1_TABLESWITCH,
-        /*LOOKUPSWITCH*/    Opcode.SD_M1 | Opcode.OP1_LOOKUPSWITCH,
+/*170*/ /*TABLESWITCH*/     Opcode.SD_M1 | Opcode.OP1_TABLESWITCH | Opcode.NO_FALLTHROUGH,
+        /*LOOKUPSWITCH*/    Opcode.SD_M1 | Opcode.OP1_LOOKUPSWITCH | Opcode.NO_FALLTHROUGH,
         /*IRETURN*/         Opcode.SD_0 | Opcode.NO_FALLTHROUGH,
         /*LRETURN*/         Opcode.SD_0 | Opcode.NO_FALLTHROUGH,
         /*FRETURN*/         Opcode.SD_0 | Opcode.NO_FALLTHROUGH,
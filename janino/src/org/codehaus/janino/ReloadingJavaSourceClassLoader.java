@@ -0,0 +1,478 @@
+
+/*
+ * Janino - An embedded Java[TM] compiler
+ *
+ * Copyright (c) 2001-2010, Arno Unkrig
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *       following disclaimer.
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *       following disclaimer in the documentation and/or other materials provided with the distribution.
+ *    3. The name of the author may not be used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.codehaus.janino;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import org.codehaus.commons.compiler.ICookable;
+import org.codehaus.janino.Java.PackageMemberTypeDeclaration;
+import org.codehaus.janino.util.ClassFile;
+import org.codehaus.janino.util.resource.FileResource;
+import org.codehaus.janino.util.resource.MapResourceFinder;
+import org.codehaus.janino.util.resource.Resource;
+import org.codehaus.janino.util.resource.ResourceFinder;
+
+/**
+ * A {@link JavaSourceClassLoader} that keeps track of the source files that its classes were compiled from, and can
+ * produce a new <i>generation</i> of itself when these change.
+ * <p>
+ * As with any {@link ClassLoader}, classes cannot be updated after they have been loaded. Instead, {@link #reload()}
+ * checks the source files of all compilation units that this loader compiled, and, if any of them was modified or
+ * deleted, creates a new {@link ReloadingJavaSourceClassLoader}. That new generation recompiles only the modified
+ * compilation units and the compilation units that depend on them, directly or indirectly; the bytecode of all other
+ * compilation units is reused as-is. Classes that this loader has not compiled yet are compiled by the new generation
+ * as usual.
+ * <p>
+ * Source files that are {@link FileResource}s (e.g. found through a {@link
+ * org.codehaus.janino.util.resource.DirectoryResourceFinder} or a {@link
+ * org.codehaus.janino.util.resource.PathResourceFinder}) are watched through a {@link WatchService}, so checking them
+ * is cheap. Notice that some file systems deliver the change notifications with a delay. Modifications of all other
+ * source files are detected through {@link Resource#lastModified()}, so the source finder must support that property.
+ * {@link #close()} releases the {@link WatchService}.
+ * <p>
+ * A typical application polls for modifications:
+ * <pre>
+ *     ReloadingJavaSourceClassLoader cl = new ReloadingJavaSourceClassLoader(parent, sourceFinder, null);
+ *     for (;;) {
+ *         cl = cl.reload();
+ *         cl.loadClass("pkg.Main").getMethod("run", new Class[0]).invoke(null, new Object[0]);
+ *         Thread.sleep(1000);
+ *     }
+ * </pre>
+ */
+@SuppressWarnings({ "rawtypes", "unchecked" }) public
+class ReloadingJavaSourceClassLoader extends JavaSourceClassLoader {
+
+    static {
+        ClassLoader.registerAsParallelCapable();
+    }
+
+    /**
+     * @param parentClassLoader         See {@link ClassLoader}
+     * @param sourceFinder              Used to locate additional source files; must support {@link
+     *                                  Resource#lastModified()} unless it finds {@link FileResource}s
+     * @param optionalCharacterEncoding The encoding of the Java&trade; source files (<code>null</code> for platform
+     *                                  default encoding)
+     */
+    public
+    ReloadingJavaSourceClassLoader(
+        ClassLoader    parentClassLoader,
+        ResourceFinder sourceFinder,
+        String         optionalCharacterEncoding
+    ) {
+        this(
+            parentClassLoader,                                   // parentClassLoader
+            new SourceFinder(sourceFinder, new SourceWatcher()), // sourceFinder
+            optionalCharacterEncoding,                           // optionalCharacterEncoding
+            new HashMap(),                                       // reusedUnits
+            new HashMap()                                        // reusedClassFiles
+        );
+    }
+
+    private
+    ReloadingJavaSourceClassLoader(
+        ClassLoader  parentClassLoader,
+        SourceFinder sourceFinder,
+        String       optionalCharacterEncoding,
+        Map          reusedUnits,     // String sourceResourceName => Unit
+        Map          reusedClassFiles // String classFileResourceName => byte[] bytecode
+    ) {
+        super(
+            parentClassLoader,                          // parentClassLoader
+            sourceFinder,                               // sourceFinder
+            optionalCharacterEncoding,                  // optionalCharacterEncoding
+            new ResourceFinderIClassLoader(             // parentIClassLoader
+                new MapResourceFinder(reusedClassFiles),
+                new ClassLoaderIClassLoader(parentClassLoader)
+            )
+        );
+        this.sourceFinder              = sourceFinder;
+        this.optionalCharacterEncoding = optionalCharacterEncoding;
+        this.units.putAll(reusedUnits);
+        this.reusedClassFiles          = reusedClassFiles;
+    }
+
+    @Override public void
+    setSourceFinder(ResourceFinder sourceFinder) {
+        this.sourceFinder = new SourceFinder(sourceFinder, this.sourceFinder.watcher);
+        super.setSourceFinder(this.sourceFinder);
+    }
+
+    @Override public void
+    setSourceFileCharacterEncoding(String optionalCharacterEncoding) {
+        super.setSourceFileCharacterEncoding(optionalCharacterEncoding);
+        this.optionalCharacterEncoding = optionalCharacterEncoding;
+    }
+
+    @Override public void
+    setDebuggingInfo(boolean debugSource, boolean debugLines, boolean debugVars) {
+        super.setDebuggingInfo(debugSource, debugLines, debugVars);
+        this.debugSource = debugSource;
+        this.debugLines  = debugLines;
+        this.debugVars   = debugVars;
+    }
+
+    @Override public void
+    setCompileErrorHandler(UnitCompiler.ErrorHandler optionalCompileErrorHandler) {
+        super.setCompileErrorHandler(optionalCompileErrorHandler);
+        this.optionalCompileErrorHandler = optionalCompileErrorHandler;
+    }
+
+    @Override public void
+    setWarningHandler(WarningHandler optionalWarningHandler) {
+        super.setWarningHandler(optionalWarningHandler);
+        this.optionalWarningHandler = optionalWarningHandler;
+    }
+
+    /**
+     * Checks whether any of the source files that this loader compiled was modified or deleted since.
+     *
+     * @return This loader if no source file changed, otherwise a new generation that is configured like this loader,
+     *         and that reuses the bytecode of all compilation units that are not affected by the changes
+     */
+    public ReloadingJavaSourceClassLoader
+    reload() {
+        Map units; // String sourceResourceName => Unit
+        synchronized (this.units) {
+            units = new HashMap(this.units);
+        }
+
+        // Determine the units whose source files were modified or deleted.
+        Set invalidUnits = new HashSet(); // Unit
+        for (Iterator it = units.values().iterator(); it.hasNext();) {
+            Unit unit = (Unit) it.next();
+
+            // Prefer the watcher; fall back to the modification time if the source file is (no longer) watched.
+            if (unit.stamp != -1) {
+                long stamp = this.sourceFinder.watcher.getStamp(unit.optionalFile);
+                if (stamp != -1) {
+                    if (stamp != unit.stamp) invalidUnits.add(unit);
+                    continue;
+                }
+            }
+
+            Resource sourceResource = this.sourceFinder.delegate.findResource(unit.sourceResourceName);
+            if (sourceResource == null || sourceResource.lastModified() != unit.lastModified) invalidUnits.add(unit);
+        }
+        if (invalidUnits.isEmpty()) return this;
+
+        // Also invalidate the units that depend on invalid units, directly or indirectly.
+        {
+            Map unitsByType = new HashMap(); // String fd => Unit
+            for (Iterator it = units.values().iterator(); it.hasNext();) {
+                Unit unit = (Unit) it.next();
+                for (Iterator it2 = unit.bytecodes.keySet().iterator(); it2.hasNext();) {
+                    unitsByType.put(Descriptor.fromClassName((String) it2.next()), unit);
+                }
+            }
+            for (boolean changed = true; changed;) {
+                changed = false;
+                for (Iterator it = units.values().iterator(); it.hasNext();) {
+                    Unit unit = (Unit) it.next();
+                    if (invalidUnits.contains(unit)) continue;
+                    for (Iterator it2 = unit.referencedTypes.iterator(); it2.hasNext();) {
+                        if (invalidUnits.contains(unitsByType.get(it2.next()))) {
+                            invalidUnits.add(unit);
+                            changed = true;
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+
+        // Hand the remaining units over to the new generation.
+        Map reusedUnits      = new HashMap(); // String sourceResourceName => Unit
+        Map reusedClassFiles = new HashMap(); // String classFileResourceName => byte[] bytecode
+        for (Iterator it = units.entrySet().iterator(); it.hasNext();) {
+            Map.Entry e    = (Map.Entry) it.next();
+            Unit      unit = (Unit) e.getValue();
+            if (invalidUnits.contains(unit)) continue;
+            reusedUnits.put(e.getKey(), unit);
+            for (Iterator it2 = unit.bytecodes.entrySet().iterator(); it2.hasNext();) {
+                Map.Entry e2 = (Map.Entry) it2.next();
+                reusedClassFiles.put(ClassFile.getClassFileResourceName((String) e2.getKey()), e2.getValue());
+            }
+        }
+
+        ReloadingJavaSourceClassLoader result = new ReloadingJavaSourceClassLoader(
+            this.getParent(),                                                          // parentClassLoader
+            new SourceFinder(this.sourceFinder.delegate, this.sourceFinder.watcher), // sourceFinder
+            this.optionalCharacterEncoding,                                            // optionalCharacterEncoding
+            reusedUnits,                                                               // reusedUnits
+            reusedClassFiles                                                           // reusedClassFiles
+        );
+        result.setDebuggingInfo(this.debugSource, this.debugLines, this.debugVars);
+        result.setCompileErrorHandler(this.optionalCompileErrorHandler);
+        result.setWarningHandler(this.optionalWarningHandler);
+        result.setProtectionDomainFactory(this.optionalProtectionDomainFactory);
+        return result;
+    }
+
+    /**
+     * Stops watching the source files. Affects this loader and all its generations, which henceforth check the
+     * modification times of the source files instead.
+     */
+    public void
+    close() { this.sourceFinder.watcher.close(); }
+
+    /**
+     * Defines the classes of the compilation units that the previous generation compiled and that are still
+     * up-to-date from their bytecode, and compiles all others.
+     */
+    @Override protected Map
+    generateBytecodes(String name) throws ClassNotFoundException {
+        byte[] bytecode = (byte[]) this.reusedClassFiles.get(ClassFile.getClassFileResourceName(name));
+        if (bytecode != null) return Collections.singletonMap(name, bytecode);
+
+        return super.generateBytecodes(name);
+    }
+
+    /**
+     * Remembers the source file and the dependencies of each compilation unit, and its bytecode for reuse by the next
+     * generation.
+     */
+    @Override protected void
+    unitCompiled(UnitCompiler unitCompiler, Map bytecodes) {
+
+        // Identify the source file that the unit was parsed from, and its modification time at that point.
+        PackageMemberTypeDeclaration[] pmtds = unitCompiler.compilationUnit.getPackageMemberTypeDeclarations();
+        for (int i = 0; i < pmtds.length; ++i) {
+            String sourceResourceName = ClassFile.getSourceResourceName(pmtds[i].getClassName());
+            Long   lastModified       = (Long) this.sourceFinder.lastModifieds.get(sourceResourceName);
+            if (lastModified != null) {
+                File optionalFile = (File) this.sourceFinder.files.get(sourceResourceName);
+                Long stamp        = (Long) this.sourceFinder.stamps.get(sourceResourceName);
+                synchronized (this.units) {
+                    this.units.put(sourceResourceName, new Unit(
+                        sourceResourceName,
+                        lastModified.longValue(),
+                        optionalFile,
+                        stamp == null ? -1 : stamp.longValue(),
+                        bytecodes,
+                        new HashSet(unitCompiler.getReferencedTypes())
+                    ));
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * A {@link ResourceFinder} that records the modification time of each resource that it finds, <i>before</i> the
+     * resource is read. Also starts watching the resources that are files.
+     */
+    private static final
+    class SourceFinder extends ResourceFinder {
+
+        final ResourceFinder delegate;
+        final SourceWatcher  watcher;
+        final Map            lastModifieds = Collections.synchronizedMap(new HashMap()); // String resourceName => Long
+        final Map            files         = Collections.synchronizedMap(new HashMap()); // String resourceName => File
+        final Map            stamps        = Collections.synchronizedMap(new HashMap()); // String resourceName => Long
+
+        SourceFinder(ResourceFinder delegate, SourceWatcher watcher) {
+            this.delegate = delegate;
+            this.watcher  = watcher;
+        }
+
+        @Override public Resource
+        findResource(String resourceName) {
+            Resource result = this.delegate.findResource(resourceName);
+            if (result == null) return null;
+
+            if (result instanceof FileResource) {
+                File file  = ((FileResource) result).getFile().getAbsoluteFile();
+                long stamp = this.watcher.watch(file);
+                if (stamp != -1) {
+                    this.files.put(resourceName, file);
+                    this.stamps.put(resourceName, new Long(stamp));
+                }
+            }
+            this.lastModifieds.put(resourceName, new Long(result.lastModified()));
+            return result;
+        }
+    }
+
+    /**
+     * Watches the directories of source files through a {@link WatchService}, which is created lazily. Shared by all
+     * generations of a loader.
+     */
+    private static final
+    class SourceWatcher {
+
+        private WatchService watchService;
+        private boolean      closed;
+        private final Set    directories = new HashSet(); // Path
+        private final Map    stamps      = new HashMap(); // Path file or directory => Long
+        private long         eventCount;
+
+        /**
+         * Starts watching the directory of the given file, unless that is already the case.
+         *
+         * @param file An absolute file
+         * @return     The current stamp of the file (see {@link #getStamp(File)}), or -1 if the file cannot be watched
+         */
+        synchronized long
+        watch(File file) {
+            if (this.closed) return -1;
+
+            try {
+                if (this.watchService == null) this.watchService = FileSystems.getDefault().newWatchService();
+
+                Path directory = file.toPath().getParent();
+                if (!this.directories.contains(directory)) {
+                    directory.register(this.watchService, new WatchEvent.Kind[] {
+                        StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE,
+                        StandardWatchEventKinds.ENTRY_MODIFY
+                    });
+                    this.directories.add(directory);
+                }
+            } catch (UnsupportedOperationException uoe) {
+                this.closed = true;
+                return -1;
+            } catch (IOException ioe) {
+                return -1;
+            }
+
+            return this.getStamp(file);
+        }
+
+        /**
+         * @param file An absolute file
+         * @return     A value that changes whenever the file is created, modified or deleted, or -1 if the file is
+         *             not watched (any more)
+         */
+        synchronized long
+        getStamp(File file) {
+            if (this.closed) return -1;
+
+            // Process the pending events.
+            for (WatchKey key = this.watchService.poll(); key != null; key = this.watchService.poll()) {
+                Path directory = (Path) key.watchable();
+                for (Iterator it = key.pollEvents().iterator(); it.hasNext();) {
+                    WatchEvent event = (WatchEvent) it.next();
+
+                    // On OVERFLOW, events were lost, so stamp the entire directory.
+                    this.stamps.put(
+                        (
+                            event.kind() == StandardWatchEventKinds.OVERFLOW
+                            ? directory
+                            : directory.resolve((Path) event.context())
+                        ),
+                        new Long(++this.eventCount)
+                    );
+                }
+                if (!key.reset()) this.directories.remove(directory);
+            }
+
+            Path path      = file.toPath();
+            Path directory = path.getParent();
+            if (!this.directories.contains(directory)) return -1;
+
+            Long fileStamp      = (Long) this.stamps.get(path);
+            Long directoryStamp = (Long) this.stamps.get(directory);
+            return Math.max(
+                fileStamp == null ? 0 : fileStamp.longValue(),
+                directoryStamp == null ? 0 : directoryStamp.longValue()
+            );
+        }
+
+        synchronized void
+        close() {
+            if (this.closed) return;
+            this.closed = true;
+            if (this.watchService == null) return;
+            try {
+                this.watchService.close();
+            } catch (IOException ioe) {
+                ;
+            }
+        }
+    }
+
+    /**
+     * What this loader knows about a compilation unit that it compiled.
+     */
+    private static final
+    class Unit {
+        final String sourceResourceName;
+        final long   lastModified;
+        final File   optionalFile;    // The watched source file
+        final long   stamp;           // The stamp of the watched source file, or -1
+        final Map    bytecodes;       // String className => byte[] bytecode
+        final Set    referencedTypes; // String fd
+
+        Unit(
+            String sourceResourceName,
+            long   lastModified,
+            File   optionalFile,
+            long   stamp,
+            Map    bytecodes,
+            Set    referencedTypes
+        ) {
+            this.sourceResourceName = sourceResourceName;
+            this.lastModified       = lastModified;
+            this.optionalFile       = optionalFile;
+            this.stamp              = stamp;
+            this.bytecodes          = bytecodes;
+            this.referencedTypes    = referencedTypes;
+        }
+    }
+
+    private SourceFinder              sourceFinder;
+    private String                    optionalCharacterEncoding;
+    private UnitCompiler.ErrorHandler optionalCompileErrorHandler;
+    private WarningHandler            optionalWarningHandler;
+
+    private boolean debugSource = Boolean.getBoolean(ICookable.SYSTEM_PROPERTY_SOURCE_DEBUGGING_ENABLE);
+    private boolean debugLines  = this.debugSource;
+    private boolean debugVars   = this.debugSource;
+
+    /**
+     * The compilation units that this loader compiled, or reused from the previous generation.
+     */
+    private final Map units = new HashMap(); // String sourceResourceName => Unit
+
+    /**
+     * The bytecode of the units reused from the previous generation.
+     */
+    private final Map reusedClassFiles; // String classFileResourceName => byte[] bytecode
+}
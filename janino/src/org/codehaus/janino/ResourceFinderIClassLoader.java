@@ -52,8 +52,11 @@ class ResourceFinderIClassLoader extends IClassLoader {
     findIClass(String descriptor) throws ClassNotFoundException {
         String className = Descriptor.toClassName(descriptor);
 
-        // Find the class file resource.
-        Resource classFileResource = this.resourceFinder.findResource(ClassFile.getClassFileResourceName(className));
+        // Find the class file resource. (Resource finders are generally not thread-safe.)
+        Resource classFileResource;
+        synchronized (this.resourceFinder) {
+            classFileResource = this.resourceFinder.findResource(ClassFile.getClassFileResourceName(className));
+        }
         if (classFileResource == null) return null;
 
         // Open the class file resource.
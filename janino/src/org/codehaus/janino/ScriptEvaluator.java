@@ -30,20 +30,31 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
 import java.io.StringReader;
+import java.io.StringWriter;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.codehaus.commons.compiler.CompileException;
 import org.codehaus.commons.compiler.Cookable;
 import org.codehaus.commons.compiler.IExpressionEvaluator;
 import org.codehaus.commons.compiler.IScriptEvaluator;
 import org.codehaus.commons.compiler.Location;
+import org.codehaus.commons.compiler.PrimitiveWrapper;
 import org.codehaus.janino.Java.AmbiguousName;
 import org.codehaus.janino.Java.LocalVariableDeclarationStatement;
 import org.codehaus.janino.util.Traverser;
@@ -68,7 +79,99 @@ class ScriptEvaluator extends ClassBodyEvaluator implements IScriptEvaluator {
     protected Class[][]  optionalParameterTypes;
     protected Class[][]  optionalThrownExceptions;
 
-    private Method[]     result; // null=uncooked
+    private Method[]     result; // null=uncooked or interpreted
+    private Invoker      invoker; // null=evaluate through reflection
+    private volatile Interpreter interpreter; // null=uncooked or compiled
+
+    // Per script; which scripts the invoker supports is determined when the class is loaded. All four are null iff
+    // there is no invoker.
+    private Class[][]  invokerParameterTypes;      // null element=not supported by "invoke()"
+    private double[][] invokerDoubleHoistedValues; // null element=not supported by "invokeDouble()"
+    private long[][]   invokerLongHoistedValues;   // null element=not supported by "invokeLong()"
+    private boolean[]  invokerBatch;               // false element=not supported by "invokeBatch()"
+
+    private boolean    hoistLiterals;
+    private boolean    generateInvoker;
+    private boolean    batchEvaluation;
+    private boolean    interpreted;
+    private int        compileThreshold; // 0=never compile interpreted scripts
+    private Executor   compileExecutor = ScriptEvaluator.DAEMON_THREAD_EXECUTOR;
+    private String[]   tieredFileNames;  // null=interpreted scripts will not be compiled
+    private String[]   tieredStrings;    // null=interpreted scripts will not be compiled
+
+    private final AtomicInteger evaluationCount = new AtomicInteger();
+    private Object[][] hoistedParameterValues; // per script; null=no literals hoisted into parameters
+    private Class[][]  hoistedParameterTypes;  // per script; null=no literals hoisted into parameters
+    private Class[]    hoistedFieldTypes;      // null=no literals hoisted into fields
+    private Object[]   hoistedFieldValues;     // null=no literals hoisted into fields
+
+    /**
+     * Up to this number of scripts, an {@link Invoker} is generated; for more scripts, its "invoke()" method could
+     * exceed the 64 KB code size limit.
+     */
+    private static final int MAX_INVOKER_SCRIPTS = 256;
+
+    /** Executes each task in a new daemon thread. */
+    private static final Executor DAEMON_THREAD_EXECUTOR = new Executor() {
+
+        @Override public void
+        execute(Runnable command) {
+            Thread thread = new Thread(command, "janino-tiered-compilation");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    };
+
+    /**
+     * Is implemented by a class that is generated together with the scripts, so that {@link #evaluate(int, Object[])}
+     * can invoke static script methods without the overhead of {@link Method#invoke(Object, Object[])}. Not intended
+     * for use by applications.
+     *
+     * @see #setGenerateInvoker(boolean)
+     */
+    public
+    interface Invoker {
+
+        /**
+         * Unpacks the <var>arguments</var> and invokes the <var>idx</var>th script method.
+         *
+         * @throws InvocationTargetException The script method threw an exception
+         * @throws RuntimeException          The <var>arguments</var> do not exactly match the script method's
+         *                                   parameters (other than through unboxing), or the script method is not
+         *                                   static
+         */
+        Object invoke(int idx, Object[] arguments) throws InvocationTargetException;
+
+        /**
+         * Casts the <var>arguments</var> to the parameter types of the <var>idx</var>th script method, invokes it,
+         * and casts its return value to {@code double}.
+         *
+         * @throws InvocationTargetException The script method threw an exception
+         * @throws RuntimeException          The script method has a parameter or return type that is not numeric
+         *                                   primitive, or is not static, or the number of <var>arguments</var> does
+         *                                   not match
+         */
+        double invokeDouble(int idx, double[] arguments) throws InvocationTargetException;
+
+        /**
+         * Same as {@link #invokeDouble(int, double[])}, but for {@code long} arguments and result.
+         */
+        long invokeLong(int idx, long[] arguments) throws InvocationTargetException;
+
+        /**
+         * Invokes the <var>idx</var>th script method once for each index in the range <var>from</var> (inclusive)
+         * ... <var>to</var> (exclusive), with the arguments taken from the <var>columns</var> and the return value
+         * stored in <var>out</var>.
+         *
+         * @throws InvocationTargetException The script method threw an exception
+         * @throws RuntimeException          Batch evaluation is not enabled, or the <var>columns</var> or
+         *                                   <var>out</var> do not match the script method's parameter and return
+         *                                   types
+         * @see                              ScriptEvaluator#setBatchEvaluation(boolean)
+         */
+        void
+        invokeBatch(int idx, Object[] columns, Object out, int from, int to) throws InvocationTargetException;
+    }
 
     /**
      * Equivalent to<pre>
@@ -379,6 +482,16 @@ class ScriptEvaluator extends ClassBodyEvaluator implements IScriptEvaluator {
         return this.evaluate(0, arguments);
     }
 
+    @Override public double
+    evaluateDouble(double[] arguments) throws InvocationTargetException {
+        return this.evaluateDouble(0, arguments);
+    }
+
+    @Override public long
+    evaluateLong(long[] arguments) throws InvocationTargetException {
+        return this.evaluateLong(0, arguments);
+    }
+
     @Override public Method
     getMethod() { return this.getMethod(0); }
 
@@ -428,6 +541,117 @@ class ScriptEvaluator extends ClassBodyEvaluator implements IScriptEvaluator {
         this.optionalThrownExceptions = thrownExceptions.clone();
     }
 
+    /**
+     * If <var>hoistLiterals</var> is {@code true}, then the integer, floating-point, character and string literals of
+     * the scripts are not compiled into the generated class. Instead, each static script method gets one extra
+     * (trailing) parameter per literal, and each non-static script method reads its literals from final fields,
+     * which the constructor of the generated class initializes. {@link #evaluate(int, Object[])} and {@link
+     * #createFastEvaluator(String, Class, String[])} pass the literal values transparently.
+     * <p>
+     * That way, scripts that differ only in their literals (e.g. "{@code x > 17}" and "{@code x > 42}") compile into
+     * identical classes, and, with an {@link EvaluatorCache}, share one class.
+     * <p>
+     * Literal hoisting applies only to the {@code cook()} methods that take {@link String}s. Literals that are
+     * constant-folded (as in "{@code 60 * 60}") are not hoisted, and hoisted string literals are interned. If a script
+     * with hoisted literals does not compile because a literal must be a constant expression (as in "{@code byte b =
+     * 7;}"), then the script is compiled again without literal hoisting; all other compilation errors are reported
+     * immediately.
+     * <p>
+     * Notice that {@link #getMethod(int)} returns a method with the extra parameters.
+     *
+     * @see #setEvaluatorCache(EvaluatorCache)
+     */
+    public void
+    setHoistLiterals(boolean hoistLiterals) {
+        assertNotCooked();
+        this.hoistLiterals = hoistLiterals;
+    }
+
+    /**
+     * If <var>generateInvoker</var> is {@code true}, then a second class is generated and loaded together with the
+     * scripts, through which {@link #evaluate(int, Object[])}, {@link #evaluateDouble(int, double[])} and {@link
+     * #evaluateLong(int, long[])} invoke the static scripts directly, without the overhead of {@link
+     * Method#invoke(Object, Object[])} and, for the latter two, without boxing.
+     * <p>
+     * That pays off for scripts that are evaluated many times, but makes cooking more expensive; thus, by default,
+     * the scripts are invoked through reflection. {@link #setBatchEvaluation(boolean) Batch evaluation} implies an
+     * invoker.
+     */
+    public void
+    setGenerateInvoker(boolean generateInvoker) {
+        assertNotCooked();
+        this.generateInvoker = generateInvoker;
+    }
+
+    /**
+     * If <var>batchEvaluation</var> is {@code true}, then a loop is generated for each static script, which
+     * {@link #evaluateBatch(int, Object[], Object, int, int)} executes. That way, evaluating a script over many rows
+     * of column data costs only one call, and the JIT sees one tight, monomorphic loop around the (inlined) script.
+     * <p>
+     * Without batch evaluation, {@link #evaluateBatch(int, Object[], Object, int, int)} evaluates the scripts row by
+     * row, through {@link #evaluate(int, Object[])}.
+     */
+    public void
+    setBatchEvaluation(boolean batchEvaluation) {
+        assertNotCooked();
+        this.batchEvaluation = batchEvaluation;
+    }
+
+    /**
+     * If <var>interpreted</var> is {@code true}, then the scripts are not loaded as a class. Instead, {@code cook()}
+     * only checks them (exactly like the compiler does, but discards the class file) and resolves their names, types
+     * and methods, and {@link #evaluate(int, Object[])} executes them by walking their syntax trees. For a script
+     * that is evaluated only once or a few times, that is much cheaper than loading and verifying a class; however
+     * each evaluation is much slower.
+     * <p>
+     * Only the statements and expressions that typically appear in scripts are supported; e.g. {@code this}, local
+     * and anonymous classes and the {@code synchronized} statement cause a {@link CompileException}, and so does
+     * access to a member that is not public, or whose declaring class is not public. Literal hoisting,
+     * the evaluator cache and {@link #setBatchEvaluation(boolean) batch evaluation} do not apply, and {@link
+     * #getMethod(int)} and {@link #getClassLoader()} are not available. {@link #createFastEvaluator(String, Class,
+     * String[])} returns a {@link Proxy}.
+     */
+    public void
+    setInterpreted(boolean interpreted) {
+        assertNotCooked();
+        this.interpreted = interpreted;
+    }
+
+    /**
+     * Enables "tiered" evaluation of {@link #setInterpreted(boolean) interpreted} scripts: As soon as the scripts have
+     * been evaluated <var>compileThreshold</var> times (by all threads, through any of the {@code evaluate...()}
+     * methods, counted together for all scripts), they are compiled in the background, and, when that is complete,
+     * all further evaluations execute the compiled code. The switch is atomic for each evaluation; evaluations
+     * that are in progress complete in the interpreter.
+     * <p>
+     * That way, scripts that are evaluated only a few times never pay for class generation, while "hot" scripts get
+     * full bytecode speed. Notice that the {@link #getMethod(int)} is available only after the switch.
+     * <p>
+     * Tiered evaluation applies only to the {@code cook()} methods that take {@link String}s or {@link Reader}s.
+     * If the background compilation fails, then the scripts remain interpreted.
+     *
+     * @param compileThreshold Zero disables tiered evaluation
+     * @see #setCompileExecutor(Executor)
+     */
+    public void
+    setCompileThreshold(int compileThreshold) {
+        assertNotCooked();
+        if (compileThreshold < 0) throw new IllegalArgumentException("compileThreshold");
+        this.compileThreshold = compileThreshold;
+    }
+
+    /**
+     * Configures the {@link Executor} that compiles the scripts in the background when the {@link
+     * #setCompileThreshold(int) compile threshold} is reached. By default, each compilation executes in a new daemon
+     * thread.
+     */
+    public void
+    setCompileExecutor(Executor compileExecutor) {
+        assertNotCooked();
+        if (compileExecutor == null) throw new NullPointerException();
+        this.compileExecutor = compileExecutor;
+    }
+
     /**
      * Like {@link #cook(Scanner)}, but cooks a <i>set</i> of scripts into one class. Notice that
      * if <i>any</i> of the scripts causes trouble, the entire compilation will fail. If you
@@ -464,6 +688,38 @@ class ScriptEvaluator extends ClassBodyEvaluator implements IScriptEvaluator {
 
     public final void
     cook(Parser[] parsers) throws CompileException, IOException {
+        String[] methodNames = this.getMethodNames(parsers.length);
+
+        Java.PackageMemberClassDeclaration cd = this.parseScripts(parsers, methodNames);
+
+        if (this.interpreted) {
+            List                    methods = cd.getMethodDeclarations();
+            Java.MethodDeclarator[] mds     = new Java.MethodDeclarator[methodNames.length];
+            for (int i = 0; i < mds.length; ++i) mds[i] = (Java.MethodDeclarator) methods.get(i);
+
+            // Check the scripts exactly like the compiler does (types, assignability, final variables, access to
+            // members), and discard the class files.
+            UnitCompiler unitCompiler = this.newUnitCompiler(cd.getDeclaringCompilationUnit());
+            unitCompiler.compileUnit(false, false, false);
+
+            this.interpreter = new Interpreter(unitCompiler, mds, this.getParentClassLoader());
+            return;
+        }
+
+        // Compile and load the compilation unit.
+        Class c = this.compileToClass(cd.getDeclaringCompilationUnit(), this.className);
+
+        // Find the script methods by name.
+        this.findMethods(c, methodNames);
+    }
+
+    /**
+     * Parses the scripts into the methods of a new class declaration.
+     *
+     * @return The new class declaration, which is enclosed by a new compilation unit
+     */
+    private Java.PackageMemberClassDeclaration
+    parseScripts(Parser[] parsers, String[] methodNames) throws CompileException, IOException {
 
         // The "dimension" of this ScriptEvaluator, i.e. how many scripts are cooked at the same
         // time.
@@ -496,17 +752,18 @@ class ScriptEvaluator extends ClassBodyEvaluator implements IScriptEvaluator {
         Java.CompilationUnit compilationUnit = this.makeCompilationUnit(count == 1 ? parsers[0] : null);
 
         // Create class declaration.
-        Java.ClassDeclaration cd = this.addPackageMemberClassDeclaration(parsers[0].location(), compilationUnit);
+        Java.PackageMemberClassDeclaration cd = this.addPackageMemberClassDeclaration(
+            parsers[0].location(),
+            compilationUnit
+        );
 
-        // Determine method names.
-        String[] methodNames;
-        if (this.optionalMethodNames == null) {
-            methodNames = new String[count];
-            for (int i = 0; i < count; ++i) methodNames[i] = "eval" + i;
-        } else
-        {
-            methodNames = this.optionalMethodNames;
-        }
+        this.hoistedParameterValues = null;
+        this.hoistedParameterTypes  = null;
+        this.hoistedFieldValues     = null;
+        this.hoistedFieldTypes      = null;
+        List/*<FormalParameter>*/ hoistedFields      = new ArrayList();
+        List/*<Class>*/           hoistedFieldTypes  = new ArrayList();
+        List/*<Object>*/          hoistedFieldValues = new ArrayList();
 
         // Create methods with one block each.
         for (int i = 0; i < count; ++i) {
@@ -519,11 +776,7 @@ class ScriptEvaluator extends ClassBodyEvaluator implements IScriptEvaluator {
             boolean staticMethod   = this.optionalStaticMethod   == null || this.optionalStaticMethod[i];
             boolean overrideMethod = this.optionalOverrideMethod != null && this.optionalOverrideMethod[i];
 
-            Class returnType = (
-                this.optionalReturnTypes == null
-                ? this.getDefaultReturnType()
-                : this.optionalReturnTypes[i]
-            );
+            Class returnType = this.getReturnType(i);
             String[] parameterNames = (
                 this.optionalParameterNames == null
                 ? new String[0]
@@ -542,6 +795,48 @@ class ScriptEvaluator extends ClassBodyEvaluator implements IScriptEvaluator {
 
             // If the method is non-static, assume that it overrides a method in a supertype.
             Location loc = parser.location();
+
+            // Pass hoisted literals to static methods through extra parameters, and to non-static methods through
+            // final fields.
+            if (parser instanceof LiteralHoistingParser) {
+                LiteralHoistingParser lhp = (LiteralHoistingParser) parser;
+                if (staticMethod) {
+                    if (this.hoistedParameterValues == null) {
+                        this.hoistedParameterValues = new Object[count][];
+                        this.hoistedParameterTypes  = new Class[count][];
+                    }
+                    this.hoistedParameterValues[i] = lhp.getHoistedValues();
+                    this.hoistedParameterTypes[i]  = lhp.getHoistedTypes();
+                    parameterNames                 = ScriptEvaluator.concat(parameterNames, lhp.getHoistedNames());
+                    parameterTypes                 = ScriptEvaluator.concat(parameterTypes, lhp.getHoistedTypes());
+                } else {
+                    String[] names  = lhp.getHoistedNames();
+                    Class[]  types  = lhp.getHoistedTypes();
+                    Object[] values = lhp.getHoistedValues();
+                    for (int j = 0; j < names.length; ++j) {
+                        cd.addVariableDeclaratorOrInitializer(new Java.FieldDeclaration(
+                            loc,                                                       // location
+                            null,                                                      // optionalDocComment
+                            new Java.ModifiersAndAnnotations(                          // modifiersAndAnnotations
+                                (short) (Mod.PRIVATE | Mod.FINAL)
+                            ),
+                            this.classToType(loc, types[j]),                           // type
+                            new Java.VariableDeclarator[] {                            // variableDeclarators
+                                new Java.VariableDeclarator(loc, names[j], 0, null)
+                            }
+                        ));
+                        hoistedFields.add(new Java.FunctionDeclarator.FormalParameter(
+                            loc,                             // location
+                            true,                            // finaL
+                            this.classToType(loc, types[j]), // type
+                            names[j]                         // name
+                        ));
+                        hoistedFieldTypes.add(types[j]);
+                        hoistedFieldValues.add(values[j]);
+                    }
+                }
+            }
+
             cd.addDeclaredMethod(this.makeMethodDeclaration(
                 loc,              // location
                 (                 // annotations
@@ -559,18 +854,742 @@ class ScriptEvaluator extends ClassBodyEvaluator implements IScriptEvaluator {
             ));
         }
 
-        // Compile and load the compilation unit.
-        Class c = this.compileToClass(compilationUnit, this.className);
+        // Add a constructor that initializes the fields that hold the hoisted literals.
+        if (!hoistedFields.isEmpty()) {
+            Location                                  loc        = parsers[0].location();
+            Java.FunctionDeclarator.FormalParameter[] parameters = (
+                (Java.FunctionDeclarator.FormalParameter[]) hoistedFields.toArray(
+                    new Java.FunctionDeclarator.FormalParameter[hoistedFields.size()]
+                )
+            );
+            List/*<BlockStatement>*/ statements = new ArrayList();
+            for (int i = 0; i < parameters.length; ++i) {
+                statements.add(new Java.ExpressionStatement(new Java.Assignment(
+                    loc,                                                                                  // location
+                    new Java.FieldAccessExpression(loc, new Java.ThisReference(loc), parameters[i].name), // lhs
+                    "=",                                                                                  // operator
+                    new Java.AmbiguousName(loc, new String[] { parameters[i].name })                      // rhs
+                )));
+            }
+            cd.addConstructor(new Java.ConstructorDeclarator(
+                loc,                                                   // location
+                null,                                                  // optionalDocComment
+                new Java.ModifiersAndAnnotations(Mod.PUBLIC),          // modifiersAndAnnotations
+                parameters,                                            // formalParameters
+                new Java.Type[0],                                      // thrownExceptions
+                null,                                                  // optionalConstructorInvocation
+                statements                                             // statements
+            ));
+            this.hoistedFieldTypes  = (Class[]) hoistedFieldTypes.toArray(new Class[hoistedFieldTypes.size()]);
+            this.hoistedFieldValues = hoistedFieldValues.toArray();
+        }
 
-        // Find the script methods by name.
-        this.result = new Method[count];
+        if (this.generatesInvoker(count)) this.addInvokerDeclaration(parsers[0].location(), cd, methodNames);
+
+        return cd;
+    }
+
+    /**
+     * @return Whether an {@link Invoker} is generated together with the given number of scripts, which is the case iff
+     *         it was requested, any of the scripts is static, there are not too many of them, and the generated code
+     *         can see the {@link Invoker} interface
+     * @see    #setGenerateInvoker(boolean)
+     */
+    private boolean
+    generatesInvoker(int count) {
+        if (!this.generateInvoker && !this.batchEvaluation) return false;
+        if (this.interpreted || count > ScriptEvaluator.MAX_INVOKER_SCRIPTS) return false;
+
+        // The invoker would be a second class, which cannot refer to a hidden class by name.
+        if (this.definesHiddenClasses()) return false;
+
+        if (this.optionalStaticMethod != null) {
+            boolean anyStaticMethod = false;
+            for (int i = 0; i < count; ++i) anyStaticMethod |= this.optionalStaticMethod[i];
+            if (!anyStaticMethod) return false;
+        }
+
+        try {
+            return Class.forName(Invoker.class.getName(), false, this.getParentClassLoader()) == Invoker.class;
+        } catch (ClassNotFoundException cnfe) {
+            return false;
+        }
+    }
+
+    /**
+     * Adds to the given class declaration a member class "$Invoker" that implements {@link Invoker} like this:
+     * <pre>
+     * public Object invoke(int idx, Object[] args) throws InvocationTargetException {
+     *     switch (idx) {
+     *     case 0:
+     *         {
+     *             if (args.length != 2) throw new IllegalArgumentException();
+     *             int    p0 = ((Integer) args[0]).intValue();
+     *             String p1 = (String) args[1];
+     *             try {
+     *                 return eval0(p0, p1);
+     *             } catch (Throwable t) {
+     *                 throw new InvocationTargetException(t);
+     *             }
+     *         }
+     *     ...
+     *     }
+     *     throw new IllegalArgumentException();
+     * }
+     *
+     * public double invokeDouble(int idx, double[] args) throws InvocationTargetException {
+     *     switch (idx) {
+     *     case 1:
+     *         {
+     *             if (args.length != 1) throw new IllegalArgumentException();
+     *             int p0 = (int) args[0];
+     *             try {
+     *                 return (double) eval1(p0);
+     *             } catch (Throwable t) {
+     *                 throw new InvocationTargetException(t);
+     *             }
+     *         }
+     *     ...
+     *     }
+     *     throw new IllegalArgumentException();
+     * }
+     *
+     * public long invokeLong(int idx, long[] args) throws InvocationTargetException {
+     *     ...
+     * }
+     * </pre>
+     * The "invokeDouble()" and "invokeLong()" methods only have cases for the scripts with numeric primitive
+     * parameter and return types.
+     */
+    private void
+    addInvokerDeclaration(Location loc, Java.ClassDeclaration cd, String[] methodNames) throws CompileException {
+        Java.MemberClassDeclaration icd = new Java.MemberClassDeclaration(
+            loc,                                                                               // location
+            null,                                                                              // optionalDocComment
+            new Java.ModifiersAndAnnotations((short) (Mod.PUBLIC | Mod.STATIC | Mod.FINAL)), // modifiersAndAnnotat.
+            "$Invoker",                                                                        // name
+            null,                                                                              // optionalExtendedType
+            new Java.Type[] { this.classToType(loc, Invoker.class) }                           // implementedTypes
+        );
+        cd.addMemberTypeDeclaration(icd);
+
+        this.addInvokeMethod(loc, icd, "invoke", Object.class, methodNames);
+        this.addInvokeMethod(loc, icd, "invokeDouble", double.class, methodNames);
+        this.addInvokeMethod(loc, icd, "invokeLong", long.class, methodNames);
+        this.addInvokeBatchMethod(loc, icd, methodNames);
+    }
+
+    /**
+     * Adds one of the methods of the {@link Invoker} interface to the given invoker class declaration.
+     *
+     * @param valueType {@code Object.class}, {@code double.class} or {@code long.class}; the component type of the
+     *                  "args" parameter and the return type of the generated method
+     * @see             #addInvokerDeclaration(Location, Java.ClassDeclaration, String[])
+     */
+    private void
+    addInvokeMethod(
+        Location                    loc,
+        Java.MemberClassDeclaration icd,
+        String                      name,
+        Class                       valueType,
+        String[]                    methodNames
+    ) throws CompileException {
+        List/*<SwitchBlockStatementGroup>*/ sbsgs = new ArrayList();
+        for (int i = 0; i < methodNames.length; ++i) {
+            if (this.optionalStaticMethod != null && !this.optionalStaticMethod[i]) continue;
+
+            Class[] parameterTypes = this.getParameterTypes(i);
+            Class   returnType     = this.getReturnType(i);
+            if (valueType != Object.class) {
+                if (!ScriptEvaluator.isNumeric(returnType)) continue;
+                boolean allNumeric = true;
+                for (int j = 0; j < parameterTypes.length; ++j) {
+                    allNumeric &= ScriptEvaluator.isNumeric(parameterTypes[j]);
+                }
+                if (!allNumeric) continue;
+            }
+
+            List/*<BlockStatement>*/ statements = new ArrayList();
+
+            // Check the argument count.
+            statements.add(new Java.IfStatement(
+                loc,                                                               // location
+                new Java.BinaryOperation(                                          // condition
+                    loc,
+                    new Java.AmbiguousName(loc, new String[] { "args", "length" }),
+                    "!=",
+                    new Java.IntegerLiteral(loc, Integer.toString(parameterTypes.length))
+                ),
+                new Java.ThrowStatement(loc, new Java.NewClassInstance(            // thenStatement
+                    loc,
+                    null,
+                    ScriptEvaluator.classToSourceType(loc, IllegalArgumentException.class),
+                    new Java.Rvalue[0]
+                )),
+                null                                                               // optionalElseStatement
+            ));
+
+            // Unpack the arguments into local variables.
+            Java.Rvalue[] arguments = new Java.Rvalue[parameterTypes.length];
+            for (int j = 0; j < parameterTypes.length; ++j) {
+                Class       pt  = parameterTypes[j];
+                Java.Rvalue arg = new Java.ArrayAccessExpression(
+                    loc,                                                      // location
+                    new Java.AmbiguousName(loc, new String[] { "args" }),     // lhs
+                    new Java.IntegerLiteral(loc, Integer.toString(j))         // index
+                );
+                if (valueType != Object.class) {
+                    if (pt != valueType) arg = new Java.Cast(loc, ScriptEvaluator.classToSourceType(loc, pt), arg);
+                } else
+                if (pt.isPrimitive()) {
+                    arg = new Java.MethodInvocation(
+                        loc,                                                                          // location
+                        new Java.Cast(                                                                // target
+                            loc,
+                            ScriptEvaluator.classToSourceType(loc, ScriptEvaluator.wrapperType(pt)),
+                            arg
+                        ),
+                        pt.getName() + "Value",                                                       // methodName
+                        new Java.Rvalue[0]                                                            // arguments
+                    );
+                } else
+                if (pt != Object.class) {
+                    arg = new Java.Cast(loc, ScriptEvaluator.classToSourceType(loc, pt), arg);
+                }
+                statements.add(new Java.LocalVariableDeclarationStatement(
+                    loc,                                                                      // location
+                    new Java.ModifiersAndAnnotations(Mod.FINAL),                              // modifiersAndAnnotat.
+                    ScriptEvaluator.classToSourceType(loc, pt),                               // type
+                    new Java.VariableDeclarator[] { new Java.VariableDeclarator(loc, "p" + j, 0, arg) } // var.decl.s
+                ));
+                arguments[j] = new Java.AmbiguousName(loc, new String[] { "p" + j });
+            }
+
+            // Invoke the script method, and wrap any exception it throws.
+            Java.MethodInvocation invocation = new Java.MethodInvocation(loc, null, methodNames[i], arguments);
+            Java.Block            body       = new Java.Block(loc);
+            if (returnType == void.class) {
+                body.addStatement(new Java.ExpressionStatement(invocation));
+                body.addStatement(new Java.ReturnStatement(loc, new Java.NullLiteral(loc, "null")));
+            } else
+            if (valueType != Object.class && returnType != valueType) {
+                body.addStatement(new Java.ReturnStatement(
+                    loc,
+                    new Java.Cast(loc, ScriptEvaluator.classToSourceType(loc, valueType), invocation)
+                ));
+            } else
+            {
+                body.addStatement(new Java.ReturnStatement(loc, invocation));
+            }
+            Java.Block handler = new Java.Block(loc);
+            handler.addStatement(new Java.ThrowStatement(loc, new Java.NewClassInstance(
+                loc,                                                            // location
+                null,                                                           // optionalQualification
+                ScriptEvaluator.classToSourceType(loc, InvocationTargetException.class), // type
+                new Java.Rvalue[] { new Java.AmbiguousName(loc, new String[] { "t" }) } // arguments
+            )));
+            statements.add(new Java.TryStatement(
+                loc,                                                  // location
+                body,                                                 // body
+                Collections.singletonList(new Java.CatchClause(       // catchClauses
+                    loc,
+                    new Java.FunctionDeclarator.FormalParameter(loc, true, this.classToType(loc, Throwable.class), "t"),
+                    handler
+                )),
+                null                                                  // optionalFinally
+            ));
+
+            Java.Block block = new Java.Block(loc);
+            block.addStatements(statements);
+            sbsgs.add(new Java.SwitchStatement.SwitchBlockStatementGroup(
+                loc,                                                                           // location
+                Collections.singletonList(new Java.IntegerLiteral(loc, Integer.toString(i))), // caseLabels
+                false,                                                                         // hasDefaultLabel
+                Collections.singletonList(block)                                               // blockStatements
+            ));
+        }
+
+        List/*<BlockStatement>*/ statements = new ArrayList();
+        if (!sbsgs.isEmpty()) {
+            statements.add(new Java.SwitchStatement(loc, new Java.AmbiguousName(loc, new String[] { "idx" }), sbsgs));
+        }
+        statements.add(new Java.ThrowStatement(loc, new Java.NewClassInstance(
+            loc,                                                                    // location
+            null,                                                                   // optionalQualification
+            ScriptEvaluator.classToSourceType(loc, IllegalArgumentException.class), // type
+            new Java.Rvalue[0]                                                      // arguments
+        )));
+
+        icd.addDeclaredMethod(new Java.MethodDeclarator(
+            loc,                                                                  // location
+            null,                                                                 // optionalDocComment
+            new Java.ModifiersAndAnnotations(Mod.PUBLIC, new Java.Annotation[] { // modifiersAndAnnotations
+                new Java.MarkerAnnotation(this.classToType(loc, Override.class))
+            }),
+            ScriptEvaluator.classToSourceType(loc, valueType),                    // type
+            name,                                                                 // name
+            new Java.FunctionDeclarator.FormalParameter[] {                       // formalParameters
+                new Java.FunctionDeclarator.FormalParameter(
+                    loc,
+                    true,
+                    ScriptEvaluator.classToSourceType(loc, int.class),
+                    "idx"
+                ),
+                new Java.FunctionDeclarator.FormalParameter(
+                    loc,
+                    true,
+                    new Java.ArrayType(ScriptEvaluator.classToSourceType(loc, valueType)),
+                    "args"
+                ),
+            },
+            new Java.Type[] { this.classToType(loc, InvocationTargetException.class) }, // thrownExceptions
+            statements                                                            // optionalStatements
+        ));
+    }
+
+    /**
+     * Adds the "invokeBatch()" method to the given invoker class declaration; iff batch evaluation is enabled, it
+     * has a case like this for each static script:
+     * <pre>
+     * case 0:
+     *     {
+     *         if (columns.length != 2) throw new IllegalArgumentException();
+     *         final double[] c0 = (double[]) columns[0];
+     *         final Object[] c1 = (Object[]) columns[1];
+     *         final double[] o  = (double[]) out;
+     *         for (int k = from; k &lt; to; ++k) {
+     *             double r;
+     *             try {
+     *                 r = eval0(c0[k], (String) c1[k]);
+     *             } catch (Throwable t) {
+     *                 throw new InvocationTargetException(t);
+     *             }
+     *             o[k] = r;
+     *         }
+     *         return;
+     *     }
+     * </pre>
+     *
+     * @see #setBatchEvaluation(boolean)
+     */
+    private void
+    addInvokeBatchMethod(Location loc, Java.MemberClassDeclaration icd, String[] methodNames)
+    throws CompileException {
+        List/*<SwitchBlockStatementGroup>*/ sbsgs = new ArrayList();
+        for (int i = 0; this.batchEvaluation && i < methodNames.length; ++i) {
+            if (this.optionalStaticMethod != null && !this.optionalStaticMethod[i]) continue;
+
+            Class[]                  parameterTypes = this.getParameterTypes(i);
+            Class                    returnType     = this.getReturnType(i);
+            List/*<BlockStatement>*/ statements     = new ArrayList();
+
+            // Check the column count.
+            statements.add(new Java.IfStatement(
+                loc,                                                                  // location
+                new Java.BinaryOperation(                                             // condition
+                    loc,
+                    new Java.AmbiguousName(loc, new String[] { "columns", "length" }),
+                    "!=",
+                    new Java.IntegerLiteral(loc, Integer.toString(parameterTypes.length))
+                ),
+                new Java.ThrowStatement(loc, new Java.NewClassInstance(               // thenStatement
+                    loc,
+                    null,
+                    ScriptEvaluator.classToSourceType(loc, IllegalArgumentException.class),
+                    new Java.Rvalue[0]
+                )),
+                null                                                                  // optionalElseStatement
+            ));
+
+            // Cast the columns to arrays of the parameter types.
+            Java.Rvalue[] arguments = new Java.Rvalue[parameterTypes.length];
+            for (int j = 0; j < parameterTypes.length; ++j) {
+                Class pt = parameterTypes[j];
+                statements.add(ScriptEvaluator.columnDeclaration(
+                    loc,
+                    pt,
+                    "c" + j,
+                    new Java.ArrayAccessExpression(
+                        loc,
+                        new Java.AmbiguousName(loc, new String[] { "columns" }),
+                        new Java.IntegerLiteral(loc, Integer.toString(j))
+                    )
+                ));
+                Java.Rvalue arg = new Java.ArrayAccessExpression(
+                    loc,                                                      // location
+                    new Java.AmbiguousName(loc, new String[] { "c" + j }),    // lhs
+                    new Java.AmbiguousName(loc, new String[] { "k" })         // index
+                );
+                if (!pt.isPrimitive() && pt != Object.class) {
+                    arg = new Java.Cast(loc, ScriptEvaluator.classToSourceType(loc, pt), arg);
+                }
+                arguments[j] = arg;
+            }
+            if (returnType != void.class) {
+                statements.add(ScriptEvaluator.columnDeclaration(
+                    loc,
+                    returnType,
+                    "o",
+                    new Java.AmbiguousName(loc, new String[] { "out" })
+                ));
+            }
+
+            // Invoke the script method for each row, and wrap any exception it throws.
+            Java.MethodInvocation invocation = new Java.MethodInvocation(loc, null, methodNames[i], arguments);
+            Java.Block            tryBody    = new Java.Block(loc);
+            tryBody.addStatement(new Java.ExpressionStatement(
+                returnType == void.class
+                ? (Java.Rvalue) invocation
+                : new Java.Assignment(loc, new Java.AmbiguousName(loc, new String[] { "r" }), "=", invocation)
+            ));
+            Java.Block handler = new Java.Block(loc);
+            handler.addStatement(new Java.ThrowStatement(loc, new Java.NewClassInstance(
+                loc,                                                            // location
+                null,                                                           // optionalQualification
+                ScriptEvaluator.classToSourceType(loc, InvocationTargetException.class), // type
+                new Java.Rvalue[] { new Java.AmbiguousName(loc, new String[] { "t" }) } // arguments
+            )));
+
+            Java.Block loopBody = new Java.Block(loc);
+            if (returnType != void.class) {
+                loopBody.addStatement(new Java.LocalVariableDeclarationStatement(
+                    loc,                                                                          // location
+                    new Java.ModifiersAndAnnotations(Mod.NONE),                                   // modifiersAndAnnot.
+                    ScriptEvaluator.classToSourceType(loc, returnType.isPrimitive() ? returnType : Object.class),
+                    new Java.VariableDeclarator[] { new Java.VariableDeclarator(loc, "r", 0, null) } // var.decl.s
+                ));
+            }
+            loopBody.addStatement(new Java.TryStatement(
+                loc,                                                  // location
+                tryBody,                                              // body
+                Collections.singletonList(new Java.CatchClause(       // catchClauses
+                    loc,
+                    new Java.FunctionDeclarator.FormalParameter(loc, true, this.classToType(loc, Throwable.class), "t"),
+                    handler
+                )),
+                null                                                  // optionalFinally
+            ));
+            if (returnType != void.class) {
+                loopBody.addStatement(new Java.ExpressionStatement(new Java.Assignment(
+                    loc,
+                    new Java.ArrayAccessExpression(
+                        loc,
+                        new Java.AmbiguousName(loc, new String[] { "o" }),
+                        new Java.AmbiguousName(loc, new String[] { "k" })
+                    ),
+                    "=",
+                    new Java.AmbiguousName(loc, new String[] { "r" })
+                )));
+            }
+            statements.add(new Java.ForStatement(
+                loc,                                                                          // location
+                new Java.LocalVariableDeclarationStatement(                                   // optionalInit
+                    loc,
+                    new Java.ModifiersAndAnnotations(Mod.NONE),
+                    ScriptEvaluator.classToSourceType(loc, int.class),
+                    new Java.VariableDeclarator[] { new Java.VariableDeclarator(
+                        loc,
+                        "k",
+                        0,
+                        new Java.AmbiguousName(loc, new String[] { "from" })
+                    ) }
+                ),
+                new Java.BinaryOperation(                                                     // optionalCondition
+                    loc,
+                    new Java.AmbiguousName(loc, new String[] { "k" }),
+                    "<",
+                    new Java.AmbiguousName(loc, new String[] { "to" })
+                ),
+                new Java.Rvalue[] {                                                           // optionalUpdate
+                    new Java.Crement(loc, "++", new Java.AmbiguousName(loc, new String[] { "k" }))
+                },
+                loopBody                                                                      // body
+            ));
+            statements.add(new Java.ReturnStatement(loc, null));
+
+            Java.Block block = new Java.Block(loc);
+            block.addStatements(statements);
+            sbsgs.add(new Java.SwitchStatement.SwitchBlockStatementGroup(
+                loc,                                                                           // location
+                Collections.singletonList(new Java.IntegerLiteral(loc, Integer.toString(i))), // caseLabels
+                false,                                                                         // hasDefaultLabel
+                Collections.singletonList(block)                                               // blockStatements
+            ));
+        }
+
+        List/*<BlockStatement>*/ statements = new ArrayList();
+        if (!sbsgs.isEmpty()) {
+            statements.add(new Java.SwitchStatement(loc, new Java.AmbiguousName(loc, new String[] { "idx" }), sbsgs));
+        }
+        statements.add(new Java.ThrowStatement(loc, new Java.NewClassInstance(
+            loc,                                                                    // location
+            null,                                                                   // optionalQualification
+            ScriptEvaluator.classToSourceType(loc, IllegalArgumentException.class), // type
+            new Java.Rvalue[0]                                                      // arguments
+        )));
+
+        icd.addDeclaredMethod(new Java.MethodDeclarator(
+            loc,                                                                  // location
+            null,                                                                 // optionalDocComment
+            new Java.ModifiersAndAnnotations(Mod.PUBLIC, new Java.Annotation[] { // modifiersAndAnnotations
+                new Java.MarkerAnnotation(this.classToType(loc, Override.class))
+            }),
+            ScriptEvaluator.classToSourceType(loc, void.class),                   // type
+            "invokeBatch",                                                        // name
+            new Java.FunctionDeclarator.FormalParameter[] {                       // formalParameters
+                new Java.FunctionDeclarator.FormalParameter(
+                    loc,
+                    true,
+                    ScriptEvaluator.classToSourceType(loc, int.class),
+                    "idx"
+                ),
+                new Java.FunctionDeclarator.FormalParameter(
+                    loc,
+                    true,
+                    ScriptEvaluator.classToSourceType(loc, Object[].class),
+                    "columns"
+                ),
+                new Java.FunctionDeclarator.FormalParameter(
+                    loc,
+                    true,
+                    ScriptEvaluator.classToSourceType(loc, Object.class),
+                    "out"
+                ),
+                new Java.FunctionDeclarator.FormalParameter(
+                    loc,
+                    true,
+                    ScriptEvaluator.classToSourceType(loc, int.class),
+                    "from"
+                ),
+                new Java.FunctionDeclarator.FormalParameter(
+                    loc,
+                    true,
+                    ScriptEvaluator.classToSourceType(loc, int.class),
+                    "to"
+                ),
+            },
+            new Java.Type[] { this.classToType(loc, InvocationTargetException.class) }, // thrownExceptions
+            statements                                                            // optionalStatements
+        ));
+    }
+
+    /**
+     * @return A declaration of a final local variable of type "{@code T[]}", where {@code T} is <var>elementType</var>
+     *         if it is primitive, and {@code Object} otherwise, initialized with the <var>column</var>
+     */
+    private static Java.LocalVariableDeclarationStatement
+    columnDeclaration(Location loc, Class elementType, String name, Java.Rvalue column) {
+        Class c = elementType.isPrimitive() ? elementType : Object.class;
+
+        // The two array types must be distinct objects, because each AST node has exactly one parent.
+        return new Java.LocalVariableDeclarationStatement(
+            loc,                                                                          // location
+            new Java.ModifiersAndAnnotations(Mod.FINAL),                                  // modifiersAndAnnotations
+            new Java.ArrayType(ScriptEvaluator.classToSourceType(loc, c)),                // type
+            new Java.VariableDeclarator[] { new Java.VariableDeclarator(                  // variableDeclarators
+                loc,
+                name,
+                0,
+                new Java.Cast(loc, new Java.ArrayType(ScriptEvaluator.classToSourceType(loc, c)), column)
+            ) }
+        );
+    }
+
+    /**
+     * @return Whether the given type is a numeric primitive type or {@code char}
+     */
+    private static boolean
+    isNumeric(Class type) {
+        return type.isPrimitive() && type != boolean.class && type != void.class;
+    }
+
+    /**
+     * Other than {@link #classToType(Location, Class)}, this method returns a type that refers to the class by its
+     * fully qualified name, which is required for types that are used within expressions.
+     */
+    private static Java.Type
+    classToSourceType(Location loc, Class c) {
+        if (c.isArray()) return new Java.ArrayType(ScriptEvaluator.classToSourceType(loc, c.getComponentType()));
+        if (c.isPrimitive()) {
+            return new Java.BasicType(loc, (
+                c == boolean.class ? Java.BasicType.BOOLEAN :
+                c == byte.class    ? Java.BasicType.BYTE :
+                c == short.class   ? Java.BasicType.SHORT :
+                c == int.class     ? Java.BasicType.INT :
+                c == long.class    ? Java.BasicType.LONG :
+                c == float.class   ? Java.BasicType.FLOAT :
+                c == double.class  ? Java.BasicType.DOUBLE :
+                c == char.class    ? Java.BasicType.CHAR :
+                Java.BasicType.VOID
+            ));
+        }
+        return new Java.ReferenceType(loc, c.getName().split("\\."));
+    }
+
+    /**
+     * @return The wrapper class of the given primitive type, e.g. {@code Integer.class} for {@code int.class}
+     */
+    private static Class
+    wrapperType(Class primitiveType) {
+        return (
+            primitiveType == boolean.class ? Boolean.class :
+            primitiveType == byte.class    ? Byte.class :
+            primitiveType == short.class   ? Short.class :
+            primitiveType == int.class     ? Integer.class :
+            primitiveType == long.class    ? Long.class :
+            primitiveType == float.class   ? Float.class :
+            primitiveType == double.class  ? Double.class :
+            Character.class
+        );
+    }
+
+    /**
+     * @return The return type of the <var>idx</var>th script method
+     */
+    private Class
+    getReturnType(int idx) {
+        return this.optionalReturnTypes == null ? this.getDefaultReturnType() : this.optionalReturnTypes[idx];
+    }
+
+    /**
+     * Cooks the <var>strings</var> with literal hoisting.
+     *
+     * @see #setHoistLiterals(boolean)
+     */
+    private void
+    cookWithHoistedLiterals(String[] optionalFileNames, String[] strings) throws CompileException {
+        int count = strings.length;
+
+        String[] methodNames = this.getMethodNames(count);
+
+        Java.PackageMemberClassDeclaration cd;
+        try {
+            Parser[] parsers = new Parser[count];
+            for (int i = 0; i < count; ++i) {
+                parsers[i] = new LiteralHoistingParser(
+                    new Scanner(optionalFileNames == null ? null : optionalFileNames[i], new StringReader(strings[i])),
+                    "$" + i + "_"
+                );
+            }
+            cd = this.parseScripts(parsers, methodNames);
+        } catch (IOException ex) {
+            throw new JaninoRuntimeException("SNO: IOException despite StringReader", ex);
+        }
+
+        // Because the literals are gone, the unparsed scripts are suitable as a key for the evaluator cache.
+        Object cacheKey = null;
+        {
+            String[] normalizedScripts = new String[count];
+            List     methods           = cd.getMethodDeclarations();
+            for (int i = 0; i < count; ++i) {
+                StringWriter   sw = new StringWriter();
+                UnparseVisitor uv = new UnparseVisitor(sw);
+                if (i == 0) {
+                    List importDeclarations = cd.getDeclaringCompilationUnit().importDeclarations;
+                    for (Iterator it = importDeclarations.iterator(); it.hasNext();) {
+                        ((Java.CompilationUnit.ImportDeclaration) it.next()).accept(uv);
+                    }
+                }
+                List statements = ((Java.MethodDeclarator) methods.get(i)).optionalStatements;
+                for (Iterator it = statements.iterator(); it.hasNext();) {
+                    ((Java.BlockStatement) it.next()).accept(uv);
+                }
+                uv.close();
+                normalizedScripts[i] = sw.toString();
+            }
+            cacheKey = this.getEvaluatorCacheKey(optionalFileNames, normalizedScripts);
+        }
+        if (cacheKey != null) {
+            cacheKey = Arrays.asList(new Object[] {
+                cacheKey,
+                ClassBodyEvaluator.toCacheKey(this.hoistedParameterTypes),
+                ClassBodyEvaluator.toCacheKey(this.hoistedFieldTypes),
+            });
+            if (this.cookFromEvaluatorCache(cacheKey, count)) return;
+        }
+
+        Class c = this.compileToClass(cd.getDeclaringCompilationUnit(), this.className);
+        this.findMethods(c, methodNames);
+
+        if (cacheKey != null) this.addToEvaluatorCache(cacheKey);
+    }
+
+    private static String[]
+    concat(String[] a, String[] b) {
+        String[] result = new String[a.length + b.length];
+        System.arraycopy(a, 0, result, 0, a.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+
+    private static Class[]
+    concat(Class[] a, Class[] b) {
+        Class[] result = new Class[a.length + b.length];
+        System.arraycopy(a, 0, result, 0, a.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+
+    private static Object[]
+    concat(Object[] a, Object[] b) {
+        Object[] result = new Object[a.length + b.length];
+        System.arraycopy(a, 0, result, 0, a.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+
+    private static double[]
+    concat(double[] a, double[] b) {
+        double[] result = new double[a.length + b.length];
+        System.arraycopy(a, 0, result, 0, a.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+
+    private static long[]
+    concat(long[] a, long[] b) {
+        long[] result = new long[a.length + b.length];
+        System.arraycopy(a, 0, result, 0, a.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+
+    /**
+     * @return The parameter types of the <var>idx</var>th script method, including the types of the hoisted literals
+     */
+    private Class[]
+    getParameterTypes(int idx) {
+        Class[] parameterTypes = this.optionalParameterTypes == null ? new Class[0] : this.optionalParameterTypes[idx];
+        if (this.hoistedParameterTypes == null || this.hoistedParameterTypes[idx] == null) return parameterTypes;
+        return ScriptEvaluator.concat(parameterTypes, this.hoistedParameterTypes[idx]);
+    }
+
+    /**
+     * @return The names of the generated methods, as configured through {@link #setMethodNames(String[])}, or
+     *         "eval0", "eval1", ...
+     */
+    private String[]
+    getMethodNames(int count) {
+        if (this.optionalMethodNames != null) return this.optionalMethodNames;
+
+        String[] methodNames = new String[count];
+        for (int i = 0; i < count; ++i) methodNames[i] = "eval" + i;
+        return methodNames;
+    }
+
+    /**
+     * Finds the script methods in the given class by name and parameter types.
+     */
+    private void
+    findMethods(Class c, String[] methodNames) {
+        int count = methodNames.length;
+        this.result  = new Method[count];
+        this.invoker = this.generatesInvoker(count) ? ScriptEvaluator.instantiateInvoker(c) : null;
+        this.analyzeInvoker(count);
         if (count <= 10) {
             for (int i = 0; i < count; ++i) {
                 try {
-                    this.result[i] = c.getDeclaredMethod(
-                        methodNames[i],
-                        this.optionalParameterTypes == null ? new Class[0] : this.optionalParameterTypes[i]
-                    );
+                    this.result[i] = c.getDeclaredMethod(methodNames[i], this.getParameterTypes(i));
                 } catch (NoSuchMethodException ex) {
                     throw new JaninoRuntimeException((
                         "SNO: Loaded class does not declare method \""
@@ -620,10 +1639,7 @@ class ScriptEvaluator extends ClassBodyEvaluator implements IScriptEvaluator {
                 dms.put(new MethodWrapper(m.getName(), m.getParameterTypes()), m);
             }
             for (int i = 0; i < count; ++i) {
-                Method m = (Method) dms.get(new MethodWrapper(
-                    methodNames[i],
-                    this.optionalParameterTypes == null ? new Class[0] : this.optionalParameterTypes[i]
-                ));
+                Method m = (Method) dms.get(new MethodWrapper(methodNames[i], this.getParameterTypes(i)));
                 if (m == null) {
                     throw new JaninoRuntimeException(
                         "SNO: Loaded class does not declare method \""
@@ -636,6 +1652,121 @@ class ScriptEvaluator extends ClassBodyEvaluator implements IScriptEvaluator {
         }
     }
 
+    /**
+     * Determines which scripts the {@link #invoker} supports, like {@link #addInvokerDeclaration(Location,
+     * Java.ClassDeclaration, String[])} does, so that the "evaluate...()" methods need not try.
+     */
+    private void
+    analyzeInvoker(int count) {
+        if (this.invoker == null) {
+            this.invokerParameterTypes      = null;
+            this.invokerDoubleHoistedValues = null;
+            this.invokerLongHoistedValues   = null;
+            this.invokerBatch               = null;
+            return;
+        }
+
+        this.invokerParameterTypes      = new Class[count][];
+        this.invokerDoubleHoistedValues = new double[count][];
+        this.invokerLongHoistedValues   = new long[count][];
+        this.invokerBatch               = new boolean[count];
+        for (int i = 0; i < count; ++i) {
+            if (this.optionalStaticMethod != null && !this.optionalStaticMethod[i]) continue;
+
+            Class[] parameterTypes = this.getParameterTypes(i);
+            this.invokerParameterTypes[i] = parameterTypes;
+
+            // The batch loop does not pass the hoisted literals.
+            this.invokerBatch[i] = this.batchEvaluation && (
+                this.hoistedParameterValues == null || this.hoistedParameterValues[i] == null
+            );
+
+            if (!ScriptEvaluator.isNumeric(this.getReturnType(i))) continue;
+            boolean allNumeric = true;
+            for (int j = 0; j < parameterTypes.length; ++j) allNumeric &= ScriptEvaluator.isNumeric(parameterTypes[j]);
+            if (!allNumeric) continue;
+
+            // The hoisted literals are passed as "double" or "long" values, too, which is possible iff these
+            // represent the literals' values exactly.
+            Object[] hoistedValues = (
+                this.hoistedParameterValues == null || this.hoistedParameterValues[i] == null
+                ? new Object[0]
+                : this.hoistedParameterValues[i]
+            );
+            Class[]  hoistedTypes  = this.hoistedParameterTypes == null ? null : this.hoistedParameterTypes[i];
+            double[] doubleValues  = new double[hoistedValues.length];
+            long[]   longValues    = new long[hoistedValues.length];
+            boolean  exactDouble   = true, exactLong = true;
+            for (int j = 0; j < hoistedValues.length; ++j) {
+                Object value = hoistedValues[j];
+                doubleValues[j] = PrimitiveWrapper.doubleValue(value);
+                longValues[j]   = PrimitiveWrapper.longValue(value);
+                exactDouble &= value.equals(PrimitiveWrapper.wrap(hoistedTypes[j], doubleValues[j]));
+                exactLong   &= value.equals(PrimitiveWrapper.wrap(hoistedTypes[j], longValues[j]));
+            }
+            if (exactDouble) this.invokerDoubleHoistedValues[i] = doubleValues;
+            if (exactLong) this.invokerLongHoistedValues[i] = longValues;
+        }
+    }
+
+    /**
+     * @return Whether the generated {@link Invoker} can pass the <var>arguments</var> to a method with the given
+     *         parameter types, i.e. without any conversion other than unboxing
+     */
+    private static boolean
+    isInvokable(Class[] parameterTypes, Object[] arguments) {
+        if (arguments.length != parameterTypes.length) return false;
+        for (int i = 0; i < arguments.length; ++i) {
+            Class  pt  = parameterTypes[i];
+            Object arg = arguments[i];
+            if (pt.isPrimitive()) {
+                if (arg == null || arg.getClass() != ScriptEvaluator.wrapperType(pt)) return false;
+            } else {
+                if (arg != null && !pt.isInstance(arg)) return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return Whether the generated {@link Invoker} can process the <var>columns</var> and store into <var>out</var>
+     *         for a method with the given parameter and return types, i.e. without any {@link ClassCastException} or
+     *         {@link ArrayStoreException}
+     */
+    private static boolean
+    isBatchInvokable(Class[] parameterTypes, Class returnType, Object[] columns, Object out, int from, int to) {
+        if (columns.length != parameterTypes.length) return false;
+        for (int i = 0; i < columns.length; ++i) {
+            Class pt = parameterTypes[i];
+            if (pt.isPrimitive()) {
+                if (columns[i].getClass().getComponentType() != pt) return false;
+            } else {
+                if (!(columns[i] instanceof Object[])) return false;
+                if (pt == Object.class) continue;
+                Object[] column = (Object[]) columns[i];
+                for (int k = from; k < to; ++k) {
+                    if (column[k] != null && !pt.isInstance(column[k])) return false;
+                }
+            }
+        }
+        if (returnType == void.class) return true;
+        Class ct = out.getClass().getComponentType();
+        if (returnType.isPrimitive()) return ct == returnType;
+        return ct != null && !ct.isPrimitive() && ct.isAssignableFrom(returnType);
+    }
+
+    /**
+     * @return The instance of the {@link Invoker} that was generated as a member of the given class
+     */
+    private static Invoker
+    instantiateInvoker(Class c) {
+        try {
+            return (Invoker) c.getClassLoader().loadClass(c.getName() + "$$Invoker").newInstance();
+        } catch (Exception e) {
+            throw new JaninoRuntimeException("SNO: Instantiating the invoker: " + e, e);
+        }
+    }
+
     @Override public final void
     cook(Reader[] readers) throws CompileException, IOException {
         this.cook(new String[readers.length], readers);
@@ -654,6 +1785,15 @@ class ScriptEvaluator extends ClassBodyEvaluator implements IScriptEvaluator {
      */
     @Override public final void
     cook(String[] optionalFileNames, Reader[] readers) throws CompileException, IOException {
+        if (this.interpreted && this.compileThreshold > 0) {
+
+            // Tiered evaluation requires the script texts, for the background compilation.
+            String[] strings = new String[readers.length];
+            for (int i = 0; i < readers.length; ++i) strings[i] = Cookable.readString(readers[i]);
+            this.cook(optionalFileNames, strings);
+            return;
+        }
+
         Scanner[] scanners = new Scanner[readers.length];
         for (int i = 0; i < readers.length; ++i) {
             scanners[i] = new Scanner(optionalFileNames == null ? null : optionalFileNames[i], readers[i]);
@@ -664,15 +1804,114 @@ class ScriptEvaluator extends ClassBodyEvaluator implements IScriptEvaluator {
     @Override public final void
     cook(String[] strings) throws CompileException { this.cook(null, strings); }
 
+    @Override public void
+    cook(String optionalFileName, String s) throws CompileException {
+        this.cook(optionalFileName == null ? null : new String[] { optionalFileName }, new String[] { s });
+    }
+
     @Override public final void
     cook(String[] optionalFileNames, String[] strings) throws CompileException {
-        Reader[] readers = new Reader[strings.length];
-        for (int i = 0; i < strings.length; ++i) readers[i] = new StringReader(strings[i]);
+        if (this.hoistLiterals && !this.interpreted) {
+            try {
+                this.cookWithHoistedLiterals(optionalFileNames, strings);
+                return;
+            } catch (CompileException ce) {
+                this.hoistedParameterValues = null;
+                this.hoistedParameterTypes  = null;
+                this.hoistedFieldTypes      = null;
+                this.hoistedFieldValues     = null;
+
+                // Iff a literal was possibly required to be a constant expression, fall back to conventional
+                // compilation (which also reports the error iff it is a "real" one).
+                if (!LiteralHoistingParser.isPossiblyCausedByHoisting(ce)) throw ce;
+                this.resetAfterCompileError();
+            }
+        }
+
+        Object cacheKey = this.interpreted ? null : this.getEvaluatorCacheKey(optionalFileNames, strings);
+        if (cacheKey != null && this.cookFromEvaluatorCache(cacheKey, strings.length)) return;
+
+        Scanner[] scanners = new Scanner[strings.length];
         try {
-            this.cook(optionalFileNames, readers);
+            for (int i = 0; i < strings.length; ++i) {
+                scanners[i] = new Scanner(
+                    optionalFileNames == null ? null : optionalFileNames[i],
+                    new StringReader(strings[i])
+                );
+            }
+            this.cook(scanners);
         } catch (IOException ex) {
             throw new JaninoRuntimeException("SNO: IOException despite StringReader", ex);
         }
+
+        if (this.interpreted && this.compileThreshold > 0) {
+            this.tieredFileNames = optionalFileNames == null ? new String[strings.length] : optionalFileNames.clone();
+            this.tieredStrings   = strings.clone();
+        }
+
+        if (cacheKey != null) this.addToEvaluatorCache(cacheKey);
+    }
+
+    /**
+     * Counts an evaluation of the interpreted scripts, and compiles them in the background iff the {@link
+     * #setCompileThreshold(int) compile threshold} is reached.
+     */
+    private void
+    countEvaluation() {
+        if (this.tieredStrings == null || this.evaluationCount.incrementAndGet() != this.compileThreshold) return;
+
+        this.compileExecutor.execute(new Runnable() {
+
+            @Override public void
+            run() { ScriptEvaluator.this.compileInterpretedScripts(); }
+        });
+    }
+
+    /**
+     * Compiles the scripts that were cooked in interpreted mode, and then switches all further evaluations to the
+     * compiled code.
+     */
+    private synchronized void
+    compileInterpretedScripts() {
+        if (this.interpreter == null) return;
+
+        this.interpreted = false;
+        try {
+            this.cook(this.tieredFileNames, this.tieredStrings);
+        } catch (CompileException ce) {
+
+            // Very unlikely, because the interpreter resolved the same scripts successfully; keep interpreting.
+            this.interpreted = true;
+            this.resetAfterCompileError();
+            return;
+        }
+
+        // Writing the VOLATILE field publishes the cooked state to the evaluating threads.
+        this.tieredFileNames = null;
+        this.tieredStrings   = null;
+        this.interpreter     = null;
+    }
+
+    @Override protected void
+    addEvaluatorCacheKeyComponents(List key) {
+        super.addEvaluatorCacheKeyComponents(key);
+        key.add(ClassBodyEvaluator.toCacheKey(this.optionalOverrideMethod));
+        key.add(ClassBodyEvaluator.toCacheKey(this.optionalStaticMethod));
+        key.add(ClassBodyEvaluator.toCacheKey(this.optionalReturnTypes));
+        key.add(ClassBodyEvaluator.toCacheKey(this.optionalMethodNames));
+        key.add(ClassBodyEvaluator.toCacheKey(this.optionalParameterNames));
+        key.add(ClassBodyEvaluator.toCacheKey(this.optionalParameterTypes));
+        key.add(ClassBodyEvaluator.toCacheKey(this.optionalThrownExceptions));
+        key.add(Boolean.valueOf(this.generateInvoker));
+        key.add(Boolean.valueOf(this.batchEvaluation));
+    }
+
+    @Override protected Class
+    getCookedClass() { return this.result[0].getDeclaringClass(); }
+
+    @Override protected void
+    setCookedClass(Class clazz, int count) {
+        this.findMethods(clazz, this.getMethodNames(count));
     }
 
     /**
@@ -710,7 +1949,9 @@ class ScriptEvaluator extends ClassBodyEvaluator implements IScriptEvaluator {
         );
 
         // Find the script method by name.
-        this.result = new Method[methodNames.length];
+        this.result  = new Method[methodNames.length];
+        this.invoker = null;
+        this.analyzeInvoker(methodNames.length);
         for (int i = 0; i < this.result.length; ++i) {
             try {
                 this.result[i] = c.getMethod(methodNames[i], parameterTypes[i]);
@@ -876,17 +2117,17 @@ class ScriptEvaluator extends ClassBodyEvaluator implements IScriptEvaluator {
         return this.createFastEvaluator(new Scanner(null, reader), interfaceToImplement, parameterNames);
     }
 
+    /**
+     * Notice: If an {@link EvaluatorCache} is configured, then this method re-uses a previously generated class for
+     * the same <var>script</var> and configuration, and returns a new instance of that class.
+     *
+     * @see #setEvaluatorCache(EvaluatorCache)
+     */
     @Override public Object
     createFastEvaluator(String script, Class interfaceToImplement, String[] parameterNames) throws CompileException {
-        try {
-            return this.createFastEvaluator(
-                new StringReader(script),
-                interfaceToImplement,
-                parameterNames
-            );
-        } catch (IOException ex) {
-            throw new JaninoRuntimeException("IOException despite StringReader", ex);
-        }
+        this.setUpFastEvaluator(interfaceToImplement, parameterNames);
+        this.cook(script);
+        return this.instantiateFastEvaluator(interfaceToImplement);
     }
 
     /**
@@ -900,6 +2141,16 @@ class ScriptEvaluator extends ClassBodyEvaluator implements IScriptEvaluator {
     public Object
     createFastEvaluator(Scanner scanner, Class interfaceToImplement, String[] parameterNames)
     throws CompileException, IOException {
+        this.setUpFastEvaluator(interfaceToImplement, parameterNames);
+        this.cook(scanner);
+        return this.instantiateFastEvaluator(interfaceToImplement);
+    }
+
+    /**
+     * Configures this {@link ScriptEvaluator} such that the generated class implements the given interface.
+     */
+    private void
+    setUpFastEvaluator(Class interfaceToImplement, String[] parameterNames) {
         if (!interfaceToImplement.isInterface()) {
             throw new JaninoRuntimeException("\"" + interfaceToImplement + "\" is not an interface");
         }
@@ -927,9 +2178,66 @@ class ScriptEvaluator extends ClassBodyEvaluator implements IScriptEvaluator {
         this.setMethodName(methodToImplement.getName());
         this.setParameters(parameterNames, methodToImplement.getParameterTypes());
         this.setThrownExceptions(methodToImplement.getExceptionTypes());
-        this.cook(scanner);
+    }
+
+    /**
+     * @return A new instance of the class generated by the preceding cook, or, iff the script is interpreted, a proxy
+     *         that implements the <var>interfaceToImplement</var>
+     */
+    private Object
+    instantiateFastEvaluator(final Class interfaceToImplement) {
+        if (this.interpreter != null) {
+            return Proxy.newProxyInstance(
+                interfaceToImplement.getClassLoader(),
+                new Class[] { interfaceToImplement },
+                new InvocationHandler() {
+
+                    private Object compiled; // null=not instantiated yet
+
+                    @Override public Object
+                    invoke(Object proxy, Method method, Object[] arguments) throws Throwable {
+                        if (method.getDeclaringClass() == Object.class) {
+
+                            // Only "equals()", "hashCode()" and "toString()" are dispatched to the handler.
+                            String name = method.getName();
+                            if ("equals".equals(name)) return Boolean.valueOf(proxy == arguments[0]);
+                            if ("hashCode".equals(name)) return new Integer(System.identityHashCode(proxy));
+                            return "Interpreted " + interfaceToImplement.getName();
+                        }
+                        try {
+                            if (ScriptEvaluator.this.interpreter != null) {
+                                return ScriptEvaluator.this.evaluate(0, arguments == null ? new Object[0] : arguments);
+                            }
+
+                            // Tiered evaluation has switched to the compiled script.
+                            if (this.compiled == null) this.compiled = ScriptEvaluator.this.instantiateCookedClass();
+                            return method.invoke(this.compiled, arguments);
+                        } catch (InvocationTargetException ite) {
+                            throw ite.getTargetException();
+                        }
+                    }
+                }
+            );
+        }
+
+        return this.instantiateCookedClass();
+    }
+
+    /**
+     * @return A new instance of the class generated by the preceding cook
+     */
+    private Object
+    instantiateCookedClass() {
         Class c = this.getMethod().getDeclaringClass();
         try {
+            if (this.hoistedFieldValues != null) {
+                Constructor constructor = c.getConstructors()[0];
+                try {
+                    return constructor.newInstance(this.hoistedFieldValues);
+                } catch (InvocationTargetException ite) {
+                    throw new JaninoRuntimeException(ite.toString(), ite);
+                }
+            }
             return c.newInstance();
         } catch (InstantiationException e) {
             // SNO - Declared class is always non-abstract.
@@ -1002,7 +2310,22 @@ class ScriptEvaluator extends ClassBodyEvaluator implements IScriptEvaluator {
 
     @Override public Object
     evaluate(int idx, Object[] arguments) throws InvocationTargetException {
+        Interpreter interpreter = this.interpreter;
+        if (interpreter != null) {
+            this.countEvaluation();
+            return interpreter.evaluate(idx, arguments);
+        }
         if (this.result == null) throw new IllegalStateException("Must only be called after \"cook()\"");
+        if (this.hoistedParameterValues != null && this.hoistedParameterValues[idx] != null) {
+            arguments = ScriptEvaluator.concat(arguments, this.hoistedParameterValues[idx]);
+        }
+        Class[] invokerParameterTypes = this.invokerParameterTypes == null ? null : this.invokerParameterTypes[idx];
+        if (invokerParameterTypes != null && ScriptEvaluator.isInvokable(invokerParameterTypes, arguments)) {
+            return this.invoker.invoke(idx, arguments);
+        }
+
+        // The arguments require conversions (or are invalid), or the method is not static; let "Method.invoke()"
+        // handle the case.
         try {
             return this.result[idx].invoke(null, arguments);
         } catch (IllegalAccessException ex) {
@@ -1010,8 +2333,142 @@ class ScriptEvaluator extends ClassBodyEvaluator implements IScriptEvaluator {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Notice that the arguments and the result are wrapped unless an {@link #setGenerateInvoker(boolean) invoker} is
+     * generated.
+     */
+    @Override public double
+    evaluateDouble(int idx, double[] arguments) throws InvocationTargetException {
+        boolean interpreted = this.interpreter != null;
+        if (this.result == null && !interpreted) {
+            throw new IllegalStateException("Must only be called after \"cook()\"");
+        }
+        double[] hoistedValues = (
+            interpreted || this.invokerDoubleHoistedValues == null
+            ? null
+            : this.invokerDoubleHoistedValues[idx]
+        );
+        if (
+            hoistedValues != null
+            && arguments.length + hoistedValues.length == this.invokerParameterTypes[idx].length
+        ) {
+            if (hoistedValues.length > 0) arguments = ScriptEvaluator.concat(arguments, hoistedValues);
+            return this.invoker.invokeDouble(idx, arguments);
+        }
+
+        // Some parameter or the return type is not numeric, or the method is not static, or the number of arguments
+        // is wrong; wrap the arguments and evaluate the script through "evaluate()".
+        Class[]  parameterTypes = this.optionalParameterTypes == null ? new Class[0] : this.optionalParameterTypes[idx];
+        Object[] args           = new Object[arguments.length];
+        for (int i = 0; i < Math.min(args.length, parameterTypes.length); ++i) {
+            args[i] = PrimitiveWrapper.wrap(parameterTypes[i], arguments[i]);
+        }
+        return PrimitiveWrapper.doubleValue(this.evaluate(idx, args));
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Notice that the arguments and the result are wrapped unless an {@link #setGenerateInvoker(boolean) invoker} is
+     * generated.
+     */
+    @Override public long
+    evaluateLong(int idx, long[] arguments) throws InvocationTargetException {
+        boolean interpreted = this.interpreter != null;
+        if (this.result == null && !interpreted) {
+            throw new IllegalStateException("Must only be called after \"cook()\"");
+        }
+        long[] hoistedValues = (
+            interpreted || this.invokerLongHoistedValues == null
+            ? null
+            : this.invokerLongHoistedValues[idx]
+        );
+        if (
+            hoistedValues != null
+            && arguments.length + hoistedValues.length == this.invokerParameterTypes[idx].length
+        ) {
+            if (hoistedValues.length > 0) arguments = ScriptEvaluator.concat(arguments, hoistedValues);
+            return this.invoker.invokeLong(idx, arguments);
+        }
+
+        // Some parameter or the return type is not numeric, or the method is not static, or the number of arguments
+        // is wrong; wrap the arguments and evaluate the script through "evaluate()".
+        Class[]  parameterTypes = this.optionalParameterTypes == null ? new Class[0] : this.optionalParameterTypes[idx];
+        Object[] args           = new Object[arguments.length];
+        for (int i = 0; i < Math.min(args.length, parameterTypes.length); ++i) {
+            args[i] = PrimitiveWrapper.wrap(parameterTypes[i], arguments[i]);
+        }
+        return PrimitiveWrapper.longValue(this.evaluate(idx, args));
+    }
+
+    /**
+     * Evaluates the <var>idx</var>th script for each row index in the range <var>from</var> (inclusive) ...
+     * <var>to</var> (exclusive). The arguments are taken from the <var>columns</var>, one array per parameter, and
+     * each result is stored at the row index in the array <var>out</var>.
+     * <p>
+     * The element type of each column must be the parameter type if that is primitive, e.g. {@code double[]} for a
+     * {@code double} parameter, and {@code Object[]} otherwise. Likewise, the element type of <var>out</var> must be
+     * the script's return type if that is primitive, and {@code Object[]} otherwise; <var>out</var> is ignored if
+     * the return type is {@code void}.
+     * <p>
+     * For best performance, enable {@link #setBatchEvaluation(boolean) batch evaluation} before cooking.
+     * <p>
+     * This method is thread-safe.
+     *
+     * @throws InvocationTargetException The script threw an exception at some row; the results for the preceding rows
+     *                                   have been stored
+     * @throws IndexOutOfBoundsException The range exceeds the length of a column or of <var>out</var>
+     */
+    public void
+    evaluateBatch(int idx, Object[] columns, Object out, int from, int to) throws InvocationTargetException {
+        boolean interpreted = this.interpreter != null;
+        if (this.result == null && !interpreted) {
+            throw new IllegalStateException("Must only be called after \"cook()\"");
+        }
+
+        // Check the range before any row is evaluated.
+        if (from < 0 || from > to) throw new IndexOutOfBoundsException("Invalid range " + from + "..." + to);
+        for (int i = 0; i < columns.length; ++i) {
+            if (Array.getLength(columns[i]) < to) throw new IndexOutOfBoundsException("Column " + i + " too short");
+        }
+        Class   returnType  = this.getReturnType(idx);
+        boolean returnsVoid = returnType == void.class;
+        if (!returnsVoid && Array.getLength(out) < to) throw new IndexOutOfBoundsException("Output column too short");
+
+        // Check the column types before any row is evaluated, so that no row is evaluated twice.
+        if (
+            !interpreted
+            && this.invokerBatch != null
+            && this.invokerBatch[idx]
+            && ScriptEvaluator.isBatchInvokable(this.invokerParameterTypes[idx], returnType, columns, out, from, to)
+        ) {
+            this.invoker.invokeBatch(idx, columns, out, from, to);
+            return;
+        }
+
+        // The columns do not match the parameter types, or batch evaluation is disabled, or the method is not static;
+        // evaluate row by row.
+        Object[] arguments = new Object[columns.length];
+        for (int k = from; k < to; ++k) {
+            for (int i = 0; i < columns.length; ++i) arguments[i] = Array.get(columns[i], k);
+            Object r = this.evaluate(idx, arguments);
+            if (!returnsVoid) Array.set(out, k, r);
+        }
+    }
+
+    /**
+     * Same as {@link #evaluateBatch(int, Object[], Object, int, int)}, but for the first script.
+     */
+    public void
+    evaluateBatch(Object[] columns, Object out, int from, int to) throws InvocationTargetException {
+        this.evaluateBatch(0, columns, out, from, to);
+    }
+
     @Override public Method
     getMethod(int idx) {
+        if (this.interpreter != null) throw new UnsupportedOperationException("Scripts are interpreted");
         if (this.result == null) throw new IllegalStateException("Must only be called after \"cook()\"");
         return this.result[idx];
     }
@@ -49,15 +49,41 @@ class SimpleCompiler extends Cookable implements ISimpleCompiler {
 
     private ClassLoader parentClassLoader = Thread.currentThread().getContextClassLoader();
 
+    private ClassLoaderIClassLoaderCache optionalClassLoaderIClassLoaderCache;
+
     // Set when "cook()"ing.
     private ClassLoaderIClassLoader classLoaderIClassLoader;
 
     private ClassLoader result;
 
+    // The total size of the class files generated by the last "cook()".
+    private int bytecodeSize;
+
     protected boolean debugSource = Boolean.getBoolean(ICookable.SYSTEM_PROPERTY_SOURCE_DEBUGGING_ENABLE);
     protected boolean debugLines  = this.debugSource;
     protected boolean debugVars   = this.debugSource;
 
+    // See "UnitCompiler.setTargetVersion()".
+    protected int targetVersion = -1;
+
+    // See "UnitCompiler.setSplitLargeMethods()".
+    protected boolean splitLargeMethods;
+
+    // See "UnitCompiler.setPeepholeOptimization()".
+    protected boolean peepholeOptimization;
+
+    // See "UnitCompiler.setInlineThreshold()".
+    protected int inlineThreshold;
+
+    // See "setHiddenClassHost()"; null=define the generated classes through a new class loader.
+    private Object optionalHiddenClassHost;
+
+    // null=define the generated classes through a new class loader.
+    private ClassLoaderPool optionalClassLoaderPool;
+
+    // See "setCompact()".
+    private boolean compact;
+
     public static void
     main(String[] args) throws Exception {
         if (args.length >= 1 && "-help".equals(args[0])) {
@@ -162,6 +188,62 @@ class SimpleCompiler extends Cookable implements ISimpleCompiler {
         );
     }
 
+    /**
+     * Configures this {@link SimpleCompiler} to obtain its {@link ClassLoaderIClassLoader} from the given cache,
+     * instead of creating a new one for each {@link #cook(Scanner) cook}. Typically one cache is shared by many {@link
+     * SimpleCompiler}s, {@link ClassBodyEvaluator}s, {@link ScriptEvaluator}s and {@link ExpressionEvaluator}s, so
+     * that the referenced classes are loaded and reflected only once per parent class loader.
+     *
+     * @param optionalClassLoaderIClassLoaderCache {@code null} means "create a new {@link ClassLoaderIClassLoader}
+     *                                             for each cook", which is the default
+     */
+    public void
+    setClassLoaderIClassLoaderCache(ClassLoaderIClassLoaderCache optionalClassLoaderIClassLoaderCache) {
+        assertNotCooked();
+        this.optionalClassLoaderIClassLoaderCache = optionalClassLoaderIClassLoaderCache;
+    }
+
+    /**
+     * Configures this {@link SimpleCompiler} to define the generated classes through a class loader of the given pool,
+     * instead of through a new class loader for each {@link #cook(Scanner) cook}. Typically one pool is shared by many
+     * {@link SimpleCompiler}s, {@link ClassBodyEvaluator}s, {@link ScriptEvaluator}s and {@link
+     * ExpressionEvaluator}s.
+     * <p>
+     * {@link ClassBodyEvaluator} and its subclasses then give the generated class a unique name, derived from the
+     * {@link ClassBodyEvaluator#setClassName(String) configured class name}; thus the class body must not refer to
+     * its class by name.
+     *
+     * @param optionalClassLoaderPool {@code null} means "create a new class loader for each cook", which is the
+     *                                default
+     */
+    public void
+    setClassLoaderPool(ClassLoaderPool optionalClassLoaderPool) {
+        assertNotCooked();
+        this.optionalClassLoaderPool = optionalClassLoaderPool;
+    }
+
+    /**
+     * @return The pool that defines the generated classes, or {@code null}
+     * @see    #setClassLoaderPool(ClassLoaderPool)
+     */
+    protected final ClassLoaderPool
+    getClassLoaderPool() { return this.optionalClassLoaderPool; }
+
+    /**
+     * If <var>compact</var> is {@code true}, then each {@link #cook(Scanner) cook} ends by dropping everything that was
+     * only needed for compilation, so that only the loaded classes (and, for the evaluators, their {@link Method}s)
+     * remain referenced: The {@link ClassLoaderIClassLoader} with the {@link IClass}es of all classes that the code
+     * refers to, and the class file bytes, after all generated classes have been defined.
+     * <p>
+     * This is useful if very many cooked {@link SimpleCompiler}s (or evaluators) are kept, because otherwise the
+     * compile-time leftovers make up most of their memory footprint.
+     */
+    public void
+    setCompact(boolean compact) {
+        assertNotCooked();
+        this.compact = compact;
+    }
+
     @Override public void
     setDebuggingInformation(boolean debugSource, boolean debugLines, boolean debugVars) {
         this.debugSource = debugSource;
@@ -169,6 +251,90 @@ class SimpleCompiler extends Cookable implements ISimpleCompiler {
         this.debugVars   = debugVars;
     }
 
+    /**
+     * Sets the version of the generated class files. By default, Java 1.1 class files are generated.
+     *
+     * @param version -1, 6, 7 or 8
+     * @see UnitCompiler#setTargetVersion(int)
+     */
+    public void
+    setTargetVersion(int version) {
+        if (version != -1 && (version < 6 || version > 8)) {
+            throw new IllegalArgumentException("Invalid target version " + version);
+        }
+        this.targetVersion = version;
+    }
+
+    /**
+     * Sets whether methods that are too large for the JVM are split into several methods.
+     *
+     * @see UnitCompiler#setSplitLargeMethods(boolean)
+     */
+    public void
+    setSplitLargeMethods(boolean value) { this.splitLargeMethods = value; }
+
+    /**
+     * Sets whether the generated bytecode is peephole-optimized.
+     *
+     * @see UnitCompiler#setPeepholeOptimization(boolean)
+     */
+    public void
+    setPeepholeOptimization(boolean value) { this.peepholeOptimization = value; }
+
+    /**
+     * Sets the maximum estimated code size of the methods that are inlined; 0 disables inlining.
+     *
+     * @see UnitCompiler#setInlineThreshold(int)
+     */
+    public void
+    setInlineThreshold(int value) { this.inlineThreshold = value; }
+
+    /**
+     * Configures this {@link SimpleCompiler} to define the generated class as a <i>hidden class</i> (JDK 15+) of the
+     * given host, instead of through a new class loader. A hidden class is not tied to the lifecycle of a class loader;
+     * it is unloaded as soon as it (and any instance of it) becomes unreachable. That way, many short-lived evaluators
+     * do not cost one class loader each.
+     * <p>
+     * The <var>hostLookup</var> must be a {@code java.lang.invoke.MethodHandles.Lookup} with full privilege access,
+     * typically {@code MethodHandles.lookup()} of the host class. (The parameter is declared as {@link Object} because
+     * JANINO does not require Java 15.) The generated class must be declared in the host's package (see e.g. {@link
+     * ClassBodyEvaluator#setClassName(String)}), and it can refer to the classes visible to the host's class
+     * loader, which should therefore be the {@link #setParentClassLoader(ClassLoader) parent class loader}.
+     * <p>
+     * Hidden classes cannot be found by name, thus each must be self-contained: If the compilation unit compiles into
+     * more than one class (e.g. because it declares nested or anonymous classes), or if the runtime does not support
+     * hidden classes, then the classes are defined through a new class loader, as usual.
+     * <p>
+     * After cooking, {@link #getClassLoader()} returns a lightweight {@link ClassLoader} that only serves the
+     * hidden class by its name, and defines no classes.
+     *
+     * @param optionalHostLookup {@code null} means "define the generated classes through a new class loader", which
+     *                           is the default
+     */
+    public void
+    setHiddenClassHost(Object optionalHostLookup) {
+        assertNotCooked();
+        if (
+            optionalHostLookup != null
+            && !"java.lang.invoke.MethodHandles$Lookup".equals(optionalHostLookup.getClass().getName())
+        ) throw new IllegalArgumentException("MethodHandles.Lookup expected");
+        this.optionalHiddenClassHost = optionalHostLookup;
+    }
+
+    /**
+     * @return Whether the generated class is to be defined as a hidden class
+     * @see    #setHiddenClassHost(Object)
+     */
+    protected final boolean
+    definesHiddenClasses() { return this.optionalHiddenClassHost != null; }
+
+    /**
+     * @return The host of the generated hidden class, or {@code null}
+     * @see    #setHiddenClassHost(Object)
+     */
+    protected final Object
+    getHiddenClassHost() { return this.optionalHiddenClassHost; }
+
     /**
      * Scans, parses and compiles a given compilation unit from the given {@link Reader}. After completion, {@link
      * #getClassLoader()} returns a {@link ClassLoader} that allows for access to the compiled classes.
@@ -290,6 +456,27 @@ class SimpleCompiler extends Cookable implements ISimpleCompiler {
         return types;
     }
 
+    /**
+     * @return A {@link UnitCompiler} for the given compilation unit, which loads the referenced classes through the
+     *         parent class loader
+     * @see    #setParentClassLoader(ClassLoader)
+     */
+    protected final UnitCompiler
+    newUnitCompiler(Java.CompilationUnit compilationUnit) {
+        this.classLoaderIClassLoader = (
+            this.optionalClassLoaderIClassLoaderCache != null
+            ? this.optionalClassLoaderIClassLoaderCache.get(this.parentClassLoader)
+            : new ClassLoaderIClassLoader(this.parentClassLoader)
+        );
+
+        UnitCompiler unitCompiler = new UnitCompiler(compilationUnit, this.classLoaderIClassLoader);
+        unitCompiler.setTargetVersion(this.targetVersion);
+        unitCompiler.setSplitLargeMethods(this.splitLargeMethods);
+        unitCompiler.setPeepholeOptimization(this.peepholeOptimization);
+        unitCompiler.setInlineThreshold(this.inlineThreshold);
+        return unitCompiler;
+    }
+
     /**
      * Compile the given compilation unit. (A "compilation unit" is typically the contents
      * of a Java&trade; source file.)
@@ -304,16 +491,13 @@ class SimpleCompiler extends Cookable implements ISimpleCompiler {
             UnparseVisitor.unparse(compilationUnit, new OutputStreamWriter(System.out));
         }
 
-        this.classLoaderIClassLoader = new ClassLoaderIClassLoader(this.parentClassLoader);
-
         // Compile compilation unit to class files.
-        ClassFile[] classFiles = new UnitCompiler(
-            compilationUnit,
-            this.classLoaderIClassLoader
-        ).compileUnit(this.debugSource, this.debugLines, this.debugVars);
+        UnitCompiler unitCompiler = this.newUnitCompiler(compilationUnit);
+        ClassFile[]  classFiles   = unitCompiler.compileUnit(this.debugSource, this.debugLines, this.debugVars);
 
         // Convert the class files to bytes and store them in a Map.
         final Map classes = new HashMap(); // String className => byte[] data
+        this.bytecodeSize = 0;
         for (int i = 0; i < classFiles.length; ++i) {
             ClassFile cf       = classFiles[i];
             byte[]    contents = cf.toByteArray();
@@ -332,27 +516,174 @@ class SimpleCompiler extends Cookable implements ISimpleCompiler {
                 }
             }
             classes.put(cf.getThisClassName(), contents);
+            this.bytecodeSize += contents.length;
         }
 
-        // Create a ClassLoader that loads the generated classes.
+        final Class hiddenClass = (
+            this.optionalHiddenClassHost != null && classFiles.length == 1
+            ? this.defineHiddenClass((byte[]) classes.values().iterator().next())
+            : null
+        );
+        final String className = classFiles.length == 1 ? classFiles[0].getThisClassName() : null;
+
+        // Create a ClassLoader that loads the generated classes, or serves the hidden class.
         this.result = (ClassLoader) AccessController.doPrivileged(new PrivilegedAction() {
 
             @Override public Object
             run() {
+                if (hiddenClass != null) {
+                    return new HiddenClassLoader(className, hiddenClass, SimpleCompiler.this.parentClassLoader);
+                }
+                if (SimpleCompiler.this.optionalClassLoaderPool != null) {
+                    return SimpleCompiler.this.optionalClassLoaderPool.define(
+                        classes,                              // classes
+                        SimpleCompiler.this.parentClassLoader // parent
+                    );
+                }
                 return new ByteArrayClassLoader(
                     classes,                              // classes
                     SimpleCompiler.this.parentClassLoader // parent
                 );
             }
         });
+
+        if (this.compact) {
+            if (this.result instanceof ByteArrayClassLoader) ((ByteArrayClassLoader) this.result).defineAll();
+            this.classLoaderIClassLoader = null;
+        }
+
         return this.result;
     }
 
+    /**
+     * Defines the given class file as a hidden class of the {@link #setHiddenClassHost(Object) host}, through
+     * reflection, because JANINO does not require Java 15.
+     *
+     * @return {@code null} iff the runtime does not support hidden classes
+     */
+    private Class
+    defineHiddenClass(byte[] classFile) {
+        Object lookup = this.optionalHiddenClassHost;
+        Method defineHiddenClass, lookupClass;
+        Object noOptions;
+        try {
+            Class classOptionClass = Class.forName("java.lang.invoke.MethodHandles$Lookup$ClassOption");
+            noOptions         = Array.newInstance(classOptionClass, 0);
+            defineHiddenClass = lookup.getClass().getMethod(
+                "defineHiddenClass",
+                new Class[] { byte[].class, boolean.class, noOptions.getClass() }
+            );
+            lookupClass = lookup.getClass().getMethod("lookupClass", new Class[0]);
+        } catch (ClassNotFoundException cnfe) {
+            return null;
+        } catch (NoSuchMethodException nsme) {
+            return null;
+        }
+
+        try {
+            Object hiddenClassLookup = defineHiddenClass.invoke(lookup, new Object[] {
+                classFile,
+                Boolean.FALSE, // initialize
+                noOptions,
+            });
+            return (Class) lookupClass.invoke(hiddenClassLookup, new Object[0]);
+        } catch (InvocationTargetException ite) {
+
+            // E.g. an IllegalArgumentException because the class is not in the host's package.
+            Throwable te = ite.getTargetException();
+            if (te instanceof RuntimeException) throw (RuntimeException) te;
+            if (te instanceof Error) throw (Error) te;
+            throw new JaninoRuntimeException(te.toString(), te);
+        } catch (IllegalAccessException iae) {
+            throw new JaninoRuntimeException(iae.toString(), iae);
+        }
+    }
+
+    /**
+     * Serves a hidden class by its (original) name, so that it can be found through {@link
+     * ClassLoader#loadClass(String)} like any other generated class. Defines no classes itself.
+     */
+    private static
+    class HiddenClassLoader extends ClassLoader {
+
+        private final String className;
+        private final Class  hiddenClass;
+
+        HiddenClassLoader(String className, Class hiddenClass, ClassLoader parent) {
+            super(parent);
+            this.className   = className;
+            this.hiddenClass = hiddenClass;
+        }
+
+        @Override protected Class
+        findClass(String name) throws ClassNotFoundException {
+            if (name.equals(this.className)) return this.hiddenClass;
+            throw new ClassNotFoundException(name);
+        }
+    }
+
+    /**
+     * @return The total number of bytes of the class files that were generated by {@link
+     *         #compileToClassLoader(Java.CompilationUnit)}
+     */
+    protected final int
+    getBytecodeSize() { return this.bytecodeSize; }
+
+    /**
+     * Marks this {@link SimpleCompiler} as cooked without compiling anything, e.g. because the class was taken from a
+     * cache.
+     *
+     * @param generatedClass A class that a previous cook with the same configuration generated; iff it is a hidden
+     *                       class, then {@link #getClassLoader()} returns a new loader that serves it by its name,
+     *                       and not the class loader of the host
+     */
+    protected final void
+    setCooked(final Class generatedClass) {
+        assertNotCooked();
+
+        // A hidden class is named "<binary name>/<suffix>".
+        final String name = generatedClass.getName();
+        final int    idx  = name.indexOf('/');
+        if (idx == -1) {
+            this.result = generatedClass.getClassLoader();
+            return;
+        }
+        this.result = (ClassLoader) AccessController.doPrivileged(new PrivilegedAction() {
+
+            @Override public Object
+            run() {
+                return new HiddenClassLoader(
+                    name.substring(0, idx),
+                    generatedClass,
+                    SimpleCompiler.this.parentClassLoader
+                );
+            }
+        });
+    }
+
+    /**
+     * Reverts the effect of a {@link #compileToClassLoader(Java.CompilationUnit)} that threw a {@link
+     * CompileException}, so that this {@link SimpleCompiler} can be cooked again.
+     */
+    protected final void
+    resetAfterCompileError() {
+        if (this.result != null) throw new IllegalStateException("Already cooked");
+        this.classLoaderIClassLoader = null;
+    }
+
     /**
      * Throw an {@link IllegalStateException} if this {@link Cookable} is already cooked.
      */
     protected void
     assertNotCooked() {
-        if (this.classLoaderIClassLoader != null) throw new IllegalStateException("Already cooked");
+        if (this.classLoaderIClassLoader != null || this.result != null) {
+            throw new IllegalStateException("Already cooked");
+        }
     }
+
+    /**
+     * @return The parent class loader, as configured through {@link #setParentClassLoader(ClassLoader)}
+     */
+    protected final ClassLoader
+    getParentClassLoader() { return this.parentClassLoader; }
 }
@@ -0,0 +1,1201 @@
+
+/*
+ * Janino - An embedded Java[TM] compiler
+ *
+ * Copyright (c) 2001-2010, Arno Unkrig
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *       following disclaimer.
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *       following disclaimer in the documentation and/or other materials provided with the distribution.
+ *    3. The name of the author may not be used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.codehaus.janino;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.codehaus.janino.util.ClassFile;
+
+/**
+ * Computes the body of the "StackMapTable" attribute (JVMS7 4.7.4) of a method's "Code" attribute. Class files of
+ * version 50 and higher carry this attribute, so that the JVM can verify them with the fast type-checking verifier
+ * (JVMS7 4.10.1) instead of the type-inferencing verifier.
+ * <p>
+ * The computation is a data flow analysis which is similar to {@link CodeContext#flowAnalysis(String)}, but tracks
+ * the verification types of the local variables and the operand stack entries instead of only the operand stack
+ * size.
+ * <p>
+ * Verification types are represented as strings: {@link #TOP}, {@link #INTEGER}, {@link #FLOAT}, {@link #LONG},
+ * {@link #DOUBLE}, {@link #NULL}, {@link #UNINITIALIZED_THIS}, "u<var>offset</var>" for an object created by the
+ * NEW instruction at that offset, and the field descriptor of the class or array type otherwise. Long and double
+ * values occupy two elements, the second of which is {@link #TOP}.
+ */
+@SuppressWarnings({ "rawtypes", "unchecked" }) final
+class StackMapComputer {
+
+    /**
+     * Provides the information about the type hierarchy which is required to merge reference types.
+     */
+    public
+    interface ClassHierarchy {
+
+        /**
+         * @param fieldDescriptor The field descriptor of a class or interface, e.g. "Ljava/lang/String;"
+         * @return                The field descriptor of the superclass, or {@code null} iff the type is {@code
+         *                        java.lang.Object}, an interface, or unknown
+         */
+        String getSuperclassDescriptor(String fieldDescriptor);
+
+        /**
+         * @return Whether the given type is an interface; {@code false} if the type is unknown
+         */
+        boolean isInterface(String fieldDescriptor);
+    }
+
+    private static final String TOP                = "T";
+    private static final String INTEGER            = "I";
+    private static final String FLOAT              = "F";
+    private static final String LONG               = "J";
+    private static final String DOUBLE             = "D";
+    private static final String NULL               = "N";
+    private static final String UNINITIALIZED_THIS = "u";
+
+    private static final String JAVA_LANG_OBJECT    = "Ljava/lang/Object;";
+    private static final String JAVA_LANG_THROWABLE = "Ljava/lang/Throwable;";
+
+    private final ClassFile      classFile;
+    private final ClassHierarchy classHierarchy;
+    private final byte[]         code;
+    private final int            codeLength;
+    private final int[]          handlerStarts;
+    private final int[]          handlerEnds;
+    private final int[]          handlerPcs;
+    private final String[]       handlerTypes;
+
+    private String[][] localsAt; // null=unreached
+    private String[][] stacksAt;
+    private boolean[]  frameRequiredAt;
+    private boolean[]  reached;
+    private int[]      worklist;
+    private int        worklistSize;
+    private boolean[]  queued;
+    private byte[]     stackMapTable;
+
+    /**
+     * @param handlerCatchTypes The constant pool indexes of the caught exceptions' classes; 0 means "any exception"
+     */
+    StackMapComputer(
+        ClassFile      classFile,
+        ClassHierarchy classHierarchy,
+        byte[]         code,
+        int            codeLength,
+        int[]          handlerStarts,
+        int[]          handlerEnds,
+        int[]          handlerPcs,
+        short[]        handlerCatchTypes
+    ) {
+        this.classFile      = classFile;
+        this.classHierarchy = classHierarchy;
+        this.code           = code;
+        this.codeLength     = codeLength;
+        this.handlerStarts  = handlerStarts;
+        this.handlerEnds    = handlerEnds;
+        this.handlerPcs     = handlerPcs;
+        this.handlerTypes   = new String[handlerCatchTypes.length];
+        for (int i = 0; i < handlerCatchTypes.length; ++i) {
+            this.handlerTypes[i] = (
+                handlerCatchTypes[i] == 0
+                ? StackMapComputer.JAVA_LANG_THROWABLE
+                : StackMapComputer.classNameToDescriptor(classFile.getConstantClassName(handlerCatchTypes[i]))
+            );
+        }
+    }
+
+    /**
+     * Computes the stack map frames of the code. Notice that unreachable code is replaced with "NOP ... NOP ATHROW",
+     * because no meaningful stack map frame can be computed for it.
+     *
+     * @param methodName       E.g. "&lt;init>"
+     * @param methodDescriptor E.g. "(ILjava/lang/String;)V"
+     * @return                 {@code false} iff no stack map frames can be computed, because the code uses the JSR or
+     *                         RET instruction
+     */
+    boolean
+    compute(String methodName, String methodDescriptor, boolean isStatic, short maxLocals) {
+        String   thisClass     = StackMapComputer.classNameToDescriptor(
+            this.classFile.getConstantClassName(this.classFile.thisClass)
+        );
+        String[] initialLocals = new String[maxLocals];
+        int      n             = 0;
+        if (!isStatic) {
+            initialLocals[n++] = (
+                "<init>".equals(methodName) && !StackMapComputer.JAVA_LANG_OBJECT.equals(thisClass)
+                ? StackMapComputer.UNINITIALIZED_THIS
+                : thisClass
+            );
+        }
+        String[] parameterTypes = StackMapComputer.parseParameterTypes(methodDescriptor);
+        for (int i = 0; i < parameterTypes.length; ++i) {
+            String t = parameterTypes[i];
+            initialLocals[n++] = t;
+            if (t == StackMapComputer.LONG || t == StackMapComputer.DOUBLE) initialLocals[n++] = StackMapComputer.TOP;
+        }
+        while (n < maxLocals) initialLocals[n++] = StackMapComputer.TOP;
+
+        this.localsAt        = new String[this.codeLength][];
+        this.stacksAt        = new String[this.codeLength][];
+        this.frameRequiredAt = new boolean[this.codeLength];
+        this.reached         = new boolean[this.codeLength];
+        this.worklist        = new int[this.codeLength];
+        this.worklistSize    = 0;
+        this.queued          = new boolean[this.codeLength];
+
+        this.mergeInto(0, initialLocals, new String[0]);
+        for (int i = 0; i < this.handlerPcs.length; ++i) this.frameRequiredAt[this.handlerPcs[i]] = true;
+
+        while (this.worklistSize > 0) {
+            int offset = this.worklist[--this.worklistSize];
+            this.queued[offset] = false;
+            if (!this.execute(offset)) return false;
+        }
+
+        this.patchUnreachableCode(maxLocals);
+
+        this.stackMapTable = this.encode(initialLocals);
+        return true;
+    }
+
+    /**
+     * @return The body of the "StackMapTable" attribute (without the attribute name index and length), or {@code
+     *         null} iff no "StackMapTable" attribute is required, because the code has no branch targets and no
+     *         exception handlers
+     */
+    byte[]
+    getStackMapTable() { return this.stackMapTable; }
+
+    /**
+     * Simulates the instruction at the given offset and propagates the resulting frame to the successor
+     * instructions and to the exception handlers.
+     *
+     * @return {@code false} iff the instruction is JSR, JSR_W or RET
+     */
+    private boolean
+    execute(int offset) {
+        String[] locals = StackMapComputer.copy(this.localsAt[offset]);
+        List     stack  = new ArrayList();
+        for (int i = 0; i < this.stacksAt[offset].length; ++i) stack.add(this.stacksAt[offset][i]);
+
+        this.propagateToHandlers(offset, locals);
+
+        byte[] c  = this.code;
+        int    op = 0xff & c[offset];
+        int    next;                     // Offset of the next instruction
+        int[]  targets = new int[0];     // Branch targets
+        boolean fallsThrough = true;
+
+        boolean wide = false;
+        int     operandOffset = offset + 1;
+        if (op == (0xff & Opcode.WIDE)) {
+            wide = true;
+            op   = 0xff & c[operandOffset++];
+        }
+
+        // Determine the instruction's length, branch targets and fall-through behavior.
+        short props = wide ? Opcode.WIDE_OPCODE_PROPERTIES[op] : Opcode.OPCODE_PROPERTIES[op];
+        if ((props & Opcode.NO_FALLTHROUGH) != 0) fallsThrough = false;
+        switch (props & Opcode.OP1_MASK) {
+
+        case 0:
+            next = operandOffset;
+            break;
+
+        case Opcode.OP1_SB:
+        case Opcode.OP1_UB:
+        case Opcode.OP1_CP1:
+            next = operandOffset + 1;
+            break;
+
+        case Opcode.OP1_SS:
+        case Opcode.OP1_CP2:
+            next = operandOffset + 2;
+            break;
+
+        case Opcode.OP1_BO2:
+            targets = new int[] { offset + StackMapComputer.s2(c, operandOffset) };
+            next    = operandOffset + 2;
+            break;
+
+        case Opcode.OP1_BO4:
+            targets = new int[] { offset + StackMapComputer.s4(c, operandOffset) };
+            next    = operandOffset + 4;
+            break;
+
+        case Opcode.OP1_JSR:
+            return false;
+
+        case Opcode.OP1_LV1:
+        case Opcode.OP1_LV2:
+            if (op == (0xff & Opcode.RET)) return false;
+            next = operandOffset + ((props & Opcode.OP1_MASK) == Opcode.OP1_LV1 ? 1 : 2);
+            break;
+
+        case Opcode.OP1_LOOKUPSWITCH:
+            {
+                int o = operandOffset;
+                while ((o & 3) != 0) ++o;
+                int npairs = StackMapComputer.s4(c, o + 4);
+                targets    = new int[npairs + 1];
+                targets[0] = offset + StackMapComputer.s4(c, o);
+                for (int i = 0; i < npairs; ++i) targets[i + 1] = offset + StackMapComputer.s4(c, o + 12 + 8 * i);
+                next = o + 8 + 8 * npairs;
+            }
+            break;
+
+        case Opcode.OP1_TABLESWITCH:
+            {
+                int o = operandOffset;
+                while ((o & 3) != 0) ++o;
+                int low  = StackMapComputer.s4(c, o + 4);
+                int high = StackMapComputer.s4(c, o + 8);
+                targets    = new int[high - low + 2];
+                targets[0] = offset + StackMapComputer.s4(c, o);
+                for (int i = 0; i <= high - low; ++i) targets[i + 1] = offset + StackMapComputer.s4(c, o + 12 + 4 * i);
+                next = o + 12 + 4 * (high - low + 1);
+            }
+            break;
+
+        default:
+            throw new JaninoRuntimeException("Invalid OP1");
+        }
+        if ((props & Opcode.OP2_MASK) == Opcode.OP2_SB) next += 1;
+        if ((props & Opcode.OP2_MASK) == Opcode.OP2_SS) next += 2;
+        if ((props & Opcode.OP3_MASK) == Opcode.OP3_SB) next += 1;
+        Arrays.fill(this.reached, offset, next, true);
+
+        // Simulate the instruction.
+        switch (op) {
+
+        case 0xff & Opcode.NOP:
+        case 0xff & Opcode.IINC:
+        case 0xff & Opcode.GOTO:
+        case 0xff & Opcode.GOTO_W:
+        case 0xff & Opcode.RETURN:
+            break;
+
+        case 0xff & Opcode.ACONST_NULL:
+            StackMapComputer.push(stack, StackMapComputer.NULL);
+            break;
+
+        case 0xff & Opcode.ICONST_M1:
+        case 0xff & Opcode.ICONST_0:
+        case 0xff & Opcode.ICONST_1:
+        case 0xff & Opcode.ICONST_2:
+        case 0xff & Opcode.ICONST_3:
+        case 0xff & Opcode.ICONST_4:
+        case 0xff & Opcode.ICONST_5:
+        case 0xff & Opcode.BIPUSH:
+        case 0xff & Opcode.SIPUSH:
+            StackMapComputer.push(stack, StackMapComputer.INTEGER);
+            break;
+
+        case 0xff & Opcode.LCONST_0:
+        case 0xff & Opcode.LCONST_1:
+            StackMapComputer.push(stack, StackMapComputer.LONG);
+            break;
+
+        case 0xff & Opcode.FCONST_0:
+        case 0xff & Opcode.FCONST_1:
+        case 0xff & Opcode.FCONST_2:
+            StackMapComputer.push(stack, StackMapComputer.FLOAT);
+            break;
+
+        case 0xff & Opcode.DCONST_0:
+        case 0xff & Opcode.DCONST_1:
+            StackMapComputer.push(stack, StackMapComputer.DOUBLE);
+            break;
+
+        case 0xff & Opcode.LDC:
+            StackMapComputer.push(stack, this.constantType((short) (0xff & c[operandOffset])));
+            break;
+
+        case 0xff & Opcode.LDC_W:
+        case 0xff & Opcode.LDC2_W:
+            StackMapComputer.push(stack, this.constantType((short) StackMapComputer.u2(c, operandOffset)));
+            break;
+
+        case 0xff & Opcode.ILOAD:
+        case 0xff & Opcode.LLOAD:
+        case 0xff & Opcode.FLOAD:
+        case 0xff & Opcode.DLOAD:
+        case 0xff & Opcode.ALOAD:
+            StackMapComputer.push(stack, locals[
+                wide ? StackMapComputer.u2(c, operandOffset) : 0xff & c[operandOffset]
+            ]);
+            break;
+
+        case 0xff & Opcode.ILOAD_0:
+        case 0xff & Opcode.ILOAD_1:
+        case 0xff & Opcode.ILOAD_2:
+        case 0xff & Opcode.ILOAD_3:
+            StackMapComputer.push(stack, StackMapComputer.INTEGER);
+            break;
+
+        case 0xff & Opcode.LLOAD_0:
+        case 0xff & Opcode.LLOAD_1:
+        case 0xff & Opcode.LLOAD_2:
+        case 0xff & Opcode.LLOAD_3:
+            StackMapComputer.push(stack, StackMapComputer.LONG);
+            break;
+
+        case 0xff & Opcode.FLOAD_0:
+        case 0xff & Opcode.FLOAD_1:
+        case 0xff & Opcode.FLOAD_2:
+        case 0xff & Opcode.FLOAD_3:
+            StackMapComputer.push(stack, StackMapComputer.FLOAT);
+            break;
+
+        case 0xff & Opcode.DLOAD_0:
+        case 0xff & Opcode.DLOAD_1:
+        case 0xff & Opcode.DLOAD_2:
+        case 0xff & Opcode.DLOAD_3:
+            StackMapComputer.push(stack, StackMapComputer.DOUBLE);
+            break;
+
+        case 0xff & Opcode.ALOAD_0:
+        case 0xff & Opcode.ALOAD_1:
+        case 0xff & Opcode.ALOAD_2:
+        case 0xff & Opcode.ALOAD_3:
+            StackMapComputer.push(stack, locals[op - (0xff & Opcode.ALOAD_0)]);
+            break;
+
+        case 0xff & Opcode.IALOAD:
+        case 0xff & Opcode.BALOAD:
+        case 0xff & Opcode.CALOAD:
+        case 0xff & Opcode.SALOAD:
+            StackMapComputer.pop(stack, 2);
+            StackMapComputer.push(stack, StackMapComputer.INTEGER);
+            break;
+
+        case 0xff & Opcode.LALOAD:
+            StackMapComputer.pop(stack, 2);
+            StackMapComputer.push(stack, StackMapComputer.LONG);
+            break;
+
+        case 0xff & Opcode.FALOAD:
+            StackMapComputer.pop(stack, 2);
+            StackMapComputer.push(stack, StackMapComputer.FLOAT);
+            break;
+
+        case 0xff & Opcode.DALOAD:
+            StackMapComputer.pop(stack, 2);
+            StackMapComputer.push(stack, StackMapComputer.DOUBLE);
+            break;
+
+        case 0xff & Opcode.AALOAD:
+            {
+                StackMapComputer.pop(stack, 1);
+                String arrayType = StackMapComputer.pop(stack, 1);
+                StackMapComputer.push(
+                    stack,
+                    arrayType.startsWith("[") ? arrayType.substring(1) : StackMapComputer.NULL
+                );
+            }
+            break;
+
+        case 0xff & Opcode.ISTORE:
+        case 0xff & Opcode.LSTORE:
+        case 0xff & Opcode.FSTORE:
+        case 0xff & Opcode.DSTORE:
+        case 0xff & Opcode.ASTORE:
+            StackMapComputer.store(
+                locals,
+                wide ? StackMapComputer.u2(c, operandOffset) : 0xff & c[operandOffset],
+                StackMapComputer.pop(stack, op == (0xff & Opcode.LSTORE) || op == (0xff & Opcode.DSTORE) ? 2 : 1)
+            );
+            this.propagateToHandlers(offset, locals);
+            break;
+
+        case 0xff & Opcode.ISTORE_0:
+        case 0xff & Opcode.ISTORE_1:
+        case 0xff & Opcode.ISTORE_2:
+        case 0xff & Opcode.ISTORE_3:
+            StackMapComputer.store(locals, op - (0xff & Opcode.ISTORE_0), StackMapComputer.pop(stack, 1));
+            this.propagateToHandlers(offset, locals);
+            break;
+
+        case 0xff & Opcode.LSTORE_0:
+        case 0xff & Opcode.LSTORE_1:
+        case 0xff & Opcode.LSTORE_2:
+        case 0xff & Opcode.LSTORE_3:
+            StackMapComputer.store(locals, op - (0xff & Opcode.LSTORE_0), StackMapComputer.pop(stack, 2));
+            this.propagateToHandlers(offset, locals);
+            break;
+
+        case 0xff & Opcode.FSTORE_0:
+        case 0xff & Opcode.FSTORE_1:
+        case 0xff & Opcode.FSTORE_2:
+        case 0xff & Opcode.FSTORE_3:
+            StackMapComputer.store(locals, op - (0xff & Opcode.FSTORE_0), StackMapComputer.pop(stack, 1));
+            this.propagateToHandlers(offset, locals);
+            break;
+
+        case 0xff & Opcode.DSTORE_0:
+        case 0xff & Opcode.DSTORE_1:
+        case 0xff & Opcode.DSTORE_2:
+        case 0xff & Opcode.DSTORE_3:
+            StackMapComputer.store(locals, op - (0xff & Opcode.DSTORE_0), StackMapComputer.pop(stack, 2));
+            this.propagateToHandlers(offset, locals);
+            break;
+
+        case 0xff & Opcode.ASTORE_0:
+        case 0xff & Opcode.ASTORE_1:
+        case 0xff & Opcode.ASTORE_2:
+        case 0xff & Opcode.ASTORE_3:
+            StackMapComputer.store(locals, op - (0xff & Opcode.ASTORE_0), StackMapComputer.pop(stack, 1));
+            this.propagateToHandlers(offset, locals);
+            break;
+
+        case 0xff & Opcode.IASTORE:
+        case 0xff & Opcode.FASTORE:
+        case 0xff & Opcode.AASTORE:
+        case 0xff & Opcode.BASTORE:
+        case 0xff & Opcode.CASTORE:
+        case 0xff & Opcode.SASTORE:
+            StackMapComputer.pop(stack, 3);
+            break;
+
+        case 0xff & Opcode.LASTORE:
+        case 0xff & Opcode.DASTORE:
+            StackMapComputer.pop(stack, 4);
+            break;
+
+        case 0xff & Opcode.POP:
+        case 0xff & Opcode.MONITORENTER:
+        case 0xff & Opcode.MONITOREXIT:
+        case 0xff & Opcode.IFEQ:
+        case 0xff & Opcode.IFNE:
+        case 0xff & Opcode.IFLT:
+        case 0xff & Opcode.IFGE:
+        case 0xff & Opcode.IFGT:
+        case 0xff & Opcode.IFLE:
+        case 0xff & Opcode.IFNULL:
+        case 0xff & Opcode.IFNONNULL:
+        case 0xff & Opcode.TABLESWITCH:
+        case 0xff & Opcode.LOOKUPSWITCH:
+        case 0xff & Opcode.IRETURN:
+        case 0xff & Opcode.FRETURN:
+        case 0xff & Opcode.ARETURN:
+        case 0xff & Opcode.ATHROW:
+            StackMapComputer.pop(stack, 1);
+            break;
+
+        case 0xff & Opcode.POP2:
+        case 0xff & Opcode.IF_ICMPEQ:
+        case 0xff & Opcode.IF_ICMPNE:
+        case 0xff & Opcode.IF_ICMPLT:
+        case 0xff & Opcode.IF_ICMPGE:
+        case 0xff & Opcode.IF_ICMPGT:
+        case 0xff & Opcode.IF_ICMPLE:
+        case 0xff & Opcode.IF_ACMPEQ:
+        case 0xff & Opcode.IF_ACMPNE:
+        case 0xff & Opcode.LRETURN:
+        case 0xff & Opcode.DRETURN:
+            StackMapComputer.pop(stack, 2);
+            break;
+
+        case 0xff & Opcode.DUP:
+            StackMapComputer.insert(stack, 1, 1);
+            break;
+
+        case 0xff & Opcode.DUP_X1:
+            StackMapComputer.insert(stack, 1, 2);
+            break;
+
+        case 0xff & Opcode.DUP_X2:
+            StackMapComputer.insert(stack, 1, 3);
+            break;
+
+        case 0xff & Opcode.DUP2:
+            StackMapComputer.insert(stack, 2, 2);
+            break;
+
+        case 0xff & Opcode.DUP2_X1:
+            StackMapComputer.insert(stack, 2, 3);
+            break;
+
+        case 0xff & Opcode.DUP2_X2:
+            StackMapComputer.insert(stack, 2, 4);
+            break;
+
+        case 0xff & Opcode.SWAP:
+            {
+                String t1 = StackMapComputer.pop(stack, 1);
+                String t2 = StackMapComputer.pop(stack, 1);
+                stack.add(t1);
+                stack.add(t2);
+            }
+            break;
+
+        case 0xff & Opcode.IADD:
+        case 0xff & Opcode.ISUB:
+        case 0xff & Opcode.IMUL:
+        case 0xff & Opcode.IDIV:
+        case 0xff & Opcode.IREM:
+        case 0xff & Opcode.ISHL:
+        case 0xff & Opcode.ISHR:
+        case 0xff & Opcode.IUSHR:
+        case 0xff & Opcode.IAND:
+        case 0xff & Opcode.IOR:
+        case 0xff & Opcode.IXOR:
+        case 0xff & Opcode.FCMPL:
+        case 0xff & Opcode.FCMPG:
+            StackMapComputer.pop(stack, 2);
+            StackMapComputer.push(stack, StackMapComputer.INTEGER);
+            break;
+
+        case 0xff & Opcode.LADD:
+        case 0xff & Opcode.LSUB:
+        case 0xff & Opcode.LMUL:
+        case 0xff & Opcode.LDIV:
+        case 0xff & Opcode.LREM:
+        case 0xff & Opcode.LAND:
+        case 0xff & Opcode.LOR:
+        case 0xff & Opcode.LXOR:
+            StackMapComputer.pop(stack, 4);
+            StackMapComputer.push(stack, StackMapComputer.LONG);
+            break;
+
+        case 0xff & Opcode.LSHL:
+        case 0xff & Opcode.LSHR:
+        case 0xff & Opcode.LUSHR:
+            StackMapComputer.pop(stack, 3);
+            StackMapComputer.push(stack, StackMapComputer.LONG);
+            break;
+
+        case 0xff & Opcode.FADD:
+        case 0xff & Opcode.FSUB:
+        case 0xff & Opcode.FMUL:
+        case 0xff & Opcode.FDIV:
+        case 0xff & Opcode.FREM:
+            StackMapComputer.pop(stack, 2);
+            StackMapComputer.push(stack, StackMapComputer.FLOAT);
+            break;
+
+        case 0xff & Opcode.DADD:
+        case 0xff & Opcode.DSUB:
+        case 0xff & Opcode.DMUL:
+        case 0xff & Opcode.DDIV:
+        case 0xff & Opcode.DREM:
+            StackMapComputer.pop(stack, 4);
+            StackMapComputer.push(stack, StackMapComputer.DOUBLE);
+            break;
+
+        case 0xff & Opcode.LCMP:
+        case 0xff & Opcode.DCMPL:
+        case 0xff & Opcode.DCMPG:
+            StackMapComputer.pop(stack, 4);
+            StackMapComputer.push(stack, StackMapComputer.INTEGER);
+            break;
+
+        case 0xff & Opcode.INEG:
+        case 0xff & Opcode.F2I:
+        case 0xff & Opcode.I2B:
+        case 0xff & Opcode.I2C:
+        case 0xff & Opcode.I2S:
+        case 0xff & Opcode.ARRAYLENGTH:
+        case 0xff & Opcode.INSTANCEOF:
+            StackMapComputer.pop(stack, 1);
+            StackMapComputer.push(stack, StackMapComputer.INTEGER);
+            break;
+
+        case 0xff & Opcode.FNEG:
+        case 0xff & Opcode.I2F:
+            StackMapComputer.pop(stack, 1);
+            StackMapComputer.push(stack, StackMapComputer.FLOAT);
+            break;
+
+        case 0xff & Opcode.I2L:
+        case 0xff & Opcode.F2L:
+            StackMapComputer.pop(stack, 1);
+            StackMapComputer.push(stack, StackMapComputer.LONG);
+            break;
+
+        case 0xff & Opcode.I2D:
+        case 0xff & Opcode.F2D:
+            StackMapComputer.pop(stack, 1);
+            StackMapComputer.push(stack, StackMapComputer.DOUBLE);
+            break;
+
+        case 0xff & Opcode.LNEG:
+        case 0xff & Opcode.D2L:
+            StackMapComputer.pop(stack, 2);
+            StackMapComputer.push(stack, StackMapComputer.LONG);
+            break;
+
+        case 0xff & Opcode.DNEG:
+        case 0xff & Opcode.L2D:
+            StackMapComputer.pop(stack, 2);
+            StackMapComputer.push(stack, StackMapComputer.DOUBLE);
+            break;
+
+        case 0xff & Opcode.L2I:
+        case 0xff & Opcode.D2I:
+            StackMapComputer.pop(stack, 2);
+            StackMapComputer.push(stack, StackMapComputer.INTEGER);
+            break;
+
+        case 0xff & Opcode.L2F:
+        case 0xff & Opcode.D2F:
+            StackMapComputer.pop(stack, 2);
+            StackMapComputer.push(stack, StackMapComputer.FLOAT);
+            break;
+
+        case 0xff & Opcode.GETSTATIC:
+            StackMapComputer.push(stack, this.memberType((short) StackMapComputer.u2(c, operandOffset)));
+            break;
+
+        case 0xff & Opcode.PUTSTATIC:
+            StackMapComputer.pop(
+                stack,
+                StackMapComputer.size(this.memberType((short) StackMapComputer.u2(c, operandOffset)))
+            );
+            break;
+
+        case 0xff & Opcode.GETFIELD:
+            StackMapComputer.pop(stack, 1);
+            StackMapComputer.push(stack, this.memberType((short) StackMapComputer.u2(c, operandOffset)));
+            break;
+
+        case 0xff & Opcode.PUTFIELD:
+            StackMapComputer.pop(
+                stack,
+                1 + StackMapComputer.size(this.memberType((short) StackMapComputer.u2(c, operandOffset)))
+            );
+            break;
+
+        case 0xff & Opcode.INVOKEVIRTUAL:
+        case 0xff & Opcode.INVOKESPECIAL:
+        case 0xff & Opcode.INVOKESTATIC:
+        case 0xff & Opcode.INVOKEINTERFACE:
+            {
+                short    index          = (short) StackMapComputer.u2(c, operandOffset);
+                String   descriptor     = this.memberType(index);
+                String[] parameterTypes = StackMapComputer.parseParameterTypes(descriptor);
+                for (int i = parameterTypes.length - 1; i >= 0; --i) {
+                    StackMapComputer.pop(stack, StackMapComputer.size(parameterTypes[i]));
+                }
+                if (op != (0xff & Opcode.INVOKESTATIC)) {
+                    String receiver = StackMapComputer.pop(stack, 1);
+                    if (op == (0xff & Opcode.INVOKESPECIAL) && "<init>".equals(this.memberName(index))) {
+                        String initialized = (
+                            receiver == StackMapComputer.UNINITIALIZED_THIS
+                            ? StackMapComputer.classNameToDescriptor(
+                                this.classFile.getConstantClassName(this.classFile.thisClass)
+                            )
+                            : StackMapComputer.classNameToDescriptor(this.classFile.getConstantClassName(
+                                (short) StackMapComputer.u2(c, Integer.parseInt(receiver.substring(1)) + 1)
+                            ))
+                        );
+                        StackMapComputer.replace(locals, receiver, initialized);
+                        for (int i = 0; i < stack.size(); ++i) {
+                            if (receiver.equals(stack.get(i))) stack.set(i, initialized);
+                        }
+                    }
+                }
+                String returnType = StackMapComputer.parseReturnType(descriptor);
+                if (returnType != null) StackMapComputer.push(stack, returnType);
+            }
+            break;
+
+        case 0xff & Opcode.NEW:
+            StackMapComputer.push(stack, StackMapComputer.UNINITIALIZED_THIS + offset);
+            break;
+
+        case 0xff & Opcode.NEWARRAY:
+            StackMapComputer.pop(stack, 1);
+            StackMapComputer.push(stack, "[" + "ZCFDBSIJ".charAt((0xff & c[operandOffset]) - 4));
+            break;
+
+        case 0xff & Opcode.ANEWARRAY:
+            StackMapComputer.pop(stack, 1);
+            StackMapComputer.push(stack, "[" + StackMapComputer.classNameToDescriptor(
+                this.classFile.getConstantClassName((short) StackMapComputer.u2(c, operandOffset))
+            ));
+            break;
+
+        case 0xff & Opcode.CHECKCAST:
+            StackMapComputer.pop(stack, 1);
+            StackMapComputer.push(stack, StackMapComputer.classNameToDescriptor(
+                this.classFile.getConstantClassName((short) StackMapComputer.u2(c, operandOffset))
+            ));
+            break;
+
+        case 0xff & Opcode.MULTIANEWARRAY:
+            StackMapComputer.pop(stack, 0xff & c[operandOffset + 2]);
+            StackMapComputer.push(stack, StackMapComputer.classNameToDescriptor(
+                this.classFile.getConstantClassName((short) StackMapComputer.u2(c, operandOffset))
+            ));
+            break;
+
+        default:
+            throw new JaninoRuntimeException("Unexpected opcode " + op + " at offset " + offset);
+        }
+
+        // Propagate the frame to the successor instructions.
+        String[] stackArray = (String[]) stack.toArray(new String[stack.size()]);
+        for (int i = 0; i < targets.length; ++i) {
+            this.frameRequiredAt[targets[i]] = true;
+            this.mergeInto(targets[i], locals, stackArray);
+        }
+        if (fallsThrough) {
+            this.mergeInto(next, locals, stackArray);
+        } else
+        if (next < this.codeLength) {
+            this.frameRequiredAt[next] = true;
+        }
+        return true;
+    }
+
+    /**
+     * The verifier requires a stack map frame for each instruction that follows an unconditional branch, even if it
+     * is unreachable.
+     */
+    private void
+    patchUnreachableCode(short maxLocals) {
+        for (int offset = 0; offset < this.codeLength;) {
+            if (this.reached[offset]) {
+                ++offset;
+                continue;
+            }
+
+            int start = offset;
+            while (offset < this.codeLength && !this.reached[offset]) {
+                this.code[offset]            = Opcode.NOP;
+                this.frameRequiredAt[offset] = false;
+                ++offset;
+            }
+            this.code[offset - 1] = Opcode.ATHROW;
+
+            String[] locals = new String[maxLocals];
+            Arrays.fill(locals, StackMapComputer.TOP);
+            this.localsAt[start]        = locals;
+            this.stacksAt[start]        = new String[] { StackMapComputer.JAVA_LANG_THROWABLE };
+            this.frameRequiredAt[start] = true;
+        }
+    }
+
+    /**
+     * Merges the given local variables into the frames of all exception handlers that protect the instruction at
+     * <var>offset</var>.
+     */
+    private void
+    propagateToHandlers(int offset, String[] locals) {
+        for (int i = 0; i < this.handlerPcs.length; ++i) {
+            if (offset >= this.handlerStarts[i] && offset < this.handlerEnds[i]) {
+                this.mergeInto(this.handlerPcs[i], locals, new String[] { this.handlerTypes[i] });
+            }
+        }
+    }
+
+    private void
+    mergeInto(int offset, String[] locals, String[] stack) {
+        String[] oldLocals = this.localsAt[offset];
+        if (oldLocals == null) {
+            this.localsAt[offset] = StackMapComputer.copy(locals);
+            this.stacksAt[offset] = StackMapComputer.copy(stack);
+        } else {
+            String[] oldStack = this.stacksAt[offset];
+            if (oldStack.length != stack.length) {
+                throw new JaninoRuntimeException("Operand stack inconsistent at offset " + offset);
+            }
+            boolean changed = false;
+            for (int i = 0; i < oldLocals.length; ++i) {
+                String t = this.merge(oldLocals[i], locals[i]);
+                if (!t.equals(oldLocals[i])) {
+                    oldLocals[i] = t;
+                    changed      = true;
+                }
+            }
+            for (int i = 0; i < oldStack.length; ++i) {
+                String t = this.merge(oldStack[i], stack[i]);
+                if (!t.equals(oldStack[i])) {
+                    oldStack[i] = t;
+                    changed     = true;
+                }
+            }
+            if (!changed) return;
+        }
+        if (!this.queued[offset]) {
+            this.queued[offset]                 = true;
+            this.worklist[this.worklistSize++] = offset;
+        }
+    }
+
+    /**
+     * @return The most specific verification type to which both <var>t1</var> and <var>t2</var> are assignable
+     */
+    private String
+    merge(String t1, String t2) {
+        if (t1.equals(t2)) return t1;
+        if (!StackMapComputer.isReference(t1) || !StackMapComputer.isReference(t2)) return StackMapComputer.TOP;
+        if (t1 == StackMapComputer.NULL) return t2;
+        if (t2 == StackMapComputer.NULL) return t1;
+        return this.commonSuperType(t1, t2);
+    }
+
+    private String
+    commonSuperType(String t1, String t2) {
+        if (t1.startsWith("[") && t2.startsWith("[")) {
+            String ct1 = t1.substring(1), ct2 = t2.substring(1);
+            if (StackMapComputer.isReference(ct1) && StackMapComputer.isReference(ct2)) {
+                return "[" + this.commonSuperType(ct1, ct2);
+            }
+            return StackMapComputer.JAVA_LANG_OBJECT;
+        }
+        if (t1.startsWith("[") || t2.startsWith("[")) return StackMapComputer.JAVA_LANG_OBJECT;
+
+        // The verifier treats interfaces like "java.lang.Object".
+        if (this.classHierarchy.isInterface(t1) || this.classHierarchy.isInterface(t2)) {
+            return StackMapComputer.JAVA_LANG_OBJECT;
+        }
+
+        Set superclasses = new HashSet();
+        for (String t = t1; t != null; t = this.classHierarchy.getSuperclassDescriptor(t)) superclasses.add(t);
+        for (String t = t2; t != null; t = this.classHierarchy.getSuperclassDescriptor(t)) {
+            if (superclasses.contains(t)) return t;
+        }
+        return StackMapComputer.JAVA_LANG_OBJECT;
+    }
+
+    /**
+     * Encodes the computed frames as the body of a "StackMapTable" attribute.
+     */
+    private byte[]
+    encode(String[] initialLocals) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream      dos  = new DataOutputStream(baos);
+        try {
+            int      numberOfEntries = 0;
+            List     previousLocals  = StackMapComputer.compress(initialLocals);
+            int      previousOffset  = -1;
+            for (int offset = 0; offset < this.codeLength; ++offset) {
+                if (!this.frameRequiredAt[offset]) continue;
+                if (this.localsAt[offset] == null) {
+                    throw new JaninoRuntimeException("Unreachable code at offset " + offset);
+                }
+
+                List locals = StackMapComputer.compress(this.localsAt[offset]);
+                List stack  = StackMapComputer.compress(this.stacksAt[offset]);
+                int  delta  = offset - previousOffset - 1;
+
+                int k = locals.size() - previousLocals.size();
+                if (stack.isEmpty() && k == 0 && locals.equals(previousLocals)) {
+                    if (delta < 64) {
+                        dos.writeByte(delta);                                      // same_frame
+                    } else {
+                        dos.writeByte(251);                                        // same_frame_extended
+                        dos.writeShort(delta);
+                    }
+                } else
+                if (stack.size() == 1 && k == 0 && locals.equals(previousLocals)) {
+                    if (delta < 64) {
+                        dos.writeByte(64 + delta);                                 // same_locals_1_stack_item
+                    } else {
+                        dos.writeByte(247);                                        // same_locals_1_stack_item_ext.
+                        dos.writeShort(delta);
+                    }
+                    this.writeVerificationType(dos, (String) stack.get(0));
+                } else
+                if (stack.isEmpty() && k >= -3 && k < 0 && previousLocals.subList(0, locals.size()).equals(locals)) {
+                    dos.writeByte(251 + k);                                        // chop_frame
+                    dos.writeShort(delta);
+                } else
+                if (
+                    stack.isEmpty()
+                    && k > 0
+                    && k <= 3
+                    && locals.subList(0, previousLocals.size()).equals(previousLocals)
+                ) {
+                    dos.writeByte(251 + k);                                        // append_frame
+                    dos.writeShort(delta);
+                    for (int i = previousLocals.size(); i < locals.size(); ++i) {
+                        this.writeVerificationType(dos, (String) locals.get(i));
+                    }
+                } else
+                {
+                    dos.writeByte(255);                                            // full_frame
+                    dos.writeShort(delta);
+                    dos.writeShort(locals.size());
+                    for (int i = 0; i < locals.size(); ++i) this.writeVerificationType(dos, (String) locals.get(i));
+                    dos.writeShort(stack.size());
+                    for (int i = 0; i < stack.size(); ++i) this.writeVerificationType(dos, (String) stack.get(i));
+                }
+
+                ++numberOfEntries;
+                previousLocals = locals;
+                previousOffset = offset;
+            }
+            if (numberOfEntries == 0) return null;
+
+            ByteArrayOutputStream result = new ByteArrayOutputStream();
+            new DataOutputStream(result).writeShort(numberOfEntries);
+            baos.writeTo(result);
+            return result.toByteArray();
+        } catch (IOException ioe) {
+            throw new JaninoRuntimeException("SNO: IOException on ByteArrayOutputStream", ioe);
+        }
+    }
+
+    /**
+     * @return The given types, without the second halves of long and double values and without trailing {@link #TOP}s
+     */
+    private static List
+    compress(String[] types) {
+        List result = new ArrayList();
+        for (int i = 0; i < types.length; ++i) {
+            String t = types[i];
+            result.add(t);
+            if (t == StackMapComputer.LONG || t == StackMapComputer.DOUBLE) ++i;
+        }
+        while (!result.isEmpty() && result.get(result.size() - 1) == StackMapComputer.TOP) {
+            result.remove(result.size() - 1);
+        }
+        return result;
+    }
+
+    private void
+    writeVerificationType(DataOutputStream dos, String t) throws IOException {
+        if (t == StackMapComputer.TOP) {
+            dos.writeByte(0);
+        } else
+        if (t == StackMapComputer.INTEGER) {
+            dos.writeByte(1);
+        } else
+        if (t == StackMapComputer.FLOAT) {
+            dos.writeByte(2);
+        } else
+        if (t == StackMapComputer.DOUBLE) {
+            dos.writeByte(3);
+        } else
+        if (t == StackMapComputer.LONG) {
+            dos.writeByte(4);
+        } else
+        if (t == StackMapComputer.NULL) {
+            dos.writeByte(5);
+        } else
+        if (t == StackMapComputer.UNINITIALIZED_THIS) {
+            dos.writeByte(6);
+        } else
+        if (t.startsWith(StackMapComputer.UNINITIALIZED_THIS)) {
+            dos.writeByte(8);
+            dos.writeShort(Integer.parseInt(t.substring(1)));
+        } else
+        {
+            dos.writeByte(7);
+            dos.writeShort(this.classFile.addConstantClassInfo(t));
+        }
+    }
+
+    /**
+     * @return The verification type of the value that an LDC, LDC_W or LDC2_W instruction pushes
+     */
+    private String
+    constantType(short index) {
+        ClassFile.ConstantPoolInfo cpi = this.classFile.getConstantPoolInfo(index);
+        if (cpi instanceof ClassFile.ConstantClassInfo) return "Ljava/lang/Class;";
+
+        Object value = ((ClassFile.ConstantValuePoolInfo) cpi).getValue(this.classFile);
+        return (
+            value instanceof Integer ? StackMapComputer.INTEGER :
+            value instanceof Float   ? StackMapComputer.FLOAT :
+            value instanceof Long    ? StackMapComputer.LONG :
+            value instanceof Double  ? StackMapComputer.DOUBLE :
+            "Ljava/lang/String;"
+        );
+    }
+
+    /**
+     * @param index The constant pool index of a CONSTANT_Fieldref, CONSTANT_Methodref or
+     *              CONSTANT_InterfaceMethodref
+     * @return      The verification type of the field, or the method descriptor
+     */
+    private String
+    memberType(short index) {
+        String descriptor = this.classFile.getConstantUtf8(this.nameAndType(index).getDescriptorIndex());
+        return descriptor.startsWith("(") ? descriptor : StackMapComputer.fieldType(descriptor);
+    }
+
+    private String
+    memberName(short index) {
+        return this.classFile.getConstantUtf8(this.nameAndType(index).getNameIndex());
+    }
+
+    private ClassFile.ConstantNameAndTypeInfo
+    nameAndType(short index) {
+        ClassFile.ConstantPoolInfo cpi = this.classFile.getConstantPoolInfo(index);
+        return (ClassFile.ConstantNameAndTypeInfo) this.classFile.getConstantPoolInfo(
+            cpi instanceof ClassFile.ConstantFieldrefInfo
+            ? ((ClassFile.ConstantFieldrefInfo) cpi).getNameAndTypeIndex()
+            : cpi instanceof ClassFile.ConstantInterfaceMethodrefInfo
+            ? ((ClassFile.ConstantInterfaceMethodrefInfo) cpi).getNameAndTypeIndex()
+            : ((ClassFile.ConstantMethodrefInfo) cpi).getNameAndTypeIndex()
+        );
+    }
+
+    /**
+     * @return The verification types of the parameters declared by the given method descriptor
+     */
+    private static String[]
+    parseParameterTypes(String methodDescriptor) {
+        List result = new ArrayList();
+        int  i      = 1;
+        while (methodDescriptor.charAt(i) != ')') {
+            int j = i;
+            while (methodDescriptor.charAt(j) == '[') ++j;
+            if (methodDescriptor.charAt(j) == 'L') j = methodDescriptor.indexOf(';', j);
+            result.add(StackMapComputer.fieldType(methodDescriptor.substring(i, j + 1)));
+            i = j + 1;
+        }
+        return (String[]) result.toArray(new String[result.size()]);
+    }
+
+    /**
+     * @return The verification type of the value returned by the given method descriptor, or {@code null} iff the
+     *         method is VOID
+     */
+    private static String
+    parseReturnType(String methodDescriptor) {
+        String rt = methodDescriptor.substring(methodDescriptor.indexOf(')') + 1);
+        return "V".equals(rt) ? null : StackMapComputer.fieldType(rt);
+    }
+
+    /**
+     * @return The verification type that corresponds with the given field descriptor
+     */
+    private static String
+    fieldType(String fieldDescriptor) {
+        switch (fieldDescriptor.charAt(0)) {
+        case 'Z': case 'B': case 'C': case 'S': case 'I':
+            return StackMapComputer.INTEGER;
+        case 'F':
+            return StackMapComputer.FLOAT;
+        case 'J':
+            return StackMapComputer.LONG;
+        case 'D':
+            return StackMapComputer.DOUBLE;
+        default:
+            return fieldDescriptor;
+        }
+    }
+
+    /**
+     * @param className A class name in internal form (e.g. "java/lang/String") or an array type descriptor
+     */
+    private static String
+    classNameToDescriptor(String className) {
+        return className.startsWith("[") ? className : 'L' + className + ';';
+    }
+
+    private static boolean
+    isReference(String t) {
+        return t == StackMapComputer.NULL || t.startsWith("L") || t.startsWith("[");
+    }
+
+    private static int
+    size(String t) { return t == StackMapComputer.LONG || t == StackMapComputer.DOUBLE ? 2 : 1; }
+
+    private static void
+    push(List stack, String t) {
+        stack.add(t);
+        if (t == StackMapComputer.LONG || t == StackMapComputer.DOUBLE) stack.add(StackMapComputer.TOP);
+    }
+
+    /**
+     * Removes <var>n</var> elements from the operand stack.
+     *
+     * @return The verification type of the value that was removed (meaningful only if <var>n</var> is 1, or if
+     *         <var>n</var> is 2 and the value is a long or a double)
+     */
+    private static String
+    pop(List stack, int n) {
+        String result = null;
+        for (int i = 0; i < n; ++i) {
+            if (stack.isEmpty()) throw new JaninoRuntimeException("Operand stack underrun");
+            result = (String) stack.remove(stack.size() - 1);
+        }
+        return result;
+    }
+
+    /**
+     * Implements the DUP... instructions: Copies the top <var>count</var> elements and inserts them <var>depth</var>
+     * elements down the operand stack.
+     */
+    private static void
+    insert(List stack, int count, int depth) {
+        int size = stack.size();
+        stack.addAll(size - depth, new ArrayList(stack.subList(size - count, size)));
+    }
+
+    private static void
+    store(String[] locals, int index, String t) {
+        if (index > 0 && (locals[index - 1] == StackMapComputer.LONG || locals[index - 1] == StackMapComputer.DOUBLE)) {
+            locals[index - 1] = StackMapComputer.TOP;
+        }
+        locals[index] = t;
+        if (t == StackMapComputer.LONG || t == StackMapComputer.DOUBLE) locals[index + 1] = StackMapComputer.TOP;
+    }
+
+    /**
+     * Equivalent with "{@code types.clone()}", but without the cast that JANINO requires and JAVAC flags as redundant.
+     */
+    private static String[]
+    copy(String[] types) {
+        String[] result = new String[types.length];
+        System.arraycopy(types, 0, result, 0, types.length);
+        return result;
+    }
+
+    private static void
+    replace(String[] types, String oldType, String newType) {
+        for (int i = 0; i < types.length; ++i) {
+            if (oldType.equals(types[i])) types[i] = newType;
+        }
+    }
+
+    private static int
+    u2(byte[] code, int offset) { return ((0xff & code[offset]) << 8) | (0xff & code[offset + 1]); }
+
+    private static int
+    s2(byte[] code, int offset) { return (code[offset] << 8) | (0xff & code[offset + 1]); }
+
+    private static int
+    s4(byte[] code, int offset) {
+        return (
+            (code[offset] << 24)
+            | ((0xff & code[offset + 1]) << 16)
+            | ((0xff & code[offset + 2]) << 8)
+            | (0xff & code[offset + 3])
+        );
+    }
+}
@@ -36,6 +36,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -164,6 +165,7 @@ import org.codehaus.janino.Visitor.LvalueVisitor;
 import org.codehaus.janino.Visitor.RvalueVisitor;
 import org.codehaus.janino.Visitor.TypeDeclarationVisitor;
 import org.codehaus.janino.util.ClassFile;
+import org.codehaus.janino.util.Traverser;
 
 /**
  * This class actually implements the Java&trade; compiler. It is associated with exactly one compilation unit which it
@@ -189,6 +191,38 @@ class UnitCompiler {
      */
     private static final int STRING_CONCAT_LIMIT = 3;
 
+    /**
+     * If {@link #setSplitLargeMethods(boolean) method splitting} is enabled, then methods whose code is estimated to
+     * be larger than this are split. The estimate is rough, hence the margin to the 64 KB limit of the "Code"
+     * attribute.
+     */
+    private static final int SPLIT_THRESHOLD = 0x8000;
+
+    /**
+     * The estimated code size up to which statements are moved into the same synthetic method when a method is split.
+     * Keeps the synthetic methods below HotSpot's "HugeMethodLimit" of 8000 bytes, beyond which the JIT does not
+     * compile methods.
+     */
+    private static final int SPLIT_SIZE = 6000;
+
+    /**
+     * Runs of statements that are estimated to be smaller than this are not worth the overhead of a synthetic method.
+     */
+    private static final int SPLIT_MINIMUM = 300;
+
+    /**
+     * When the constant pool of a class file has grown beyond this size, then {@code String}, {@code int}, {@code
+     * long}, {@code float} and {@code double} literals are no longer loaded from it, but from synthetic "constant
+     * holder" classes. The margin to the JVM limit of 65535 entries leaves room for method and field references.
+     */
+    private static final int CONSTANT_POOL_SPILL_THRESHOLD = 0xC000;
+
+    /**
+     * The maximum number of constants per constant holder class. Initializing a constant takes eight bytes of code,
+     * so the holder's class initializer stays below the 64 KB limit.
+     */
+    private static final int CONSTANT_HOLDER_SIZE = 4096;
+
     public
     UnitCompiler(CompilationUnit compilationUnit, IClassLoader iClassLoader) {
         this.compilationUnit = compilationUnit;
@@ -303,9 +337,22 @@ class UnitCompiler {
         }
 
         List l = this.generatedClassFiles;
+        for (Iterator it = l.iterator(); it.hasNext();) {
+            this.referencedTypes.addAll(((ClassFile) it.next()).getReferencedTypes());
+        }
         return (ClassFile[]) l.toArray(new ClassFile[l.size()]);
     }
 
+    /**
+     * Returns the types that the classes and interfaces of this compilation unit depend on: Those that the generated
+     * class files refer to, plus those whose constant field values were inlined (which leave no trace in the class
+     * files). Complete only after {@link #compileUnit(boolean, boolean, boolean)}.
+     *
+     * @return Field descriptors, e.g. <code>{ "Ljava/lang/Object;", "Lpkg/Outer$Inner;" }</code>
+     */
+    public Set/*<String fd>*/
+    getReferencedTypes() { return Collections.unmodifiableSet(this.referencedTypes); }
+
     // ------------ TypeDeclaration.compile() -------------
 
     private void
@@ -406,6 +453,7 @@ class UnitCompiler {
             iClass.getSuperclass().getDescriptor(),                          // superclassFD
             IClass.getDescriptors(iClass.getInterfaces())                    // interfaceFDs
         );
+        this.setClassFileVersion(cf, iClass);
 
         // TODO: Add annotations with retention != SOURCE.
 //        for (int i = 0; i < cd.getModifiersAndAnnotations().annotations.length; i++) {
@@ -549,6 +597,7 @@ class UnitCompiler {
             );
         }
 
+        this.compileConstantHolders(cf);
 
         // Add the generated class file to a thread-local store.
         this.generatedClassFiles.add(cf);
@@ -670,7 +719,7 @@ class UnitCompiler {
         ClassFile cf = new ClassFile(
             (short) (               // accessFlags
                 id.getModifiersAndAnnotations().modifiers
-                | Mod.SUPER
+                | (this.targetVersion == -1 ? Mod.SUPER : 0) // Illegal for interfaces as of class file version 50.
                 | Mod.INTERFACE
                 | Mod.ABSTRACT
             ),
@@ -678,6 +727,7 @@ class UnitCompiler {
             Descriptor.JAVA_LANG_OBJECT, // superclassFD
             interfaceDescriptors    // interfaceFDs
         );
+        this.setClassFileVersion(cf, iClass);
 
         // TODO: Add annotations with retention != SOURCE.
 //        for (int i = 0; i < id.getModifiersAndAnnotations().annotations.length; i++) {
@@ -721,6 +771,8 @@ class UnitCompiler {
 
         compileDeclaredMemberTypes(id, cf);
 
+        this.compileConstantHolders(cf);
+
         // Add the generated class file to a thread-local store.
         this.generatedClassFiles.add(cf);
     }
@@ -812,8 +864,13 @@ class UnitCompiler {
         for (int i = startPos; i < typeDeclaration.getMethodDeclarations().size(); ++i) {
             MethodDeclarator md = (MethodDeclarator) typeDeclaration.getMethodDeclarations().get(i);
 
+            // Static methods hide, but never override methods (this also applies to the synthetic "class-dollar"
+            // methods).
             IMethod m                     = this.toIMethod(md);
-            boolean overrides             = overridesMethodFromSupertype(m, this.resolve(md.getDeclaringType()));
+            boolean overrides             = (
+                !m.isStatic()
+                && overridesMethodFromSupertype(m, this.resolve(md.getDeclaringType()))
+            );
             boolean hasOverrideAnnotation = hasAnnotation(md, this.iClassLoader.JAVA_LANG_OVERRIDE);
             if (overrides && !hasOverrideAnnotation && !(typeDeclaration instanceof InterfaceDeclaration)) {
                 compileError("Missing @Override", md.getLocation());
@@ -822,9 +879,481 @@ class UnitCompiler {
                 compileError("Method does not override a method declared in a supertype", md.getLocation());
             }
 
+            if (this.splitLargeMethods) this.splitIfTooLarge(md);
             this.compile(md, cf);
         }
     }
+
+    /**
+     * Describes a synthetic method that {@link #splitIfTooLarge(MethodDeclarator)} has moved statements into.
+     */
+    private static
+    class SplitMethod {
+
+        /** The method that the statements were moved out of. */
+        final MethodDeclarator original;
+
+        /** Whether the statements end the body of {@link #original}, which returns a value. */
+        final boolean completesOriginal;
+
+        /** The one-element array that receives the return value of {@link #original}; {@code null} if VOID. */
+        final FunctionDeclarator.FormalParameter optionalResult;
+
+        /** The one-element arrays that pass local variables which the statements assign. */
+        final FunctionDeclarator.FormalParameter[] arrays;
+
+        /** The copies of these local variables, which are written back to {@link #arrays} on normal completion. */
+        final VariableDeclarator[] copies;
+
+        SplitMethod(
+            MethodDeclarator                     original,
+            boolean                              completesOriginal,
+            FunctionDeclarator.FormalParameter   optionalResult,
+            FunctionDeclarator.FormalParameter[] arrays,
+            VariableDeclarator[]                 copies
+        ) {
+            this.original          = original;
+            this.completesOriginal = completesOriginal;
+            this.optionalResult    = optionalResult;
+            this.arrays            = arrays;
+            this.copies            = copies;
+        }
+    }
+
+    /**
+     * If the code of the given method is estimated to exceed {@link #SPLIT_THRESHOLD} bytes, moves runs of its
+     * top-level statements into synthetic private methods named "<var>name</var>$split<var>n</var>", and replaces
+     * each run with an invocation of its method. The synthetic methods are appended to the declaring type, and are
+     * compiled after the method, like the "class-dollar" methods.
+     * <p>
+     * The local variables that a run reads are passed as parameters; those that it assigns are passed in one-element
+     * arrays, and copied back after the invocation. A RETURN statement within a run stores the return value (if any)
+     * in another array, and exits the synthetic method with 1, upon which the invoking method returns; normal
+     * completion exits with 0.
+     * <p>
+     * A top-level local variable declaration that is mentioned after its run is left in the method, and ends the run.
+     * Methods that declare local classes or blank final variables on the top level are not split, and neither are
+     * single statements.
+     */
+    private void
+    splitIfTooLarge(MethodDeclarator md) throws CompileException {
+        List statements = md.optionalStatements;
+        if (statements == null || statements.size() < 2 || this.splitMethods.containsKey(md)) return;
+
+        // Estimate the code size of each top-level statement, and collect the names that it mentions and assigns.
+        int   n      = statements.size();
+        int[] sizes  = new int[n];
+        Set[] reads  = new Set[n]; // String
+        Set[] writes = new Set[n]; // String
+        int   total  = 0;
+        for (int i = 0; i < n; ++i) {
+            BlockStatement bs = (BlockStatement) statements.get(i);
+            if (!(bs instanceof Statement) || bs instanceof LocalClassDeclarationStatement) return;
+            if (bs instanceof LocalVariableDeclarationStatement) {
+                LocalVariableDeclarationStatement lvds = (LocalVariableDeclarationStatement) bs;
+
+                int blanks = 0;
+                for (int j = 0; j < lvds.variableDeclarators.length; ++j) {
+                    if (lvds.variableDeclarators[j].optionalInitializer == null) ++blanks;
+                }
+                if (blanks > 0 && (
+                    blanks < lvds.variableDeclarators.length
+                    || (lvds.modifiersAndAnnotations.modifiers & Mod.FINAL) != 0
+                )) return;
+            }
+            reads[i]  = new HashSet();
+            writes[i] = new HashSet();
+            sizes[i]  = UnitCompiler.scan(bs, reads[i], writes[i]);
+            total     += sizes[i];
+        }
+        if (total <= UnitCompiler.SPLIT_THRESHOLD) return;
+
+        // For each top-level local variable declaration, determine the last statement that mentions one of its
+        // variables.
+        int[] lastUse = new int[n];
+        {
+            Map lastMention = new HashMap(); // String name => Integer index
+            for (int i = 0; i < n; ++i) {
+                for (Iterator it = reads[i].iterator(); it.hasNext();) lastMention.put(it.next(), new Integer(i));
+            }
+            for (int i = 0; i < n; ++i) {
+                lastUse[i] = -1;
+                if (!(statements.get(i) instanceof LocalVariableDeclarationStatement)) continue;
+                VariableDeclarator[] vds = ((LocalVariableDeclarationStatement) statements.get(i)).variableDeclarators;
+                for (int j = 0; j < vds.length; ++j) {
+                    Integer m = (Integer) lastMention.get(vds[j].name);
+                    if (m != null && m.intValue() > lastUse[i]) lastUse[i] = m.intValue();
+                }
+            }
+        }
+
+        // Determine the runs.
+        List runs = new ArrayList(); // int[] { start, end }
+        for (int start = 0; start < n;) {
+            int end  = start;
+            int size = 0;
+            do {
+                size += sizes[end++];
+            } while (end < n && size + sizes[end] <= UnitCompiler.SPLIT_SIZE);
+
+            // Local variables that are mentioned after the run must be declared outside of it.
+            int pinned = -1;
+            for (int i = start; i < end; ++i) {
+                if (lastUse[i] >= end) {
+                    end    = i;
+                    pinned = i;
+                    i      = start - 1; // Re-check the shortened run.
+                }
+            }
+
+            size = 0;
+            for (int i = start; i < end; ++i) size += sizes[i];
+            if (size >= UnitCompiler.SPLIT_MINIMUM) runs.add(new int[] { start, end });
+
+            start = pinned == -1 ? end : pinned + 1;
+        }
+        if (runs.isEmpty()) return;
+
+        // Now rewrite the method body.
+        Location loc        = md.getLocation();
+        IClass   returnType = this.getReturnType(md);
+        List     body       = new ArrayList(); // BlockStatement
+
+        if (returnType != IClass.VOID) {
+
+            // T[] split$return = new T[1];
+            body.add(new LocalVariableDeclarationStatement(
+                loc,                                                                       // location
+                new Java.ModifiersAndAnnotations(),                                        // modifiersAndAnnotations
+                new SimpleType(loc, returnType.getArrayIClass(this.iClassLoader.JAVA_LANG_OBJECT)), // type
+                new VariableDeclarator[] { new VariableDeclarator(                         // variableDeclarators
+                    loc,                                                      // location
+                    "split$return",                                           // name
+                    0,                                                        // brackets
+                    new NewArray(                                             // optionalInitializer
+                        loc,                                                  // location
+                        new SimpleType(loc, returnType),                      // type
+                        new Rvalue[] { new IntegerLiteral(loc, "1") },        // dimExprs
+                        0                                                     // dims
+                    )
+                ) }
+            ));
+        }
+
+        Map variables = new LinkedHashMap(); // String name => LocalVariable, in scope before the current statement
+        for (int i = 0; i < md.formalParameters.length; ++i) {
+            variables.put(md.formalParameters[i].name, this.getLocalVariable(md.formalParameters[i]));
+        }
+        Iterator runIt = runs.iterator();
+        int[]    run   = (int[]) runIt.next();
+        for (int i = 0; i < n;) {
+            if (run != null && i == run[0]) {
+                Set runReads  = new HashSet();
+                Set runWrites = new HashSet();
+                for (int j = run[0]; j < run[1]; ++j) {
+                    runReads.addAll(reads[j]);
+                    runWrites.addAll(writes[j]);
+                }
+                body.add(this.outline(
+                    md,                                          // md
+                    statements.subList(run[0], run[1]),          // statements
+                    variables,                                   // variables
+                    runReads,                                    // reads
+                    runWrites,                                   // writes
+                    run[1] == n && returnType != IClass.VOID     // completesMethod
+                ));
+                i   = run[1];
+                run = runIt.hasNext() ? (int[]) runIt.next() : null;
+                continue;
+            }
+
+            // Leave the statement in the method.
+            BlockStatement bs = (BlockStatement) statements.get(i++);
+            if (bs instanceof LocalVariableDeclarationStatement) {
+                LocalVariableDeclarationStatement lvds = (LocalVariableDeclarationStatement) bs;
+                for (int j = 0; j < lvds.variableDeclarators.length; ++j) {
+                    VariableDeclarator vd = lvds.variableDeclarators[j];
+                    variables.put(vd.name, this.getLocalVariable(lvds, vd));
+                }
+                if (lvds.variableDeclarators[0].optionalInitializer == null) bs = this.initialize(lvds);
+            }
+            body.add(bs);
+        }
+
+        statements.clear();
+        for (Iterator it = body.iterator(); it.hasNext();) {
+            BlockStatement bs = (BlockStatement) it.next();
+            bs.setEnclosingScope(md);
+            statements.add(bs);
+        }
+        ((AbstractTypeDeclaration) md.getDeclaringType()).invalidateMethodCaches();
+    }
+
+    /**
+     * Moves the given top-level statements of the given method into a new synthetic method; see {@link
+     * #splitIfTooLarge(MethodDeclarator)}.
+     *
+     * @param variables       The local variables that are in scope before the statements
+     * @param reads           The names that the statements mention
+     * @param writes          The names that the statements assign
+     * @param completesMethod Whether the statements end the body of a method that returns a value
+     * @return                The statement that replaces the given statements
+     */
+    private BlockStatement
+    outline(
+        MethodDeclarator md,
+        List             statements,
+        Map              variables,
+        Set              reads,
+        Set              writes,
+        boolean          completesMethod
+    ) throws CompileException {
+        Location loc        = ((Locatable) statements.get(0)).getLocation();
+        IClass   returnType = this.getReturnType(md);
+        IClass   object     = this.iClassLoader.JAVA_LANG_OBJECT;
+
+        List parameters = new ArrayList(); // FormalParameter
+        List arrays     = new ArrayList(); // FormalParameter
+        List copies     = new ArrayList(); // VariableDeclarator
+        List body       = new ArrayList(); // BlockStatement
+        List arguments  = new ArrayList(); // Rvalue
+        List before     = new ArrayList(); // BlockStatement
+        List after      = new ArrayList(); // BlockStatement
+
+        for (Iterator it = variables.entrySet().iterator(); it.hasNext();) {
+            Map.Entry     e    = (Map.Entry) it.next();
+            String        name = (String) e.getKey();
+            LocalVariable lv   = (LocalVariable) e.getValue();
+            if (!reads.contains(name)) continue;
+
+            if (!writes.contains(name)) {
+                parameters.add(new FunctionDeclarator.FormalParameter(loc, lv.finaL, new SimpleType(loc, lv.type), name));
+                arguments.add(new AmbiguousName(loc, new String[] { name }));
+                continue;
+            }
+
+            // Pass the variable in a one-element array, and copy it into a local variable of the same name.
+            String                             arrayName = "split$" + name;
+            IClass                             arrayType = lv.type.getArrayIClass(object);
+            FunctionDeclarator.FormalParameter array     = new FunctionDeclarator.FormalParameter(
+                loc,                            // location
+                true,                           // finaL
+                new SimpleType(loc, arrayType), // type
+                arrayName                       // name
+            );
+            VariableDeclarator copy = new VariableDeclarator(
+                loc,                                                          // location
+                name,                                                         // name
+                0,                                                            // brackets
+                new ArrayAccessExpression(                                    // optionalInitializer
+                    loc,
+                    new AmbiguousName(loc, new String[] { arrayName }),
+                    new IntegerLiteral(loc, "0")
+                )
+            );
+            parameters.add(array);
+            arrays.add(array);
+            copies.add(copy);
+            body.add(new LocalVariableDeclarationStatement(
+                loc,                                // location
+                new Java.ModifiersAndAnnotations(), // modifiersAndAnnotations
+                new SimpleType(loc, lv.type),       // type
+                new VariableDeclarator[] { copy }   // variableDeclarators
+            ));
+
+            // T[] split$x = { x };
+            before.add(new LocalVariableDeclarationStatement(
+                loc,                                                        // location
+                new Java.ModifiersAndAnnotations(),                         // modifiersAndAnnotations
+                new SimpleType(loc, arrayType),                             // type
+                new VariableDeclarator[] { new VariableDeclarator(          // variableDeclarators
+                    loc,                                                         // location
+                    arrayName,                                                   // name
+                    0,                                                           // brackets
+                    new ArrayInitializer(loc, new ArrayInitializerOrRvalue[] {   // optionalInitializer
+                        new AmbiguousName(loc, new String[] { name })
+                    })
+                ) }
+            ));
+            arguments.add(new AmbiguousName(loc, new String[] { arrayName }));
+
+            // x = split$x[0];
+            after.add(new ExpressionStatement(new Assignment(
+                loc,                                            // location
+                new AmbiguousName(loc, new String[] { name }),  // lhs
+                "=",                                            // operator
+                new ArrayAccessExpression(                      // rhs
+                    loc,
+                    new AmbiguousName(loc, new String[] { arrayName }),
+                    new IntegerLiteral(loc, "0")
+                )
+            )));
+        }
+
+        FunctionDeclarator.FormalParameter result = null;
+        if (returnType != IClass.VOID) {
+            result = new FunctionDeclarator.FormalParameter(
+                loc,                                                   // location
+                true,                                                  // finaL
+                new SimpleType(loc, returnType.getArrayIClass(object)), // type
+                "split$return"                                         // name
+            );
+            parameters.add(result);
+            arguments.add(new AmbiguousName(loc, new String[] { "split$return" }));
+        }
+
+        for (Iterator it = statements.iterator(); it.hasNext();) {
+            Statement s = (Statement) it.next();
+            s.resetEnclosingScope();
+            body.add(s);
+        }
+
+        Type[] thrownExceptions = new Type[md.thrownExceptions.length];
+        for (int i = 0; i < thrownExceptions.length; ++i) {
+            thrownExceptions[i] = new SimpleType(loc, this.getType(md.thrownExceptions[i]));
+        }
+
+        MethodDeclarator split = new MethodDeclarator(
+            loc,                                                         // location
+            null,                                                        // optionalDocComment
+            new Java.ModifiersAndAnnotations((short) (                   // modifiersAndAnnotations
+                Mod.PRIVATE | (md.modifiersAndAnnotations.modifiers & Mod.STATIC)
+            )),
+            new BasicType(loc, BasicType.INT),                           // type
+            md.name + "$split" + this.splitMethods.size(),               // name
+            (FunctionDeclarator.FormalParameter[]) parameters.toArray(   // formalParameters
+                new FunctionDeclarator.FormalParameter[parameters.size()]
+            ),
+            thrownExceptions,                                            // thrownExceptions
+            body                                                         // optionalStatements
+        );
+        ((AbstractTypeDeclaration) md.getDeclaringType()).addDeclaredMethod(split);
+        this.splitMethods.put(split, new SplitMethod(
+            md,                                                                            // original
+            completesMethod,                                                               // completesOriginal
+            result,                                                                        // optionalResult
+            (FunctionDeclarator.FormalParameter[]) arrays.toArray(                         // arrays
+                new FunctionDeclarator.FormalParameter[arrays.size()]
+            ),
+            (VariableDeclarator[]) copies.toArray(new VariableDeclarator[copies.size()])  // copies
+        ));
+
+        // if (name$splitN(...) != 0) return split$return[0];
+        MethodInvocation invocation = new MethodInvocation(
+            loc,                                                             // location
+            null,                                                            // optionalTarget
+            split.name,                                                      // methodName
+            (Rvalue[]) arguments.toArray(new Rvalue[arguments.size()])       // arguments
+        );
+        ReturnStatement exit = new ReturnStatement(loc, result == null ? null : new ArrayAccessExpression(
+            loc,
+            new AmbiguousName(loc, new String[] { "split$return" }),
+            new IntegerLiteral(loc, "0")
+        ));
+        if (completesMethod) {
+            before.add(new ExpressionStatement(invocation));
+            before.add(exit);
+        } else {
+            before.add(new IfStatement(
+                loc,                                                                // location
+                new BinaryOperation(loc, invocation, "!=", new IntegerLiteral(loc, "0")), // condition
+                exit,                                                               // thenStatement
+                null                                                                // optionalElseStatement
+            ));
+            before.addAll(after);
+        }
+        if (before.size() == 1) return (BlockStatement) before.get(0);
+
+        Block b = new Block(loc);
+        b.addStatements(before);
+        return b;
+    }
+
+    /**
+     * @return A copy of the given declaration of blank variables, which initializes them with their default values
+     */
+    private LocalVariableDeclarationStatement
+    initialize(LocalVariableDeclarationStatement lvds) throws CompileException {
+        Location             loc = lvds.getLocation();
+        VariableDeclarator[] vds = new VariableDeclarator[lvds.variableDeclarators.length];
+        for (int i = 0; i < vds.length; ++i) {
+            VariableDeclarator vd   = lvds.variableDeclarators[i];
+            IClass             type = this.getLocalVariable(lvds, vd).type;
+
+            Rvalue value;
+            if (type == IClass.BOOLEAN) {
+                value = new BooleanLiteral(loc, "false");
+            } else
+            if (type == IClass.LONG) {
+                value = new IntegerLiteral(loc, "0L");
+            } else
+            if (type == IClass.FLOAT) {
+                value = new FloatingPointLiteral(loc, "0F");
+            } else
+            if (type == IClass.DOUBLE) {
+                value = new FloatingPointLiteral(loc, "0D");
+            } else
+            if (type.isPrimitive()) {
+                value = new IntegerLiteral(loc, "0");
+            } else
+            {
+                value = new NullLiteral(loc, "null");
+            }
+            vds[i] = new VariableDeclarator(vd.getLocation(), vd.name, vd.brackets, value);
+        }
+        return new LocalVariableDeclarationStatement(
+            loc,                                                        // location
+            lvds.modifiersAndAnnotations,                               // modifiersAndAnnotations
+            new SimpleType(loc, this.getType(lvds.type)),               // type
+            vds                                                         // variableDeclarators
+        );
+    }
+
+    /**
+     * Estimates the size of the code that the given statement compiles to, and collects the names that it mentions
+     * and assigns. The names are collected syntactically, so they may as well denote fields, types or variables of
+     * nested scopes; {@link #splitIfTooLarge(MethodDeclarator)} copes with that.
+     *
+     * @param reads  Receives the first identifier of each {@link AmbiguousName}
+     * @param writes Receives the simple names that are assigned, incremented or decremented
+     * @return       The estimated code size in bytes
+     */
+    private static int
+    scan(BlockStatement bs, final Set reads, final Set writes) {
+        final int[] nodes = new int[1];
+        bs.accept(new Traverser() {
+
+            @Override public void
+            traverseAmbiguousName(AmbiguousName an) {
+                reads.add(an.identifiers[0]);
+                super.traverseAmbiguousName(an);
+            }
+
+            @Override public void
+            traverseAssignment(Assignment a) {
+                UnitCompiler.addSimpleName(a.lhs, writes);
+                super.traverseAssignment(a);
+            }
+
+            @Override public void
+            traverseCrement(Crement c) {
+                UnitCompiler.addSimpleName(c.operand, writes);
+                super.traverseCrement(c);
+            }
+
+            @Override public void
+            traverseLocated(Located l) { ++nodes[0]; }
+        }.comprehensiveVisitor());
+
+        // Most AST nodes compile to one to three bytes of code.
+        return 3 * nodes[0];
+    }
+
+    private static void
+    addSimpleName(Atom a, Set names) {
+        while (a instanceof ParenthesizedExpression) a = ((ParenthesizedExpression) a).value;
+        if (a instanceof AmbiguousName && ((AmbiguousName) a).n == 1) names.add(((AmbiguousName) a).identifiers[0]);
+    }
     
     private boolean
     hasAnnotation(FunctionDeclarator fd, IClass methodAnnotation) throws CompileException {
@@ -920,6 +1449,7 @@ class UnitCompiler {
         this.writeOpcode(Located.NOWHERE, Opcode.ARETURN);
         this.replaceCodeContext(savedCodeContext);
         codeContext.flowAnalysis(override.getName());
+        this.computeStackMapTable(codeContext, mi);
 
         // Add the code context as a code attribute to the MethodInfo.
         mi.addAttribute(new ClassFile.AttributeInfo(cf.addConstantUtf8Info("Code")) {
@@ -1774,6 +2304,12 @@ class UnitCompiler {
             enclosingFunction = (FunctionDeclarator) s;
         }
 
+        SplitMethod sm = (SplitMethod) this.splitMethods.get(enclosingFunction);
+        if (sm != null) {
+            this.compileReturn(rs, enclosingFunction, sm);
+            return false;
+        }
+
         IClass returnType = this.getReturnType(enclosingFunction);
         if (returnType == IClass.VOID) {
             if (rs.optionalReturnValue != null) this.compileError("Method must not return a value", rs.getLocation());
@@ -1806,6 +2342,42 @@ class UnitCompiler {
         return false;
     }
 
+    /**
+     * Compiles a RETURN statement that {@link #splitIfTooLarge(MethodDeclarator)} has moved out of its method: Stores
+     * the return value in the result array and exits the synthetic method with 1.
+     */
+    private void
+    compileReturn(ReturnStatement rs, FunctionDeclarator splitMethod, SplitMethod sm) throws CompileException {
+        IClass returnType = this.getReturnType(sm.original);
+        if (returnType == IClass.VOID) {
+            if (rs.optionalReturnValue != null) this.compileError("Method must not return a value", rs.getLocation());
+        } else
+        if (rs.optionalReturnValue == null) {
+            this.compileError("Method must return a value", rs.getLocation());
+            return;
+        } else
+        {
+            this.load(rs, this.getLocalVariable(sm.optionalResult));
+            this.pushConstant(rs, new Integer(0));
+            IClass type = this.compileGetValue(rs.optionalReturnValue);
+            this.assignmentConversion(
+                rs,                                           // locatable
+                type,                                         // sourceType
+                returnType,                                   // targetType
+                this.getConstantValue(rs.optionalReturnValue) // optionalConstantValue
+            );
+            this.writeOpcode(rs, Opcode.IASTORE + UnitCompiler.ilfdabcs(returnType));
+        }
+
+        this.leaveStatements(
+            rs.getEnclosingScope(), // from
+            splitMethod,            // to
+            null                    // optionalStackValueType
+        );
+        this.pushConstant(rs, new Integer(1));
+        this.writeOpcode(rs, Opcode.IRETURN);
+    }
+
     private boolean
     compile2(SynchronizedStatement ss) throws CompileException {
 
@@ -1918,7 +2490,8 @@ class UnitCompiler {
                 this.writeBranch(ts, Opcode.GOTO, afterStatement);
             }
 
-            if (beginningOfBody.offset != afterBody.offset) { // Avoid zero-length exception table entries.
+            // Avoid zero-length exception table entries.
+            if (this.codeContext.size(beginningOfBody, afterBody) != 0) {
                 this.codeContext.saveLocalVariables();
                 try {
                     for (int i = 0; i < ts.catchClauses.size(); ++i) {
@@ -2179,10 +2752,16 @@ class UnitCompiler {
                     return;
                 }
                 if (this.compileStatements(fd.optionalStatements)) {
-                    if (this.getReturnType(fd) != IClass.VOID) {
-                        this.compileError("Method must return a value", fd.getLocation());
+                    SplitMethod sm = (SplitMethod) this.splitMethods.get(fd);
+                    if (sm != null) {
+                        this.compileNormalCompletion(fd, sm);
+                    } else
+                    {
+                        if (this.getReturnType(fd) != IClass.VOID) {
+                            this.compileError("Method must return a value", fd.getLocation());
+                        }
+                        this.writeOpcode(fd, Opcode.RETURN);
                     }
-                    this.writeOpcode(fd, Opcode.RETURN);
                 }
             } catch (RuntimeException ex) {
                 if (ex != UnitCompiler.STOP_COMPILING_CODE) throw ex;
@@ -2199,6 +2778,8 @@ class UnitCompiler {
         // Don't continue code attribute generation if we had compile errors.
         if (this.compileErrorCount > 0) return;
 
+        if (this.peepholeOptimization) codeContext.peepholeOptimize();
+
         // Fix up and reallocate as needed.
         codeContext.fixUpAndRelocate();
 
@@ -2214,6 +2795,9 @@ class UnitCompiler {
             codeContext.flowAnalysis(fd.toString());
         }
 
+        // Compute the "StackMapTable" attribute (JVMS7 4.7.4).
+        this.computeStackMapTable(codeContext, mi);
+
         final short lntani;
         if (this.debugLines) {
             lntani = classFile.addConstantUtf8Info("LineNumberTable");
@@ -2239,6 +2823,113 @@ class UnitCompiler {
         });
     }
 
+    /**
+     * Compiles the normal completion of a synthetic method that {@link #splitIfTooLarge(MethodDeclarator)} has created:
+     * Copies back the assigned local variables and exits with 0.
+     */
+    private void
+    compileNormalCompletion(FunctionDeclarator fd, SplitMethod sm) throws CompileException {
+        if (sm.completesOriginal) {
+            this.compileError("Method must return a value", sm.original.getLocation());
+            return;
+        }
+        for (int i = 0; i < sm.arrays.length; ++i) {
+            LocalVariable copy = sm.copies[i].localVariable;
+            this.load(fd, this.getLocalVariable(sm.arrays[i]));
+            this.pushConstant(fd, new Integer(0));
+            this.load(fd, copy);
+            this.writeOpcode(fd, Opcode.IASTORE + UnitCompiler.ilfdabcs(copy.type));
+        }
+        this.pushConstant(fd, new Integer(0));
+        this.writeOpcode(fd, Opcode.IRETURN);
+    }
+
+    /**
+     * Sets the version of a newly created class file according to the {@link #setTargetVersion(int) target version}.
+     */
+    private void
+    setClassFileVersion(ClassFile cf, IClass iClass) {
+        this.generatedIClasses.put(iClass.getDescriptor(), iClass);
+
+        switch (this.targetVersion) {
+
+        case -1:
+            break;
+
+        case 6:
+            cf.setVersion(ClassFile.MAJOR_VERSION_JDK_1_6, ClassFile.MINOR_VERSION_JDK_1_6);
+            break;
+
+        case 7:
+            cf.setVersion(ClassFile.MAJOR_VERSION_JDK_1_7, ClassFile.MINOR_VERSION_JDK_1_7);
+            break;
+
+        case 8:
+            cf.setVersion(ClassFile.MAJOR_VERSION_JDK_1_8, ClassFile.MINOR_VERSION_JDK_1_8);
+            break;
+
+        default:
+            throw new JaninoRuntimeException("SNO: Invalid target version " + this.targetVersion);
+        }
+    }
+
+    /**
+     * Class files of version 50 and higher carry a "StackMapTable" attribute in each "Code" attribute. If the code
+     * cannot be described with stack map frames, because it uses the JSR and RET instructions (which is the case for
+     * FINALLY clauses), then the class file version is lowered to 50, so that the JVM falls back to the
+     * type-inferencing verifier (JVMS7 4.10).
+     */
+    private void
+    computeStackMapTable(CodeContext codeContext, ClassFile.MethodInfo mi) {
+        ClassFile cf = mi.getClassFile();
+        if (cf.getMajorVersion() < ClassFile.MAJOR_VERSION_JDK_1_6) return;
+
+        if (!codeContext.computeStackMapTable(
+            cf.getConstantUtf8(mi.getNameIndex()),       // methodName
+            cf.getConstantUtf8(mi.getDescriptorIndex()), // methodDescriptor
+            (mi.getAccessFlags() & Mod.STATIC) != 0,     // isStatic
+            this.classHierarchy                          // classHierarchy
+        ) && cf.getMajorVersion() > ClassFile.MAJOR_VERSION_JDK_1_6) {
+            cf.setVersion(ClassFile.MAJOR_VERSION_JDK_1_6, ClassFile.MINOR_VERSION_JDK_1_6);
+        }
+    }
+
+    /**
+     * Resolves the types that {@link StackMapComputer} must merge: First the types declared in this compilation unit
+     * (including local and anonymous classes), then the types loaded through the {@link IClassLoader}.
+     */
+    private final StackMapComputer.ClassHierarchy classHierarchy = new StackMapComputer.ClassHierarchy() {
+
+        @Override public String
+        getSuperclassDescriptor(String fieldDescriptor) {
+            IClass iClass = this.findIClass(fieldDescriptor);
+            if (iClass == null) return null;
+            try {
+                IClass superclass = iClass.getSuperclass();
+                return superclass == null ? null : superclass.getDescriptor();
+            } catch (CompileException ce) {
+                return null;
+            }
+        }
+
+        @Override public boolean
+        isInterface(String fieldDescriptor) {
+            IClass iClass = this.findIClass(fieldDescriptor);
+            return iClass != null && iClass.isInterface();
+        }
+
+        private IClass
+        findIClass(String fieldDescriptor) {
+            IClass iClass = (IClass) UnitCompiler.this.generatedIClasses.get(fieldDescriptor);
+            if (iClass != null) return iClass;
+            try {
+                return UnitCompiler.this.iClassLoader.loadIClass(fieldDescriptor);
+            } catch (ClassNotFoundException cnfe) {
+                return null;
+            }
+        }
+    };
+
     /**
      * Make the variable name and class name Constant Pool names used by local variables.
      */
@@ -2295,6 +2986,30 @@ class UnitCompiler {
         }
     }
 
+    /**
+     * Determines the parameters and the local variables of the given function, without allocating any slots for
+     * them. Afterwards, the names in the function body can be {@link #reclassify(AmbiguousName) reclassified}, and the
+     * types of its expressions can be {@link #getType(Atom) determined}, without compiling the function.
+     */
+    void
+    buildLocalVariableMapWithoutSlots(FunctionDeclarator fd) throws CompileException {
+        Map localVars = new HashMap();
+        for (int i = 0; i < fd.formalParameters.length; ++i) {
+            FunctionDeclarator.FormalParameter fp = fd.formalParameters[i];
+            if (localVars.put(fp.name, this.getLocalVariable(fp)) != null) {
+                this.compileError("Redefinition of parameter \"" + fp.name + "\"", fd.getLocation());
+            }
+        }
+
+        fd.localVariables = localVars;
+        if (fd.optionalStatements != null) {
+            for (Iterator it = fd.optionalStatements.iterator(); it.hasNext();) {
+                BlockStatement bs = (BlockStatement) it.next();
+                localVars = this.buildLocalVariableMap(bs, localVars);
+            }
+        }
+    }
+
     private Map
     buildLocalVariableMap(BlockStatement bs, final Map localVars) throws CompileException {
         final Map[] resVars = new Map[] { localVars };
@@ -3737,6 +4452,9 @@ class UnitCompiler {
     compileGet2(MethodInvocation mi) throws CompileException {
         IClass.IMethod iMethod = this.findIMethod(mi);
 
+        MethodDeclarator inlinee = this.findInlinableMethod(mi, iMethod);
+        if (inlinee != null) return this.inline(mi, iMethod, inlinee);
+
         if (mi.optionalTarget == null) {
 
             // JLS2 6.5.7.1, 15.12.4.1.1.1
@@ -3865,6 +4583,119 @@ class UnitCompiler {
         return iMethod.getReturnType();
     }
 
+    /**
+     * @return The declaration of the method that {@code mi} invokes, iff {@link #setInlineThreshold(int) inlining} is
+     *         enabled and that method can be inlined at {@code mi}
+     */
+    private MethodDeclarator
+    findInlinableMethod(MethodInvocation mi, IClass.IMethod iMethod) throws CompileException {
+        if (this.inlineThreshold <= 0) return null;
+
+        // Only methods of the same class qualify, so that the inlined code has the same access rights.
+        Scope s;
+        for (s = mi.getEnclosingBlockStatement(); !(s instanceof TypeBodyDeclaration); s = s.getEnclosingScope());
+        TypeBodyDeclaration scopeTbd = (TypeBodyDeclaration) s;
+        TypeDeclaration     scopeTd  = scopeTbd.getDeclaringType();
+        if (!(scopeTd instanceof ClassDeclaration) || this.resolve(scopeTd) != iMethod.getDeclaringIClass()) {
+            return null;
+        }
+        MethodDeclarator md = null;
+        for (Iterator it = ((ClassDeclaration) scopeTd).getMethodDeclarations().iterator(); it.hasNext();) {
+            MethodDeclarator md2 = (MethodDeclarator) it.next();
+            if (md2.iMethod == iMethod) md = md2;
+        }
+        if (md == null || md == scopeTbd || this.inlinedMethods.contains(md)) return null;
+
+        // Only "private" and "static final" methods are bound statically.
+        short modifiers = md.modifiersAndAnnotations.modifiers;
+        if (
+            (modifiers & Mod.PRIVATE) == 0
+            && ((modifiers & Mod.STATIC) == 0 || (modifiers & Mod.FINAL) == 0)
+        ) return null;
+        if ((modifiers & Mod.SYNCHRONIZED) != 0) return null;
+
+        // The target must not need evaluation; the inlined code refers to "this" as the invoking code does.
+        if (iMethod.isStatic()) {
+            if (mi.optionalTarget != null && !this.isType(mi.optionalTarget)) return null;
+        } else {
+            if (mi.optionalTarget != null && !(mi.optionalTarget instanceof ThisReference)) return null;
+            if (scopeTbd.isStatic()) return null;
+        }
+
+        // The body must be a single "return" or expression statement.
+        List/*<BlockStatement>*/ statements = md.optionalStatements;
+        if (statements == null || statements.size() > 1) return null;
+        if (statements.isEmpty()) return md;
+        BlockStatement bs = (BlockStatement) statements.get(0);
+        if (!(bs instanceof ReturnStatement) && !(bs instanceof ExpressionStatement)) return null;
+
+        // Anonymous classes must not be compiled twice.
+        final boolean[] declaresClass = new boolean[1];
+        bs.accept(new Traverser() {
+
+            @Override public void
+            traverseNewAnonymousClassInstance(NewAnonymousClassInstance naci) { declaresClass[0] = true; }
+        }.comprehensiveVisitor());
+        if (declaresClass[0]) return null;
+
+        if (UnitCompiler.scan(bs, new HashSet(), new HashSet()) > this.inlineThreshold) return null;
+
+        return md;
+    }
+
+    /**
+     * Compiles the body of {@code md} in place of the invocation {@code mi}. The arguments are stored in new local
+     * variables, which serve as the parameters of the inlined code.
+     */
+    private IClass
+    inline(MethodInvocation mi, IClass.IMethod iMethod, MethodDeclarator md) throws CompileException {
+        if (md.localVariables == null) this.buildLocalVariableMapWithoutSlots(md);
+
+        // Evaluate the arguments.
+        IClass[] parameterTypes = iMethod.getParameterTypes();
+        for (int i = 0; i < mi.arguments.length; ++i) {
+            this.assignmentConversion(
+                mi,                                    // l
+                this.compileGetValue(mi.arguments[i]), // sourceType
+                parameterTypes[i],                     // targetType
+                this.getConstantValue(mi.arguments[i]) // optionalConstantValue
+            );
+        }
+
+        // Store them in new slots, which the parameters use while the body is compiled.
+        FunctionDeclarator.FormalParameter[] fps        = md.formalParameters;
+        Java.LocalVariableSlot[]             savedSlots = new Java.LocalVariableSlot[fps.length];
+        this.codeContext.saveLocalVariables();
+        this.inlinedMethods.add(md);
+        try {
+            for (int i = fps.length - 1; i >= 0; --i) {
+                LocalVariable lv = this.getLocalVariable(fps[i]);
+                savedSlots[i] = lv.slot;
+                lv.setSlot(this.codeContext.allocateLocalVariable(Descriptor.size(lv.type.getDescriptor()), null, null));
+                this.store(mi, lv.type, lv);
+            }
+
+            BlockStatement bs = md.optionalStatements.isEmpty() ? null : (BlockStatement) md.optionalStatements.get(0);
+            if (bs instanceof ExpressionStatement) {
+                this.compile(((ExpressionStatement) bs).rvalue);
+            } else
+            if (bs instanceof ReturnStatement && ((ReturnStatement) bs).optionalReturnValue != null) {
+                Rvalue rv = ((ReturnStatement) bs).optionalReturnValue;
+                this.assignmentConversion(
+                    bs,                         // l
+                    this.compileGetValue(rv),   // sourceType
+                    iMethod.getReturnType(),    // targetType
+                    this.getConstantValue(rv)   // optionalConstantValue
+                );
+            }
+        } finally {
+            for (int i = 0; i < fps.length; ++i) this.getLocalVariable(fps[i]).setSlot(savedSlots[i]);
+            this.inlinedMethods.remove(md);
+            this.codeContext.restoreLocalVariables();
+        }
+        return iMethod.getReturnType();
+    }
+
     private IClass
     compileGet2(SuperclassMethodInvocation scmi) throws CompileException {
         IClass.IMethod iMethod = this.findIMethod(scmi);
@@ -4285,9 +5116,15 @@ class UnitCompiler {
         return this.getConstantValue(this.toRvalueOrCompileException(this.reclassify(an)));
     }
 
-    @SuppressWarnings("static-method") private Object
+    private Object
     getConstantValue2(FieldAccess fa) throws CompileException {
-        return fa.field.getConstantValue();
+        Object result = fa.field.getConstantValue();
+
+        // The value will be inlined, so remember where it came from.
+        if (result != UnitCompiler.NOT_CONSTANT) {
+            this.referencedTypes.add(fa.field.getDeclaringIClass().getDescriptor());
+        }
+        return result;
     }
 
     private Object
@@ -4942,7 +5779,7 @@ class UnitCompiler {
 
     // ---------------- Atom.getType() ----------------
 
-    private IClass
+    IClass
     getType(Atom a) throws CompileException {
         final IClass[] res = new IClass[1];
         class UCE extends RuntimeException { final CompileException ce; UCE(CompileException ce) { this.ce = ce; } }
@@ -6518,7 +7355,7 @@ class UnitCompiler {
         return vd.optionalInitializer;
     }
 
-    private Atom
+    Atom
     reclassify(AmbiguousName an) throws CompileException {
         if (an.reclassified == null) {
             an.reclassified = this.reclassifyName(
@@ -7258,7 +8095,7 @@ class UnitCompiler {
      * @param iInvocables       Length must be greater than zero
      * @return                  The selected {@link IClass.IInvocable}
      */
-    private IClass.IInvocable
+    IClass.IInvocable
     findMostSpecificIInvocable(
         Locatable          locatable,
         final IInvocable[] iInvocables,
@@ -8516,7 +9353,7 @@ class UnitCompiler {
                 this.writeOpcode(locatable, Opcode.BIPUSH);
                 this.writeByte((byte) iv);
             } else
-            {
+            if (!this.spillConstant(locatable, new Integer(iv), IClass.INT)) {
                 this.writeLdc(locatable, this.addConstantIntegerInfo(iv));
             }
             return IClass.INT;
@@ -8531,7 +9368,7 @@ class UnitCompiler {
             if (lv == 1L) {
                 this.writeOpcode(locatable, Opcode.LCONST_1);
             } else
-            {
+            if (!this.spillConstant(locatable, value, IClass.LONG)) {
                 this.writeOpcode(locatable, Opcode.LDC2_W);
                 this.writeConstantLongInfo(lv);
             }
@@ -8548,7 +9385,7 @@ class UnitCompiler {
             ) {
                 this.writeOpcode(locatable, Opcode.FCONST_0 + (int) fv);
             } else
-            {
+            if (!this.spillConstant(locatable, value, IClass.FLOAT)) {
                 this.writeLdc(locatable, this.addConstantFloatInfo(fv));
             }
             return IClass.FLOAT;
@@ -8563,7 +9400,7 @@ class UnitCompiler {
             ) {
                 this.writeOpcode(locatable, Opcode.DCONST_0 + (int) dv);
             } else
-            {
+            if (!this.spillConstant(locatable, value, IClass.DOUBLE)) {
                 this.writeOpcode(locatable, Opcode.LDC2_W);
                 this.writeConstantDoubleInfo(dv);
             }
@@ -8573,9 +9410,12 @@ class UnitCompiler {
         if (value instanceof String) {
             String   s  = (String) value;
             String[] ss = UnitCompiler.makeUtf8Able(s);
-            this.writeLdc(locatable, this.addConstantStringInfo(ss[0]));
+            IClass   st = this.iClassLoader.JAVA_LANG_STRING;
+            if (!this.spillConstant(locatable, ss[0], st)) this.writeLdc(locatable, this.addConstantStringInfo(ss[0]));
             for (int i = 1; i < ss.length; ++i) {
-                this.writeLdc(locatable, this.addConstantStringInfo(ss[i]));
+                if (!this.spillConstant(locatable, ss[i], st)) {
+                    this.writeLdc(locatable, this.addConstantStringInfo(ss[i]));
+                }
                 this.writeOpcode(locatable, Opcode.INVOKEVIRTUAL);
                 this.writeConstantMethodrefInfo(
                     Descriptor.JAVA_LANG_STRING,                                // classFD
@@ -8604,6 +9444,164 @@ class UnitCompiler {
         throw new JaninoRuntimeException("Unknown literal '" + value + "'");
     }
 
+    /**
+     * If the constant pool of the current class file is nearly full, then pushes the given constant by loading it
+     * from an array in a synthetic "constant holder" class, which costs no constant pool entry per constant.
+     *
+     * @param value An {@link Integer}, {@link Long}, {@link Float}, {@link Double} or {@link String}
+     * @param type  The type of the {@code value}
+     * @return      Whether the constant was pushed
+     * @see #CONSTANT_POOL_SPILL_THRESHOLD
+     */
+    private boolean
+    spillConstant(Locatable locatable, Object value, IClass type) {
+        ClassFile cf = this.codeContext.getClassFile();
+        if (cf.getConstantPoolSize() < UnitCompiler.CONSTANT_POOL_SPILL_THRESHOLD) return false;
+
+        if (type == IClass.INT) {
+            int iv = ((Integer) value).intValue();
+            if (iv >= Short.MIN_VALUE && iv <= Short.MAX_VALUE) {
+                this.writeOpcode(locatable, Opcode.SIPUSH);
+                this.writeShort(iv);
+                return true;
+            }
+        }
+
+        // Re-use the holder slot of an equal constant, or allocate a new slot.
+        List/*<ConstantHolder>*/ holders = (List) this.constantHolders.get(cf);
+        if (holders == null) this.constantHolders.put(cf, (holders = new ArrayList()));
+        ConstantHolder holder = null;
+        Integer        index  = null;
+        for (Iterator it = holders.iterator(); index == null && it.hasNext();) {
+            holder = (ConstantHolder) it.next();
+            index  = (Integer) holder.indexes.get(value);
+        }
+        if (index == null) {
+            if (holder == null || holder.indexes.size() >= UnitCompiler.CONSTANT_HOLDER_SIZE) {
+                holder = new ConstantHolder(Descriptor.fromClassName(
+                    cf.getThisClassName() + "$$Constants" + holders.size()
+                ));
+                holders.add(holder);
+            }
+            List/*<Object>*/ values = (List) holder.values.get(type);
+            if (values == null) holder.values.put(type, (values = new ArrayList()));
+            index = new Integer(values.size());
+            values.add(value);
+            holder.indexes.put(value, index);
+        }
+
+        this.writeOpcode(locatable, Opcode.GETSTATIC);
+        this.writeConstantFieldrefInfo(
+            holder.descriptor,                          // classFd
+            UnitCompiler.constantHolderFieldName(type), // fieldName
+            "[" + type.getDescriptor()                  // fieldFd
+        );
+        this.writeOpcode(locatable, Opcode.SIPUSH);
+        this.writeShort(index.intValue());
+        this.writeOpcode(locatable, Opcode.IALOAD + UnitCompiler.ilfdabcs(type));
+        return true;
+    }
+
+    /**
+     * Generates the class files of the constant holders that were created while compiling the given class file.
+     *
+     * @see #spillConstant(Locatable, Object, IClass)
+     */
+    private void
+    compileConstantHolders(ClassFile cf) {
+        List/*<ConstantHolder>*/ holders = (List) this.constantHolders.remove(cf);
+        if (holders == null) return;
+
+        for (Iterator it = holders.iterator(); it.hasNext();) {
+            ConstantHolder holder = (ConstantHolder) it.next();
+
+            ClassFile hcf = new ClassFile(
+                (short) (Mod.FINAL | Mod.SUPER | Mod.SYNTHETIC), // accessFlags
+                holder.descriptor,                               // thisClassFD
+                Descriptor.JAVA_LANG_OBJECT,                     // superclassFD
+                new String[0]                                    // interfaceFDs
+            );
+            hcf.setVersion(cf.getMajorVersion(), cf.getMinorVersion());
+
+            // Generate the class initializer, which fills one array per constant type.
+            ClassFile.MethodInfo mi = hcf.addMethodInfo(
+                (short) (Mod.STATIC | Mod.SYNTHETIC), // accessFlags
+                "<clinit>",                           // methodName
+                "()V"                                 // methodMD
+            );
+            final CodeContext codeContext      = new CodeContext(hcf);
+            CodeContext       savedCodeContext = this.replaceCodeContext(codeContext);
+            for (Iterator it2 = holder.values.entrySet().iterator(); it2.hasNext();) {
+                Map.Entry        e         = (Map.Entry) it2.next();
+                IClass           type      = (IClass) e.getKey();
+                List/*<Object>*/ values    = (List) e.getValue();
+                String           fieldName = UnitCompiler.constantHolderFieldName(type);
+
+                hcf.addFieldInfo(
+                    (short) (Mod.STATIC | Mod.FINAL | Mod.SYNTHETIC), // accessFlags
+                    fieldName,                                        // fieldName
+                    "[" + type.getDescriptor(),                       // fieldTypeFD
+                    null                                              // optionalConstantValue
+                );
+                this.pushConstant(Located.NOWHERE, new Integer(values.size()));
+                this.newArray(Located.NOWHERE, 1, 0, type);
+                for (int i = 0; i < values.size(); ++i) {
+                    this.writeOpcode(Located.NOWHERE, Opcode.DUP);
+                    this.writeOpcode(Located.NOWHERE, Opcode.SIPUSH);
+                    this.writeShort(i);
+                    this.pushConstant(Located.NOWHERE, values.get(i));
+                    this.writeOpcode(Located.NOWHERE, Opcode.IASTORE + UnitCompiler.ilfdabcs(type));
+                }
+                this.writeOpcode(Located.NOWHERE, Opcode.PUTSTATIC);
+                this.writeConstantFieldrefInfo(holder.descriptor, fieldName, "[" + type.getDescriptor());
+            }
+            this.writeOpcode(Located.NOWHERE, Opcode.RETURN);
+            this.replaceCodeContext(savedCodeContext);
+            codeContext.flowAnalysis("<clinit>");
+            this.computeStackMapTable(codeContext, mi);
+
+            mi.addAttribute(new ClassFile.AttributeInfo(hcf.addConstantUtf8Info("Code")) {
+
+                @Override protected void
+                storeBody(DataOutputStream dos) throws IOException {
+                    codeContext.storeCodeAttributeBody(dos, (short) 0, (short) 0);
+                }
+            });
+
+            this.generatedClassFiles.add(hcf);
+        }
+    }
+
+    private static String
+    constantHolderFieldName(IClass type) {
+        return (
+            type == IClass.INT    ? "ints" :
+            type == IClass.LONG   ? "longs" :
+            type == IClass.FLOAT  ? "floats" :
+            type == IClass.DOUBLE ? "doubles" :
+            "strings"
+        );
+    }
+
+    /**
+     * A synthetic class with {@code static final} array fields that hold constants which did not fit into the constant
+     * pool of a class file.
+     */
+    private static
+    class ConstantHolder {
+
+        /** The field descriptor of the holder class. */
+        final String descriptor;
+
+        /** The index of each constant in the array for its type. */
+        final Map/*<Object, Integer>*/ indexes = new HashMap();
+
+        /** The constants, grouped by type, in array order. */
+        final Map/*<IClass, List<Object>>*/ values = new LinkedHashMap();
+
+        ConstantHolder(String descriptor) { this.descriptor = descriptor; }
+    }
+
     private static int
     hex2Int(Locatable locatable, String value) throws CompileException {
         int result = 0;
@@ -9211,10 +10209,10 @@ class UnitCompiler {
 
     private static final HashMap PRIMITIVE_NARROWING_CONVERSIONS = new HashMap();
     static { UnitCompiler.fillConversionMap(new Object[] {
-        new byte[0],
+        new byte[] { Opcode.I2C },
         Descriptor.BYTE + Descriptor.CHAR,
         Descriptor.SHORT + Descriptor.CHAR,
-        Descriptor.CHAR + Descriptor.SHORT,
+        Descriptor.INT + Descriptor.CHAR,
 
         new byte[] { Opcode.I2B },
         Descriptor.SHORT + Descriptor.BYTE,
@@ -9222,14 +10220,16 @@ class UnitCompiler {
         Descriptor.INT + Descriptor.BYTE,
 
         new byte[] { Opcode.I2S },
+        Descriptor.CHAR + Descriptor.SHORT,
         Descriptor.INT + Descriptor.SHORT,
-        Descriptor.INT + Descriptor.CHAR,
 
         new byte[] { Opcode.L2I, Opcode.I2B },
         Descriptor.LONG + Descriptor.BYTE,
 
         new byte[] { Opcode.L2I, Opcode.I2S },
         Descriptor.LONG + Descriptor.SHORT,
+
+        new byte[] { Opcode.L2I, Opcode.I2C },
         Descriptor.LONG + Descriptor.CHAR,
 
         new byte[] { Opcode.L2I },
@@ -9240,6 +10240,8 @@ class UnitCompiler {
 
         new byte[] { Opcode.F2I, Opcode.I2S },
         Descriptor.FLOAT + Descriptor.SHORT,
+
+        new byte[] { Opcode.F2I, Opcode.I2C },
         Descriptor.FLOAT + Descriptor.CHAR,
 
         new byte[] { Opcode.F2I },
@@ -9253,6 +10255,8 @@ class UnitCompiler {
 
         new byte[] { Opcode.D2I, Opcode.I2S },
         Descriptor.DOUBLE + Descriptor.SHORT,
+
+        new byte[] { Opcode.D2I, Opcode.I2C },
         Descriptor.DOUBLE + Descriptor.CHAR,
 
         new byte[] { Opcode.D2I },
@@ -9802,6 +10806,53 @@ class UnitCompiler {
         void handleError(String message, Location optionalLocation) throws CompileException;
     }
 
+    /**
+     * Sets the version of the generated class files. By default, Java 1.1 class files (version 45.3) are generated.
+     * Class files for Java 6 and later carry a "StackMapTable" attribute with each method's code, so that the JVM can
+     * verify them with the fast type-checking verifier.
+     *
+     * @param version -1 (the default) for Java 1.1 class files, or 6, 7 or 8
+     */
+    public void
+    setTargetVersion(int version) {
+        if (version != -1 && (version < 6 || version > 8)) {
+            throw new IllegalArgumentException("Invalid target version " + version);
+        }
+        this.targetVersion = version;
+    }
+
+    /**
+     * Sets whether methods that are too large for the 64 KB limit of the JVM are split. If enabled, runs of the
+     * top-level statements of a method whose code is estimated to be larger than 32 KB are moved into synthetic
+     * private methods. Like this, large generated methods compile, and the JIT can compile the pieces.
+     * <p>
+     * Off by default, because it changes the set of methods that the generated class files declare.
+     */
+    public void
+    setSplitLargeMethods(boolean value) { this.splitLargeMethods = value; }
+
+    /**
+     * Sets whether the generated code is peephole-optimized, see {@link CodeContext#peepholeOptimize()}. The
+     * optimized code is smaller, which helps the JIT's inlining heuristics, which are based on bytecode size.
+     * <p>
+     * Off by default.
+     */
+    public void
+    setPeepholeOptimization(boolean value) { this.peepholeOptimization = value; }
+
+    /**
+     * Sets the maximum estimated code size, in bytes, of the methods that are inlined where they are invoked. A method
+     * qualifies iff it is declared in the same class as the invocation, is {@code private} or {@code static final},
+     * and its body is a single {@code return} or expression statement. A method is never inlined into itself.
+     * <p>
+     * Inlining saves the invocations of tiny helper methods, which otherwise use up the JIT's inlining budget on deep
+     * call chains. The inlined methods are still generated, because they may be invoked through reflection.
+     * <p>
+     * 0, the default, disables inlining.
+     */
+    public void
+    setInlineThreshold(int value) { this.inlineThreshold = value; }
+
     /**
      * By default, {@link CompileException}s are thrown on compile errors, but an application my install its own
      * (thread-local) {@link ErrorHandler}.
@@ -10152,11 +11203,21 @@ class UnitCompiler {
 
     private final IClassLoader iClassLoader;
     private List               generatedClassFiles;
+    private final Set          referencedTypes = new HashSet(); // String fd
 
     private boolean debugSource;
     private boolean debugLines;
     private boolean debugVars;
 
+    private int                                      targetVersion     = -1;
+    private boolean                                  splitLargeMethods;
+    private boolean                                  peepholeOptimization;
+    private int                                      inlineThreshold;
+    private final Set/*<MethodDeclarator>*/          inlinedMethods    = new HashSet(); // Currently being inlined
+    private final Map/*<MethodDeclarator, SplitMethod>*/ splitMethods  = new HashMap();
+    private final Map/*<ClassFile, List<ConstantHolder>>*/ constantHolders = new HashMap();
+    private final Map/*<String descriptor, IClass>*/ generatedIClasses = new HashMap();
+
     private final Map/*<String staticMemberName, List <IField, IMethod, IClass>>*/ singleStaticImports = new HashMap();
 
     private final Collection staticImportsOnDemand = new ArrayList(); // IClass
@@ -38,9 +38,11 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.codehaus.janino.Descriptor;
 import org.codehaus.janino.JaninoRuntimeException;
@@ -448,6 +450,13 @@ class ClassFile {
         return mi;
     }
 
+    /**
+     * @return The number of entries in the constant pool, including the unused entry #0 and the unusable entries that
+     *         follow {@code CONSTANT_Long_info} and {@code CONSTANT_Double_info} entries
+     */
+    public int
+    getConstantPoolSize() { return this.constantPool.size(); }
+
     public ConstantPoolInfo
     getConstantPoolInfo(short index) { return (ConstantPoolInfo) this.constantPool.get(0xffff & index); }
 
@@ -462,6 +471,59 @@ class ClassFile {
         return cui.s;
     }
 
+    /**
+     * Returns the classes and interfaces that this class file refers to, i.e. those named by its {@code
+     * CONSTANT_Class_info} entries, and those that appear in the descriptors of its fields and methods, and of the
+     * fields and methods that it accesses.
+     *
+     * @return Field descriptors, e.g. <code>{ "Ljava/lang/Object;", "Lpkg/Outer$Inner;" }</code>
+     */
+    public Set/*<String fd>*/
+    getReferencedTypes() {
+        Set result = new HashSet();
+        for (int i = 0; i < this.constantPool.size(); ++i) {
+            ConstantPoolInfo cpi = (ConstantPoolInfo) this.constantPool.get(i);
+            if (cpi instanceof ConstantClassInfo) {
+                String name = this.getConstantClassName((short) i);
+                if (name.charAt(0) == '[') {
+                    ClassFile.addReferenceTypes(name, result);
+                } else {
+                    result.add('L' + name + ';');
+                }
+            } else
+            if (cpi instanceof ConstantNameAndTypeInfo) {
+                ClassFile.addReferenceTypes(
+                    this.getConstantUtf8(((ConstantNameAndTypeInfo) cpi).getDescriptorIndex()),
+                    result
+                );
+            }
+        }
+        for (Iterator it = this.fieldInfos.iterator(); it.hasNext();) {
+            ClassFile.addReferenceTypes(this.getConstantUtf8(((FieldInfo) it.next()).getDescriptorIndex()), result);
+        }
+        for (Iterator it = this.methodInfos.iterator(); it.hasNext();) {
+            ClassFile.addReferenceTypes(this.getConstantUtf8(((MethodInfo) it.next()).getDescriptorIndex()), result);
+        }
+        return result;
+    }
+
+    /**
+     * Adds the class types that appear in the given field or method descriptor to the {@code result}.
+     */
+    private static void
+    addReferenceTypes(String descriptor, Set result) {
+        for (int i = 0; i < descriptor.length();) {
+            if (descriptor.charAt(i) != 'L') {
+                ++i;
+                continue;
+            }
+            int j = descriptor.indexOf(';', i) + 1;
+            if (j == 0) break;
+            result.add(descriptor.substring(i, j));
+            i = j;
+        }
+    }
+
     /**
      * @param index Index to a <code>CONSTANT_Utf8_info</code> in the constant pool
      * @return The string represented by the structure
@@ -691,6 +753,12 @@ class ClassFile {
     public static final short MINOR_VERSION_JDK_1_4 = 0;
     public static final short MAJOR_VERSION_JDK_1_5 = 49;
     public static final short MINOR_VERSION_JDK_1_5 = 0;
+    public static final short MAJOR_VERSION_JDK_1_6 = 50;
+    public static final short MINOR_VERSION_JDK_1_6 = 0;
+    public static final short MAJOR_VERSION_JDK_1_7 = 51;
+    public static final short MINOR_VERSION_JDK_1_7 = 0;
+    public static final short MAJOR_VERSION_JDK_1_8 = 52;
+    public static final short MINOR_VERSION_JDK_1_8 = 0;
     // CHECKSTYLE JavadocVariable:ON
 
     private short        majorVersion;
@@ -1072,6 +1140,9 @@ class ClassFile {
             this.descriptorIndex = descriptorIndex;
         }
 
+        public short
+        getNameIndex() { return this.nameIndex; }
+
         public short
         getDescriptorIndex() { return this.descriptorIndex; }
 
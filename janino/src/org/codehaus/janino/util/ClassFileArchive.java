@@ -0,0 +1,201 @@
+
+/*
+ * Janino - An embedded Java[TM] compiler
+ *
+ * Copyright (c) 2001-2010, Arno Unkrig
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *       following disclaimer.
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *       following disclaimer in the documentation and/or other materials provided with the distribution.
+ *    3. The name of the author may not be used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.codehaus.janino.util;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stores class files in one file, each under its class name and a <i>key</i> that identifies the input that the class
+ * file was generated from (typically a digest of the source code and the compiler settings).
+ * <p>
+ * The file is append-only: {@link #put(String, byte[], byte[])} adds a record to its end, and a later record for the
+ * same class name supersedes all earlier ones. When the archive is opened, the file is scanned once to build an index
+ * by class name, and then memory-mapped; afterwards, {@link #get(String, byte[])} reads class files directly from the
+ * mapped memory. An incomplete record at the end of the file (e.g. after a crash) is discarded.
+ * <p>
+ * The archive is thread-safe, but must not be opened by more than one {@link ClassFileArchive} (or process) at a time.
+ * As superseded records are never removed, the file grows with every change of the stored classes; delete it from
+ * time to time to reclaim the space.
+ */
+@SuppressWarnings({ "rawtypes", "unchecked" }) public
+class ClassFileArchive {
+
+    private static final int MAGIC   = 0x4a434641; // "JCFA"
+    private static final int VERSION = 1;
+
+    private final RandomAccessFile raf;
+    private final Map              index = new HashMap(); // String className => Entry
+    private long                   size;
+    private MappedByteBuffer       buffer;
+
+    /**
+     * Opens the given archive file, or creates it if it does not exist.
+     */
+    public
+    ClassFileArchive(File file) throws IOException {
+        this.raf = new RandomAccessFile(file, "rw");
+        try {
+            if (this.raf.length() == 0) {
+                this.raf.writeInt(ClassFileArchive.MAGIC);
+                this.raf.writeInt(ClassFileArchive.VERSION);
+            } else
+            if (this.raf.length() < 8 || this.raf.readInt() != ClassFileArchive.MAGIC) {
+                throw new IOException("\"" + file + "\" is not a class file archive");
+            } else
+            if (this.raf.readInt() != ClassFileArchive.VERSION) {
+                throw new IOException("\"" + file + "\" has an unsupported class file archive version");
+            }
+            this.size = this.raf.length();
+            if (this.size > Integer.MAX_VALUE) throw new IOException("Class file archive too large");
+
+            // Build the index. Notice that the stream must not be closed, because that would close the file.
+            DataInputStream dis = new DataInputStream(new BufferedInputStream(
+                Channels.newInputStream(this.raf.getChannel().position(8))
+            ));
+            long end = 8;
+            try {
+                while (end < this.size) {
+                    byte[] className = new byte[dis.readUnsignedShort()];
+                    dis.readFully(className);
+                    byte[] key = new byte[dis.readUnsignedShort()];
+                    dis.readFully(key);
+                    int  length = dis.readInt();
+                    long offset = end + 2 + className.length + 2 + key.length + 4;
+                    if (length < 0 || offset + length > this.size) break;
+                    if (dis.skipBytes(length) != length) break;
+                    this.index.put(new String(className, "UTF-8"), new Entry(key, (int) offset, length));
+                    end = offset + length;
+                }
+            } catch (EOFException eofe) {
+                ;
+            }
+
+            // Truncate an incomplete last record. (Some platforms cannot truncate a file while it is mapped.)
+            if (end < this.size) {
+                this.size = end;
+                this.raf.setLength(this.size);
+            }
+            this.map();
+        } catch (IOException ioe) {
+            try { this.raf.close(); } catch (IOException ioe2) {}
+            throw ioe;
+        }
+    }
+
+    /**
+     * @return The class file most recently stored under the given class name, or {@code null} if there is no such
+     *         class file, or if it was stored under a different key
+     */
+    public synchronized byte[]
+    get(String className, byte[] key) throws IOException {
+        this.checkOpen();
+
+        Entry e = (Entry) this.index.get(className);
+        if (e == null || !Arrays.equals(e.key, key)) return null;
+
+        // Map the records that were appended since the file was last mapped.
+        if (e.offset + e.length > this.buffer.capacity()) this.map();
+
+        byte[]     result = new byte[e.length];
+        ByteBuffer bb     = this.buffer.duplicate();
+        bb.position(e.offset);
+        bb.get(result);
+        return result;
+    }
+
+    /**
+     * Appends a class file to the archive, unless it is already stored under the given class name and key.
+     */
+    public synchronized void
+    put(String className, byte[] key, byte[] classFile) throws IOException {
+        this.checkOpen();
+
+        {
+            Entry e = (Entry) this.index.get(className);
+            if (e != null && Arrays.equals(e.key, key)) return;
+        }
+
+        byte[] cn = className.getBytes("UTF-8");
+        if (cn.length > 0xffff || key.length > 0xffff) throw new IllegalArgumentException(className);
+
+        // Write the record with one operation, so that a crash can leave at most an incomplete last record.
+        ByteBuffer bb = ByteBuffer.allocate(2 + cn.length + 2 + key.length + 4 + classFile.length);
+        bb.putShort((short) cn.length).put(cn);
+        bb.putShort((short) key.length).put(key);
+        bb.putInt(classFile.length).put(classFile);
+        if (this.size + bb.capacity() > Integer.MAX_VALUE) throw new IOException("Class file archive is full");
+        this.raf.seek(this.size);
+        this.raf.write(bb.array());
+
+        this.index.put(className, new Entry(key, (int) this.size + bb.capacity() - classFile.length, classFile.length));
+        this.size += bb.capacity();
+    }
+
+    /**
+     * Closes the archive file. Notice that the mapped memory is not released before it is garbage-collected.
+     */
+    public synchronized void
+    close() throws IOException {
+        this.buffer = null;
+        this.raf.close();
+    }
+
+    private void
+    checkOpen() throws IOException {
+        if (this.buffer == null) throw new IOException("Class file archive is closed");
+    }
+
+    private void
+    map() throws IOException {
+        if (this.size > Integer.MAX_VALUE) throw new IOException("Class file archive too large");
+        this.buffer = this.raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, this.size);
+    }
+
+    private static
+    class Entry {
+        final byte[] key;
+        final int    offset;
+        final int    length;
+
+        Entry(byte[] key, int offset, int length) {
+            this.key    = key;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
@@ -41,7 +41,11 @@ class FileResourceCreator implements ResourceCreator {
         // Create directory for class file if it does not exist.
         File dir = file.getParentFile();
         if (dir != null && !dir.isDirectory()) {
-            if (!dir.mkdirs()) throw new IOException("Cannot create directory for class file \"" + file + "\"");
+            if (!dir.mkdirs() && !dir.isDirectory()) {
+
+                // Notice: "mkdirs()" also fails if another thread created the directory concurrently.
+                throw new IOException("Cannot create directory for class file \"" + file + "\"");
+            }
         }
 
         // Create the file.
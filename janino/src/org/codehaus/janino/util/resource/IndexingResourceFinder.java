@@ -0,0 +1,199 @@
+
+/*
+ * Janino - An embedded Java[TM] compiler
+ *
+ * Copyright (c) 2001-2010, Arno Unkrig
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *    1. Redistributions of source code must retain the above copyright notice, this list of conditions and the
+ *       following disclaimer.
+ *    2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *       following disclaimer in the documentation and/or other materials provided with the distribution.
+ *    3. The name of the author may not be used to endorse or promote products derived from this software without
+ *       specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL
+ * THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING,
+ * BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.codehaus.janino.util.resource;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ * A {@link org.codehaus.janino.util.resource.ResourceFinder} that finds its resources along a "path" consisting of JAR
+ * file names, ZIP file names, and directory names, like {@link PathResourceFinder}, but through an index by package
+ * (i.e. by the part of the resource name before the last slash).
+ * <p>
+ * The index is built lazily: The first lookup reads the directories of all JAR and ZIP files on the path, and the
+ * first lookup of a resource in a particular package lists the corresponding subdirectory of each directory on the
+ * path. After that, finding a resource in that package, or determining that it does not exist, costs one hash map
+ * lookup, no matter how many entries the path has.
+ * <p>
+ * Notice that the index is a snapshot: Files that are created in a directory on the path after its package was indexed
+ * are not found. Thus this class is suited for class paths, but not for paths that the application writes to.
+ */
+@SuppressWarnings({ "rawtypes", "unchecked" }) public
+class IndexingResourceFinder extends ResourceFinder {
+    private final File[] entries;
+    private List         roots;                    // File directory, or ZipRoot
+    private final Map    packages = new HashMap(); // String packageName => Map String resourceName => File or ZipRoot
+
+    /**
+     * @param entries The entries of the "path"
+     */
+    public
+    IndexingResourceFinder(File[] entries) { this.entries = entries; }
+
+    /**
+     * @param path A java-like path, i.e. a "path separator"-separated list of entries.
+     * @see        PathResourceFinder#parsePath(String)
+     */
+    public
+    IndexingResourceFinder(String path) { this(PathResourceFinder.parsePath(path)); }
+
+    /**
+     * Finds resources in any of the "*.jar" files that exist in the given directories, like {@link
+     * JarDirectoriesResourceFinder}.
+     */
+    public static IndexingResourceFinder
+    forJarDirectories(File[] directories) {
+        List jarFiles = new ArrayList(); // File
+        for (int i = 0; i < directories.length; ++i) {
+            File[] fa = directories[i].listFiles(new FilenameFilter() {
+                @Override public boolean accept(File dir, String name) { return name.endsWith(".jar"); }
+            });
+            if (fa != null) jarFiles.addAll(Arrays.asList(fa));
+        }
+        return new IndexingResourceFinder((File[]) jarFiles.toArray(new File[jarFiles.size()]));
+    }
+
+    @Override public String
+    toString() { return "index:" + Arrays.asList(this.entries); }
+
+    // Implement ResourceFinder.
+
+    @Override public synchronized Resource
+    findResource(String resourceName) {
+        int    idx         = resourceName.lastIndexOf('/');
+        String packageName = idx == -1 ? "" : resourceName.substring(0, idx);
+
+        Map resources = (Map) this.packages.get(packageName); // String resourceName => File or ZipRoot
+        if (resources == null) {
+            resources = this.indexPackage(packageName);
+            this.packages.put(packageName, resources);
+        }
+
+        Object o = resources.get(resourceName);
+        if (o == null) return null;
+        if (o instanceof File) return new FileResource((File) o);
+        return ((ZipRoot) o).finder.findResource(resourceName);
+    }
+
+    /**
+     * @return The resources in the given package, where an entry that is earlier on the path hides the same resource
+     *         in later entries
+     */
+    private Map
+    indexPackage(String packageName) {
+        if (this.roots == null) this.roots = this.createRoots();
+
+        Map result = new HashMap(); // String resourceName => File or ZipRoot
+        for (Iterator it = this.roots.iterator(); it.hasNext();) {
+            Object root = it.next();
+
+            if (root instanceof File) {
+                File[] files = (
+                    packageName.length() == 0
+                    ? (File) root
+                    : new File((File) root, packageName.replace('/', File.separatorChar))
+                ).listFiles();
+                if (files == null) continue;
+                for (int i = 0; i < files.length; ++i) {
+                    String resourceName = (
+                        packageName.length() == 0
+                        ? files[i].getName()
+                        : packageName + '/' + files[i].getName()
+                    );
+                    if (!result.containsKey(resourceName)) result.put(resourceName, files[i]);
+                }
+            } else
+            {
+                ZipRoot zr            = (ZipRoot) root;
+                List    resourceNames = (List) zr.packages.get(packageName);
+                if (resourceNames == null) continue;
+                for (Iterator it2 = resourceNames.iterator(); it2.hasNext();) {
+                    String resourceName = (String) it2.next();
+                    if (!result.containsKey(resourceName)) result.put(resourceName, zr);
+                }
+            }
+        }
+        return result.isEmpty() ? Collections.EMPTY_MAP : result;
+    }
+
+    /**
+     * Opens the JAR and ZIP files on the path and reads their directories. Entries that are neither an existing
+     * directory nor a readable JAR or ZIP file are ignored.
+     */
+    private List
+    createRoots() {
+        List result = new ArrayList(); // File directory, or ZipRoot
+        for (int i = 0; i < this.entries.length; ++i) {
+            File entry = this.entries[i];
+
+            // ZIP file or JAR file.
+            if (
+                (entry.getName().endsWith(".jar") || entry.getName().endsWith(".zip"))
+                && entry.isFile()
+            ) {
+                ZipFile zipFile;
+                try {
+                    zipFile = new ZipFile(entry);
+                } catch (IOException e) {
+                    continue;
+                }
+                result.add(new ZipRoot(zipFile));
+            } else
+
+            // Directory.
+            if (entry.isDirectory()) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * A ZIP file on the path, with its entries indexed by package.
+     */
+    private static
+    class ZipRoot {
+        final ResourceFinder finder;
+        final Map            packages = new HashMap(); // String packageName => List String resourceName
+
+        ZipRoot(ZipFile zipFile) {
+            this.finder = new ZipFileResourceFinder(zipFile);
+            for (Enumeration en = zipFile.entries(); en.hasMoreElements();) {
+                ZipEntry ze = (ZipEntry) en.nextElement();
+                if (ze.isDirectory()) continue;
+
+                String resourceName = ze.getName();
+                int    idx          = resourceName.lastIndexOf('/');
+                String packageName  = idx == -1 ? "" : resourceName.substring(0, idx);
+
+                List resourceNames = (List) this.packages.get(packageName);
+                if (resourceNames == null) this.packages.put(packageName, (resourceNames = new ArrayList()));
+                resourceNames.add(resourceName);
+            }
+        }
+    }
+}